@@ -0,0 +1,208 @@
+/*
+ *
+ * Copyright 2014 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.annotations.processing;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Writes an index of @ResourceController classes, and their public methods
+ * which have milton annotations, to META-INF/milton/controllers.idx
+ *
+ * AnnotationResourceFactory and HttpManagerBuilder use the index, when
+ * present, instead of scanning packages for controllers and reflecting over
+ * every controller method.
+ *
+ * The index is a tab separated text file with a line for each controller:
+ * <pre>
+ * C	com.mycompany.UsersController
+ * </pre>
+ * followed by a line for each annotated method:
+ * <pre>
+ * M	io.milton.annotations.ChildOf	findUser	com.mycompany.UsersHome,java.lang.String
+ * </pre>
+ * Class names are binary names, ie as for Class.forName, and arrays are
+ * given as the component type followed by [].
+ *
+ * When only some classes are compiled (eg an incremental build in an IDE),
+ * entries for controllers which were not compiled are kept from the
+ * existing index.
+ *
+ * @author brad
+ */
+@SupportedAnnotationTypes(ControllerIndexProcessor.RESOURCE_CONTROLLER)
+public class ControllerIndexProcessor extends AbstractProcessor {
+
+	public static final String INDEX_RESOURCE = "META-INF/milton/controllers.idx";
+	static final String RESOURCE_CONTROLLER = "io.milton.annotations.ResourceController";
+	private static final String ANNOTATIONS_PACKAGE = "io.milton.annotations.";
+
+	/**
+	 * Index lines for each controller, keyed on binary class name
+	 */
+	private final Map<String, List<String>> controllers = new TreeMap<>();
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		TypeElement rc = processingEnv.getElementUtils().getTypeElement(RESOURCE_CONTROLLER);
+		if (rc != null) {
+			for (Element e : roundEnv.getElementsAnnotatedWith(rc)) {
+				if (e.getKind() == ElementKind.CLASS) {
+					index((TypeElement) e);
+				}
+			}
+		}
+		if (roundEnv.processingOver() && !controllers.isEmpty()) {
+			writeIndex();
+		}
+		return false;
+	}
+
+	private void index(TypeElement type) {
+		Elements elements = processingEnv.getElementUtils();
+		List<String> lines = new ArrayList<>();
+		lines.add("C\t" + elements.getBinaryName(type));
+		for (ExecutableElement m : ElementFilter.methodsIn(elements.getAllMembers(type))) {
+			if (!m.getModifiers().contains(Modifier.PUBLIC)) {
+				continue;
+			}
+			for (AnnotationMirror am : m.getAnnotationMirrors()) {
+				TypeElement annoType = (TypeElement) am.getAnnotationType().asElement();
+				String annoName = elements.getBinaryName(annoType).toString();
+				if (annoName.startsWith(ANNOTATIONS_PACKAGE)) {
+					lines.add("M\t" + annoName + "\t" + m.getSimpleName() + "\t" + paramTypes(m));
+				}
+			}
+		}
+		controllers.put(elements.getBinaryName(type).toString(), lines);
+	}
+
+	private String paramTypes(ExecutableElement m) {
+		StringBuilder sb = new StringBuilder();
+		for (VariableElement p : m.getParameters()) {
+			if (sb.length() > 0) {
+				sb.append(',');
+			}
+			sb.append(typeName(processingEnv.getTypeUtils().erasure(p.asType())));
+		}
+		return sb.toString();
+	}
+
+	private String typeName(TypeMirror t) {
+		if (t.getKind() == TypeKind.ARRAY) {
+			return typeName(((ArrayType) t).getComponentType()) + "[]";
+		} else if (t.getKind() == TypeKind.DECLARED) {
+			return processingEnv.getElementUtils().getBinaryName((TypeElement) ((DeclaredType) t).asElement()).toString();
+		} else {
+			return t.toString(); // primitive
+		}
+	}
+
+	private void writeIndex() {
+		Map<String, List<String>> all = new TreeMap<>();
+		readExisting(all);
+		all.putAll(controllers);
+		try {
+			FileObject fo = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", INDEX_RESOURCE);
+			try (Writer w = fo.openWriter()) {
+				w.write("# Generated by " + getClass().getName() + "\n");
+				for (List<String> lines : all.values()) {
+					for (String line : lines) {
+						w.write(line);
+						w.write('\n');
+					}
+				}
+			}
+		} catch (IOException e) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "Could not write milton controller index: " + e);
+		}
+	}
+
+	/**
+	 * Keep entries from a previous build for controllers which still exist but
+	 * were not compiled this time
+	 */
+	private void readExisting(Map<String, List<String>> all) {
+		Elements elements = processingEnv.getElementUtils();
+		try {
+			FileObject fo = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", INDEX_RESOURCE);
+			try (Reader r = fo.openReader(true); BufferedReader br = new BufferedReader(r)) {
+				List<String> current = null;
+				String line;
+				while ((line = br.readLine()) != null) {
+					if (line.startsWith("C\t")) {
+						String className = line.substring(2);
+						current = null;
+						if (!controllers.containsKey(className)) {
+							TypeElement type = elements.getTypeElement(className.replace('$', '.'));
+							if (type != null && isController(type)) {
+								current = new ArrayList<>();
+								all.put(className, current);
+							}
+						}
+					}
+					if (current != null) {
+						current.add(line);
+					}
+				}
+			}
+		} catch (IOException | IllegalArgumentException e) {
+			// no existing index, which is normal for a full build
+		}
+	}
+
+	private boolean isController(TypeElement type) {
+		for (AnnotationMirror am : type.getAnnotationMirrors()) {
+			if (((TypeElement) am.getAnnotationType().asElement()).getQualifiedName().contentEquals(RESOURCE_CONTROLLER)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2013 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.annotations.processing;
+
+import io.milton.annotations.ResourceController;
+import java.io.File;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author brad
+ */
+public class ControllerIndexProcessorTest extends TestCase {
+
+	private static final String SOURCE = "package com.example;\n"
+			+ "import io.milton.annotations.*;\n"
+			+ "import java.util.List;\n"
+			+ "@ResourceController\n"
+			+ "public class UsersController {\n"
+			+ "  @Root public UsersController getRoot() { return this; }\n"
+			+ "  @ChildrenOf public List<String> getUsers(UsersController root) { return null; }\n"
+			+ "  @Get public byte[] render(String user, int[] sizes) { return null; }\n"
+			+ "  public void notAnnotated(String s) { }\n"
+			+ "  @ChildOf void notPublic(String s) { }\n"
+			+ "}\n";
+
+	private File outDir;
+
+	@Override
+	protected void setUp() throws Exception {
+		outDir = Files.createTempDirectory("milton-idx").toFile();
+	}
+
+	public void testIndex() throws Exception {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler == null) {
+			return; // running on a JRE
+		}
+		JavaFileObject src = new SimpleJavaFileObject(URI.create("string:///com/example/UsersController.java"), JavaFileObject.Kind.SOURCE) {
+			@Override
+			public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+				return SOURCE;
+			}
+		};
+		// java.class.path might only be the surefire booter, so locate milton-api directly
+		File api = new File(ResourceController.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+		List<String> options = Arrays.asList("-d", outDir.getAbsolutePath(), "-classpath", api.getAbsolutePath());
+		JavaCompiler.CompilationTask task = compiler.getTask(null, null, null, options, null, Arrays.asList(src));
+		task.setProcessors(Arrays.asList(new ControllerIndexProcessor()));
+		assertTrue(task.call());
+
+		File idx = new File(outDir, ControllerIndexProcessor.INDEX_RESOURCE);
+		assertTrue(idx.exists());
+		List<String> lines = Files.readAllLines(idx.toPath(), StandardCharsets.UTF_8);
+		assertTrue(lines.contains("C\tcom.example.UsersController"));
+		assertTrue(lines.contains("M\tio.milton.annotations.Root\tgetRoot\t"));
+		assertTrue(lines.contains("M\tio.milton.annotations.ChildrenOf\tgetUsers\tcom.example.UsersController"));
+		assertTrue(lines.contains("M\tio.milton.annotations.Get\trender\tjava.lang.String,int[]"));
+		for (String line : lines) {
+			assertFalse(line.contains("notAnnotated"));
+			assertFalse(line.contains("notPublic"));
+		}
+	}
+}
@@ -62,4 +62,14 @@ public @interface ChildOf {
      * @return 
      */
     String pathSuffix() default ""; 
+
+    /**
+     * If true, a null result from this method means there is definitely no
+     * child with the given name, so milton will not load the full list of
+     * children (from ChildrenOf methods) to look for it. Only set this if
+     * the method can locate every child of the parent which it applies to
+     * 
+     * @return 
+     */
+    boolean authoritative() default false;
 }
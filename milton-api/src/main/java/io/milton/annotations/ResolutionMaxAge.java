@@ -0,0 +1,50 @@
+/*
+ *
+ * Copyright 2014 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Allows the ChildOf method which located an object to be remembered, by path,
+ * for the given number of seconds, so that later requests for the same path
+ * call that method directly rather than trying each ChildOf method, or loading
+ * all children, in turn. Only has an effect if the AnnotationResourceFactory
+ * has a ResourceResolutionCache.
+ *
+ * May be placed on a controller class, in which case it applies to all of its
+ * ChildOf methods, or on individual methods.
+ *
+ * The method is still called on every request, so it can perform its own
+ * authorisation and existence checks. The located objects are never reused
+ * across requests. But don't use this where another ChildOf method, tried
+ * first, could also locate an object with the same name
+ *
+ * @author brad
+ */
+@Target({ElementType.TYPE, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ResolutionMaxAge {
+
+    /**
+     *
+     * @return - number of seconds the locating method is remembered for
+     */
+    int value();
+}
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.milton.event;
+
+import io.milton.common.Stoppable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers events to listeners on a background thread, so that slow listeners
+ * do not add latency to the request which fired the event.
+ *
+ * Events are placed on a bounded queue and drained in batches by a single
+ * daemon thread. When the queue is full the OverflowPolicy decides whether the
+ * event is dropped (and counted) or the firing thread waits for space.
+ *
+ * Only use this for events where the firing code does not look at the event
+ * after listeners have run, eg ResponseEvent. Note that by the time an async
+ * listener sees an event the request and response objects it refers to may
+ * already have been recycled by the container.
+ *
+ * @author brad
+ */
+public class AsyncEventDispatcher implements Stoppable {
+
+	private static final Logger log = LoggerFactory.getLogger(AsyncEventDispatcher.class);
+
+	public enum OverflowPolicy {
+		/**
+		 * Discard the event if the queue is full
+		 */
+		DROP,
+		/**
+		 * Wait for space on the queue
+		 */
+		BLOCK
+	}
+
+	private final BlockingQueue<Event> queue;
+	private final int batchSize;
+	private final OverflowPolicy overflowPolicy;
+	private final AtomicLong droppedCount = new AtomicLong();
+	private EventListener sink;
+	private Thread worker;
+	private volatile boolean running;
+
+	public AsyncEventDispatcher(int queueCapacity, int batchSize, OverflowPolicy overflowPolicy) {
+		this.queue = new ArrayBlockingQueue<>(queueCapacity);
+		this.batchSize = batchSize;
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	public AsyncEventDispatcher() {
+		this(10000, 100, OverflowPolicy.DROP);
+	}
+
+	/**
+	 * Start the worker thread, which will pass each event to the given sink
+	 *
+	 * @param sink
+	 */
+	public synchronized void start(EventListener sink) {
+		if (running) {
+			return;
+		}
+		this.sink = sink;
+		running = true;
+		worker = new Thread(this::run, "milton-async-events");
+		worker.setDaemon(true);
+		worker.start();
+		log.info("Started async event delivery: batchSize={} overflowPolicy={}", batchSize, overflowPolicy);
+	}
+
+	/**
+	 * Stop the worker thread. Any events already queued are delivered first
+	 */
+	@Override
+	public synchronized void stop() {
+		if (!running) {
+			return;
+		}
+		running = false;
+		worker.interrupt();
+		try {
+			worker.join(5000);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		worker = null;
+	}
+
+	/**
+	 * Queue the event for delivery
+	 *
+	 * @param e
+	 * @return - false if the event was dropped
+	 */
+	public boolean submit(Event e) {
+		if (overflowPolicy == OverflowPolicy.BLOCK) {
+			try {
+				queue.put(e);
+				return true;
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		} else if (queue.offer(e)) {
+			return true;
+		}
+		long dropped = droppedCount.incrementAndGet();
+		if (dropped % 1000 == 1) {
+			log.warn("Async event queue is full, dropped {} events so far", dropped);
+		}
+		return false;
+	}
+
+	private void run() {
+		List<Event> batch = new ArrayList<>(batchSize);
+		while (running || !queue.isEmpty()) {
+			try {
+				Event first = queue.poll(1, TimeUnit.SECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+			} catch (InterruptedException ex) {
+				// stop() was called, drain whatever is left
+				if (queue.isEmpty()) {
+					break;
+				}
+				continue;
+			}
+			queue.drainTo(batch, batchSize - 1);
+			for (Event e : batch) {
+				try {
+					sink.onEvent(e);
+				} catch (Throwable ex) {
+					log.error("Exception in async event listener for event: " + e.getClass(), ex);
+				}
+			}
+			batch.clear();
+		}
+		log.info("Async event delivery stopped");
+	}
+
+	/**
+	 *
+	 * @return - number of events discarded because the queue was full
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	public int getQueueSize() {
+		return queue.size();
+	}
+
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+}
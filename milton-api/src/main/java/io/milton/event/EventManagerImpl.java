@@ -18,34 +18,95 @@
  */
 package io.milton.event;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Dispatches events to listeners registered for the event class or any of
+ * its super types.
+ *
+ * The listeners applicable to each concrete event class are resolved once and
+ * held in a dispatch table, which is discarded whenever a listener is
+ * registered.
+ *
+ * Optionally, events of the classes given in asyncEventClasses can be
+ * delivered by an AsyncEventDispatcher instead of on the calling thread. By
+ * default only ResponseEvent is async (once a dispatcher is set), because
+ * other events, eg AccessedEvent, can be modified by listeners to affect the
+ * response.
  *
  * @author brad
  */
 public class EventManagerImpl implements EventManager {
 
     private final static Logger log = LoggerFactory.getLogger(EventManagerImpl.class);
+    private static final Registration[] NO_REGISTRATIONS = new Registration[0];
     private final List<Registration> registrations = new CopyOnWriteArrayList<Registration>();
+    // Replaced, not cleared, on registration so a concurrent lookup cannot repopulate it with stale entries
+    private volatile Map<Class, Registration[]> dispatchTable = new ConcurrentHashMap<Class, Registration[]>();
+    private volatile Map<Class, Boolean> asyncTable = new ConcurrentHashMap<Class, Boolean>();
+    private volatile List<Class<? extends Event>> asyncEventClasses = Collections.<Class<? extends Event>>singletonList(ResponseEvent.class);
+    private volatile AsyncEventDispatcher asyncEventDispatcher;
 
     @Override
     public void fireEvent(Event e) {
         log.trace("fireEvent: {}", e.getClass());
-        for (Registration r : registrations) {
-            if (r.clazz.isAssignableFrom(e.getClass())) {
-                long tm = System.currentTimeMillis();
-                r.listener.onEvent(e);
-                
-                if (log.isTraceEnabled()) {
-                    log.trace("  fired on: {} completed in {}ms", r.listener.getClass(), (System.currentTimeMillis() - tm));
+        AsyncEventDispatcher d = asyncEventDispatcher;
+        if (d != null && isAsync(e.getClass())) {
+            d.submit(e);
+            return;
+        }
+        dispatch(e);
+    }
+
+    private void dispatch(Event e) {
+        for (Registration r : findRegistrations(e.getClass())) {
+            long tm = System.currentTimeMillis();
+            r.listener.onEvent(e);
+
+            if (log.isTraceEnabled()) {
+                log.trace("  fired on: {} completed in {}ms", r.listener.getClass(), (System.currentTimeMillis() - tm));
+            }
+        }
+    }
+
+    private Registration[] findRegistrations(Class eventClass) {
+        Map<Class, Registration[]> table = dispatchTable;
+        Registration[] arr = table.get(eventClass);
+        if (arr == null) {
+            List<Registration> list = new ArrayList<Registration>();
+            for (Registration r : registrations) {
+                if (r.clazz.isAssignableFrom(eventClass)) {
+                    list.add(r);
+                }
+            }
+            arr = list.isEmpty() ? NO_REGISTRATIONS : list.toArray(new Registration[list.size()]);
+            table.put(eventClass, arr);
+        }
+        return arr;
+    }
+
+    private boolean isAsync(Class eventClass) {
+        Map<Class, Boolean> table = asyncTable;
+        Boolean b = table.get(eventClass);
+        if (b == null) {
+            b = Boolean.FALSE;
+            for (Class<? extends Event> c : asyncEventClasses) {
+                if (c.isAssignableFrom(eventClass)) {
+                    b = Boolean.TRUE;
+                    break;
                 }
             }
+            table.put(eventClass, b);
         }
+        return b;
     }
 
     @Override
@@ -53,6 +114,52 @@ public class EventManagerImpl implements EventManager {
         log.info("registerEventListener: " + l.getClass().getCanonicalName() + " - " + c.getCanonicalName());
         Registration r = new Registration(l, c);
         registrations.add(r);
+        dispatchTable = new ConcurrentHashMap<Class, Registration[]>();
+    }
+
+    /**
+     * If set, events of the classes in asyncEventClasses are queued on this
+     * dispatcher and delivered in the background. The dispatcher is started
+     * when set, and the previous one (if any) is stopped
+     *
+     * @param asyncEventDispatcher
+     */
+    public synchronized void setAsyncEventDispatcher(AsyncEventDispatcher asyncEventDispatcher) {
+        if (this.asyncEventDispatcher != null) {
+            this.asyncEventDispatcher.stop();
+        }
+        this.asyncEventDispatcher = asyncEventDispatcher;
+        if (asyncEventDispatcher != null) {
+            asyncEventDispatcher.start(new EventListener() {
+                @Override
+                public void onEvent(Event e) {
+                    dispatch(e);
+                }
+            });
+        }
+    }
+
+    public AsyncEventDispatcher getAsyncEventDispatcher() {
+        return asyncEventDispatcher;
+    }
+
+    /**
+     * Event classes (including subclasses) which should be delivered
+     * asynchronously when an AsyncEventDispatcher is set. Default is
+     * ResponseEvent only
+     *
+     * Do not include events which listeners modify to change processing, such
+     * as AccessedEvent when used for redirects
+     *
+     * @param asyncEventClasses
+     */
+    public synchronized void setAsyncEventClasses(List<Class<? extends Event>> asyncEventClasses) {
+        this.asyncEventClasses = new ArrayList<Class<? extends Event>>(asyncEventClasses);
+        asyncTable = new ConcurrentHashMap<Class, Boolean>();
+    }
+
+    public List<Class<? extends Event>> getAsyncEventClasses() {
+        return Collections.unmodifiableList(asyncEventClasses);
     }
 
     private class Registration {
@@ -24,6 +24,7 @@ import io.milton.resource.SchedulingResponseItem;
 
 import java.util.AbstractMap;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -51,6 +52,27 @@ public interface CalendarSearchService {
 
     List<ICalResource> findCalendarResources(CalendarResource calendar, Date start, Date finish, AbstractMap.SimpleImmutableEntry<String, String> propFilter) throws NotAuthorizedException, BadRequestException;
 
+    /**
+     * As for findCalendarResources, but matching resources only need to be
+     * found as the iterator advances, so a calendar-query with a limit can
+     * stop without checking the whole calendar. Implementations which can
+     * should return resources ordered by start date.
+     *
+     * The default implementation iterates over the result of
+     * findCalendarResources
+     *
+     * @param calendar
+     * @param start - may be null
+     * @param finish - may be null
+     * @param propFilter - may be null
+     * @return
+     * @throws NotAuthorizedException
+     * @throws BadRequestException
+     */
+    default Iterator<ICalResource> iterateCalendarResources(CalendarResource calendar, Date start, Date finish, AbstractMap.SimpleImmutableEntry<String, String> propFilter) throws NotAuthorizedException, BadRequestException {
+        return findCalendarResources(calendar, start, finish, propFilter).iterator();
+    }
+
     /**
      * Return a list of events which represent invitations for the given user
      *
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2013 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.event;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author brad
+ */
+public class EventManagerImplTest extends TestCase {
+
+    public EventManagerImplTest(String testName) {
+        super(testName);
+    }
+
+    public void testFireEvent_MatchesSuperTypes() {
+        EventManagerImpl em = new EventManagerImpl();
+        RecordingListener resourceListener = new RecordingListener();
+        RecordingListener getListener = new RecordingListener();
+        em.registerEventListener(resourceListener, ResourceEvent.class);
+        em.registerEventListener(getListener, GetEvent.class);
+
+        em.fireEvent(new GetEvent(null));
+        em.fireEvent(new PutEvent(null));
+        assertEquals(2, resourceListener.events.size());
+        assertEquals(1, getListener.events.size());
+    }
+
+    public void testFireEvent_RegistrationAfterFire() {
+        EventManagerImpl em = new EventManagerImpl();
+        em.fireEvent(new GetEvent(null)); // populates dispatch table with no listeners
+
+        RecordingListener l = new RecordingListener();
+        em.registerEventListener(l, GetEvent.class);
+        em.fireEvent(new GetEvent(null));
+        assertEquals(1, l.events.size());
+    }
+
+    public void testFireEvent_Async() throws InterruptedException {
+        EventManagerImpl em = new EventManagerImpl();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+        em.registerEventListener(new EventListener() {
+            @Override
+            public void onEvent(Event e) {
+                threads.add(Thread.currentThread());
+                latch.countDown();
+            }
+        }, ResponseEvent.class);
+        AsyncEventDispatcher d = new AsyncEventDispatcher(10, 5, AsyncEventDispatcher.OverflowPolicy.DROP);
+        em.setAsyncEventDispatcher(d);
+        try {
+            em.fireEvent(new ResponseEvent(null, null, 1));
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            assertNotSame(Thread.currentThread(), threads.get(0));
+        } finally {
+            d.stop();
+        }
+    }
+
+    private static class RecordingListener implements EventListener {
+
+        private final List<Event> events = new CopyOnWriteArrayList<Event>();
+
+        @Override
+        public void onEvent(Event e) {
+            events.add(e);
+        }
+    }
+}
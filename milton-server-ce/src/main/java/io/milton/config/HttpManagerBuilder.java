@@ -24,6 +24,7 @@ import io.milton.cache.LocalCacheManager;
 import io.milton.common.FileUtils;
 import io.milton.common.Stoppable;
 import io.milton.context.RootContext;
+import io.milton.event.AsyncEventDispatcher;
 import io.milton.event.EventManager;
 import io.milton.event.EventManagerImpl;
 import io.milton.http.AuthenticationHandler;
@@ -44,6 +45,8 @@ import io.milton.http.StandardFilter;
 import io.milton.http.UrlAdapter;
 import io.milton.http.UrlAdapterImpl;
 import io.milton.http.annotated.AnnotationResourceFactory;
+import io.milton.http.annotated.ControllerIndex;
+import io.milton.http.annotated.ResourceResolutionCache;
 import io.milton.http.entity.DefaultEntityTransport;
 import io.milton.http.entity.EntityTransport;
 import io.milton.http.fck.FckResourceFactory;
@@ -65,6 +68,7 @@ import io.milton.http.http11.PartialGetHelper;
 import io.milton.http.http11.SimpleContentGenerator;
 import io.milton.http.http11.auth.BasicAuthHandler;
 import io.milton.http.http11.auth.CookieAuthenticationHandler;
+import io.milton.http.http11.auth.CookiePrincipalCache;
 import io.milton.http.http11.auth.DigestAuthenticationHandler;
 import io.milton.http.http11.auth.ExpiredNonceRemover;
 import io.milton.http.http11.auth.FormAuthenticationHandler;
@@ -77,6 +81,10 @@ import io.milton.http.http11.auth.SimpleMemoryNonceProvider;
 import io.milton.http.json.JsonPropFindHandler;
 import io.milton.http.json.JsonPropPatchHandler;
 import io.milton.http.json.JsonResourceFactory;
+import io.milton.http.metrics.MetricsReporter;
+import io.milton.http.metrics.MetricsReportingService;
+import io.milton.http.metrics.RequestMetrics;
+import io.milton.http.metrics.RequestMetricsMBean;
 import io.milton.http.quota.DefaultQuotaDataAccessor;
 import io.milton.http.quota.QuotaDataAccessor;
 import io.milton.http.values.ValueWriters;
@@ -250,7 +258,22 @@ public class HttpManagerBuilder {
 	private List<String> cookieSigningKeys;
 	private String cookieSigningKeysFile;
 	private boolean useLongLivedCookies = true;
+	private boolean enableCookiePrincipalCache = false;
+	private int cookiePrincipalCacheMaxSize = 1000;
+	private int cookiePrincipalCacheTtlSeconds = 60;
+	private boolean enableAsyncEvents = false;
+	private AsyncEventDispatcher asyncEventDispatcher;
+	private int requestInfoSampleRate = 0;
+	private boolean enableRequestMetrics = false;
+	private RequestMetrics requestMetrics;
+	private boolean enableRequestMetricsJmx = true;
+	private List<MetricsReporter> metricsReporters;
+	private int metricsReportingPeriodSeconds = 60;
 	private boolean enableQuota = false;
+	private boolean enableResolutionCache = false;
+	private int resolutionCacheMaxSize = 10000;
+	private int resolutionCacheDefaultMaxAgeSeconds = 0;
+	private boolean enableControllerIndex = true;
 
 	private OAuth2AuthenticationHandler oAuth2Handler;
 
@@ -398,6 +421,9 @@ public class HttpManagerBuilder {
 						initCookieSigningKeys();
 						cookieAuthenticationHandler = new CookieAuthenticationHandler(nonceProvider, cookieDelegateHandlers, mainResourceFactory, cookieSigningKeys, requestHostService);
 						cookieAuthenticationHandler.setUseLongLivedCookies(useLongLivedCookies);
+						if (enableCookiePrincipalCache) {
+							cookieAuthenticationHandler.setPrincipalCache(new CookiePrincipalCache(cookiePrincipalCacheMaxSize, cookiePrincipalCacheTtlSeconds));
+						}
 						authenticationHandlers.add(cookieAuthenticationHandler);
 					}
 				}
@@ -546,12 +572,41 @@ public class HttpManagerBuilder {
 			entityTransport = new DefaultEntityTransport(userAgentHelper());
 		}
 		HttpManager httpManager = new HttpManager(outerResourceFactory, outerWebdavResponseHandler, protocolHandlers, entityTransport, filters, eventManager, shutdownHandlers);
+		httpManager.setRequestInfoSampleRate(requestInfoSampleRate);
+		if (enableRequestMetrics) {
+			if (requestMetrics == null) {
+				requestMetrics = new RequestMetrics();
+			}
+			httpManager.setRequestMetrics(requestMetrics);
+			if (enableRequestMetricsJmx) {
+				RequestMetricsMBean mbean = new RequestMetricsMBean(requestMetrics);
+				mbean.register(RequestMetricsMBean.DEFAULT_OBJECT_NAME);
+				shutdownHandlers.add(mbean);
+			}
+			if (metricsReporters != null && !metricsReporters.isEmpty()) {
+				MetricsReportingService reportingService = new MetricsReportingService(requestMetrics, metricsReporters, metricsReportingPeriodSeconds);
+				reportingService.start();
+				shutdownHandlers.add(reportingService);
+			}
+		}
 		if (listeners != null) {
 			for (InitListener l : listeners) {
 				l.afterBuild(this, httpManager);
 			}
 		}
 
+		if (enableAsyncEvents) {
+			if (eventManager instanceof EventManagerImpl) {
+				if (asyncEventDispatcher == null) {
+					asyncEventDispatcher = new AsyncEventDispatcher();
+				}
+				((EventManagerImpl) eventManager).setAsyncEventDispatcher(asyncEventDispatcher);
+				shutdownHandlers.add(asyncEventDispatcher);
+			} else {
+				log.warn("Async events are enabled, but the event manager is not a {} so they will be delivered synchronously", EventManagerImpl.class);
+			}
+		}
+
 		if (expiredNonceRemover != null) {
 			shutdownHandlers.add(expiredNonceRemover);
 			log.info("Starting {} this will remove Digest nonces from memory when they expire", expiredNonceRemover);
@@ -881,6 +936,108 @@ public class HttpManagerBuilder {
 		this.eventManager = eventManager;
 	}
 
+	/**
+	 * If true, post-response events (by default ResponseEvent) are delivered to
+	 * listeners on a background thread using asyncEventDispatcher, so slow
+	 * listeners do not delay the response. Requires an EventManagerImpl
+	 *
+	 * @return
+	 */
+	public boolean isEnableAsyncEvents() {
+		return enableAsyncEvents;
+	}
+
+	public void setEnableAsyncEvents(boolean enableAsyncEvents) {
+		this.enableAsyncEvents = enableAsyncEvents;
+	}
+
+	/**
+	 * The dispatcher to use when enableAsyncEvents is true. If null a default
+	 * dispatcher will be created, which drops events when its queue is full
+	 *
+	 * @return
+	 */
+	public AsyncEventDispatcher getAsyncEventDispatcher() {
+		return asyncEventDispatcher;
+	}
+
+	public void setAsyncEventDispatcher(AsyncEventDispatcher asyncEventDispatcher) {
+		this.asyncEventDispatcher = asyncEventDispatcher;
+	}
+
+	/**
+	 * One in every requestInfoSampleRate requests is registered in the
+	 * in-flight request registry, see HttpManager.getRequestDataForThread. Zero
+	 * (default) disables the registry, 1 registers every request
+	 *
+	 * @return
+	 */
+	public int getRequestInfoSampleRate() {
+		return requestInfoSampleRate;
+	}
+
+	public void setRequestInfoSampleRate(int requestInfoSampleRate) {
+		this.requestInfoSampleRate = requestInfoSampleRate;
+	}
+
+	/**
+	 * If true, request latency and byte counts are aggregated by method,
+	 * handler, status and resource class. See RequestMetrics
+	 *
+	 * @return
+	 */
+	public boolean isEnableRequestMetrics() {
+		return enableRequestMetrics;
+	}
+
+	public void setEnableRequestMetrics(boolean enableRequestMetrics) {
+		this.enableRequestMetrics = enableRequestMetrics;
+	}
+
+	public RequestMetrics getRequestMetrics() {
+		return requestMetrics;
+	}
+
+	public void setRequestMetrics(RequestMetrics requestMetrics) {
+		this.requestMetrics = requestMetrics;
+	}
+
+	/**
+	 * If true (default) and request metrics are enabled, they will be
+	 * registered as an MBean named io.milton:type=RequestMetrics
+	 *
+	 * @return
+	 */
+	public boolean isEnableRequestMetricsJmx() {
+		return enableRequestMetricsJmx;
+	}
+
+	public void setEnableRequestMetricsJmx(boolean enableRequestMetricsJmx) {
+		this.enableRequestMetricsJmx = enableRequestMetricsJmx;
+	}
+
+	/**
+	 * Reporters to be given the request metrics every
+	 * metricsReportingPeriodSeconds, if request metrics are enabled
+	 *
+	 * @return
+	 */
+	public List<MetricsReporter> getMetricsReporters() {
+		return metricsReporters;
+	}
+
+	public void setMetricsReporters(List<MetricsReporter> metricsReporters) {
+		this.metricsReporters = metricsReporters;
+	}
+
+	public int getMetricsReportingPeriodSeconds() {
+		return metricsReportingPeriodSeconds;
+	}
+
+	public void setMetricsReportingPeriodSeconds(int metricsReportingPeriodSeconds) {
+		this.metricsReportingPeriodSeconds = metricsReportingPeriodSeconds;
+	}
+
 	public PropertyAuthoriser getPropertyAuthoriser() {
 		return propertyAuthoriser;
 	}
@@ -1533,6 +1690,96 @@ public class HttpManagerBuilder {
 		return useLongLivedCookies;
 	}
 
+	/**
+	 * If true, principals resolved from signed login cookies are cached for
+	 * cookiePrincipalCacheTtlSeconds, so repeated requests with the same cookie
+	 * do not need to recalculate the hmac or resolve the user again. The nonce
+	 * is still checked on every request. Only enable this if principal
+	 * resources are safe to share across requests
+	 *
+	 * @return
+	 */
+	public boolean isEnableCookiePrincipalCache() {
+		return enableCookiePrincipalCache;
+	}
+
+	public void setEnableCookiePrincipalCache(boolean enableCookiePrincipalCache) {
+		this.enableCookiePrincipalCache = enableCookiePrincipalCache;
+	}
+
+	public int getCookiePrincipalCacheMaxSize() {
+		return cookiePrincipalCacheMaxSize;
+	}
+
+	public void setCookiePrincipalCacheMaxSize(int cookiePrincipalCacheMaxSize) {
+		this.cookiePrincipalCacheMaxSize = cookiePrincipalCacheMaxSize;
+	}
+
+	public int getCookiePrincipalCacheTtlSeconds() {
+		return cookiePrincipalCacheTtlSeconds;
+	}
+
+	public void setCookiePrincipalCacheTtlSeconds(int cookiePrincipalCacheTtlSeconds) {
+		this.cookiePrincipalCacheTtlSeconds = cookiePrincipalCacheTtlSeconds;
+	}
+
+	/**
+	 * If true, and the main resource factory is an AnnotationResourceFactory,
+	 * resolved resources are remembered by path within each request, so
+	 * ancestors are not located through the controllers again. The ChildOf
+	 * methods which located paths are remembered across requests for methods
+	 * annotated with ResolutionMaxAge
+	 *
+	 * @return
+	 */
+	public boolean isEnableResolutionCache() {
+		return enableResolutionCache;
+	}
+
+	public void setEnableResolutionCache(boolean enableResolutionCache) {
+		this.enableResolutionCache = enableResolutionCache;
+	}
+
+	public int getResolutionCacheMaxSize() {
+		return resolutionCacheMaxSize;
+	}
+
+	public void setResolutionCacheMaxSize(int resolutionCacheMaxSize) {
+		this.resolutionCacheMaxSize = resolutionCacheMaxSize;
+	}
+
+	/**
+	 * How long to remember the ChildOf methods which located paths, for
+	 * methods which do not have a ResolutionMaxAge annotation. Default is
+	 * zero, meaning they are not remembered
+	 *
+	 * @return
+	 */
+	public int getResolutionCacheDefaultMaxAgeSeconds() {
+		return resolutionCacheDefaultMaxAgeSeconds;
+	}
+
+	public void setResolutionCacheDefaultMaxAgeSeconds(int resolutionCacheDefaultMaxAgeSeconds) {
+		this.resolutionCacheDefaultMaxAgeSeconds = resolutionCacheDefaultMaxAgeSeconds;
+	}
+
+	/**
+	 * If true (the default) and the classpath contains controller indexes
+	 * generated by milton-annotation-processor, controllers are found from the
+	 * index instead of by scanning controllerPackagesToScan, and their
+	 * annotated methods are read from the index. Packages which have no
+	 * indexed controllers are still scanned
+	 *
+	 * @return
+	 */
+	public boolean isEnableControllerIndex() {
+		return enableControllerIndex;
+	}
+
+	public void setEnableControllerIndex(boolean enableControllerIndex) {
+		this.enableControllerIndex = enableControllerIndex;
+	}
+
 	/**
 	 * If present is assumed to be a text file containing lines, where each line
 	 * is a cookie signing key. The last will be used to sign cookies, previous
@@ -1588,6 +1835,14 @@ public class HttpManagerBuilder {
 					if (controllers == null) {
 						controllers = new ArrayList();
 					}
+					ControllerIndex controllerIndex = null;
+					if (enableControllerIndex) {
+						ClassLoader cl = Thread.currentThread().getContextClassLoader();
+						controllerIndex = ControllerIndex.load(cl != null ? cl : getClass().getClassLoader());
+						if (controllerIndex != null) {
+							arf.setControllerIndex(controllerIndex);
+						}
+					}
 					if (controllerPackagesToScan != null) {
 						log.info("Scan for controller classes: {}", controllerPackagesToScan);
 						if (log.isTraceEnabled()) {
@@ -1597,6 +1852,16 @@ public class HttpManagerBuilder {
 						classesClassloaders.add(ResourceController.class.getClassLoader());
 						for (String packageName : controllerPackagesToScan.split(",")) {
 							packageName = packageName.trim();
+							if (controllerIndex != null && controllerIndex.isComplete(packageName)) {
+								List<String> indexed = controllerIndex.getControllerClassNames(packageName);
+								if (!indexed.isEmpty()) {
+									log.info("init annotations controllers from index for package: {} controllers={}", packageName, indexed.size());
+									for (String className : indexed) {
+										controllers.add(createObject(ReflectionUtils.loadClass(className)));
+									}
+									continue;
+								}
+							}
 							log.info("init annotations controllers from package: {}", packageName);
 							List<Class> classes = ReflectionUtils.getClassNamesFromPackage(packageName);
 							for (Class c : classes) {
@@ -1656,6 +1921,13 @@ public class HttpManagerBuilder {
 				if (arf.getMaxAgeSeconds() == null) {
 					arf.setMaxAgeSeconds(maxAgeSeconds);
 				}
+				if (enableResolutionCache && arf.getResolutionCache() == null) {
+					log.info("Enable annotation resolution cache: maxSize={} defaultMaxAgeSeconds={}", resolutionCacheMaxSize, resolutionCacheDefaultMaxAgeSeconds);
+					arf.setResolutionCache(new ResourceResolutionCache(resolutionCacheMaxSize, resolutionCacheDefaultMaxAgeSeconds));
+				}
+				if (arf.getResolutionCache() != null) {
+					arf.getResolutionCache().register(eventManager);
+				}
 				if (arf.getSecurityManager() == null) {
 					// init the default, statically configured sm
 					arf.setSecurityManager(securityManager());
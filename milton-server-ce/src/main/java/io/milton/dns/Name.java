@@ -706,15 +706,9 @@ public class Name implements Comparable, Serializable {
 
         int labels = labels();
         for (int i = 0; i < labels - 1; i++) {
-            Name tname;
-            if (i == 0) {
-                tname = this;
-            } else {
-                tname = new Name(this, i);
-            }
             int pos = -1;
             if (c != null) {
-                pos = c.get(tname);
+                pos = c.get(this, i);
             }
             if (pos >= 0) {
                 pos |= (LABEL_MASK << 8);
@@ -722,7 +716,7 @@ public class Name implements Comparable, Serializable {
                 return;
             } else {
                 if (c != null) {
-                    c.add(out.current(), tname);
+                    c.add(out.current(), this, i);
                 }
                 int off = offset(i);
                 out.writeByteArray(name, off, name[off] + 1);
@@ -794,8 +788,12 @@ public class Name implements Comparable, Serializable {
     }
 
     private final boolean equals(byte[] b, int bpos) {
+        return equals(0, b, bpos);
+    }
+
+    private final boolean equals(int label, byte[] b, int bpos) {
         int labels = labels();
-        for (int i = 0, pos = offset(0); i < labels; i++) {
+        for (int i = label, pos = offset(label); i < labels; i++) {
             if (name[pos] != b[bpos]) {
                 return false;
             }
@@ -855,6 +853,43 @@ public class Name implements Comparable, Serializable {
         return hashcode;
     }
 
+    /**
+     * Computes a hashcode for the suffix of this name starting at the given
+     * label, which is the same as the hashcode of new Name(this, label)
+     * without creating it
+     *
+     * @param label The label the suffix starts at. The first label is 0.
+     */
+    public int suffixHashCode(int label) {
+        if (label == 0) {
+            return hashCode();
+        }
+        int code = 0;
+        for (int i = offset(label); i < name.length; i++) {
+            code += ((code << 3) + lowercase[(name[i] & 0xFF)]);
+        }
+        return code;
+    }
+
+    /**
+     * Are the suffixes of two names, starting at the given labels,
+     * equivalent? This is the same as comparing new Name(this, label) to new
+     * Name(other, otherLabel) without creating them
+     *
+     * @param label The label the suffix of this name starts at.
+     * @param other The other name.
+     * @param otherLabel The label the suffix of the other name starts at.
+     */
+    public boolean suffixEquals(int label, Name other, int otherLabel) {
+        if (other == this && label == otherLabel) {
+            return true;
+        }
+        if (labels() - label != other.labels() - otherLabel) {
+            return false;
+        }
+        return equals(label, other.name, other.offset(otherLabel));
+    }
+
     /**
      * Compares this Name to another Object.
      *
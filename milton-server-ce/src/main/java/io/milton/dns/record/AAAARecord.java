@@ -46,6 +46,8 @@ public class AAAARecord extends Record {
 private static final long serialVersionUID = -4588601512069748050L;
 
 private InetAddress address;
+/* the address in wire format, so rendering doesn't copy it each time */
+private transient byte [] addressBytes;
 
 AAAARecord() {}
 
@@ -90,7 +92,12 @@ getAddress() {
 
 void
 rrToWire(DNSOutput out, Compression c, boolean canonical) {
-	out.writeByteArray(address.getAddress());
+	byte [] b = addressBytes;
+	if (b == null) {
+		b = address.getAddress();
+		addressBytes = b;
+	}
+	out.writeByteArray(b);
 }
 
 }
@@ -29,6 +29,7 @@
 
 package io.milton.dns.record;
 
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
 import io.milton.dns.Name;
 
 import java.io.*;
@@ -40,6 +41,11 @@ import java.util.*;
  * avoid repeated failed DNS queries.  The credibility of each RRset is
  * maintained, so that more credible records replace less credible records,
  * and lookups can specify the minimum credibility of data they are requesting.
+ *
+ * Lookups and additions don't lock the cache, so it can be shared by many
+ * resolver or server threads.  The records for each name are held in an array
+ * which is replaced, rather than changed, when records are added or removed.
+ * Expired records are removed when they are next looked up.
  * @see RRset
  * @see Credibility
  *
@@ -85,6 +91,13 @@ private static class CacheRRset extends RRset implements Element {
 		this.expire = limitExpire(rrset.getTTL(), maxttl);
 	}
 
+	public
+	CacheRRset(CacheRRset rrset) {
+		super(rrset);
+		this.credibility = rrset.credibility;
+		this.expire = rrset.expire;
+	}
+
 	public final boolean
 	expired() {
 		int now = (int)(System.currentTimeMillis() / 1000);
@@ -154,35 +167,15 @@ private static class NegativeElement implements Element {
 	}
 }
 
-private static class CacheMap extends LinkedHashMap {
-	private int maxsize = -1;
-
-	CacheMap(int maxsize) {
-		super(16, (float) 0.75, true);
-		this.maxsize = maxsize;
-	}
-
-	int
-	getMaxSize() {
-		return maxsize;
-	}
-
-	void
-	setMaxSize(int maxsize) {
-		/*
-		 * Note that this doesn't shrink the size of the map if
-		 * the maximum size is lowered, but it should shrink as
-		 * entries expire.
-		 */
-		this.maxsize = maxsize;
-	}
-
-	protected boolean removeEldestEntry(Map.Entry eldest) {
-		return maxsize >= 0 && size() > maxsize;
-	}
-}
-
-private CacheMap data;
+/*
+ * Maps each Name to an array of its Elements.  An array is never changed once
+ * it is in the map; it is replaced using the map's conditional operations,
+ * retrying if another thread replaced it first.  The map is bounded, and
+ * evicts the least recently used names.
+ */
+private final ConcurrentLinkedHashMap data = new ConcurrentLinkedHashMap.Builder()
+	.maximumWeightedCapacity(defaultMaxEntries).build();
+private volatile int maxsize = defaultMaxEntries;
 private int maxncache = -1;
 private int maxcache = -1;
 private int dclass;
@@ -198,7 +191,6 @@ private static final int defaultMaxEntries = 50000;
 public
 Cache(int dclass) {
 	this.dclass = dclass;
-	data = new CacheMap(defaultMaxEntries);
 }
 
 /**
@@ -215,59 +207,38 @@ Cache() {
  */
 public
 Cache(String file) throws IOException {
-	data = new CacheMap(defaultMaxEntries);
 	Master m = new Master(file);
 	Record record;
 	while ((record = m.nextRecord()) != null)
 		addRecord(record, Credibility.HINT, m);
 }
 
-private synchronized Object
+private Element []
 exactName(Name name) {
-	return data.get(name);
+	return (Element []) data.get(name);
 }
 
-private synchronized void
+private void
 removeName(Name name) {
 	data.remove(name);
 }
 
-private synchronized Element []
-allElements(Object types) {
-	if (types instanceof List) {
-		List typelist = (List) types;
-		int size = typelist.size();
-		return (Element []) typelist.toArray(new Element[size]);
-	} else {
-		Element set = (Element) types;
-		return new Element[] {set};
-	}
-}
-
-private synchronized Element
-oneElement(Name name, Object types, int type, int minCred) {
+private Element
+oneElement(Name name, Element [] types, int type, int minCred) {
 	Element found = null;
 
 	if (type == Type.ANY)
 		throw new IllegalArgumentException("oneElement(ANY)");
-	if (types instanceof List) {
-		List list = (List) types;
-		for (int i = 0; i < list.size(); i++) {
-			Element set = (Element) list.get(i);
-			if (set.getType() == type) {
-				found = set;
-				break;
-			}
+	for (int i = 0; i < types.length; i++) {
+		if (types[i].getType() == type) {
+			found = types[i];
+			break;
 		}
-	} else {
-		Element set = (Element) types;
-		if (set.getType() == type)
-			found = set;
 	}
 	if (found == null)
 		return null;
 	if (found.expired()) {
-		removeElement(name, type);
+		removeElement(name, type, found);
 		return null;
 	}
 	if (found.compareCredibility(minCred) < 0)
@@ -275,72 +246,100 @@ oneElement(Name name, Object types, int type, int minCred) {
 	return found;
 }
 
-private synchronized Element
+private Element
 findElement(Name name, int type, int minCred) {
-	Object types = exactName(name);
+	Element [] types = exactName(name);
 	if (types == null)
 		return null;
 	return oneElement(name, types, type, minCred);
 }
 
-private synchronized void
+private void
 addElement(Name name, Element element) {
-	Object types = data.get(name);
-	if (types == null) {
-		data.put(name, element);
-		return;
-	}
 	int type = element.getType();
-	if (types instanceof List) {
-		List list = (List) types;
-		for (int i = 0; i < list.size(); i++) {
-			Element elt = (Element) list.get(i);
-			if (elt.getType() == type) {
-				list.set(i, element);
+	while (true) {
+		Element [] types = exactName(name);
+		if (types == null) {
+			if (data.putIfAbsent(name, new Element [] {element}) == null)
 				return;
+			continue;
+		}
+		Element [] newtypes = null;
+		for (int i = 0; i < types.length; i++) {
+			if (types[i].getType() == type) {
+				newtypes = (Element []) types.clone();
+				newtypes[i] = element;
+				break;
 			}
 		}
-		list.add(element);
-	} else {
-		Element elt = (Element) types;
-		if (elt.getType() == type)
-			data.put(name, element);
-		else {
-			LinkedList list = new LinkedList();
-			list.add(elt);
-			list.add(element);
-			data.put(name, list);
+		if (newtypes == null) {
+			newtypes = new Element[types.length + 1];
+			System.arraycopy(types, 0, newtypes, 0, types.length);
+			newtypes[types.length] = element;
 		}
+		if (data.replace(name, types, newtypes))
+			return;
 	}
 }
 
-private synchronized void
-removeElement(Name name, int type) {
-	Object types = data.get(name);
-	if (types == null) {
-		return;
+/*
+ * Replaces an element with a changed copy.  Returns false if the element was
+ * replaced or removed by another thread.
+ */
+private boolean
+replaceElement(Name name, Element element, Element newelement) {
+	while (true) {
+		Element [] types = exactName(name);
+		if (types == null)
+			return false;
+		int i = 0;
+		while (i < types.length && types[i] != element)
+			i++;
+		if (i == types.length)
+			return false;
+		Element [] newtypes = (Element []) types.clone();
+		newtypes[i] = newelement;
+		if (data.replace(name, types, newtypes))
+			return true;
 	}
-	if (types instanceof List) {
-		List list = (List) types;
-		for (int i = 0; i < list.size(); i++) {
-			Element elt = (Element) list.get(i);
-			if (elt.getType() == type) {
-				list.remove(i);
-				if (list.isEmpty())
-					data.remove(name);
+}
+
+/*
+ * Removes the element of the given type, or only the given element if it is
+ * not null, so that an expired element doesn't remove a newer one.
+ */
+private void
+removeElement(Name name, int type, Element element) {
+	while (true) {
+		Element [] types = exactName(name);
+		if (types == null)
+			return;
+		int i = 0;
+		while (i < types.length && types[i].getType() != type)
+			i++;
+		if (i == types.length ||
+		    (element != null && types[i] != element))
+			return;
+		if (types.length == 1) {
+			if (data.remove(name, types))
 				return;
-			}
+			continue;
 		}
-	} else {
-		Element elt = (Element) types;
-		if (elt.getType() != type)
+		Element [] newtypes = new Element[types.length - 1];
+		System.arraycopy(types, 0, newtypes, 0, i);
+		System.arraycopy(types, i + 1, newtypes, i, types.length - i - 1);
+		if (data.replace(name, types, newtypes))
 			return;
-		data.remove(name);
 	}
 }
 
+private void
+removeElement(Name name, int type) {
+	removeElement(name, type, null);
+}
+
 /** Empties the Cache. */
-public synchronized void
+public void
 clearCache() {
 	data.clear();
 }
@@ -352,21 +351,28 @@ clearCache() {
  * @param o The source of the record (this could be a Message, for example)
  * @see Record
  */
-public synchronized void
+public void
 addRecord(Record r, int cred, Object o) {
 	Name name = r.getName();
 	int type = r.getRRsetType();
 	if (!Type.isRR(type))
 		return;
-	Element element = findElement(name, type, cred);
-	if (element == null) {
-		CacheRRset crrset = new CacheRRset(r, cred, maxcache);
-		addRRset(crrset, cred);
-	} else if (element.compareCredibility(cred) == 0) {
-		if (element instanceof CacheRRset) {
-			CacheRRset crrset = (CacheRRset) element;
-			crrset.addRR(r);
+	while (true) {
+		Element element = findElement(name, type, cred);
+		if (element == null) {
+			CacheRRset crrset = new CacheRRset(r, cred, maxcache);
+			addRRset(crrset, cred);
+		} else if (element.compareCredibility(cred) == 0) {
+			if (element instanceof CacheRRset) {
+				/* RRsets may be in use by lookups, so copy it */
+				CacheRRset crrset;
+				crrset = new CacheRRset((CacheRRset) element);
+				crrset.addRR(r);
+				if (!replaceElement(name, element, crrset))
+					continue;
+			}
 		}
+		return;
 	}
 }
 
@@ -376,7 +382,7 @@ addRecord(Record r, int cred, Object o) {
  * @param cred The credibility of these records
  * @see RRset
  */
-public synchronized void
+public void
 addRRset(RRset rrset, int cred) {
 	long ttl = rrset.getTTL();
 	Name name = rrset.getName();
@@ -407,7 +413,7 @@ addRRset(RRset rrset, int cred) {
  * The negative cache ttl is derived from the SOA.
  * @param cred The credibility of the negative entry
  */
-public synchronized void
+public void
 addNegative(Name name, int type, SOARecord soa, int cred) {
 	long ttl = 0;
 	if (soa != null)
@@ -429,13 +435,13 @@ addNegative(Name name, int type, SOARecord soa, int cred) {
 /**
  * Finds all matching sets or something that causes the lookup to stop.
  */
-protected synchronized SetResponse
+protected SetResponse
 lookup(Name name, int type, int minCred) {
 	int labels;
 	int tlabels;
 	Element element;
 	Name tname;
-	Object types;
+	Element [] types;
 	SetResponse sr;
 
 	labels = name.labels();
@@ -451,7 +457,7 @@ lookup(Name name, int type, int minCred) {
 		else
 			tname = new Name(name, labels - tlabels);
 
-		types = data.get(tname);
+		types = exactName(tname);
 		if (types == null)
 			continue;
 
@@ -462,12 +468,12 @@ lookup(Name name, int type, int minCred) {
 		 */
 		if (isExact && type == Type.ANY) {
 			sr = new SetResponse(SetResponse.SUCCESSFUL);
-			Element [] elements = allElements(types);
 			int added = 0;
-			for (int i = 0; i < elements.length; i++) {
-				element = elements[i];
+			for (int i = 0; i < types.length; i++) {
+				element = types[i];
 				if (element.expired()) {
-					removeElement(tname, element.getType());
+					removeElement(tname, element.getType(),
+						      element);
 					continue;
 				}
 				if (!(element instanceof CacheRRset))
@@ -825,7 +831,7 @@ getSize() {
  */
 public int
 getMaxEntries() {
-	return data.getMaxSize();
+	return maxsize;
 }
 
 /**
@@ -833,8 +839,9 @@ getMaxEntries() {
  * of all records with a specific Name.  A negative value is treated as an
  * infinite limit.
  *
- * Note that setting this to a value lower than the current number
- * of entries will not cause the Cache to shrink immediately.
+ * Entries are evicted in least recently used order.  Setting this to a
+ * value lower than the current number of entries shrinks the Cache
+ * immediately.
  *
  * The default maximum number of entries is 50000.
  *
@@ -842,7 +849,8 @@ getMaxEntries() {
  */
 public void
 setMaxEntries(int entries) {
-	data.setMaxSize(entries);
+	maxsize = entries;
+	data.setCapacity(entries < 0 ? Long.MAX_VALUE : entries);
 }
 
 /**
@@ -859,14 +867,12 @@ getDClass() {
 public String
 toString() {
 	StringBuilder sb = new StringBuilder();
-	synchronized (this) {
-		Iterator it = data.values().iterator();
-		while (it.hasNext()) {
-			Element [] elements = allElements(it.next());
-			for (int i = 0; i < elements.length; i++) {
-				sb.append(elements[i]);
-				sb.append("\n");
-			}
+	Iterator it = data.values().iterator();
+	while (it.hasNext()) {
+		Element [] elements = (Element []) it.next();
+		for (int i = 0; i < elements.length; i++) {
+			sb.append(elements[i]);
+			sb.append("\n");
 		}
 	}
 	return sb.toString();
@@ -31,8 +31,13 @@ package io.milton.dns.record;
 
 import io.milton.dns.Name;
 
+import java.util.*;
+
 /**
- * DNS Name Compression object.
+ * DNS Name Compression object.  Names are held in an open addressing table,
+ * keyed on the name and the label its suffix starts at, so that the suffixes
+ * of a name can be found without creating a Name for each.  A Compression
+ * can be reset and reused for another message.
  * @see Message
  * @see Name
  *
@@ -41,16 +46,14 @@ import io.milton.dns.Name;
 
 public class Compression {
 
-private static class Entry {
-	Name name;
-	int pos;
-	Entry next;
-}
-
-private static final int TABLE_SIZE = 17;
+private static final int INITIAL_SIZE = 64;
 private static final int MAX_POINTER = 0x3FFF;
 
-private final Entry[] table;
+private Name [] names;
+private int [] labels;
+private int [] hashes;
+private int [] positions;
+private int size;
 private final boolean verbose = Options.check("verbosecompression");
 
 /**
@@ -58,7 +61,55 @@ private final boolean verbose = Options.check("verbosecompression");
  */
 public
 Compression() {
-	table = new Entry[TABLE_SIZE];
+	allocate(INITIAL_SIZE);
+}
+
+private void
+allocate(int tableSize) {
+	names = new Name[tableSize];
+	labels = new int[tableSize];
+	hashes = new int[tableSize];
+	positions = new int[tableSize];
+}
+
+private static int
+slot(int hash, int mask) {
+	hash ^= (hash >>> 16);
+	return (hash * 0x9E3779B9) >>> 16 & mask;
+}
+
+/*
+ * Returns the slot holding the suffix, or the empty slot where it belongs.
+ */
+private int
+find(Name name, int label, int hash) {
+	int mask = names.length - 1;
+	int i = slot(hash, mask);
+	while (names[i] != null) {
+		if (hashes[i] == hash &&
+		    name.suffixEquals(label, names[i], labels[i]))
+			return i;
+		i = (i + 1) & mask;
+	}
+	return i;
+}
+
+private void
+grow() {
+	Name [] oldnames = names;
+	int [] oldlabels = labels;
+	int [] oldhashes = hashes;
+	int [] oldpositions = positions;
+	allocate(oldnames.length * 2);
+	for (int j = 0; j < oldnames.length; j++) {
+		if (oldnames[j] == null)
+			continue;
+		int i = find(oldnames[j], oldlabels[j], oldhashes[j]);
+		names[i] = oldnames[j];
+		labels[i] = oldlabels[j];
+		hashes[i] = oldhashes[j];
+		positions[i] = oldpositions[j];
+	}
 }
 
 /**
@@ -68,16 +119,33 @@ Compression() {
  */
 public void
 add(int pos, Name name) {
+	add(pos, name, 0);
+}
+
+/**
+ * Adds a compression entry mapping the suffix of a name to a position in a
+ * message.  If the suffix was already added, the first position is kept.
+ * @param pos The position at which the suffix is added.
+ * @param name The name being added to the message.
+ * @param label The label of the name that the suffix starts at.
+ */
+public void
+add(int pos, Name name, int label) {
 	if (pos > MAX_POINTER)
 		return;
-	int row = (name.hashCode() & 0x7FFFFFFF) % TABLE_SIZE;
-	Entry entry = new Entry();
-	entry.name = name;
-	entry.pos = pos;
-	entry.next = table[row];
-	table[row] = entry;
+	int hash = name.suffixHashCode(label);
+	int i = find(name, label, hash);
+	if (names[i] != null)
+		return;
+	names[i] = name;
+	labels[i] = label;
+	hashes[i] = hash;
+	positions[i] = pos;
+	if (++size * 2 > names.length)
+		grow();
 	if (verbose)
-		System.err.println("Adding " + name + " at " + pos);
+		System.err.println("Adding " + name + " label " + label +
+				   " at " + pos);
 }
 
 /**
@@ -88,15 +156,35 @@ add(int pos, Name name) {
  */
 public int
 get(Name name) {
-	int row = (name.hashCode() & 0x7FFFFFFF) % TABLE_SIZE;
-	int pos = -1;
-	for (Entry entry = table[row]; entry != null; entry = entry.next) {
-		if (entry.name.equals(name))
-			pos = entry.pos;
-	}
+	return get(name, 0);
+}
+
+/**
+ * Retrieves the position of the suffix of the given name, if it has been
+ * previously included in the message.
+ * @param name The name to find in the compression table.
+ * @param label The label of the name that the suffix starts at.
+ * @return The position of the suffix, or -1 if not found.
+ */
+public int
+get(Name name, int label) {
+	int i = find(name, label, name.suffixHashCode(label));
+	int pos = names[i] == null ? -1 : positions[i];
 	if (verbose)
-		System.err.println("Looking for " + name + ", found " + pos);
+		System.err.println("Looking for " + name + " label " + label +
+				   ", found " + pos);
 	return pos;
 }
 
+/**
+ * Removes all entries, so the Compression can be used for another message.
+ */
+public void
+reset() {
+	if (size > 0) {
+		Arrays.fill(names, null);
+		size = 0;
+	}
+}
+
 }
@@ -61,6 +61,15 @@ DNSOutput() {
 	this(32);
 }
 
+/**
+ * Empties the stream so it can be reused, keeping its buffer.
+ */
+public void
+reset() {
+	pos = 0;
+	saved_pos = -1;
+}
+
 /**
  * Returns the current position.
  */
@@ -80,6 +80,38 @@ public class Message implements Cloneable {
 	private static Record[] emptyRecordArray = new Record[0];
 	private static RRset[] emptyRRsetArray = new RRset[0];
 
+	/**
+	 * The output buffer and compression table used to render messages, kept
+	 * per thread so that rendering a message only allocates its result
+	 */
+	private static final ThreadLocal<WireBuffers> wireBuffers = new ThreadLocal<WireBuffers>();
+
+	private static class WireBuffers {
+
+		final DNSOutput out = new DNSOutput(512);
+		final Compression compression = new Compression();
+		boolean inUse;
+
+		static WireBuffers acquire() {
+			WireBuffers b = wireBuffers.get();
+			if (b == null) {
+				b = new WireBuffers();
+				wireBuffers.set(b);
+			} else if (b.inUse) {
+				// rendering another message from within toWire
+				return new WireBuffers();
+			}
+			b.inUse = true;
+			b.out.reset();
+			b.compression.reset();
+			return b;
+		}
+
+		void release() {
+			inUse = false;
+		}
+	}
+
 	private Message(Header header) {
 		sections = new List[4];
 		this.header = header;
@@ -423,8 +455,11 @@ public class Message implements Cloneable {
 	}
 
 	public void toWire(DNSOutput out) {
+		toWire(out, new Compression());
+	}
+
+	private void toWire(DNSOutput out, Compression c) {
 		header.toWire(out);
-		Compression c = new Compression();
 		for (int i = 0; i < 4; i++) {
 			if (sections[i] == null) {
 				continue;
@@ -461,7 +496,7 @@ public class Message implements Cloneable {
 	}
 
 	/* Returns true if the message could be rendered. */
-	private boolean toWire(DNSOutput out, int maxLength) {
+	private boolean toWire(DNSOutput out, Compression c, int maxLength) {
 		if (maxLength < Header.LENGTH) {
 			return false;
 		}
@@ -475,7 +510,6 @@ public class Message implements Cloneable {
 
 		int startpos = out.current();
 		header.toWire(out);
-		Compression c = new Compression();
 		for (int i = 0; i < 4; i++) {
 			int skipped;
 			if (sections[i] == null) {
@@ -527,10 +561,14 @@ public class Message implements Cloneable {
 	 * Message.
 	 */
 	public byte[] toWire() {
-		DNSOutput out = new DNSOutput();
-		toWire(out);
-		size = out.current();
-		return out.toByteArray();
+		WireBuffers b = WireBuffers.acquire();
+		try {
+			toWire(b.out, b.compression);
+			size = b.out.current();
+			return b.out.toByteArray();
+		} finally {
+			b.release();
+		}
 	}
 
 	/**
@@ -548,10 +586,14 @@ public class Message implements Cloneable {
 	 * @see TSIG
 	 */
 	public byte[] toWire(int maxLength) {
-		DNSOutput out = new DNSOutput();
-		toWire(out, maxLength);
-		size = out.current();
-		return out.toByteArray();
+		WireBuffers b = WireBuffers.acquire();
+		try {
+			toWire(b.out, b.compression, maxLength);
+			size = b.out.current();
+			return b.out.toByteArray();
+		} finally {
+			b.release();
+		}
 	}
 
 	/**
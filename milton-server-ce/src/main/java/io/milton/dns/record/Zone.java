@@ -38,6 +38,11 @@ import java.util.*;
  * A DNS Zone.  This encapsulates all data related to a Zone, and provides
  * convenient lookup methods.
  *
+ * Lookups read an immutable snapshot of the zone's data without locking.
+ * Updates copy the data, change the copy and then publish it as the new
+ * snapshot, so a lookup or zone transfer sees either all of an update or
+ * none of it.
+ *
  * @author Brian Wellington
  */
 
@@ -51,26 +56,46 @@ public static final int PRIMARY = 1;
 /** A secondary zone */
 public static final int SECONDARY = 2;
 
-private Map data;
 private Name origin;
-private Object originNode;
 private final int dclass = DClass.IN;
-private RRset NS;
-private SOARecord SOA;
-private boolean hasWild;
+private volatile Snapshot snapshot;
+
+/**
+ * The zone's data at a point in time. Neither the map, the arrays of RRsets
+ * it holds, nor the RRsets are changed once the snapshot is published.
+ */
+private static class Snapshot implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	final TreeMap data;
+	final RRset [] originNode;
+	final SOARecord SOA;
+	final RRset NS;
+	final boolean hasWild;
+
+	Snapshot(TreeMap data, RRset [] originNode, SOARecord SOA, RRset NS,
+		 boolean hasWild)
+	{
+		this.data = data;
+		this.originNode = originNode;
+		this.SOA = SOA;
+		this.NS = NS;
+		this.hasWild = hasWild;
+	}
+}
 
 class ZoneIterator implements Iterator {
+	private final Snapshot s;
 	private final Iterator zentries;
 	private RRset [] current;
 	private int count;
 	private boolean wantLastSOA;
 
 	ZoneIterator(boolean axfr) {
-		synchronized (Zone.this) {
-			zentries = data.entrySet().iterator();
-		}
+		s = snapshot;
+		zentries = s.data.entrySet().iterator();
 		wantLastSOA = axfr;
-		RRset [] sets = allRRsets(originNode);
+		RRset [] sets = s.originNode;
 		current = new RRset[sets.length];
 		for (int i = 0, j = 2; i < sets.length; i++) {
 			int type = sets[i].getType();
@@ -95,7 +120,7 @@ class ZoneIterator implements Iterator {
 		}
 		if (current == null) {
 			wantLastSOA = false;
-			return oneRRset(originNode, Type.SOA);
+			return oneRRset(s.originNode, Type.SOA);
 		}
 		Object set = current[count++];
 		if (count == current.length) {
@@ -104,7 +129,7 @@ class ZoneIterator implements Iterator {
 				Map.Entry entry = (Map.Entry) zentries.next();
 				if (entry.getKey().equals(origin))
 					continue;
-				RRset [] sets = allRRsets(entry.getValue());
+				RRset [] sets = (RRset []) entry.getValue();
 				if (sets.length == 0)
 					continue;
 				current = sets;
@@ -121,9 +146,12 @@ class ZoneIterator implements Iterator {
 	}
 }
 
+/**
+ * Checks the zone's data and publishes it as the current snapshot.
+ */
 private void
-validate() throws IOException {
-	originNode = exactName(origin);
+publish(TreeMap data, boolean hasWild) throws IOException {
+	RRset [] originNode = (RRset []) data.get(origin);
 	if (originNode == null)
 		throw new IOException(origin + ": no data specified");
 
@@ -131,16 +159,16 @@ validate() throws IOException {
 	if (rrset == null || rrset.size() != 1)
 		throw new IOException(origin +
 				      ": exactly 1 SOA must be specified");
-	Iterator it = rrset.rrs();
-	SOA = (SOARecord) it.next();
+	SOARecord SOA = (SOARecord) rrset.first();
 
-	NS = oneRRset(originNode, Type.NS);
+	RRset NS = oneRRset(originNode, Type.NS);
 	if (NS == null)
 		throw new IOException(origin + ": no NS set specified");
+	snapshot = new Snapshot(data, originNode, SOA, NS, hasWild);
 }
 
-private final void
-maybeAddRecord(Record record) throws IOException {
+private final boolean
+maybeAddRecord(TreeMap data, Record record) throws IOException {
 	int rtype = record.getType();
 	Name name = record.getName();
 
@@ -150,7 +178,8 @@ maybeAddRecord(Record record) throws IOException {
 				      origin);
 	}
 	if (name.subdomain(origin))
-		addRecord(record);
+		addRecord(data, record);
+	return name.isWild();
 }
 
 /**
@@ -161,7 +190,8 @@ maybeAddRecord(Record record) throws IOException {
  */
 public
 Zone(Name zone, String file) throws IOException {
-	data = new TreeMap();
+	TreeMap data = new TreeMap();
+	boolean hasWild = false;
 
 	if (zone == null)
 		throw new IllegalArgumentException("no zone name specified");
@@ -170,8 +200,8 @@ Zone(Name zone, String file) throws IOException {
 
 	origin = zone;
 	while ((record = m.nextRecord()) != null)
-		maybeAddRecord(record);
-	validate();
+		hasWild |= maybeAddRecord(data, record);
+	publish(data, hasWild);
 }
 
 /**
@@ -182,30 +212,32 @@ Zone(Name zone, String file) throws IOException {
  */
 public
 Zone(Name zone, Record [] records) throws IOException {
-	data = new TreeMap();
+	TreeMap data = new TreeMap();
+	boolean hasWild = false;
 
 	if (zone == null)
 		throw new IllegalArgumentException("no zone name specified");
 	origin = zone;
 	for (int i = 0; i < records.length; i++)
-		maybeAddRecord(records[i]);
-	validate();
+		hasWild |= maybeAddRecord(data, records[i]);
+	publish(data, hasWild);
 }
 
 private void
 fromXFR(ZoneTransferIn xfrin) throws IOException, ZoneTransferException {
-	data = new TreeMap();
+	TreeMap data = new TreeMap();
+	boolean hasWild = false;
 
 	origin = xfrin.getName();
 	List records = xfrin.run();
-	for (Iterator it = records.iterator(); it.hasNext(); ) {
-		Record record = (Record) it.next();
-		maybeAddRecord(record);
-	}
 	if (!xfrin.isAXFR())
 		throw new IllegalArgumentException("zones can only be " +
 						   "created from AXFRs");
-	validate();
+	for (Iterator it = records.iterator(); it.hasNext(); ) {
+		Record record = (Record) it.next();
+		hasWild |= maybeAddRecord(data, record);
+	}
+	publish(data, hasWild);
 }
 
 /**
@@ -231,6 +263,57 @@ throws IOException, ZoneTransferException
 	fromXFR(xfrin);
 }
 
+/**
+ * Updates the Zone by doing the specified zone transfer, which would
+ * usually be an IXFR from the current SOA serial.  The zone is replaced
+ * for an AXFR, or the deltas are applied for an IXFR.  Lookups continue to
+ * see the old data until the transfer has completed, and then see all of
+ * the changes at once.
+ * @param xfrin The incoming zone transfer to execute.
+ * @see ZoneTransferIn
+ */
+public void
+update(ZoneTransferIn xfrin) throws IOException, ZoneTransferException {
+	if (!origin.equals(xfrin.getName()))
+		throw new IllegalArgumentException("zone transfer is for " +
+						   xfrin.getName() +
+						   ", not " + origin);
+	List result = xfrin.run();
+	synchronized (this) {
+		if (xfrin.isAXFR()) {
+			TreeMap data = new TreeMap();
+			boolean hasWild = false;
+			for (Iterator it = result.iterator(); it.hasNext(); )
+				hasWild |= maybeAddRecord(data,
+							  (Record) it.next());
+			publish(data, hasWild);
+		} else if (xfrin.isIXFR()) {
+			Snapshot s = snapshot;
+			TreeMap data = new TreeMap(s.data);
+			boolean hasWild = s.hasWild;
+			for (Iterator it = result.iterator(); it.hasNext(); ) {
+				ZoneTransferIn.Delta delta;
+				delta = (ZoneTransferIn.Delta) it.next();
+				Iterator dit = delta.deletes.iterator();
+				while (dit.hasNext()) {
+					Record r = (Record) dit.next();
+					if (r.getType() != Type.SOA)
+						removeRecord(data, r);
+				}
+				dit = delta.adds.iterator();
+				while (dit.hasNext()) {
+					Record r = (Record) dit.next();
+					if (r.getType() == Type.SOA)
+						removeRRset(data, r.getName(),
+							    Type.SOA);
+					hasWild |= maybeAddRecord(data, r);
+				}
+			}
+			publish(data, hasWild);
+		}
+	}
+}
+
 /** Returns the Zone's origin */
 public Name
 getOrigin() {
@@ -240,13 +323,13 @@ getOrigin() {
 /** Returns the Zone origin's NS records */
 public RRset
 getNS() {
-	return NS;
+	return snapshot.NS;
 }
 
 /** Returns the Zone's SOA record */
 public SOARecord
 getSOA() {
-	return SOA;
+	return snapshot.SOA;
 }
 
 /** Returns the Zone's class */
@@ -255,116 +338,130 @@ getDClass() {
 	return dclass;
 }
 
-private synchronized Object
-exactName(Name name) {
-	return data.get(name);
-}
-
-private synchronized RRset []
-allRRsets(Object types) {
-	if (types instanceof List) {
-		List typelist = (List) types;
-		return (RRset []) typelist.toArray(new RRset[typelist.size()]);
-	} else {
-		RRset set = (RRset) types;
-		return new RRset [] {set};
-	}
-}
-
-private synchronized RRset
-oneRRset(Object types, int type) {
+private static RRset
+oneRRset(RRset [] types, int type) {
 	if (type == Type.ANY)
 		throw new IllegalArgumentException("oneRRset(ANY)");
-	if (types instanceof List) {
-		List list = (List) types;
-		for (int i = 0; i < list.size(); i++) {
-			RRset set = (RRset) list.get(i);
-			if (set.getType() == type)
-				return set;
-		}
-	} else {
-		RRset set = (RRset) types;
+	for (int i = 0; i < types.length; i++) {
+		RRset set = types[i];
 		if (set.getType() == type)
 			return set;
 	}
 	return null;
 }
 
-private synchronized RRset
-findRRset(Name name, int type) {
-	Object types = exactName(name);
+private static RRset
+findRRset(Map data, Name name, int type) {
+	RRset [] types = (RRset []) data.get(name);
 	if (types == null)
 		return null;
 	return oneRRset(types, type);
 }
 
-private synchronized void
-addRRset(Name name, RRset rrset) {
-	if (!hasWild && name.isWild())
-		hasWild = true;
-	Object types = data.get(name);
+/*
+ * The following change the data of a copy which hasn't been published yet,
+ * replacing arrays rather than changing them.
+ */
+
+private static void
+addRRset(Map data, Name name, RRset rrset) {
+	RRset [] types = (RRset []) data.get(name);
 	if (types == null) {
-		data.put(name, rrset);
+		data.put(name, new RRset [] {rrset});
 		return;
 	}
 	int rtype = rrset.getType();
-	if (types instanceof List) {
-		List list = (List) types;
-		for (int i = 0; i < list.size(); i++) {
-			RRset set = (RRset) list.get(i);
-			if (set.getType() == rtype) {
-				list.set(i, rrset);
-				return;
-			}
-		}
-		list.add(rrset);
-	} else {
-		RRset set = (RRset) types;
-		if (set.getType() == rtype)
-			data.put(name, rrset);
-		else {
-			LinkedList list = new LinkedList();
-			list.add(set);
-			list.add(rrset);
-			data.put(name, list);
+	for (int i = 0; i < types.length; i++) {
+		if (types[i].getType() == rtype) {
+			RRset [] newtypes = (RRset []) types.clone();
+			newtypes[i] = rrset;
+			data.put(name, newtypes);
+			return;
 		}
 	}
+	RRset [] newtypes = new RRset[types.length + 1];
+	System.arraycopy(types, 0, newtypes, 0, types.length);
+	newtypes[types.length] = rrset;
+	data.put(name, newtypes);
 }
 
-private synchronized void
-removeRRset(Name name, int type) {
-	Object types = data.get(name);
+private static void
+removeRRset(Map data, Name name, int type) {
+	RRset [] types = (RRset []) data.get(name);
 	if (types == null) {
 		return;
 	}
-	if (types instanceof List) {
-		List list = (List) types;
-		for (int i = 0; i < list.size(); i++) {
-			RRset set = (RRset) list.get(i);
-			if (set.getType() == type) {
-				list.remove(i);
-				if (list.isEmpty())
-					data.remove(name);
+	for (int i = 0; i < types.length; i++) {
+		if (types[i].getType() == type) {
+			if (types.length == 1) {
+				data.remove(name);
 				return;
 			}
+			RRset [] newtypes = new RRset[types.length - 1];
+			System.arraycopy(types, 0, newtypes, 0, i);
+			System.arraycopy(types, i + 1, newtypes, i,
+					 types.length - i - 1);
+			data.put(name, newtypes);
+			return;
 		}
+	}
+}
+
+/*
+ * Records with the same owner name share one Name, which saves memory in
+ * large zones and lets name compression match them by identity.
+ */
+private static Record
+canonicalName(TreeMap data, Record r) {
+	Name name = r.getName();
+	Name key = (Name) data.floorKey(name);
+	if (key == null || key == name || !key.equals(name) ||
+	    !key.toString().equals(name.toString()))
+		return r;
+	return r.withName(key);
+}
+
+private static void
+addRecord(TreeMap data, Record r) {
+	r = canonicalName(data, r);
+	Name name = r.getName();
+	int rtype = r.getRRsetType();
+	RRset rrset = findRRset(data, name, rtype);
+	if (rrset == null) {
+		rrset = new RRset(r);
 	} else {
-		RRset set = (RRset) types;
-		if (set.getType() != type)
-			return;
-		data.remove(name);
+		rrset = new RRset(rrset);
+		rrset.addRR(r);
 	}
+	addRRset(data, name, rrset);
 }
 
-private synchronized SetResponse
+private static void
+removeRecord(Map data, Record r) {
+	Name name = r.getName();
+	int rtype = r.getRRsetType();
+	RRset rrset = findRRset(data, name, rtype);
+	if (rrset == null)
+		return;
+	if (rrset.size() == 1 && rrset.first().equals(r)) {
+		removeRRset(data, name, rtype);
+	} else {
+		rrset = new RRset(rrset);
+		rrset.deleteRR(r);
+		addRRset(data, name, rrset);
+	}
+}
+
+private SetResponse
 lookup(Name name, int type) {
 	int labels;
 	int olabels;
 	int tlabels;
 	RRset rrset;
 	Name tname;
-	Object types;
+	RRset [] types;
 	SetResponse sr;
+	Snapshot s = snapshot;
 
 	if (!name.subdomain(origin))
 		return SetResponse.ofType(SetResponse.NXDOMAIN);
@@ -383,7 +480,7 @@ lookup(Name name, int type) {
 		else
 			tname = new Name(name, labels - tlabels);
 
-		types = exactName(tname);
+		types = (RRset []) s.data.get(tname);
 		if (types == null)
 			continue;
 
@@ -398,9 +495,8 @@ lookup(Name name, int type) {
 		/* If this is an ANY lookup, return everything. */
 		if (isExact && type == Type.ANY) {
 			sr = new SetResponse(SetResponse.SUCCESSFUL);
-			RRset [] sets = allRRsets(types);
-			for (int i = 0; i < sets.length; i++)
-				sr.addRRset(sets[i]);
+			for (int i = 0; i < types.length; i++)
+				sr.addRRset(types[i]);
 			return sr;
 		}
 
@@ -431,11 +527,11 @@ lookup(Name name, int type) {
 			return SetResponse.ofType(SetResponse.NXRRSET);
 	}
 
-	if (hasWild) {
+	if (s.hasWild) {
 		for (int i = 0; i < labels - olabels; i++) {
 			tname = name.wild(i + 1);
 
-			types = exactName(tname);
+			types = (RRset []) s.data.get(tname);
 			if (types == null)
 				continue;
 
@@ -451,13 +547,13 @@ lookup(Name name, int type) {
 	return SetResponse.ofType(SetResponse.NXDOMAIN);
 }
 
-/**     
+/**
  * Looks up Records in the Zone.  This follows CNAMEs and wildcards.
  * @param name The name to look up
  * @param type The type to look up
  * @return A SetResponse object
  * @see SetResponse
- */ 
+ */
 public SetResponse
 findRecords(Name name, int type) {
 	return lookup(name, type);
@@ -469,13 +565,10 @@ findRecords(Name name, int type) {
  * @param type The type to look up
  * @return The matching RRset
  * @see RRset
- */ 
+ */
 public RRset
 findExactMatch(Name name, int type) {
-	Object types = exactName(name);
-	if (types == null)
-		return null;
-	return oneRRset(types, type);
+	return findRRset(snapshot.data, name, type);
 }
 
 /**
@@ -483,50 +576,94 @@ findExactMatch(Name name, int type) {
  * @param rrset The RRset to be added
  * @see RRset
  */
-public void
+public synchronized void
 addRRset(RRset rrset) {
+	Snapshot s = snapshot;
+	TreeMap data = new TreeMap(s.data);
 	Name name = rrset.getName();
-	addRRset(name, rrset);
+	addRRset(data, name, rrset);
+	swap(data, s.hasWild || name.isWild());
 }
 
 /**
- * Adds a Record to the Zone
+ * Adds a Record to the Zone.  This copies the zone's data, so use
+ * {@link #addRecords} to add many records.
  * @param r The record to be added
  * @see Record
  */
-public void
+public synchronized void
 addRecord(Record r) {
-	Name name = r.getName();
-	int rtype = r.getRRsetType();
-	synchronized (this) {
-		RRset rrset = findRRset(name, rtype);
-		if (rrset == null) {
-			rrset = new RRset(r);
-			addRRset(name, rrset);
-		} else {
-			rrset.addRR(r);
-		}
-	}
+	Snapshot s = snapshot;
+	TreeMap data = new TreeMap(s.data);
+	addRecord(data, r);
+	swap(data, s.hasWild || r.getName().isWild());
 }
 
 /**
- * Removes a record from the Zone
+ * Removes a record from the Zone.  This copies the zone's data, so use
+ * {@link #removeRecords} to remove many records.
  * @param r The record to be removed
  * @see Record
  */
-public void
+public synchronized void
 removeRecord(Record r) {
-	Name name = r.getName();
-	int rtype = r.getRRsetType();
-	synchronized (this) {
-		RRset rrset = findRRset(name, rtype);
-		if (rrset == null)
-			return;
-		if (rrset.size() == 1 && rrset.first().equals(r))
-			removeRRset(name, rtype);
-		else
-			rrset.deleteRR(r);
+	Snapshot s = snapshot;
+	TreeMap data = new TreeMap(s.data);
+	removeRecord(data, r);
+	swap(data, s.hasWild);
+}
+
+/**
+ * Adds Records to the Zone.  The zone's data is copied once for all of the
+ * records rather than once for each, so use this when adding many.
+ * @param records The records to be added
+ * @see Record
+ */
+public synchronized void
+addRecords(Record [] records) {
+	Snapshot s = snapshot;
+	TreeMap data = new TreeMap(s.data);
+	boolean hasWild = s.hasWild;
+	for (int i = 0; i < records.length; i++) {
+		addRecord(data, records[i]);
+		hasWild |= records[i].getName().isWild();
 	}
+	swap(data, hasWild);
+}
+
+/**
+ * Removes Records from the Zone.  The zone's data is copied once for all of
+ * the records rather than once for each, so use this when removing many.
+ * @param records The records to be removed
+ * @see Record
+ */
+public synchronized void
+removeRecords(Record [] records) {
+	Snapshot s = snapshot;
+	TreeMap data = new TreeMap(s.data);
+	for (int i = 0; i < records.length; i++)
+		removeRecord(data, records[i]);
+	swap(data, s.hasWild);
+}
+
+/**
+ * Publishes changed data.  The SOA and NS are kept from the previous
+ * snapshot if the change removed them.
+ */
+private void
+swap(TreeMap data, boolean hasWild) {
+	Snapshot s = snapshot;
+	RRset [] originNode = (RRset []) data.get(origin);
+	if (originNode == null)
+		originNode = new RRset[0];
+	SOARecord SOA = s.SOA;
+	RRset soaset = oneRRset(originNode, Type.SOA);
+	if (soaset != null)
+		SOA = (SOARecord) soaset.first();
+	RRset NS = oneRRset(originNode, Type.NS);
+	if (NS == null)
+		NS = s.NS;
+	snapshot = new Snapshot(data, originNode, SOA, NS, hasWild);
 }
 
 /**
@@ -548,8 +685,7 @@ AXFR() {
 }
 
 private void
-nodeToString(StringBuffer sb, Object node) {
-	RRset [] sets = allRRsets(node);
+nodeToString(StringBuffer sb, RRset [] sets) {
 	for (int i = 0; i < sets.length; i++) {
 		RRset rrset = sets[i];
 		Iterator it = rrset.rrs();
@@ -564,15 +700,16 @@ nodeToString(StringBuffer sb, Object node) {
 /**
  * Returns the contents of the Zone in master file format.
  */
-public synchronized String
+public String
 toMasterFile() {
-	Iterator zentries = data.entrySet().iterator();
+	Snapshot s = snapshot;
+	Iterator zentries = s.data.entrySet().iterator();
 	StringBuffer sb = new StringBuffer();
-	nodeToString(sb, originNode);
+	nodeToString(sb, s.originNode);
 	while (zentries.hasNext()) {
 		Map.Entry entry = (Map.Entry) zentries.next();
 		if (!origin.equals(entry.getKey()))
-			nodeToString(sb, entry.getValue());
+			nodeToString(sb, (RRset []) entry.getValue());
 	}
 	return sb.toString();
 }
@@ -0,0 +1,510 @@
+/*
+ * Copyright 2014 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.dns.service;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import io.milton.dns.Name;
+import io.milton.dns.TextParseException;
+import io.milton.dns.record.DClass;
+import io.milton.dns.record.ExtendedFlags;
+import io.milton.dns.record.Flags;
+import io.milton.dns.record.Header;
+import io.milton.dns.record.MXRecord;
+import io.milton.dns.record.Message;
+import io.milton.dns.record.NSRecord;
+import io.milton.dns.record.OPTRecord;
+import io.milton.dns.record.Opcode;
+import io.milton.dns.record.Rcode;
+import io.milton.dns.record.Record;
+import io.milton.dns.record.SOARecord;
+import io.milton.dns.record.Section;
+import io.milton.dns.record.Type;
+import io.milton.dns.resource.DomainResource;
+import io.milton.dns.resource.DomainResourceFactory;
+import io.milton.dns.resource.DomainResourceRecord;
+import io.milton.dns.resource.NonAuthoritativeException;
+import io.milton.dns.resource.ZoneDomainResource;
+import io.milton.dns.utils.RecordTypes;
+import io.milton.dns.utils.Utils;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Answers queries authoritatively from the data of a DomainResourceFactory.
+ *
+ * Answers are cached in wire format, keyed on the question and the query's
+ * EDNS flags, so a repeated query only copies the cached answer and patches
+ * in the query's ID, RD flag and question case. Answers are cached for the
+ * smallest TTL of their records, up to cacheTtlSeconds. At most
+ * maxCacheEntries answers are kept, the least recently used being dropped
+ * first. Call invalidate when a domain's data changes to drop its answers
+ * sooner.
+ *
+ * To serve over UDP and TCP:
+ *
+ * new NioDnsServer(new AuthoritativeQueryHandler(domainResourceFactory)).start();
+ *
+ * Zone transfers aren't supported.
+ *
+ * @author brad
+ */
+public class AuthoritativeQueryHandler implements QueryHandler {
+
+	private static final Logger log = LoggerFactory.getLogger(AuthoritativeQueryHandler.class);
+	private static final int FLAG_QR = 0x8000;
+	private static final int FLAG_AA = 0x0400;
+	private static final int FLAG_TC = 0x0200;
+	private static final int FLAG_RD = 0x0100;
+	private static final int EDNS = 1;
+	private static final int EDNS_DO = 2;
+	private final DomainResourceFactory domainResourceFactory;
+	private final RecordTypes recordTypes = new RecordTypes();
+	private int cacheTtlSeconds = 60;
+	private int maxCacheEntries = 10000;
+	private final ConcurrentLinkedHashMap<Key, Answer> answers = new ConcurrentLinkedHashMap.Builder<Key, Answer>()
+			.maximumWeightedCapacity(maxCacheEntries)
+			.build();
+	private int maxUdpPayload = 4096;
+
+	public AuthoritativeQueryHandler(DomainResourceFactory domainResourceFactory) {
+		this.domainResourceFactory = domainResourceFactory;
+	}
+
+	@Override
+	public byte[] handleQuery(byte[] in, int length, TcpReplies tcp) throws IOException {
+		if (length < Header.LENGTH) {
+			return null;
+		}
+		int flags = u16(in, 2);
+		if ((flags & FLAG_QR) != 0) {
+			return null;
+		}
+		// the common case is a single question, maybe with an OPT record,
+		// which can be answered from the cache without parsing
+		int opcode = (flags >> 11) & 0xf;
+		if (opcode != Opcode.QUERY || u16(in, 4) != 1 || u16(in, 6) != 0 || u16(in, 8) != 0 || u16(in, 10) > 1) {
+			return slowQuery(in, length, tcp);
+		}
+		int pos = Header.LENGTH;
+		while (pos < length && in[pos] != 0) {
+			if ((in[pos] & 0xc0) != 0) {
+				return slowQuery(in, length, tcp);
+			}
+			pos += (in[pos] & 0xff) + 1;
+		}
+		int questionEnd = pos + 5;
+		if (questionEnd > length) {
+			return slowQuery(in, length, tcp);
+		}
+		int ednsFlags = 0;
+		int payloadSize = 0;
+		if (u16(in, 10) == 1) {
+			// an OPT record has the root name, 2 byte type and payload size,
+			// then extended rcode, version and 2 bytes of flags
+			if (questionEnd + 11 > length || in[questionEnd] != 0 || u16(in, questionEnd + 1) != Type.OPT) {
+				return slowQuery(in, length, tcp);
+			}
+			payloadSize = u16(in, questionEnd + 3);
+			ednsFlags = EDNS;
+			if ((u16(in, questionEnd + 7) & ExtendedFlags.DO) != 0) {
+				ednsFlags |= EDNS_DO;
+			}
+		}
+
+		Key key = new Key(in, questionEnd, ednsFlags);
+		Answer answer = answers.get(key);
+		if (answer == null || answer.expired()) {
+			Message query = new Message(Arrays.copyOf(in, length));
+			Record question = query.getQuestion();
+			Message response = buildResponse(question, query.getOPT());
+			answer = new Answer(question.getName(), response.toWire(), ttl(response));
+			if (response.getRcode() != Rcode.SERVFAIL && answer.expires > System.currentTimeMillis()) {
+				answers.put(key, answer);
+			}
+		}
+
+		int maxLength = tcp != null ? 65535 : udpLimit(ednsFlags, payloadSize);
+		if (answer.wire.length > maxLength) {
+			return truncated(in, questionEnd, ednsFlags);
+		}
+		byte[] reply = answer.wire.clone();
+		reply[0] = in[0];
+		reply[1] = in[1];
+		reply[2] = (byte) ((reply[2] & ~(FLAG_RD >> 8)) | (in[2] & (FLAG_RD >> 8)));
+		// same name, so same length, but maybe with different case
+		System.arraycopy(in, Header.LENGTH, reply, Header.LENGTH, questionEnd - 4 - Header.LENGTH);
+		return reply;
+	}
+
+	/**
+	 * Drop cached answers for the given domain and all names below it
+	 *
+	 * @param domainName
+	 */
+	public void invalidate(String domainName) {
+		Name domain;
+		try {
+			domain = Utils.stringToName(domainName);
+		} catch (TextParseException e) {
+			throw new IllegalArgumentException("Invalid domain name: " + domainName, e);
+		}
+		Iterator<Answer> it = answers.values().iterator();
+		while (it.hasNext()) {
+			if (it.next().name.subdomain(domain)) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Drop all cached answers
+	 */
+	public void invalidateAll() {
+		answers.clear();
+	}
+
+	/**
+	 * @return - the number of cached answers
+	 */
+	public int getCacheSize() {
+		return answers.size();
+	}
+
+	/**
+	 * Queries which can't be answered from the cache, such as those with
+	 * several questions, compressed question names or a TSIG, are parsed in
+	 * full and answered without caching
+	 */
+	private byte[] slowQuery(byte[] in, int length, TcpReplies tcp) {
+		Message query;
+		try {
+			query = new Message(Arrays.copyOf(in, length));
+		} catch (IOException e) {
+			log.trace("malformed query", e);
+			Header header = new Header(u16(in, 0));
+			header.setFlag(Flags.QR);
+			header.setRcode(Rcode.FORMERR);
+			return header.toWire();
+		}
+		Header header = query.getHeader();
+		Message response;
+		Record question = query.getQuestion();
+		if (header.getOpcode() != Opcode.QUERY) {
+			response = errorResponse(question, Rcode.NOTIMP);
+		} else if (question == null) {
+			response = errorResponse(null, Rcode.FORMERR);
+		} else {
+			response = buildResponse(question, query.getOPT());
+		}
+		response.getHeader().setID(header.getID());
+		if (header.getFlag(Flags.RD)) {
+			response.getHeader().setFlag(Flags.RD);
+		}
+		OPTRecord opt = query.getOPT();
+		int maxLength = tcp != null ? 65535 : udpLimit(opt == null ? 0 : EDNS, opt == null ? 0 : opt.getPayloadSize());
+		return response.toWire(maxLength);
+	}
+
+	private Message buildResponse(Record question, OPTRecord queryOpt) {
+		Message response;
+		try {
+			response = lookup(question);
+		} catch (NonAuthoritativeException e) {
+			response = errorResponse(question, Rcode.REFUSED);
+		} catch (TextParseException e) {
+			log.warn("invalid name in records for " + question.getName(), e);
+			response = errorResponse(question, Rcode.SERVFAIL);
+		} catch (RuntimeException e) {
+			log.error("exception looking up " + question.getName(), e);
+			response = errorResponse(question, Rcode.SERVFAIL);
+		}
+		if (queryOpt != null) {
+			int flags = queryOpt.getFlags() & ExtendedFlags.DO;
+			response.addRecord(new OPTRecord(maxUdpPayload, 0, 0, flags), Section.ADDITIONAL);
+		}
+		return response;
+	}
+
+	private Message lookup(Record question) throws NonAuthoritativeException, TextParseException {
+		Name name = question.getName();
+		int type = question.getType();
+		if ((question.getDClass() != DClass.IN && question.getDClass() != DClass.ANY) || type == Type.AXFR || type == Type.IXFR) {
+			return errorResponse(question, Rcode.REFUSED);
+		}
+		Message response = new Message();
+		response.getHeader().setFlag(Flags.QR);
+		response.getHeader().setFlag(Flags.AA);
+		response.addRecord(question, Section.QUESTION);
+
+		DomainResource dr = domainResourceFactory.getDomainResource(Utils.nameToString(name));
+		List<Record> found = new ArrayList<Record>();
+		if (dr != null) {
+			for (Record r : records(dr)) {
+				if (type == Type.ANY || r.getType() == type) {
+					found.add(r);
+				}
+			}
+		}
+		if (found.isEmpty()) {
+			if (dr == null) {
+				response.getHeader().setRcode(Rcode.NXDOMAIN);
+			}
+			SOARecord soa = findSoa(name, dr);
+			if (soa != null) {
+				response.addRecord(soa, Section.AUTHORITY);
+			}
+			return response;
+		}
+		for (Record r : found) {
+			response.addRecord(r, Section.ANSWER);
+		}
+		for (Record r : found) {
+			Name target = null;
+			if (r instanceof MXRecord) {
+				target = ((MXRecord) r).getTarget();
+			} else if (r instanceof NSRecord) {
+				target = ((NSRecord) r).getTarget();
+			}
+			if (target != null) {
+				addAddresses(response, target);
+			}
+		}
+		return response;
+	}
+
+	/**
+	 * Add the addresses of an MX or NS target, if we have them
+	 */
+	private void addAddresses(Message response, Name target) throws TextParseException {
+		DomainResource dr;
+		try {
+			dr = domainResourceFactory.getDomainResource(Utils.nameToString(target));
+		} catch (NonAuthoritativeException e) {
+			return;
+		}
+		if (dr == null) {
+			return;
+		}
+		for (Record r : records(dr)) {
+			if ((r.getType() == Type.A || r.getType() == Type.AAAA) && !response.findRecord(r, Section.ADDITIONAL)) {
+				response.addRecord(r, Section.ADDITIONAL);
+			}
+		}
+	}
+
+	/**
+	 * Find the SOA of the zone containing the name, for negative answers
+	 */
+	private SOARecord findSoa(Name name, DomainResource dr) throws TextParseException {
+		int labels = name.labels();
+		for (int i = 0; i < labels; i++) {
+			if (i > 0) {
+				try {
+					dr = domainResourceFactory.getDomainResource(Utils.nameToString(new Name(name, i)));
+				} catch (NonAuthoritativeException e) {
+					return null;
+				}
+			}
+			if (dr instanceof ZoneDomainResource) {
+				for (Record r : records(dr)) {
+					if (r instanceof SOARecord) {
+						return (SOARecord) r;
+					}
+				}
+				return null;
+			}
+		}
+		return null;
+	}
+
+	private List<Record> records(DomainResource dr) throws TextParseException {
+		List<Record> list = new ArrayList<Record>();
+		List<DomainResourceRecord> records = dr.getRecords();
+		if (records != null) {
+			Name name = Utils.stringToName(dr.getName());
+			for (DomainResourceRecord drr : records) {
+				Record r = recordTypes.map(name, drr);
+				if (r != null) {
+					list.add(r);
+				}
+			}
+		}
+		return list;
+	}
+
+	private Message errorResponse(Record question, int rcode) {
+		Message response = new Message();
+		response.getHeader().setFlag(Flags.QR);
+		response.getHeader().setRcode(rcode);
+		if (question != null) {
+			response.addRecord(question, Section.QUESTION);
+		}
+		return response;
+	}
+
+	/**
+	 * How long the response can be cached for, in seconds. Negative answers
+	 * use the SOA minimum, as for caching resolvers
+	 */
+	private long ttl(Message response) {
+		long ttl = cacheTtlSeconds;
+		for (int section = Section.ANSWER; section <= Section.ADDITIONAL; section++) {
+			for (Record r : response.getSectionArray(section)) {
+				if (r instanceof OPTRecord) {
+					continue;
+				}
+				ttl = Math.min(ttl, r.getTTL());
+				if (r instanceof SOARecord) {
+					ttl = Math.min(ttl, ((SOARecord) r).getMinimum());
+				}
+			}
+		}
+		return ttl;
+	}
+
+	private int udpLimit(int ednsFlags, int payloadSize) {
+		if ((ednsFlags & EDNS) == 0) {
+			return 512;
+		}
+		return Math.max(512, Math.min(payloadSize, maxUdpPayload));
+	}
+
+	/**
+	 * An empty response with TC set, telling the client to retry over TCP
+	 */
+	private byte[] truncated(byte[] in, int questionEnd, int ednsFlags) {
+		boolean edns = (ednsFlags & EDNS) != 0;
+		byte[] reply = new byte[questionEnd + (edns ? 11 : 0)];
+		System.arraycopy(in, 0, reply, 0, questionEnd);
+		int flags = FLAG_QR | FLAG_AA | FLAG_TC | (u16(in, 2) & FLAG_RD);
+		reply[2] = (byte) (flags >> 8);
+		reply[3] = (byte) flags;
+		reply[11] = (byte) (edns ? 1 : 0);
+		if (edns) {
+			int pos = questionEnd;
+			reply[pos + 1] = (byte) (Type.OPT >> 8);
+			reply[pos + 2] = (byte) Type.OPT;
+			reply[pos + 3] = (byte) (maxUdpPayload >> 8);
+			reply[pos + 4] = (byte) maxUdpPayload;
+			if ((ednsFlags & EDNS_DO) != 0) {
+				reply[pos + 7] = (byte) (ExtendedFlags.DO >> 8);
+			}
+		}
+		return reply;
+	}
+
+	private static int u16(byte[] b, int pos) {
+		return ((b[pos] & 0xff) << 8) | (b[pos + 1] & 0xff);
+	}
+
+	/**
+	 * The question in wire format with the name in lower case, and the EDNS
+	 * flags which change the answer
+	 */
+	private static class Key {
+
+		private final byte[] question;
+		private final int hash;
+
+		Key(byte[] in, int questionEnd, int ednsFlags) {
+			question = new byte[questionEnd - Header.LENGTH + 1];
+			int nameEnd = questionEnd - 4;
+			for (int i = Header.LENGTH; i < questionEnd; i++) {
+				byte b = in[i];
+				if (i < nameEnd && b >= 'A' && b <= 'Z') {
+					b = (byte) (b + ('a' - 'A'));
+				}
+				question[i - Header.LENGTH] = b;
+			}
+			question[question.length - 1] = (byte) ednsFlags;
+			hash = Arrays.hashCode(question);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Key && Arrays.equals(question, ((Key) obj).question);
+		}
+	}
+
+	private static class Answer {
+
+		final Name name;
+		final byte[] wire;
+		final long expires;
+
+		Answer(Name name, byte[] wire, long ttlSeconds) {
+			this.name = name;
+			this.wire = wire;
+			this.expires = System.currentTimeMillis() + ttlSeconds * 1000;
+		}
+
+		boolean expired() {
+			return System.currentTimeMillis() >= expires;
+		}
+	}
+
+	public int getCacheTtlSeconds() {
+		return cacheTtlSeconds;
+	}
+
+	/**
+	 * The longest time an answer is cached for, even if its records have
+	 * longer TTLs. Default 60. Use 0 to disable caching
+	 *
+	 * @param cacheTtlSeconds
+	 */
+	public void setCacheTtlSeconds(int cacheTtlSeconds) {
+		this.cacheTtlSeconds = cacheTtlSeconds;
+	}
+
+	public int getMaxCacheEntries() {
+		return maxCacheEntries;
+	}
+
+	/**
+	 * The most answers to cache. Default 10000
+	 *
+	 * @param maxCacheEntries
+	 */
+	public void setMaxCacheEntries(int maxCacheEntries) {
+		this.maxCacheEntries = maxCacheEntries;
+		answers.setCapacity(maxCacheEntries);
+	}
+
+	public int getMaxUdpPayload() {
+		return maxUdpPayload;
+	}
+
+	/**
+	 * The largest UDP response to send to EDNS clients, which is also
+	 * advertised in our OPT records. Default 4096
+	 *
+	 * @param maxUdpPayload
+	 */
+	public void setMaxUdpPayload(int maxUdpPayload) {
+		this.maxUdpPayload = maxUdpPayload;
+	}
+}
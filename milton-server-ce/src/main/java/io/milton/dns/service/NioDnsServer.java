@@ -0,0 +1,775 @@
+/*
+ * Copyright 2014 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.dns.service;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves DNS over UDP and TCP using non-blocking IO, passing each query to a
+ * QueryHandler on a pool of worker threads.
+ *
+ * For UDP there are several channels bound to the same address and port with
+ * SO_REUSEPORT, one per core by default (udpChannels), so the kernel spreads
+ * queries over them. Each channel has a thread which receives into pooled
+ * buffers sized for EDNS0 payloads (maxUdpPayload) and hands the query to the
+ * workers. Where SO_REUSEPORT isn't available (it needs java 9 and a
+ * supporting OS) a single channel is used.
+ *
+ * TCP connections are handled by a single selector thread, which frames
+ * queries by their length prefix. Queries on a connection are handled
+ * concurrently, so replies may be sent in a different order, as allowed by
+ * RFC 7766. Connections which are idle for tcpIdleTimeoutMillis are closed.
+ *
+ * If the workers and their queue (workerQueueSize) are all busy, queries are
+ * dropped rather than queued without limit. Clients will retry.
+ *
+ * @author brad
+ */
+public class NioDnsServer {
+
+	private static final Logger log = LoggerFactory.getLogger(NioDnsServer.class);
+	private final QueryHandler handler;
+	private String bindAddress;
+	private int port = 53;
+	private int udpChannels = Runtime.getRuntime().availableProcessors();
+	private int workerThreads = Runtime.getRuntime().availableProcessors();
+	private int workerQueueSize = 4096;
+	private int maxUdpPayload = 4096;
+	private int udpReceiveBufferSize = 1024 * 1024;
+	private int maxTcpConnections = 1024;
+	private int tcpIdleTimeoutMillis = 10000;
+	private int maxPendingWriteBytes = 1024 * 1024;
+	private boolean daemon = true;
+	private final List<DatagramChannel> udp = new ArrayList<DatagramChannel>();
+	private final List<Thread> threads = new ArrayList<Thread>();
+	private final ConcurrentLinkedQueue<Runnable> selectorTasks = new ConcurrentLinkedQueue<Runnable>();
+	private final AtomicInteger tcpConnections = new AtomicInteger();
+	private final AtomicLong dropped = new AtomicLong();
+	private ServerSocketChannel tcp;
+	private Selector selector;
+	private Thread selectorThread;
+	private ThreadPoolExecutor workers;
+	private BufferPool buffers;
+	private volatile boolean running;
+
+	public NioDnsServer(QueryHandler handler) {
+		this.handler = handler;
+	}
+
+	/**
+	 * Bind the UDP channels and TCP listener, and start the threads
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void start() throws IOException {
+		if (running) {
+			return;
+		}
+		InetAddress addr = null;
+		if (bindAddress != null && bindAddress.length() > 0) {
+			addr = InetAddress.getByName(bindAddress);
+		}
+		int threadCount = Math.max(1, workerThreads);
+		workers = new ThreadPoolExecutor(threadCount, threadCount, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(workerQueueSize), new NamedThreadFactory("DnsWorker", daemon));
+		int channelCount = Math.max(1, udpChannels);
+		// enough for every query which can be received or queued at once
+		buffers = new BufferPool(maxUdpPayload, workerQueueSize + threadCount + channelCount);
+
+		int boundPort = port;
+		for (int i = 0; i < channelCount; i++) {
+			DatagramChannel ch = DatagramChannel.open();
+			if (channelCount > 1) {
+				SocketOption<?> reusePort = reusePortOption(ch);
+				if (reusePort == null) {
+					log.info("SO_REUSEPORT is not supported, so using a single UDP channel");
+					channelCount = 1;
+				} else {
+					setOption(ch, reusePort, Boolean.TRUE);
+				}
+			}
+			if (udpReceiveBufferSize > 0) {
+				ch.setOption(StandardSocketOptions.SO_RCVBUF, udpReceiveBufferSize);
+			}
+			ch.bind(new InetSocketAddress(addr, boundPort));
+			boundPort = ((InetSocketAddress) ch.getLocalAddress()).getPort();
+			udp.add(ch);
+		}
+		tcp = ServerSocketChannel.open();
+		tcp.configureBlocking(false);
+		tcp.socket().setReuseAddress(true);
+		tcp.socket().bind(new InetSocketAddress(addr, boundPort), 128);
+		selector = Selector.open();
+		tcp.register(selector, SelectionKey.OP_ACCEPT);
+		log.info("Starting NIO DNS server on " + (addr == null ? "all interfaces" : addr.getHostAddress()) + " port " + boundPort + " with " + udp.size() + " UDP channels and " + threadCount + " workers");
+
+		running = true;
+		for (int i = 0; i < udp.size(); i++) {
+			final DatagramChannel ch = udp.get(i);
+			Thread t = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					receive(ch);
+				}
+			}, "DnsUdp-" + i);
+			t.setDaemon(daemon);
+			threads.add(t);
+			t.start();
+		}
+		selectorThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				selectLoop();
+			}
+		}, "DnsTcp");
+		selectorThread.setDaemon(daemon);
+		threads.add(selectorThread);
+		selectorThread.start();
+	}
+
+	/**
+	 * Close the channels and stop the threads
+	 */
+	public synchronized void stop() {
+		if (!running) {
+			return;
+		}
+		running = false;
+		for (DatagramChannel ch : udp) {
+			try {
+				ch.close();
+			} catch (IOException ex) {
+				log.warn("exception closing UDP channel", ex);
+			}
+		}
+		try {
+			tcp.close();
+		} catch (IOException ex) {
+			log.warn("exception closing TCP channel", ex);
+		}
+		selector.wakeup();
+		for (Thread t : threads) {
+			try {
+				t.join(5000);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		workers.shutdownNow();
+		udp.clear();
+		threads.clear();
+	}
+
+	/**
+	 * The port actually bound, which is useful if port was 0
+	 *
+	 * @return
+	 */
+	public int getLocalPort() {
+		return tcp == null ? -1 : tcp.socket().getLocalPort();
+	}
+
+	/**
+	 * @return - the number of UDP channels bound, which is 1 if SO_REUSEPORT
+	 * isn't available
+	 */
+	public int getUdpChannelCount() {
+		return udp.size();
+	}
+
+	/**
+	 * @return - the number of queries dropped because the workers were busy
+	 */
+	public long getDroppedQueries() {
+		return dropped.get();
+	}
+
+	private void receive(DatagramChannel ch) {
+		while (running) {
+			byte[] buf = buffers.take();
+			ByteBuffer bb = ByteBuffer.wrap(buf);
+			SocketAddress from;
+			try {
+				from = ch.receive(bb);
+			} catch (ClosedChannelException e) {
+				buffers.release(buf);
+				return;
+			} catch (IOException e) {
+				log.warn("exception receiving UDP query", e);
+				buffers.release(buf);
+				continue;
+			}
+			dispatch(new UdpQuery(ch, from, buf, bb.position()));
+		}
+	}
+
+	private void dispatch(Query q) {
+		try {
+			workers.execute(q);
+		} catch (RejectedExecutionException e) {
+			dropped.incrementAndGet();
+			q.rejected();
+		}
+	}
+
+	private void selectLoop() {
+		long lastIdleCheck = System.currentTimeMillis();
+		while (running) {
+			try {
+				selector.select(1000);
+				Runnable task;
+				while ((task = selectorTasks.poll()) != null) {
+					task.run();
+				}
+				for (SelectionKey key : selector.selectedKeys()) {
+					handle(key);
+				}
+				selector.selectedKeys().clear();
+				long now = System.currentTimeMillis();
+				if (now - lastIdleCheck >= 1000) {
+					lastIdleCheck = now;
+					closeIdle(now);
+				}
+			} catch (IOException ex) {
+				log.error("Exception in selector loop", ex);
+			}
+		}
+		for (SelectionKey key : new ArrayList<SelectionKey>(selector.keys())) {
+			if (key.attachment() instanceof TcpConnection) {
+				((TcpConnection) key.attachment()).close();
+			}
+		}
+		try {
+			selector.close();
+		} catch (IOException ex) {
+			log.warn("exception closing selector", ex);
+		}
+	}
+
+	private void handle(SelectionKey key) {
+		if (!key.isValid()) {
+			return;
+		}
+		if (key.attachment() == null) {
+			if (key.isAcceptable()) {
+				try {
+					accept();
+				} catch (IOException e) {
+					if (tcp.isOpen()) {
+						log.warn("exception accepting TCP connection", e);
+					}
+				}
+			}
+			return;
+		}
+		TcpConnection c = (TcpConnection) key.attachment();
+		try {
+			if (key.isReadable()) {
+				c.read();
+			}
+			if (key.isValid() && key.isWritable()) {
+				c.flushQueue();
+			}
+		} catch (IOException e) {
+			log.debug("TCP connection closed", e);
+			c.close();
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = tcp.accept()) != null) {
+			if (tcpConnections.incrementAndGet() > maxTcpConnections) {
+				tcpConnections.decrementAndGet();
+				log.warn("Too many TCP connections, refusing " + channel.socket().getInetAddress());
+				channel.close();
+				continue;
+			}
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			TcpConnection c = new TcpConnection(channel);
+			c.key = channel.register(selector, SelectionKey.OP_READ, c);
+		}
+	}
+
+	private void closeIdle(long now) {
+		if (tcpIdleTimeoutMillis <= 0) {
+			return;
+		}
+		List<TcpConnection> idle = new ArrayList<TcpConnection>();
+		for (SelectionKey key : selector.keys()) {
+			if (key.attachment() instanceof TcpConnection) {
+				TcpConnection c = (TcpConnection) key.attachment();
+				if (now - c.lastActive > tcpIdleTimeoutMillis) {
+					idle.add(c);
+				}
+			}
+		}
+		for (TcpConnection c : idle) {
+			log.debug("closing idle TCP connection");
+			c.close();
+		}
+	}
+
+	/**
+	 * Run the task on the selector thread
+	 */
+	private void executeOnSelector(Runnable task) {
+		selectorTasks.add(task);
+		selector.wakeup();
+	}
+
+	/**
+	 * SO_REUSEPORT is only defined in StandardSocketOptions from java 9, so
+	 * look for it among the options the channel supports
+	 *
+	 * @return - the option, or null if not supported
+	 */
+	private static SocketOption<?> reusePortOption(DatagramChannel ch) {
+		for (SocketOption<?> option : ch.supportedOptions()) {
+			if (option.name().equals("SO_REUSEPORT") && option.type() == Boolean.class) {
+				return option;
+			}
+		}
+		return null;
+	}
+
+	private static <T> void setOption(DatagramChannel ch, SocketOption<T> option, Object value) throws IOException {
+		ch.setOption(option, option.type().cast(value));
+	}
+
+	private abstract class Query implements Runnable {
+
+		final byte[] in;
+		final int length;
+
+		Query(byte[] in, int length) {
+			this.in = in;
+			this.length = length;
+		}
+
+		void rejected() {
+		}
+	}
+
+	private class UdpQuery extends Query {
+
+		private final DatagramChannel channel;
+		private final SocketAddress from;
+
+		UdpQuery(DatagramChannel channel, SocketAddress from, byte[] in, int length) {
+			super(in, length);
+			this.channel = channel;
+			this.from = from;
+		}
+
+		@Override
+		public void run() {
+			try {
+				byte[] reply = handler.handleQuery(in, length, null);
+				if (reply != null) {
+					channel.send(ByteBuffer.wrap(reply), from);
+				}
+			} catch (ClosedChannelException e) {
+				log.trace("channel closed");
+			} catch (IOException e) {
+				log.warn("exception replying to " + from, e);
+			} catch (RuntimeException e) {
+				log.error("exception handling query from " + from, e);
+			} finally {
+				buffers.release(in);
+			}
+		}
+
+		@Override
+		void rejected() {
+			buffers.release(in);
+		}
+	}
+
+	private class TcpQuery extends Query {
+
+		private final TcpConnection connection;
+
+		TcpQuery(TcpConnection connection, byte[] in) {
+			super(in, in.length);
+			this.connection = connection;
+		}
+
+		@Override
+		public void run() {
+			try {
+				byte[] reply = handler.handleQuery(in, length, connection);
+				if (reply != null) {
+					connection.send(reply);
+				}
+			} catch (IOException e) {
+				log.debug("exception replying over TCP", e);
+				connection.close();
+			} catch (RuntimeException e) {
+				log.error("exception handling TCP query", e);
+				connection.close();
+			}
+		}
+	}
+
+	/**
+	 * Reads happen on the selector thread, and replies are written by the
+	 * worker which produced them, or the selector thread if the socket can't
+	 * take them immediately
+	 */
+	private class TcpConnection implements QueryHandler.TcpReplies {
+
+		private final SocketChannel channel;
+		private final ArrayDeque<ByteBuffer> writeQueue = new ArrayDeque<ByteBuffer>();
+		private ByteBuffer in = ByteBuffer.allocate(514);
+		private SelectionKey key;
+		private int pendingWriteBytes;
+		private volatile boolean closed;
+		private volatile long lastActive = System.currentTimeMillis();
+
+		TcpConnection(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		void read() throws IOException {
+			int n = channel.read(in);
+			if (n < 0) {
+				throw new IOException("EOF");
+			}
+			lastActive = System.currentTimeMillis();
+			in.flip();
+			try {
+				while (in.remaining() >= 2) {
+					int len = in.getShort(in.position()) & 0xffff;
+					if (in.remaining() < 2 + len) {
+						if (in.capacity() < 2 + len) {
+							ByteBuffer b = ByteBuffer.allocate(2 + len);
+							b.put(in);
+							in = b;
+							in.flip();
+						}
+						break;
+					}
+					in.getShort();
+					byte[] query = new byte[len];
+					in.get(query);
+					dispatch(new TcpQuery(this, query));
+				}
+			} finally {
+				in.compact();
+			}
+		}
+
+		/**
+		 * Queue the message with its length prefix, waiting if too much is
+		 * already queued
+		 */
+		@Override
+		public synchronized void send(byte[] message) throws IOException {
+			if (closed) {
+				throw new IOException("Connection is closed");
+			}
+			ByteBuffer buf = ByteBuffer.allocate(2 + message.length);
+			buf.putShort((short) message.length);
+			buf.put(message);
+			buf.flip();
+			writeQueue.add(buf);
+			pendingWriteBytes += buf.remaining();
+			lastActive = System.currentTimeMillis();
+			flushQueue();
+			while (pendingWriteBytes > maxPendingWriteBytes && !closed) {
+				try {
+					wait(1000);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted waiting to write");
+				}
+			}
+		}
+
+		synchronized void flushQueue() throws IOException {
+			while (!writeQueue.isEmpty()) {
+				ByteBuffer buf = writeQueue.peek();
+				pendingWriteBytes -= channel.write(buf);
+				if (buf.hasRemaining()) {
+					break;
+				}
+				writeQueue.poll();
+			}
+			final boolean wantWrite = !writeQueue.isEmpty();
+			if (key != null && key.isValid() && ((key.interestOps() & SelectionKey.OP_WRITE) != 0) != wantWrite) {
+				if (Thread.currentThread() == selectorThread) {
+					setWriteInterest(wantWrite);
+				} else {
+					executeOnSelector(new Runnable() {
+						@Override
+						public void run() {
+							synchronized (TcpConnection.this) {
+								setWriteInterest(!writeQueue.isEmpty());
+							}
+						}
+					});
+				}
+			}
+			if (pendingWriteBytes <= maxPendingWriteBytes) {
+				notifyAll();
+			}
+		}
+
+		private void setWriteInterest(boolean wantWrite) {
+			if (key != null && key.isValid()) {
+				int ops = key.interestOps();
+				key.interestOps(wantWrite ? ops | SelectionKey.OP_WRITE : ops & ~SelectionKey.OP_WRITE);
+			}
+		}
+
+		void close() {
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				if (key != null) {
+					key.cancel();
+				}
+				notifyAll();
+			}
+			tcpConnections.decrementAndGet();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				log.debug("exception closing TCP connection", e);
+			}
+		}
+	}
+
+	/**
+	 * Receive buffers, reused so that a flood of queries doesn't make a flood
+	 * of garbage
+	 */
+	private static class BufferPool {
+
+		private final ConcurrentLinkedQueue<byte[]> free = new ConcurrentLinkedQueue<byte[]>();
+		private final AtomicInteger count = new AtomicInteger();
+		private final int bufferSize;
+		private final int maxBuffers;
+
+		BufferPool(int bufferSize, int maxBuffers) {
+			this.bufferSize = bufferSize;
+			this.maxBuffers = maxBuffers;
+		}
+
+		byte[] take() {
+			byte[] b = free.poll();
+			if (b == null) {
+				return new byte[bufferSize];
+			}
+			count.decrementAndGet();
+			return b;
+		}
+
+		void release(byte[] b) {
+			if (count.incrementAndGet() <= maxBuffers) {
+				free.add(b);
+			} else {
+				count.decrementAndGet();
+			}
+		}
+	}
+
+	private static class NamedThreadFactory implements ThreadFactory {
+
+		private final String prefix;
+		private final boolean daemon;
+		private final AtomicInteger count = new AtomicInteger();
+
+		NamedThreadFactory(String prefix, boolean daemon) {
+			this.prefix = prefix;
+			this.daemon = daemon;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+			t.setDaemon(daemon);
+			return t;
+		}
+	}
+
+	public String getBindAddress() {
+		return bindAddress;
+	}
+
+	/**
+	 * Address to listen on, or null for all interfaces
+	 *
+	 * @param bindAddress
+	 */
+	public void setBindAddress(String bindAddress) {
+		this.bindAddress = bindAddress;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * Port for both UDP and TCP, default 53. Use 0 for any free port
+	 *
+	 * @param port
+	 */
+	public void setPort(int port) {
+		this.port = port;
+	}
+
+	public int getUdpChannels() {
+		return udpChannels;
+	}
+
+	/**
+	 * Number of UDP channels and receiving threads, default is the number of
+	 * processors. Only used if SO_REUSEPORT is supported
+	 *
+	 * @param udpChannels
+	 */
+	public void setUdpChannels(int udpChannels) {
+		this.udpChannels = udpChannels;
+	}
+
+	public int getWorkerThreads() {
+		return workerThreads;
+	}
+
+	/**
+	 * Number of threads which call the QueryHandler, default is the number of
+	 * processors
+	 *
+	 * @param workerThreads
+	 */
+	public void setWorkerThreads(int workerThreads) {
+		this.workerThreads = workerThreads;
+	}
+
+	public int getWorkerQueueSize() {
+		return workerQueueSize;
+	}
+
+	/**
+	 * Number of queries which can wait for a worker before queries are dropped
+	 *
+	 * @param workerQueueSize
+	 */
+	public void setWorkerQueueSize(int workerQueueSize) {
+		this.workerQueueSize = workerQueueSize;
+	}
+
+	public int getMaxUdpPayload() {
+		return maxUdpPayload;
+	}
+
+	/**
+	 * Size of UDP receive buffers, default 4096 which is the usual EDNS0
+	 * payload size
+	 *
+	 * @param maxUdpPayload
+	 */
+	public void setMaxUdpPayload(int maxUdpPayload) {
+		this.maxUdpPayload = maxUdpPayload;
+	}
+
+	public int getUdpReceiveBufferSize() {
+		return udpReceiveBufferSize;
+	}
+
+	/**
+	 * SO_RCVBUF for the UDP channels, so bursts of queries aren't dropped by
+	 * the OS. Zero to use the OS default
+	 *
+	 * @param udpReceiveBufferSize
+	 */
+	public void setUdpReceiveBufferSize(int udpReceiveBufferSize) {
+		this.udpReceiveBufferSize = udpReceiveBufferSize;
+	}
+
+	public int getMaxTcpConnections() {
+		return maxTcpConnections;
+	}
+
+	public void setMaxTcpConnections(int maxTcpConnections) {
+		this.maxTcpConnections = maxTcpConnections;
+	}
+
+	public int getTcpIdleTimeoutMillis() {
+		return tcpIdleTimeoutMillis;
+	}
+
+	public void setTcpIdleTimeoutMillis(int tcpIdleTimeoutMillis) {
+		this.tcpIdleTimeoutMillis = tcpIdleTimeoutMillis;
+	}
+
+	public int getMaxPendingWriteBytes() {
+		return maxPendingWriteBytes;
+	}
+
+	/**
+	 * How much can be queued for writing to a TCP connection before the worker
+	 * sending to it waits
+	 *
+	 * @param maxPendingWriteBytes
+	 */
+	public void setMaxPendingWriteBytes(int maxPendingWriteBytes) {
+		this.maxPendingWriteBytes = maxPendingWriteBytes;
+	}
+
+	public boolean isDaemon() {
+		return daemon;
+	}
+
+	/**
+	 * If false the server's threads keep the JVM running until stop is
+	 * called, as needed by a standalone server. Default true
+	 *
+	 * @param daemon
+	 */
+	public void setDaemon(boolean daemon) {
+		this.daemon = daemon;
+	}
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2014 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.dns.service;
+
+import java.io.IOException;
+
+/**
+ * Generates replies to DNS queries received by NioDnsServer. Implementations
+ * are called concurrently from the server's worker threads, so must be thread
+ * safe
+ *
+ * @author brad
+ */
+public interface QueryHandler {
+
+	/**
+	 * Generate the reply to a query
+	 *
+	 * @param in - holds the query in wire format. The array is reused once
+	 * this returns, so must not be kept
+	 * @param length - the length of the query
+	 * @param tcp - null if the query arrived over UDP. For TCP this can be
+	 * used to send messages before the reply, eg for a zone transfer
+	 * @return - the reply in wire format, or null to send nothing more
+	 * @throws IOException
+	 */
+	byte[] handleQuery(byte[] in, int length, TcpReplies tcp) throws IOException;
+
+	/**
+	 * Sends messages on a TCP connection
+	 */
+	interface TcpReplies {
+
+		void send(byte[] message) throws IOException;
+	}
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2014 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.dns.tools;
+
+import io.milton.dns.Name;
+import io.milton.dns.record.DClass;
+import io.milton.dns.record.Message;
+import io.milton.dns.record.Record;
+import io.milton.dns.record.Type;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A simple load generator for measuring the queries per second and latency of
+ * a DNS server over UDP. Each thread sends a query and waits for the reply
+ * before sending the next.
+ *
+ * usage: DnsBenchmark [@server] [-p port] [-t threads] [-d seconds] name [type]
+ *
+ * @author brad
+ */
+public class DnsBenchmark {
+
+	/**
+	 * latencies are counted in buckets of 10 microseconds, up to 1 second
+	 */
+	private static final int BUCKET_MICROS = 10;
+	private static final int BUCKETS = 100000;
+
+	public static void main(String[] args) throws Exception {
+		String server = "127.0.0.1";
+		int port = 53;
+		int threads = 4;
+		int seconds = 10;
+		String name = null;
+		int type = Type.A;
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.startsWith("@")) {
+				server = arg.substring(1);
+			} else if (arg.equals("-p")) {
+				port = Integer.parseInt(args[++i]);
+			} else if (arg.equals("-t")) {
+				threads = Integer.parseInt(args[++i]);
+			} else if (arg.equals("-d")) {
+				seconds = Integer.parseInt(args[++i]);
+			} else if (name == null) {
+				name = arg;
+			} else {
+				type = Type.value(arg);
+			}
+		}
+		if (name == null) {
+			System.out.println("usage: DnsBenchmark [@server] [-p port] [-t threads] [-d seconds] name [type]");
+			return;
+		}
+		Result result = run(InetAddress.getByName(server), port, Name.fromString(name, Name.root), type, threads, seconds * 1000L);
+		System.out.println(result);
+	}
+
+	public static Result run(InetAddress server, int port, Name name, int type, int threads, long millis) throws InterruptedException {
+		final byte[] query = Message.newQuery(Record.newRecord(name, type, DClass.IN)).toWire();
+		final long end = System.currentTimeMillis() + millis;
+		List<Client> clients = new ArrayList<Client>();
+		for (int i = 0; i < threads; i++) {
+			Client c = new Client(server, port, query, end);
+			clients.add(c);
+			c.start();
+		}
+		Result result = new Result(millis);
+		for (Client c : clients) {
+			c.join();
+			result.add(c);
+		}
+		return result;
+	}
+
+	private static class Client extends Thread {
+
+		private final InetAddress server;
+		private final int port;
+		private final byte[] query;
+		private final long end;
+		private final long[] latencies = new long[BUCKETS];
+		private long replies;
+		private long timeouts;
+		private IOException error;
+
+		Client(InetAddress server, int port, byte[] query, long end) {
+			this.server = server;
+			this.port = port;
+			this.query = query.clone();
+			this.end = end;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			DatagramSocket socket = null;
+			try {
+				socket = new DatagramSocket();
+				socket.setSoTimeout(1000);
+				socket.connect(server, port);
+				DatagramPacket out = new DatagramPacket(query, query.length);
+				byte[] buf = new byte[4096];
+				DatagramPacket in = new DatagramPacket(buf, buf.length);
+				int id = (int) (Math.random() * 65536);
+				while (System.currentTimeMillis() < end) {
+					id = (id + 1) & 0xffff;
+					query[0] = (byte) (id >>> 8);
+					query[1] = (byte) id;
+					long start = System.nanoTime();
+					socket.send(out);
+					try {
+						do {
+							in.setLength(buf.length);
+							socket.receive(in);
+						} while (in.getLength() < 2 || ((buf[0] & 0xff) << 8 | (buf[1] & 0xff)) != id);
+					} catch (SocketTimeoutException e) {
+						timeouts++;
+						continue;
+					}
+					long micros = (System.nanoTime() - start) / 1000;
+					latencies[(int) Math.min(BUCKETS - 1, micros / BUCKET_MICROS)]++;
+					replies++;
+				}
+			} catch (IOException e) {
+				error = e;
+			} finally {
+				if (socket != null) {
+					socket.close();
+				}
+			}
+		}
+	}
+
+	public static class Result {
+
+		private final long millis;
+		private final long[] latencies = new long[BUCKETS];
+		private long replies;
+		private long timeouts;
+		private final List<IOException> errors = new ArrayList<IOException>();
+
+		Result(long millis) {
+			this.millis = millis;
+		}
+
+		void add(Client c) {
+			for (int i = 0; i < BUCKETS; i++) {
+				latencies[i] += c.latencies[i];
+			}
+			replies += c.replies;
+			timeouts += c.timeouts;
+			if (c.error != null) {
+				errors.add(c.error);
+			}
+		}
+
+		public long getReplies() {
+			return replies;
+		}
+
+		public long getTimeouts() {
+			return timeouts;
+		}
+
+		public double getQueriesPerSecond() {
+			return replies * 1000.0 / millis;
+		}
+
+		/**
+		 * @param percentile - eg 99.9
+		 * @return - latency in microseconds
+		 */
+		public long getLatencyMicros(double percentile) {
+			long target = (long) Math.ceil(replies * percentile / 100);
+			long count = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				count += latencies[i];
+				if (count >= target && count > 0) {
+					return (i + 1) * (long) BUCKET_MICROS;
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d replies, %d timeouts, %.0f qps, latency p50 %dus p99 %dus p99.9 %dus%s", replies, timeouts, getQueriesPerSecond(), getLatencyMicros(50), getLatencyMicros(99), getLatencyMicros(99.9), errors.isEmpty() ? "" : ", errors: " + errors);
+		}
+	}
+}
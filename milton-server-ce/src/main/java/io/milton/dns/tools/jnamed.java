@@ -53,6 +53,8 @@ import io.milton.dns.record.TSIGRecord;
 import io.milton.dns.record.Type;
 import io.milton.dns.record.Zone;
 import io.milton.dns.record.ZoneTransferException;
+import io.milton.dns.service.NioDnsServer;
+import io.milton.dns.service.QueryHandler;
 
 import java.io.*;
 import java.net.*;
@@ -61,7 +63,7 @@ import java.util.*;
 
 /** @author Brian Wellington &lt;bwelling@xbill.org&gt; */
 
-public class jnamed {
+public class jnamed implements QueryHandler {
 
 static final int FLAG_DNSSECOK = 1;
 static final int FLAG_SIGONLY = 2;
@@ -69,6 +71,7 @@ static final int FLAG_SIGONLY = 2;
 Map caches;
 Map znames;
 Map TSIGs;
+List servers = new ArrayList();
 
 private static String
 addrport(InetAddress addr, int port) {
@@ -148,8 +151,7 @@ jnamed(String conffile) throws IOException, ZoneTransferException {
 			Iterator iport = ports.iterator();
 			while (iport.hasNext()) {
 				int port = ((Integer)iport.next());
-				addUDP(addr, port);
-				addTCP(addr, port);
+				addServer(addr, port);
 				System.out.println("jnamed: listening on " +
 						   addrport(addr, port));
 			}
@@ -187,12 +189,14 @@ addTSIG(String algstr, String namestr, String key) throws IOException {
 
 public Cache
 getCache(int dclass) {
-	Cache c = (Cache) caches.get(new Integer(dclass));
-	if (c == null) {
-		c = new Cache(dclass);
-		caches.put(new Integer(dclass), c);
+	synchronized (caches) {
+		Cache c = (Cache) caches.get(new Integer(dclass));
+		if (c == null) {
+			c = new Cache(dclass);
+			caches.put(new Integer(dclass), c);
+		}
+		return c;
 	}
-	return c;
 }
 
 public Zone
@@ -396,15 +400,15 @@ addAnswer(Message response, Name name, int type, int dclass,
 }
 
 byte []
-doAXFR(Name name, Message query, TSIG tsig, TSIGRecord qtsig, Socket s) {
+doAXFR(Name name, Message query, TSIG tsig, TSIGRecord qtsig,
+       QueryHandler.TcpReplies out)
+{
 	Zone zone = (Zone) znames.get(name);
 	boolean first = true;
 	if (zone == null)
 		return errorMessage(query, Rcode.REFUSED);
 	Iterator it = zone.AXFR();
 	try {
-		DataOutputStream dataOut;
-		dataOut = new DataOutputStream(s.getOutputStream());
 		int id = query.getHeader().getID();
 		while (it.hasNext()) {
 			RRset rrset = (RRset) it.next();
@@ -419,19 +423,12 @@ doAXFR(Name name, Message query, TSIG tsig, TSIGRecord qtsig, Socket s) {
 				qtsig = response.getTSIG();
 			}
 			first = false;
-			byte [] out = response.toWire();
-			dataOut.writeShort(out.length);
-			dataOut.write(out);
+			out.send(response.toWire());
 		}
 	}
 	catch (IOException ex) {
 		System.out.println("AXFR failed");
 	}
-	try {
-		s.close();
-	}
-	catch (IOException ex) {
-	}
 	return null;
 }
 
@@ -443,6 +440,28 @@ doAXFR(Name name, Message query, TSIG tsig, TSIGRecord qtsig, Socket s) {
 byte []
 generateReply(Message query, byte [] in, int length, Socket s)
 throws IOException
+{
+	QueryHandler.TcpReplies tcp = null;
+	if (s != null) {
+		final DataOutputStream dataOut;
+		dataOut = new DataOutputStream(s.getOutputStream());
+		tcp = new QueryHandler.TcpReplies() {
+			public void send(byte [] message) throws IOException {
+				dataOut.writeShort(message.length);
+				dataOut.write(message);
+			}
+		};
+	}
+	return generateReply(query, in, length, tcp);
+}
+
+/*
+ * tcp is null for queries over UDP
+ */
+byte []
+generateReply(Message query, byte [] in, int length,
+	      QueryHandler.TcpReplies tcp)
+throws IOException
 {
 	Header header;
 	boolean badversion;
@@ -472,7 +491,7 @@ throws IOException
 	if (queryOPT != null && queryOPT.getVersion() > 0)
 		badversion = true;
 
-	if (s != null)
+	if (tcp != null)
 		maxLength = 65535;
 	else if (queryOPT != null)
 		maxLength = Math.max(queryOPT.getPayloadSize(), 512);
@@ -491,8 +510,8 @@ throws IOException
 	Name name = queryRecord.getName();
 	int type = queryRecord.getType();
 	int dclass = queryRecord.getDClass();
-	if (type == Type.AXFR && s != null)
-		return doAXFR(name, query, tsig, queryTSIG, s);
+	if (type == Type.AXFR && tcp != null)
+		return doAXFR(name, query, tsig, queryTSIG, tcp);
 	if (!Type.isRR(type) && type != Type.ANY)
 		return errorMessage(query, Rcode.NOTIMP);
 
@@ -543,6 +562,17 @@ errorMessage(Message query, int rcode) {
 				 query.getQuestion());
 }
 
+public byte []
+handleQuery(byte [] in, int length, QueryHandler.TcpReplies tcp) {
+	try {
+		Message query = new Message(Arrays.copyOf(in, length));
+		return generateReply(query, in, length, tcp);
+	}
+	catch (IOException e) {
+		return formerrMessage(Arrays.copyOf(in, length));
+	}
+}
+
 public void
 TCPclient(Socket s) {
 	try {
@@ -626,7 +656,7 @@ serveUDP(InetAddress addr, int port) {
 				query = new Message(in);
 				response = generateReply(query, in,
 							 indp.getLength(),
-							 null);
+							 (Socket) null);
 				if (response == null)
 					continue;
 			}
@@ -653,6 +683,20 @@ serveUDP(InetAddress addr, int port) {
 	}
 }
 
+/*
+ * Serve UDP and TCP with an NioDnsServer, which answers queries on a pool
+ * of threads
+ */
+public void
+addServer(InetAddress addr, int port) throws IOException {
+	NioDnsServer server = new NioDnsServer(this);
+	server.setBindAddress(addr.getHostAddress());
+	server.setPort(port);
+	server.setDaemon(false);
+	server.start();
+	servers.add(server);
+}
+
 public void
 addTCP(final InetAddress addr, final int port) {
 	Thread t;
@@ -89,7 +89,7 @@ public class RecordTypes {
 			InetAddress add = r.getAddress();
 			if (Address.familyOf(add) == Address.IPv4) {
 				arr = new ARecord(name, DClass.IN, r.getTtl(), add);
-			} else if (Address.familyOf(add) == Address.IPv4) {
+			} else if (Address.familyOf(add) == Address.IPv6) {
 				arr = new AAAARecord(name, DClass.IN, r.getTtl(), add);
 			} else {
 				throw new RuntimeException("Unknown address type: " + add.getCanonicalHostName());
@@ -18,6 +18,7 @@ package io.milton.grizzly;
 
 import com.ning.http.client.AsyncHttpClient;
 import io.milton.http.HttpManager;
+import io.milton.http.RequestExecutors;
 import io.milton.mail.MailServer;
 import java.io.IOException;
 import java.security.Security;
@@ -101,12 +102,18 @@ public class GrizzlyLoadBalancer {
 			return false;
 		}
 
-		complexAppExecutorService
-				= GrizzlyExecutorService.createInstance(
-						ThreadPoolConfig.defaultConfig()
-						.copy()
-						.setCorePoolSize(5)
-						.setMaxPoolSize(5));
+		String executionMode = getPropertyOrDefault("executionMode", RequestExecutors.MODE_POOL);
+		int requestThreads = getPropertyOrDefaultInt("requestThreads", 5);
+		if (RequestExecutors.MODE_VIRTUAL.equals(executionMode)) {
+			complexAppExecutorService = RequestExecutors.forMode(executionMode, requestThreads);
+		} else {
+			complexAppExecutorService
+					= GrizzlyExecutorService.createInstance(
+							ThreadPoolConfig.defaultConfig()
+							.copy()
+							.setCorePoolSize(requestThreads)
+							.setMaxPoolSize(requestThreads));
+		}
 
 		String host = getPropertyOrDefault("host", null);
 
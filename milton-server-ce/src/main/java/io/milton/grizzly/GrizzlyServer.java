@@ -19,11 +19,14 @@ package io.milton.grizzly;
 
 import io.milton.config.HttpManagerBuilder;
 import io.milton.http.HttpManager;
+import io.milton.http.RequestExecutors;
 import io.milton.http.ResourceFactory;
 import io.milton.mail.MailServer;
 import io.milton.mail.MailServerBuilder;
 import java.io.IOException;
 import java.security.Security;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import org.apache.commons.lang.StringUtils;
 import org.glassfish.grizzly.http.server.HttpHandler;
 import org.glassfish.grizzly.http.server.HttpServer;
@@ -77,6 +80,7 @@ public class GrizzlyServer {
 	private MailServer mailServer;
 	private MiltonSNIService kademiSNIService;
 	private boolean running;
+	private ExecutorService requestExecutor;
 
 	public GrizzlyServer() {
 
@@ -146,18 +150,43 @@ public class GrizzlyServer {
             this.kademiSNIService.startOn(httpServer);
         }
 
+        if (requestExecutor == null) {
+            // worker (default) processes on grizzly's worker threads, virtual or pool hand off to an executor
+            String executionMode = getPropertyOrDefault("executionMode", RequestExecutors.MODE_WORKER);
+            int requestThreads = getPropertyOrDefaultInt("requestThreads", 200);
+            requestExecutor = RequestExecutors.forMode(executionMode, requestThreads);
+        }
+
         httpServer.getServerConfiguration().addHttpHandler(
                 new HttpHandler() {
                     @Override
-                    public void service(Request request, Response response) throws Exception {
+                    public void service(final Request request, final Response response) throws Exception {
                         log.trace("service");
-                        GrizzlyMiltonRequest req = new GrizzlyMiltonRequest(request);
-                        GrizzlyMiltonResponse resp = new GrizzlyMiltonResponse(response);
-                        String p = req.getAbsolutePath();
-                        long tm = System.currentTimeMillis();
-                        httpManager.process(req, resp);
-                        tm = System.currentTimeMillis() - tm;
-                        // todo
+                        final ExecutorService exec = requestExecutor;
+                        if (exec == null) {
+                            processRequest(request, response);
+                            return;
+                        }
+                        response.suspend();
+                        try {
+                            exec.execute(new Runnable() {
+
+                                @Override
+                                public void run() {
+                                    try {
+                                        processRequest(request, response);
+                                    } catch (Throwable e) {
+                                        log.error("Exception processing request: " + request.getRequestURI(), e);
+                                    } finally {
+                                        response.resume();
+                                    }
+                                }
+                            });
+                        } catch (RejectedExecutionException e) {
+                            log.warn("Request executor rejected request: {}", request.getRequestURI());
+                            response.setStatus(503);
+                            response.resume();
+                        }
                     }
                 },
                 "/");
@@ -168,6 +197,36 @@ public class GrizzlyServer {
         return true;
 	}
 
+	/**
+	 * Process the request with milton. This runs on the grizzly worker thread,
+	 * or on a thread from the requestExecutor if one is configured. Milton's
+	 * request context is bound to whichever thread calls HttpManager.process
+	 *
+	 * @param request
+	 * @param response
+	 */
+	protected void processRequest(Request request, Response response) {
+		GrizzlyMiltonRequest req = new GrizzlyMiltonRequest(request);
+		GrizzlyMiltonResponse resp = new GrizzlyMiltonResponse(response);
+		httpManager.process(req, resp);
+	}
+
+	/**
+	 * If set, each request is processed on this executor rather than on
+	 * grizzly's worker threads, with the response suspended until it completes.
+	 * Must be set before start. If not set, an executor is created according to
+	 * the kademi.executionMode system property, see RequestExecutors
+	 *
+	 * @return
+	 */
+	public ExecutorService getRequestExecutor() {
+		return requestExecutor;
+	}
+
+	public void setRequestExecutor(ExecutorService requestExecutor) {
+		this.requestExecutor = requestExecutor;
+	}
+
 	@SuppressWarnings("resource")
 	protected ConfigurableApplicationContext initSpringApplicationContext() {
 
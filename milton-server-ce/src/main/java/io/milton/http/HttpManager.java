@@ -26,6 +26,7 @@ import io.milton.http.exceptions.ConflictException;
 import io.milton.http.exceptions.NotAuthorizedException;
 import io.milton.http.http11.CustomPostHandler;
 import io.milton.http.http11.Http11ResponseHandler;
+import io.milton.http.metrics.RequestMetrics;
 import io.milton.http.webdav.WebDavResponseHandler;
 import io.milton.common.Stoppable;
 import io.milton.event.EventManager;
@@ -34,6 +35,8 @@ import io.milton.event.ResponseEvent;
 import io.milton.http.Request.Method;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,24 +51,50 @@ public class HttpManager {
 
 	private static final Logger log = LoggerFactory.getLogger(HttpManager.class);
 
-	private static final ThreadLocal<Request> tlRequest = new ThreadLocal<Request>();
-	private static final ThreadLocal<Response> tlResponse = new ThreadLocal<Response>();
+	private static final AtomicInteger inFlightRequests = new AtomicInteger();
+	private static final AtomicLong requestCounter = new AtomicLong();
 	private static final Map<Thread, RequestInfo> mapOfRequestsByThread = new ConcurrentHashMap<Thread, RequestInfo>();
 
+	/**
+	 * Only populated for sampled requests, see requestInfoSampleRate
+	 *
+	 * @param th
+	 * @return - info about the request being processed by the given thread, if
+	 * it was sampled, otherwise null
+	 */
 	public static RequestInfo getRequestDataForThread(Thread th) {
 		return mapOfRequestsByThread.get(th);
 	}
 
+	/**
+	 *
+	 * @return - snapshot of currently registered (ie sampled) in-flight requests
+	 */
+	public static Map<Thread, RequestInfo> getSampledRequests() {
+		return new HashMap<Thread, RequestInfo>(mapOfRequestsByThread);
+	}
+
+	/**
+	 *
+	 * @return - the number of requests currently being processed, across all
+	 * HttpManager instances
+	 */
+	public static int getInFlightRequestCount() {
+		return inFlightRequests.get();
+	}
+
 	public static String decodeUrl(String s) {
 		return Utils.decodePath(s);
 	}
 
 	public static Request request() {
-		return tlRequest.get();
+		HttpRequestContext ctx = HttpRequestContext.current();
+		return ctx == null ? null : ctx.getRequest();
 	}
 
 	public static Response response() {
-		return tlResponse.get();
+		HttpRequestContext ctx = HttpRequestContext.current();
+		return ctx == null ? null : ctx.getResponse();
 	}
 	private final ProtocolHandlers handlers;
 	private final List<Filter> filters;
@@ -76,6 +105,8 @@ public class HttpManager {
 	private final List<Stoppable> shutdownHandlers;
 	private final EntityTransport entityTransport;
 	private Map<String, Handler> methodHandlers;
+	private int requestInfoSampleRate;
+	private RequestMetrics requestMetrics;
 
 	/**
 	 * Instead of using this constructor directly, consider using the
@@ -141,8 +172,13 @@ public class HttpManager {
 			log.info(request.getMethod() + " :: " + host + "//" + request.getAbsolutePath() + " start");
 		}
 
-		try {
-			setThreadAffinityData(request, response);
+		HttpRequestContext ctx = new HttpRequestContext(request, response);
+		inFlightRequests.incrementAndGet();
+		boolean sampled = isSampled();
+		try (HttpRequestContext.Scope scope = ctx.attach()) {
+			if (sampled) {
+				registerRequestInfo(request, ctx);
+			}
 			try {
 				fireRequestEvent(request);
 			} catch (ConflictException ex) {
@@ -154,8 +190,22 @@ public class HttpManager {
 			}
 
 			FilterChain chain = new FilterChain(this);
+			RequestMetrics metrics = requestMetrics;
+			long startNanos = metrics == null ? 0 : System.nanoTime();
 			long tm = System.currentTimeMillis();
-			chain.process(request, response);
+			boolean processed = false;
+			try {
+				chain.process(request, response);
+				processed = true;
+			} finally {
+				if (metrics != null) {
+					Response.Status status = response.getStatus();
+					if (!processed && status == null) {
+						status = Response.Status.SC_INTERNAL_SERVER_ERROR;
+					}
+					metrics.recordRequest(request.getMethod(), status, System.nanoTime() - startNanos, request.getContentLengthHeader(), response.getContentLength());
+				}
+			}
 			try {
 				tm = System.currentTimeMillis() - tm;
 				if (log.isInfoEnabled()) {
@@ -170,31 +220,61 @@ public class HttpManager {
 				log.warn("exception thrown from event handler after response is complete", ex);
 			}
 		} finally {
-			clearThreadAffinity();
+			inFlightRequests.decrementAndGet();
+			if (sampled) {
+				mapOfRequestsByThread.remove(Thread.currentThread());
+			}
 		}
 	}
 
-	private void clearThreadAffinity() {
-		tlRequest.remove();
-		tlResponse.remove();
-		try {
-			mapOfRequestsByThread.remove(Thread.currentThread());
-		} catch (Throwable e) {
-			log.info("Couldnt clear thread affinity request data");
+	private boolean isSampled() {
+		int rate = requestInfoSampleRate;
+		if (rate <= 0) {
+			return false;
 		}
+		return rate == 1 || requestCounter.incrementAndGet() % rate == 0;
 	}
 
-	private void setThreadAffinityData(Request request, Response response) {
-		tlRequest.set(request);
-		tlResponse.set(response);
+	private void registerRequestInfo(Request request, HttpRequestContext ctx) {
 		try {
-			RequestInfo info = new RequestInfo(request.getMethod(), request.getAbsoluteUrl(), new Date());
+			RequestInfo info = new RequestInfo(request.getMethod(), request.getAbsoluteUrl(), new Date(ctx.getStarted()));
 			mapOfRequestsByThread.put(Thread.currentThread(), info);
 		} catch (Throwable e) {
 			log.info("Couldnt set thread affinity request data");
 		}
 	}
 
+	/**
+	 * Requests are registered in the in-flight request registry (see
+	 * getRequestDataForThread) one in every requestInfoSampleRate requests.
+	 *
+	 * Zero (the default) disables the registry, 1 registers every request. The
+	 * count of in-flight requests is always maintained
+	 *
+	 * @return
+	 */
+	public int getRequestInfoSampleRate() {
+		return requestInfoSampleRate;
+	}
+
+	public void setRequestInfoSampleRate(int requestInfoSampleRate) {
+		this.requestInfoSampleRate = requestInfoSampleRate;
+	}
+
+	/**
+	 * If set, latency and byte counts are recorded for each request by method,
+	 * handler, status and resource class. Null (default) disables metrics
+	 *
+	 * @return
+	 */
+	public RequestMetrics getRequestMetrics() {
+		return requestMetrics;
+	}
+
+	public void setRequestMetrics(RequestMetrics requestMetrics) {
+		this.requestMetrics = requestMetrics;
+	}
+
 	public void addEventListener(EventListener l) {
 		eventListeners.add(l);
 	}
@@ -204,6 +284,10 @@ public class HttpManager {
 	}
 
 	public void onProcessResourceFinish(Request request, Response response, Resource resource, long duration) {
+		RequestMetrics metrics = requestMetrics;
+		if (metrics != null && resource != null) {
+			metrics.recordResource(resource.getClass(), duration);
+		}
 		for (EventListener l : eventListeners) {
 			l.onProcessResourceFinish(request, response, resource, duration);
 		}
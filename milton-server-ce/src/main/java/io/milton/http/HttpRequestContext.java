@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.milton.http;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Holds the request and response currently being processed by milton, plus
+ * arbitrary attributes, and makes them available to code which does not have
+ * them passed in, via HttpManager.request() and HttpManager.response()
+ *
+ * The context is bound to the thread processing the request for the duration
+ * of HttpManager.process. It does not rely on thread identity, so it works the
+ * same with virtual-thread-per-request execution. When processing continues on
+ * another thread (eg an executor or an async continuation) the context must be
+ * propagated explicitly, either by wrapping the task with wrap(..), wrapping
+ * the executor with propagating(..), or by calling attach() in a
+ * try-with-resources block.
+ *
+ * Note that this is not the same as io.milton.context.RequestContext, which is
+ * a request scoped IoC container
+ *
+ * @author brad
+ */
+public final class HttpRequestContext {
+
+	private static final ThreadLocal<HttpRequestContext> tlCurrent = new ThreadLocal<HttpRequestContext>();
+
+	/**
+	 *
+	 * @return - the context bound to the current thread, or null if the
+	 * current thread is not processing a request
+	 */
+	public static HttpRequestContext current() {
+		return tlCurrent.get();
+	}
+
+	/**
+	 * Wraps the given executor so that each task it runs has the context which
+	 * was current when the task was submitted
+	 *
+	 * @param executor
+	 * @return
+	 */
+	public static Executor propagating(final Executor executor) {
+		return new Executor() {
+
+			@Override
+			public void execute(Runnable command) {
+				HttpRequestContext ctx = current();
+				executor.execute(ctx == null ? command : ctx.wrap(command));
+			}
+		};
+	}
+
+	private final Request request;
+	private final Response response;
+	private final long started;
+	private Map<String, Object> attributes;
+
+	public HttpRequestContext(Request request, Response response) {
+		this.request = request;
+		this.response = response;
+		this.started = System.currentTimeMillis();
+	}
+
+	public Request getRequest() {
+		return request;
+	}
+
+	public Response getResponse() {
+		return response;
+	}
+
+	/**
+	 *
+	 * @return - time in milliseconds when this context was created
+	 */
+	public long getStarted() {
+		return started;
+	}
+
+	/**
+	 * Attributes which need to travel with the request across threads. Created
+	 * on first use
+	 *
+	 * @return
+	 */
+	public synchronized Map<String, Object> getAttributes() {
+		if (attributes == null) {
+			attributes = new ConcurrentHashMap<String, Object>();
+		}
+		return attributes;
+	}
+
+	/**
+	 * Make this the current context for the calling thread until the returned
+	 * Scope is closed, at which point the previous context (if any) is restored
+	 *
+	 * @return
+	 */
+	public Scope attach() {
+		HttpRequestContext previous = tlCurrent.get();
+		tlCurrent.set(this);
+		return new Scope(previous);
+	}
+
+	/**
+	 * Wrap the given task so that it runs with this context attached
+	 *
+	 * @param r
+	 * @return
+	 */
+	public Runnable wrap(final Runnable r) {
+		return new Runnable() {
+
+			@Override
+			public void run() {
+				try (Scope s = attach()) {
+					r.run();
+				}
+			}
+		};
+	}
+
+	public <T> Callable<T> wrap(final Callable<T> c) {
+		return new Callable<T>() {
+
+			@Override
+			public T call() throws Exception {
+				try (Scope s = attach()) {
+					return c.call();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Returned by attach(), restores the previous context when closed
+	 */
+	public static final class Scope implements AutoCloseable {
+
+		private final HttpRequestContext previous;
+
+		private Scope(HttpRequestContext previous) {
+			this.previous = previous;
+		}
+
+		@Override
+		public void close() {
+			if (previous == null) {
+				tlCurrent.remove();
+			} else {
+				tlCurrent.set(previous);
+			}
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.milton.http;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates executors for running HttpManager.process off the container's own
+ * worker threads, so that requests which block on databases or remote calls
+ * do not limit concurrency to the size of the container's worker pool.
+ *
+ * On JDK 21+ each request can run on its own virtual thread. On older JDKs a
+ * fixed pool of platform threads is used instead. Virtual thread support is
+ * looked up reflectively so milton can still be compiled for older JDKs
+ *
+ * Request execution modes, as used by GrizzlyServer and the async modes of
+ * MiltonServlet and MiltonFilter, are:
+ * <ul>
+ * <li>worker - process on the container thread (default, no executor)</li>
+ * <li>virtual - one virtual thread per request, falling back to a pool if
+ * virtual threads are not available</li>
+ * <li>pool - a fixed size pool of platform threads</li>
+ * </ul>
+ *
+ * @author brad
+ */
+public class RequestExecutors {
+
+	private static final Logger log = LoggerFactory.getLogger(RequestExecutors.class);
+
+	public static final String MODE_WORKER = "worker";
+	public static final String MODE_VIRTUAL = "virtual";
+	public static final String MODE_POOL = "pool";
+
+	/**
+	 *
+	 * @return - true if this JVM supports virtual threads
+	 */
+	public static boolean isVirtualThreadsSupported() {
+		return findVirtualThreadFactoryMethod() != null;
+	}
+
+	/**
+	 * Create an executor which runs each task on a new virtual thread
+	 *
+	 * @return
+	 * @throws UnsupportedOperationException - if virtual threads are not
+	 * supported on this JVM
+	 */
+	public static ExecutorService newVirtualThreadPerTaskExecutor() {
+		Method m = findVirtualThreadFactoryMethod();
+		if (m == null) {
+			throw new UnsupportedOperationException("Virtual threads are not supported on this JVM: " + System.getProperty("java.version"));
+		}
+		try {
+			return (ExecutorService) m.invoke(null);
+		} catch (ReflectiveOperationException ex) {
+			throw new UnsupportedOperationException("Could not create virtual thread executor", ex);
+		}
+	}
+
+	/**
+	 * Create a fixed size pool of daemon platform threads for processing
+	 * requests
+	 *
+	 * @param threads
+	 * @return
+	 */
+	public static ExecutorService newPlatformThreadPool(int threads) {
+		final AtomicInteger counter = new AtomicInteger();
+		return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "milton-request-" + counter.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Create an executor for the given execution mode
+	 *
+	 * @param mode - one of worker, virtual or pool
+	 * @param poolSize - number of threads when using a platform thread pool
+	 * @return - null for worker mode, meaning process on the calling thread
+	 */
+	public static ExecutorService forMode(String mode, int poolSize) {
+		if (mode == null || MODE_WORKER.equals(mode)) {
+			return null;
+		} else if (MODE_VIRTUAL.equals(mode)) {
+			if (isVirtualThreadsSupported()) {
+				log.info("Processing requests on virtual threads");
+				return newVirtualThreadPerTaskExecutor();
+			}
+			log.warn("Virtual threads are not supported on this JVM, using a pool of {} platform threads", poolSize);
+			return newPlatformThreadPool(poolSize);
+		} else if (MODE_POOL.equals(mode)) {
+			log.info("Processing requests on a pool of {} platform threads", poolSize);
+			return newPlatformThreadPool(poolSize);
+		} else {
+			throw new IllegalArgumentException("Unknown request execution mode: " + mode + " Should be one of " + MODE_WORKER + ", " + MODE_VIRTUAL + ", " + MODE_POOL);
+		}
+	}
+
+	private static Method findVirtualThreadFactoryMethod() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException ex) {
+			return null;
+		}
+	}
+}
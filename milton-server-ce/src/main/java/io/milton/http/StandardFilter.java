@@ -22,6 +22,7 @@ import io.milton.http.exceptions.BadRequestException;
 import io.milton.http.exceptions.ConflictException;
 import io.milton.http.exceptions.NotAuthorizedException;
 import io.milton.http.exceptions.NotFoundException;
+import io.milton.http.metrics.RequestMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -47,11 +48,19 @@ public class StandardFilter implements Filter {
 				if (log.isTraceEnabled()) {
 					log.trace("delegate to method handler: " + handler.getClass().getCanonicalName());
 				}
-				handler.process(manager, request, response);
-				if (response.getEntity() != null) {
-					manager.sendResponseEntity(response);
-				} else {
-					log.debug("No response entity to send to client for method: " + request.getMethod());
+				RequestMetrics metrics = manager.getRequestMetrics();
+				long startNanos = metrics == null ? 0 : System.nanoTime();
+				try {
+					handler.process(manager, request, response);
+					if (response.getEntity() != null) {
+						manager.sendResponseEntity(response);
+					} else {
+						log.debug("No response entity to send to client for method: " + request.getMethod());
+					}
+				} finally {
+					if (metrics != null) {
+						metrics.recordHandler(handler.getClass(), System.nanoTime() - startNanos);
+					}
 				}
 			}
 
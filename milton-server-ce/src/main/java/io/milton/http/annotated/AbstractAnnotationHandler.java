@@ -62,17 +62,26 @@ public abstract class AbstractAnnotationHandler implements AnnotationHandler {
 
 	@Override
 	public void parseController(Object controller) {
+		List<java.lang.reflect.Method> annotatedMethods = new ArrayList<java.lang.reflect.Method>();
 		for (java.lang.reflect.Method m : controller.getClass().getMethods()) {
+			if (m.getAnnotation(annoClass) != null) {
+				annotatedMethods.add(m);
+			}
+		}
+		parseController(controller, annotatedMethods);
+	}
+
+	@Override
+	public void parseController(Object controller, List<java.lang.reflect.Method> annotatedMethods) {
+		for (java.lang.reflect.Method m : annotatedMethods) {
 			Annotation a = m.getAnnotation(annoClass);
-			if (a != null) {
-				Class<?>[] params = m.getParameterTypes();
-				if (params == null || params.length == 0) {
-					throw new RuntimeException("Invalid controller method: " + m.getName() + " does not have a source argument");
-				}
-				Class sourceType = params[0];
-				ControllerMethod cm = new ControllerMethod(controller, m, sourceType, a);
-				controllerMethods.add(cm);
+			Class<?>[] params = m.getParameterTypes();
+			if (params == null || params.length == 0) {
+				throw new RuntimeException("Invalid controller method: " + m.getName() + " does not have a source argument");
 			}
+			Class sourceType = params[0];
+			ControllerMethod cm = new ControllerMethod(controller, m, sourceType, a);
+			controllerMethods.add(cm);
 		}
 	}
 
@@ -266,11 +275,11 @@ public abstract class AbstractAnnotationHandler implements AnnotationHandler {
 		try {
 			Object[] args;
 			if (values == null || values.length == 0) {
-				args = annoResourceFactory.buildInvokeArgs(sourceRes, cm.method);
+				args = annoResourceFactory.buildInvokeArgs(sourceRes, cm);
 			} else {
-				args = annoResourceFactory.buildInvokeArgs(sourceRes, cm.method, values);
+				args = annoResourceFactory.buildInvokeArgs(sourceRes, cm, values);
 			}
-			return cm.method.invoke(cm.controller, args);
+			return cm.invoke(args);
 
 		} catch(java.lang.reflect.InvocationTargetException e) {
 			Throwable cause = e.getCause();
@@ -83,10 +83,9 @@ public class AnnoCollectionResource extends AnnoResource implements CollectionRe
 
 		// if children list has already been loaded then look for child in there
 		if (children != null) {
-			for (Resource r : children) {
-				if (r.getName().equals(childName)) {
-					return r;
-				}
+			Resource r = children.get(childName);
+			if (r != null) {
+				return r;
 			}
 		}
 
@@ -105,6 +104,9 @@ public class AnnoCollectionResource extends AnnoResource implements CollectionRe
 			// so we can't assume in any circumstance that a null means not found. Must always fall through to ChildrenOf
 		} else if (childTriValue.equals(ChildOfAnnotationHandler.NOT_ATTEMPTED)) {
 			// there is no ChildOf method, so fall through to iterating over all children
+		} else if (childTriValue.equals(ChildOfAnnotationHandler.NOT_FOUND)) {
+			// an authoritative ChildOf method didnt find it, so no need to load all children
+			return null;
 		} else {
 			// got one!
 			AnnoResource r = (AnnoResource) childTriValue;
@@ -120,7 +122,11 @@ public class AnnoCollectionResource extends AnnoResource implements CollectionRe
 		// list of children and iterate over it.
 		// We can end up iterating over the list twice, but thats because there
 		// is no guarantee that getChildren is the same as children
-		for (Resource r : getChildren(true)) {
+		List<? extends Resource> list = getChildren(true);
+		if (list instanceof ResourceList) {
+			return ((ResourceList) list).get(childName);
+		}
+		for (Resource r : list) {
 			if (r.getName().equals(childName)) {
 				return r;
 			}
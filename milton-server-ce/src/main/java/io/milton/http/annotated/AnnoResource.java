@@ -79,6 +79,10 @@ public abstract class AnnoResource implements GetableResource, PropFindableResou
 	protected AnnoCollectionResource parent;
 	protected JsonResult jsonResult;
 	protected String nameOverride;
+	/**
+	 * The ChildOf method which located the source object, if known
+	 */
+	java.lang.reflect.Method sourceMethod;
 	protected Set<AccessControlledResource.Priviledge> acl;
 	protected String realm;
 
@@ -35,6 +35,19 @@ public interface AnnotationHandler {
 	 */
 	void parseController(Object controller);
 
+	/**
+	 * Called on initialisation when the controller's annotated methods are
+	 * already known, such as from a ControllerIndex. The default
+	 * implementation ignores the given methods and calls parseController
+	 *
+	 * @param controller
+	 * @param annotatedMethods - the public methods of the controller which have
+	 * this handler's annotation
+	 */
+	default void parseController(Object controller, List<java.lang.reflect.Method> annotatedMethods) {
+		parseController(controller);
+	}
+
 	/**
 	 * Return any HTTP methods which this annotation handler supports
 	 * 
@@ -69,6 +69,7 @@ import io.milton.http.Response;
 import io.milton.http.caldav.CalendarSearchService;
 import io.milton.http.exceptions.BadRequestException;
 import io.milton.http.exceptions.NotAuthorizedException;
+import io.milton.http.exceptions.NotFoundException;
 import io.milton.http.template.ViewResolver;
 import io.milton.http.values.SupportedCalendarComponentListsSet;
 import io.milton.http.webdav.DisplayNameFormatter;
@@ -112,12 +113,15 @@ public final class AnnotationResourceFactory implements ResourceFactory {
 	private String contextPath;
 	private Collection<Object> controllers;
 	private ViewResolver viewResolver;
+	private ResourceResolutionCache resolutionCache;
+	private ControllerIndex controllerIndex;
 	/**
 	 * Replace with a suitable cluster enabled Map for cluster support
 	 */
 	private Map<String, List<LockHolder>> mapOfTempResources = new ConcurrentHashMap<String, List<LockHolder>>();
 	private final Map<Class, AnnotationHandler> mapOfAnnotationHandlers = new HashMap<Class, AnnotationHandler>(); // keyed on annotation class
 	private final Map<Method, AnnotationHandler> mapOfAnnotationHandlersByMethod = new EnumMap<Method, AnnotationHandler>(Method.class); // keyed on http method
+	private final Map<java.lang.reflect.Method, ArgumentBinding> argumentBindings = new ConcurrentHashMap<java.lang.reflect.Method, ArgumentBinding>(); // for methods which aren't ControllerMethods
 	RootAnnotationHandler rootAnnotationHandler = new RootAnnotationHandler(this);
 	GetAnnotationHandler getAnnotationHandler = new GetAnnotationHandler(this);
 	PostAnnotationHandler postAnnotationHandler = new PostAnnotationHandler(this);
@@ -237,7 +241,11 @@ public final class AnnotationResourceFactory implements ResourceFactory {
 			r = hostRoot;
 		} else {
 			Path path = Path.path(url);
-			r = findFromRoot(hostRoot, path);
+			if (resolutionCache == null) {
+				r = findFromRoot(hostRoot, path);
+			} else {
+				r = findFromRoot(host, hostRoot, path);
+			}
 			if (log.isTraceEnabled()) {
 				if (r == null) {
 					log.trace("Resource not found: host=" + host + " path=" + path);
@@ -289,6 +297,77 @@ public final class AnnotationResourceFactory implements ResourceFactory {
 		return r;
 	}
 
+	/**
+	 * As for findFromRoot(AnnoCollectionResource, Path), but using the
+	 * resolutionCache to remember the resource located for each path prefix
+	 * within the current request, and the ChildOf methods which located them
+	 * in earlier requests
+	 *
+	 * @param host
+	 * @param rootFolder
+	 * @param p
+	 * @return
+	 * @throws NotAuthorizedException
+	 * @throws BadRequestException
+	 */
+	private Resource findFromRoot(String host, AnnoCollectionResource rootFolder, Path p) throws NotAuthorizedException, BadRequestException {
+		CollectionResource col = rootFolder;
+		Resource r = null;
+		StringBuilder sb = new StringBuilder();
+		for (String s : p.getParts()) {
+			if (col == null) {
+				return null;
+			}
+			sb.append('/').append(s);
+			String path = sb.toString();
+			r = resolutionCache.get(host, path);
+			if (r == null) {
+				r = findChild(host, path, col, s);
+				if (r == null) {
+					if (log.isTraceEnabled()) {
+						log.trace("findFromRoot: Couldnt find child: " + s + " of parent: " + col.getName() + " with type: " + col.getClass());
+					}
+					return null;
+				}
+				resolutionCache.put(host, path, r);
+			}
+			if (r instanceof CollectionResource) {
+				col = (CollectionResource) r;
+			} else {
+				col = null;
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * Locate the child, first trying the ChildOf method which located it in an
+	 * earlier request, if the resolutionCache remembers one. That method is
+	 * still called, so it can check that the child exists and is accessible
+	 */
+	private Resource findChild(String host, String path, CollectionResource col, String childName) throws NotAuthorizedException, BadRequestException {
+		if (col instanceof AnnoCollectionResource) {
+			java.lang.reflect.Method route = resolutionCache.getRoute(host, path);
+			if (route != null) {
+				try {
+					AnnoResource r = childOfAnnotationHandler.execute((AnnoCollectionResource) col, childName, route);
+					if (r != null) {
+						log.trace("findChild: located {} with remembered method {}", path, route);
+						return r;
+					}
+				} catch (NotFoundException ex) {
+					log.warn("Failed to lookup child", ex);
+				}
+				resolutionCache.removeRoute(host, path);
+			}
+		}
+		Resource r = col.child(childName);
+		if (r instanceof AnnoResource) {
+			resolutionCache.putRoute(host, path, ((AnnoResource) r).sourceMethod);
+		}
+		return r;
+	}
+
 	public String getRealm(String host) {
 		return securityManager.getRealm(host);
 	}
@@ -403,9 +482,25 @@ public final class AnnotationResourceFactory implements ResourceFactory {
 		log.info("setControllers: " + controllers.size() + " parsing controllers...");
 		for (Object controller : controllers) {
 			log.info("Parse controller: " + controller.getClass());
+			// find annotated methods once for all handlers, from the index if we have one
+			Map<Class, List<java.lang.reflect.Method>> annotatedMethods;
+			if (controllerIndex != null) {
+				annotatedMethods = controllerIndex.getAnnotatedMethods(controller.getClass());
+			} else {
+				annotatedMethods = ControllerIndex.findAnnotatedMethods(controller.getClass());
+			}
 			for (AnnotationHandler ah : mapOfAnnotationHandlers.values()) {
 				log.info(" - controller: " + controller.getClass() + " handler: " + ah.getAnnoClass());
-				ah.parseController(controller);
+				if (ah.getAnnoClass() == null || !ah.getAnnoClass().getName().startsWith("io.milton.annotations.")) {
+					// not indexed, so let the handler find its own methods
+					ah.parseController(controller);
+				} else {
+					List<java.lang.reflect.Method> list = annotatedMethods.get(ah.getAnnoClass());
+					if (list == null) {
+						list = Collections.emptyList();
+					}
+					ah.parseController(controller, list);
+				}
 			}
 		}
 		log.info("Controller parsing complete. Listing found methods..");
@@ -422,6 +517,39 @@ public final class AnnotationResourceFactory implements ResourceFactory {
 		}
 	}
 
+	public ResourceResolutionCache getResolutionCache() {
+		return resolutionCache;
+	}
+
+	/**
+	 * If set, resources are remembered by path within each request, so that
+	 * each path is only resolved through the controllers once per request.
+	 * The ChildOf methods which located paths are also remembered across
+	 * requests, as allowed by ResolutionMaxAge annotations, so later requests
+	 * call them directly.
+	 * The cache must be registered with the EventManager so entries are
+	 * invalidated on MOVE, DELETE and MKCOL
+	 *
+	 * @param resolutionCache
+	 */
+	public void setResolutionCache(ResourceResolutionCache resolutionCache) {
+		this.resolutionCache = resolutionCache;
+	}
+
+	public ControllerIndex getControllerIndex() {
+		return controllerIndex;
+	}
+
+	/**
+	 * If set, controllers' annotated methods are taken from the index rather
+	 * than found with reflection. Must be set before setControllers is called
+	 *
+	 * @param controllerIndex
+	 */
+	public void setControllerIndex(ControllerIndex controllerIndex) {
+		this.controllerIndex = controllerIndex;
+	}
+
 	public ViewResolver getViewResolver() {
 		return viewResolver;
 	}
@@ -479,6 +607,20 @@ public final class AnnotationResourceFactory implements ResourceFactory {
 		return buildInvokeArgsExt(sourceRes, null, false, m, otherValues);
 	}
 
+	/**
+	 * As for buildInvokeArgs(AnnoResource, Method, Object...), but using the
+	 * argument binding prepared when the controller was parsed
+	 *
+	 * @param sourceRes
+	 * @param cm
+	 * @param otherValues
+	 * @return
+	 * @throws Exception
+	 */
+	public Object[] buildInvokeArgs(AnnoResource sourceRes, ControllerMethod cm, Object... otherValues) throws Exception {
+		return bindArgs(sourceRes, null, false, cm.method, cm.binding, otherValues);
+	}
+
 	/**
 	 *
 	 * @param sourceRes
@@ -492,46 +634,42 @@ public final class AnnotationResourceFactory implements ResourceFactory {
 	 * @throws Exception
 	 */
 	public Object[] buildInvokeArgsExt(AnnoResource sourceRes, Object mandatorySecondArg, boolean forceUseSecondArg, java.lang.reflect.Method m, Object... otherValues) throws Exception {
+		ArgumentBinding binding = argumentBindings.get(m);
+		if (binding == null) {
+			binding = ArgumentBinding.forMethod(m);
+			argumentBindings.put(m, binding);
+		}
+		return bindArgs(sourceRes, mandatorySecondArg, forceUseSecondArg, m, binding, otherValues);
+	}
+
+	private Object[] bindArgs(AnnoResource sourceRes, Object mandatorySecondArg, boolean forceUseSecondArg, java.lang.reflect.Method m, ArgumentBinding binding, Object... otherValues) throws Exception {
 		if (log.isTraceEnabled()) {
 			log.trace("buildInvokeArgsExt: source=" + sourceRes.getSource() + " on method: " + m);
 		}
 		Request request = HttpManager.request();
 		Response response = HttpManager.response();
-		Auth auth = request.getAuthorization();
 		AnnoPrincipalResource principal = null;
-		if (auth != null) {
-			if (auth.getTag() instanceof AnnoPrincipalResource) {
-				principal = (AnnoPrincipalResource) auth.getTag();
-			}
-		}
-
-		Object[] args = new Object[m.getParameterTypes().length];
-		List list = new ArrayList();
-
-		list.add(sourceRes.getSource()); // First argument MUST be the source object!!!
-
-		// put otherValues on. Note these are more specific then parents so must be added first
-		for (Object s : otherValues) {
-			list.add(s);
-			if (s instanceof AnnoResource) {
-				AnnoResource otherRes = (AnnoResource) s;
-				list.add(otherRes.getSource());
+		if (binding.hasPrincipal) {
+			Auth auth = request.getAuthorization();
+			if (auth != null) {
+				if (auth.getTag() instanceof AnnoPrincipalResource) {
+					principal = (AnnoPrincipalResource) auth.getTag();
+				}
 			}
 		}
 
-		// put this resource's parents on the stack
-		AnnoResource r = sourceRes.getParent();
-		while (r != null) {
-			list.add(r.getSource());
-			list.add(r);
-			r = r.getParent();
-		}
+		Object source = sourceRes.getSource(); // First argument MUST be the source object!!!
+		boolean sourceUsed = false;
+		List list = null; // other available values, only built if needed
 
-		for (int i = 0; i < m.getParameterTypes().length; i++) {
+		Object[] args = new Object[binding.size()];
+		for (int i = 0; i < args.length; i++) {
 			if (i == 1 && forceUseSecondArg) {
 				args[i] = mandatorySecondArg; // hack for methods which can have a null 2nd arg. Without this any other matching object would be provided
-			} else {
-				if (isPrincipalArg(m, i)) {
+				continue;
+			}
+			switch (binding.kinds[i]) {
+				case PRINCIPAL:
 					principal = checkAuthentication(sourceRes, principal);
 					if (principal != null) {
 						args[i] = principal.source;
@@ -539,8 +677,25 @@ public final class AnnotationResourceFactory implements ResourceFactory {
 						log.warn("Null principal provided for method: " + m);
 						args[i] = null;
 					}
-				} else {
-					Class type = m.getParameterTypes()[i];
+					break;
+				case REQUEST:
+					args[i] = request;
+					break;
+				case RESPONSE:
+					args[i] = response;
+					break;
+				default:
+					Class type = binding.types[i];
+					if (!sourceUsed && source != null && binding.kinds[i] == ArgumentBinding.Kind.VALUE && type.isAssignableFrom(source.getClass())) {
+						// the source is always first in the list of available values
+						args[i] = source;
+						sourceUsed = true;
+						break;
+					}
+					if (list == null) {
+						list = availableValues(sourceRes, sourceUsed, otherValues);
+						sourceUsed = true;
+					}
 					Object argValue;
 					try {
 						argValue = findArgValue(type, request, response, list);
@@ -549,12 +704,41 @@ public final class AnnotationResourceFactory implements ResourceFactory {
 						argValue = null;
 					}
 					args[i] = argValue;
-				}
 			}
 		}
 		return args;
 	}
 
+	/**
+	 * Values which can be matched to method arguments by type, in order of
+	 * preference
+	 */
+	private List availableValues(AnnoResource sourceRes, boolean sourceUsed, Object... otherValues) {
+		List list = new ArrayList();
+
+		if (!sourceUsed) {
+			list.add(sourceRes.getSource());
+		}
+
+		// put otherValues on. Note these are more specific then parents so must be added first
+		for (Object s : otherValues) {
+			list.add(s);
+			if (s instanceof AnnoResource) {
+				AnnoResource otherRes = (AnnoResource) s;
+				list.add(otherRes.getSource());
+			}
+		}
+
+		// put this resource's parents on the stack
+		AnnoResource r = sourceRes.getParent();
+		while (r != null) {
+			list.add(r.getSource());
+			list.add(r);
+			r = r.getParent();
+		}
+		return list;
+	}
+
 	public java.lang.reflect.Method findMethodForAnno(Class sourceClass, Class annoClass) {
 		for (java.lang.reflect.Method m : sourceClass.getMethods()) {
 			Annotation a = m.getAnnotation(annoClass);
@@ -760,17 +944,6 @@ public final class AnnotationResourceFactory implements ResourceFactory {
 		return false;
 	}
 
-	private boolean isPrincipalArg(java.lang.reflect.Method m, int i) {
-		Annotation[] arr = m.getParameterAnnotations()[i];
-		Class annoType = io.milton.annotations.Principal.class;
-		for (Annotation a : arr) {
-			if (a.annotationType().equals(annoType)) {
-				return true;
-			}
-		}
-		return false;
-	}
-
 	/**
 	 * Process the source object (which may be a Collection of source objects),
 	 * and for each one instantiate an AnnoResource and append it to the result
@@ -0,0 +1,102 @@
+/*
+ *
+ * Copyright 2014 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.http.annotated;
+
+import io.milton.annotations.Principal;
+import io.milton.http.Request;
+import io.milton.http.Response;
+import java.lang.annotation.Annotation;
+
+/**
+ * Describes how to provide a value for each parameter of a controller method.
+ * Computed once per method, so that invoking the method doesn't need to
+ * inspect parameter types and annotations each time. Values of kind VALUE are
+ * still matched by type against the objects available for the request, since
+ * those depend on the resource being processed
+ *
+ * @author brad
+ */
+final class ArgumentBinding {
+
+	enum Kind {
+		/**
+		 * The current request
+		 */
+		REQUEST,
+		/**
+		 * The current response
+		 */
+		RESPONSE,
+		/**
+		 * The source object of the current user, annotated with @Principal
+		 */
+		PRINCIPAL,
+		/**
+		 * The request body as a byte array
+		 */
+		BYTES,
+		/**
+		 * The first available object which is assignable to the parameter type
+		 */
+		VALUE
+	}
+
+	static ArgumentBinding forMethod(java.lang.reflect.Method m) {
+		Class[] types = m.getParameterTypes();
+		Annotation[][] annos = m.getParameterAnnotations();
+		Kind[] kinds = new Kind[types.length];
+		boolean hasPrincipal = false;
+		for (int i = 0; i < types.length; i++) {
+			if (isPrincipal(annos[i])) {
+				kinds[i] = Kind.PRINCIPAL;
+				hasPrincipal = true;
+			} else if (types[i] == Request.class) {
+				kinds[i] = Kind.REQUEST;
+			} else if (types[i] == Response.class) {
+				kinds[i] = Kind.RESPONSE;
+			} else if (types[i] == byte[].class) {
+				kinds[i] = Kind.BYTES;
+			} else {
+				kinds[i] = Kind.VALUE;
+			}
+		}
+		return new ArgumentBinding(types, kinds, hasPrincipal);
+	}
+
+	private static boolean isPrincipal(Annotation[] arr) {
+		for (Annotation a : arr) {
+			if (a.annotationType().equals(Principal.class)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	final Class[] types;
+	final Kind[] kinds;
+	final boolean hasPrincipal;
+
+	private ArgumentBinding(Class[] types, Kind[] kinds, boolean hasPrincipal) {
+		this.types = types;
+		this.kinds = kinds;
+		this.hasPrincipal = hasPrincipal;
+	}
+
+	int size() {
+		return types.length;
+	}
+}
@@ -72,8 +72,8 @@ public class AuthenticateAnnotationHandler extends AbstractAnnotationHandler {
 			} else if (cm.method.getReturnType().equals(Boolean.class)) {
 				if (hasParamType(cm.method, String.class)) { // Must have a string parameter for the password
 					try {
-						Object[] args = annoResourceFactory.buildInvokeArgs(userRes, cm.method, requestedPassword);
-						Boolean result = (Boolean) cm.method.invoke(cm.controller, args);
+						Object[] args = annoResourceFactory.buildInvokeArgs(userRes, cm, requestedPassword);
+						Boolean result = (Boolean) cm.invoke(args);
 						if (result != null) {
 							return result;
 						}
@@ -120,8 +120,8 @@ public class AuthenticateAnnotationHandler extends AbstractAnnotationHandler {
 				} else if (hasParamType(cm.method, DigestResponse.class)) {
 					// if it returns String then it returns a password. Otherwise is authenticate method
 					if (cm.method.getReturnType().equals(String.class)) {
-						Object[] args = annoResourceFactory.buildInvokeArgs(userRes, cm.method, userRes);
-						String result = (String) cm.method.invoke(cm.controller, args);
+						Object[] args = annoResourceFactory.buildInvokeArgs(userRes, cm, userRes);
+						String result = (String) cm.invoke(args);
 						if (result == null) {
 							log.warn("Null password from: " + cm + " for user: " + userRes.getHref());
 							return false;
@@ -136,8 +136,8 @@ public class AuthenticateAnnotationHandler extends AbstractAnnotationHandler {
 							}
 						}
 					} else if (cm.method.getReturnType().equals(Boolean.class)) {
-						Object[] args = annoResourceFactory.buildInvokeArgs(userRes, cm.method, digestRequest);
-						Boolean result = (Boolean) cm.method.invoke(cm.controller, args);
+						Object[] args = annoResourceFactory.buildInvokeArgs(userRes, cm, digestRequest);
+						Boolean result = (Boolean) cm.invoke(args);
 						if (result != null) {
 							return result;
 						}
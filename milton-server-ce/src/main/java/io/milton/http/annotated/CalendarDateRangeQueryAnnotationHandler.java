@@ -46,7 +46,7 @@ public class CalendarDateRangeQueryAnnotationHandler extends AbstractAnnotationH
 				return null;
 			} else {
 				List<AnnoResource> result = new ArrayList<AnnoResource>();
-				Object[] args = annoResourceFactory.buildInvokeArgs(parent, cm.method, start, finish);
+				Object[] args = annoResourceFactory.buildInvokeArgs(parent, cm, start, finish);
 				Object eventSources = invoke(cm, parent, args);
 				annoResourceFactory.createAndAppend(result, eventSources, parent, cm);	 
 				List<ICalResource> list = new ArrayList<ICalResource>();
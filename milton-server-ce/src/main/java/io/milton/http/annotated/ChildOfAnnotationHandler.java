@@ -32,6 +32,7 @@ public class ChildOfAnnotationHandler extends AbstractAnnotationHandler {
 
 	private static final Logger log = LoggerFactory.getLogger(ChildOfAnnotationHandler.class);
 	public static final String NOT_ATTEMPTED = "NotAttempted";
+	public static final String NOT_FOUND = "NotFound";
 
 	public ChildOfAnnotationHandler(final AnnotationResourceFactory outer) {
 		super(outer, ChildOf.class);
@@ -40,8 +41,9 @@ public class ChildOfAnnotationHandler extends AbstractAnnotationHandler {
 	/**
 	 * Will return one of: - ChildOfAnnotationHandler.NOT_ATTEMPTED if no
 	 * appropriate method was found - null, if a method was available but no
-	 * resource was found - or, the child object with the given name wrapped in
-	 * an AnnoResource
+	 * resource was found - ChildOfAnnotationHandler.NOT_FOUND if no resource
+	 * was found by a method marked as authoritative - or, the child object with
+	 * the given name wrapped in an AnnoResource
 	 *
 	 * @param parent
 	 * @param childName
@@ -59,18 +61,20 @@ public class ChildOfAnnotationHandler extends AbstractAnnotationHandler {
 				return NOT_ATTEMPTED;
 			}
 			
+			boolean authoritative = false;
 			for (ControllerMethod cm : availMethods) {
 				if (matchesSuffix(cm, childName)) {
 					Object childObject = invoke(cm, parent, childName);
 					if (childObject == null) {
-						// ignore
+						authoritative = authoritative || ((ChildOf) cm.anno).authoritative();
 					} else {
-						AnnoResource r = annoResourceFactory.instantiate(childObject, parent, cm.method);
-						r.setNameOverride(childName);
-						return r;
+						return toResource(childObject, parent, cm, childName);
 					}
 				}
 			}
+			if (authoritative) {
+				return NOT_FOUND;
+			}
 		
 		} catch (NotAuthorizedException e) {
 			throw e;
@@ -84,6 +88,50 @@ public class ChildOfAnnotationHandler extends AbstractAnnotationHandler {
 		return null;
 	}
 
+	/**
+	 * Locate the child using only the given ChildOf method, such as one which
+	 * located it in an earlier request
+	 *
+	 * @param parent
+	 * @param childName
+	 * @param m
+	 * @return - the child wrapped in an AnnoResource, or null if the method
+	 * doesn't apply to the parent or didn't find the child
+	 * @throws NotAuthorizedException
+	 * @throws BadRequestException
+	 * @throws NotFoundException
+	 */
+	public AnnoResource execute(AnnoCollectionResource parent, String childName, java.lang.reflect.Method m) throws NotAuthorizedException, BadRequestException, NotFoundException {
+		Object source = parent.getSource();
+		try {
+			for (ControllerMethod cm : getMethods(source.getClass())) {
+				if (cm.method.equals(m) && matchesSuffix(cm, childName)) {
+					Object childObject = invoke(cm, parent, childName);
+					if (childObject == null) {
+						return null;
+					}
+					return toResource(childObject, parent, cm, childName);
+				}
+			}
+		} catch (NotAuthorizedException e) {
+			throw e;
+		} catch(BadRequestException e) {
+			throw e;
+		} catch(NotFoundException e) {
+			throw e;
+		} catch(Exception e ) {
+			throw new RuntimeException(e);
+		}
+		return null;
+	}
+
+	private AnnoResource toResource(Object childObject, AnnoCollectionResource parent, ControllerMethod cm, String childName) {
+		AnnoResource r = annoResourceFactory.instantiate(childObject, parent, cm.method);
+		r.setNameOverride(childName);
+		r.sourceMethod = cm.method;
+		return r;
+	}
+
 	private boolean matchesSuffix(ControllerMethod cm, String childName) {
 		ChildOf a = (ChildOf) cm.anno;
 		if (!a.pathSuffix().isEmpty()) {
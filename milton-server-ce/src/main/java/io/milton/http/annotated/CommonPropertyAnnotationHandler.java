@@ -18,19 +18,50 @@
  */
 package io.milton.http.annotated;
 
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.commons.beanutils.DynaBean;
+import org.apache.commons.beanutils.MethodUtils;
+import org.apache.commons.beanutils.PropertyUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Reads (and writes) a simple property of an annotated resource, such as its
+ * name or modified date.
+ *
+ * Values are located by looking, in order, for an annotated controller method,
+ * an annotated method on the source object, a bean property on the source
+ * object with one of the given names, and finally a default value. Since the
+ * outcome of that search only depends on the class of the source object, the
+ * first read for each class compiles an Accessor which is used for subsequent
+ * reads. The accessors are discarded when controllers are parsed
  *
  * @author brad
  */
 public class CommonPropertyAnnotationHandler<T> extends AbstractAnnotationHandler {
 
 	private static final Logger log = LoggerFactory.getLogger(CommonPropertyAnnotationHandler.class);
+	private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+	private static final MethodHandle PROPERTY_UTILS_GET;
+
+	static {
+		try {
+			PROPERTY_UTILS_GET = MethodHandles.publicLookup().findStatic(PropertyUtils.class, "getProperty", MethodType.methodType(Object.class, Object.class, String.class));
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
 	
 	private T defaultValue;
 	protected final String[] propertyNames;
+	private final Map<Class, Accessor> accessors = new ConcurrentHashMap<Class, Accessor>();
 
 	public CommonPropertyAnnotationHandler(Class annoClass, final AnnotationResourceFactory outer) {
 		super(outer, annoClass);
@@ -42,37 +73,87 @@ public class CommonPropertyAnnotationHandler<T> extends AbstractAnnotationHandle
 		propertyNames = propNames;
 	}
 
+	@Override
+	public void parseController(Object controller, List<java.lang.reflect.Method> annotatedMethods) {
+		super.parseController(controller, annotatedMethods);
+		accessors.clear();
+	}
+
 	public T get(AnnoResource res) {
 		Object source = res.getSource();
 		log.trace("get.1: source type={}", source.getClass());		
 		try {
-			ControllerMethod cm = getBestMethod(source.getClass(), null, null, Object.class);
-			if (cm != null) {
-				log.trace("get.2: found method={}", cm.method.getName());		
-				T val = (T) invoke(cm, res);
-				return val;
-			} else {
-				log.trace("get.3: couldnt find annotated controllere method, look for method on the source object");
-				// look for an annotation on the source itself
-				java.lang.reflect.Method m = annoResourceFactory.findMethodForAnno(source.getClass(), annoClass);
-				if (m != null && m.getParameterTypes().length ==0 ) {
-					log.trace("get.4: found method on source={}", m.getName());		
-					T val = (T) m.invoke(source);
-					return val;
+			return (T) getAccessor(source.getClass()).get(res, source);
+		} catch (Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new RuntimeException("Exception executing " + annoClass + " - " + source.getClass(), e);
+		}
+	}
+
+	/**
+	 * Find or compile the accessor for the given class of source object
+	 *
+	 * @param sourceClass
+	 * @return
+	 */
+	Accessor getAccessor(Class sourceClass) {
+		Accessor a = accessors.get(sourceClass);
+		if (a == null) {
+			a = compileAccessor(sourceClass);
+			accessors.put(sourceClass, a);
+		}
+		return a;
+	}
+
+	private Accessor compileAccessor(Class sourceClass) {
+		ControllerMethod cm = getBestMethod(sourceClass, null, null, Object.class);
+		if (cm != null) {
+			log.trace("compileAccessor: found controller method={}", cm.method.getName());
+			return new ControllerAccessor(cm);
+		}
+		log.trace("compileAccessor: couldnt find annotated controller method, look for method on the source object");
+		java.lang.reflect.Method m = annoResourceFactory.findMethodForAnno(sourceClass, annoClass);
+		if (m != null && m.getParameterTypes().length == 0) {
+			log.trace("compileAccessor: found method on source={}", m.getName());
+			return new SourceMethodAccessor(m);
+		}
+		if (DynaBean.class.isAssignableFrom(sourceClass)) {
+			// readable properties depend on the instance, so must be checked each time
+			return new DynamicPropertyAccessor();
+		}
+		List<MethodHandle> getters = new ArrayList<MethodHandle>();
+		for (String propName : propertyNames) {
+			MethodHandle h = findGetter(sourceClass, propName);
+			if (h != null) {
+				getters.add(h);
+			}
+		}
+		if (!getters.isEmpty()) {
+			log.trace("compileAccessor: found {} bean properties", getters.size());
+			return new BeanPropertyAccessor(getters.toArray(new MethodHandle[getters.size()]));
+		}
+		log.trace("compileAccessor: couldnt get a value from annotated methods or properties, so use default value");
+		return new DefaultValueAccessor();
+	}
+
+	private MethodHandle findGetter(Class sourceClass, String propName) {
+		for (PropertyDescriptor pd : PropertyUtils.getPropertyDescriptors(sourceClass)) {
+			if (pd.getName().equals(propName) && pd.getReadMethod() != null) {
+				// same rules as PropertyUtils.isReadable
+				java.lang.reflect.Method m = MethodUtils.getAccessibleMethod(sourceClass, pd.getReadMethod());
+				if (m == null) {
+					return null;
 				}
-				for (String propName : propertyNames) {
-					Object s = attemptToReadProperty(source, propName);
-					if (s != null) {
-						log.trace("get.5: found value from source property={}", propName);
-						return (T) s;
-					}
+				try {
+					return MethodHandles.publicLookup().unreflect(m).asType(GETTER_TYPE);
+				} catch (IllegalAccessException e) {
+					log.trace("findGetter: cant create handle for {}, will use PropertyUtils", m);
+					return MethodHandles.insertArguments(PROPERTY_UTILS_GET, 1, propName).asType(GETTER_TYPE);
 				}
-				log.trace("get.6: couldnt get a value from annotated methods or properties, so look for a default value");
-				return deriveDefaultValue(source);
 			}
-		} catch (Exception e) {
-			throw new RuntimeException("Exception executing " + annoClass + " - " + source.getClass(), e);
 		}
+		return null;
 	}
 
 	public void set(AnnoResource res, T newValue) {
@@ -112,4 +193,95 @@ public class CommonPropertyAnnotationHandler<T> extends AbstractAnnotationHandle
 	protected T deriveDefaultValue(Object source) {
 		return getDefaultValue();
 	}
+
+	/**
+	 * The resolved way to read the property for a particular class of source
+	 * object
+	 */
+	abstract class Accessor {
+
+		abstract Object get(AnnoResource res, Object source) throws Throwable;
+	}
+
+	private class ControllerAccessor extends Accessor {
+
+		private final ControllerMethod cm;
+
+		ControllerAccessor(ControllerMethod cm) {
+			this.cm = cm;
+		}
+
+		@Override
+		Object get(AnnoResource res, Object source) throws Throwable {
+			return invoke(cm, res);
+		}
+	}
+
+	private class SourceMethodAccessor extends Accessor {
+
+		private final java.lang.reflect.Method method;
+		private final MethodHandle handle;
+
+		SourceMethodAccessor(java.lang.reflect.Method method) {
+			this.method = method;
+			MethodHandle h;
+			try {
+				h = MethodHandles.publicLookup().unreflect(method).asType(GETTER_TYPE);
+			} catch (IllegalAccessException e) {
+				// eg a public method on a non-public class, let reflection report it
+				h = null;
+			}
+			this.handle = h;
+		}
+
+		@Override
+		Object get(AnnoResource res, Object source) throws Throwable {
+			if (handle != null) {
+				return handle.invokeExact(source);
+			}
+			return method.invoke(source);
+		}
+	}
+
+	private class BeanPropertyAccessor extends Accessor {
+
+		private final MethodHandle[] getters;
+
+		BeanPropertyAccessor(MethodHandle[] getters) {
+			this.getters = getters;
+		}
+
+		@Override
+		Object get(AnnoResource res, Object source) throws Throwable {
+			for (MethodHandle h : getters) {
+				Object val = h.invokeExact(source);
+				if (val != null) {
+					return val;
+				}
+			}
+			return deriveDefaultValue(source);
+		}
+	}
+
+	private class DynamicPropertyAccessor extends Accessor {
+
+		@Override
+		Object get(AnnoResource res, Object source) throws Throwable {
+			for (String propName : propertyNames) {
+				Object s = attemptToReadProperty(source, propName);
+				if (s != null) {
+					return s;
+				}
+			}
+			return deriveDefaultValue(source);
+		}
+	}
+
+	private class DefaultValueAccessor extends Accessor {
+
+		@Override
+		Object get(AnnoResource res, Object source) throws Throwable {
+			return deriveDefaultValue(source);
+		}
+	}
 }
@@ -0,0 +1,250 @@
+/*
+ *
+ * Copyright 2014 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.http.annotated;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.annotation.Annotation;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A build time index of controller classes and their annotated methods, as
+ * written by the ControllerIndexProcessor in milton-annotation-processor.
+ *
+ * Using the index means controller packages don't need to be scanned on
+ * startup, and controllers don't need to have all of their methods' annotations
+ * checked by each annotation handler.
+ *
+ * If a controller's methods in the index can't be found (ie the index is out
+ * of date) the controller is parsed with reflection instead.
+ *
+ * @author brad
+ */
+public class ControllerIndex {
+
+	private static final Logger log = LoggerFactory.getLogger(ControllerIndex.class);
+
+	public static final String INDEX_RESOURCE = "META-INF/milton/controllers.idx";
+
+	/**
+	 * Load and merge all indexes visible to the given classloader
+	 *
+	 * @param cl
+	 * @return - the index, or null if there are no index files
+	 * @throws IOException
+	 */
+	public static ControllerIndex load(ClassLoader cl) throws IOException {
+		Enumeration<URL> urls = cl.getResources(INDEX_RESOURCE);
+		if (!urls.hasMoreElements()) {
+			return null;
+		}
+		ControllerIndex index = new ControllerIndex(cl);
+		while (urls.hasMoreElements()) {
+			URL url = urls.nextElement();
+			log.info("load controller index: {}", url);
+			try (InputStream in = url.openStream()) {
+				index.read(in);
+			}
+			String s = url.toString();
+			index.indexedRoots.add(s.substring(0, s.length() - INDEX_RESOURCE.length()));
+		}
+		return index;
+	}
+
+	/**
+	 * Find the public methods of the given class which have annotations from
+	 * the io.milton.annotations package, keyed on annotation class. This is
+	 * what is used when there is no index
+	 *
+	 * @param controllerClass
+	 * @return
+	 */
+	public static Map<Class, List<java.lang.reflect.Method>> findAnnotatedMethods(Class controllerClass) {
+		Map<Class, List<java.lang.reflect.Method>> map = new HashMap<Class, List<java.lang.reflect.Method>>();
+		for (java.lang.reflect.Method m : controllerClass.getMethods()) {
+			for (Annotation a : m.getAnnotations()) {
+				if (a.annotationType().getName().startsWith("io.milton.annotations.")) {
+					add(map, a.annotationType(), m);
+				}
+			}
+		}
+		return map;
+	}
+
+	private static void add(Map<Class, List<java.lang.reflect.Method>> map, Class annoClass, java.lang.reflect.Method m) {
+		List<java.lang.reflect.Method> list = map.get(annoClass);
+		if (list == null) {
+			list = new ArrayList<java.lang.reflect.Method>();
+			map.put(annoClass, list);
+		}
+		list.add(m);
+	}
+
+	private final ClassLoader classLoader;
+	/**
+	 * Index lines for methods, keyed on controller class name
+	 */
+	private final Map<String, List<String[]>> controllers = new LinkedHashMap<String, List<String[]>>();
+	/**
+	 * The classpath roots (ie directories or jars) which index files were
+	 * loaded from, eg jar:file:/lib/app.jar!/
+	 */
+	private final Set<String> indexedRoots = new HashSet<String>();
+
+	public ControllerIndex(ClassLoader classLoader) {
+		this.classLoader = classLoader;
+	}
+
+	/**
+	 * Add the entries from the given index file
+	 *
+	 * @param in
+	 * @throws IOException
+	 */
+	public void read(InputStream in) throws IOException {
+		BufferedReader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+		List<String[]> current = null;
+		String line;
+		while ((line = r.readLine()) != null) {
+			if (line.startsWith("C\t")) {
+				current = new ArrayList<String[]>();
+				controllers.put(line.substring(2), current);
+			} else if (line.startsWith("M\t") && current != null) {
+				String[] parts = line.split("\t", -1);
+				if (parts.length == 4) {
+					current.add(parts);
+				} else {
+					log.warn("Invalid controller index entry: {}", line);
+				}
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @param packageName
+	 * @return - names of indexed controllers in the given package, not
+	 * including sub-packages
+	 */
+	public List<String> getControllerClassNames(String packageName) {
+		String prefix = packageName + ".";
+		List<String> list = new ArrayList<String>();
+		for (String className : controllers.keySet()) {
+			if (className.startsWith(prefix) && className.indexOf('.', prefix.length()) < 0) {
+				list.add(className);
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Check if every classpath root which contains the given package also
+	 * had an index file, so that the index lists all of the package's
+	 * controllers and the package does not need to be scanned
+	 *
+	 * @param packageName
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean isComplete(String packageName) throws IOException {
+		String packagePath = packageName.replace('.', '/');
+		Enumeration<URL> urls = classLoader.getResources(packagePath);
+		while (urls.hasMoreElements()) {
+			String s = urls.nextElement().toString();
+			if (s.endsWith("/")) {
+				s = s.substring(0, s.length() - 1);
+			}
+			if (!s.endsWith(packagePath) || !indexedRoots.contains(s.substring(0, s.length() - packagePath.length()))) {
+				log.info("isComplete: package {} is also in {}, which has no controller index", packageName, s);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Get the annotated methods of the given controller class, keyed on
+	 * annotation class. Uses the index if the class is in it, otherwise
+	 * reflects over the class's methods
+	 *
+	 * @param controllerClass
+	 * @return
+	 */
+	public Map<Class, List<java.lang.reflect.Method>> getAnnotatedMethods(Class controllerClass) {
+		List<String[]> entries = controllers.get(controllerClass.getName());
+		if (entries == null) {
+			return findAnnotatedMethods(controllerClass);
+		}
+		ClassLoader cl = controllerClass.getClassLoader() != null ? controllerClass.getClassLoader() : classLoader;
+		Map<Class, List<java.lang.reflect.Method>> map = new HashMap<Class, List<java.lang.reflect.Method>>();
+		try {
+			for (String[] parts : entries) {
+				Class annoClass = loadClass(parts[1], cl);
+				String[] paramNames = parts[3].length() == 0 ? new String[0] : parts[3].split(",");
+				Class[] params = new Class[paramNames.length];
+				for (int i = 0; i < params.length; i++) {
+					params[i] = loadClass(paramNames[i], cl);
+				}
+				add(map, annoClass, controllerClass.getMethod(parts[2], params));
+			}
+		} catch (ClassNotFoundException | NoSuchMethodException e) {
+			log.warn("Controller index is out of date for " + controllerClass + ", will use reflection instead: " + e);
+			return findAnnotatedMethods(controllerClass);
+		}
+		return map;
+	}
+
+	private static Class loadClass(String name, ClassLoader cl) throws ClassNotFoundException {
+		if (name.endsWith("[]")) {
+			Class component = loadClass(name.substring(0, name.length() - 2), cl);
+			return java.lang.reflect.Array.newInstance(component, 0).getClass();
+		}
+		switch (name) {
+			case "boolean":
+				return boolean.class;
+			case "byte":
+				return byte.class;
+			case "char":
+				return char.class;
+			case "short":
+				return short.class;
+			case "int":
+				return int.class;
+			case "long":
+				return long.class;
+			case "float":
+				return float.class;
+			case "double":
+				return double.class;
+			default:
+				return Class.forName(name, false, cl);
+		}
+	}
+}
@@ -17,23 +17,82 @@
 package io.milton.http.annotated;
 
 import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
 
 /**
+ * A method on a controller which handles an annotation.
+ *
+ * The argument binding and a MethodHandle for the method are prepared when the
+ * controller is parsed, so invoking doesn't need reflection
  *
  * @author brad
  */
 public class ControllerMethod {
 
+	private static final MethodType INVOKER_TYPE = MethodType.methodType(Object.class, Object[].class);
+
 	final Object controller;
 	final java.lang.reflect.Method method;
 	final Class sourceType;
 	final Annotation anno;
+	final ArgumentBinding binding;
+	private final MethodHandle invoker;
 
 	public ControllerMethod(Object controller, java.lang.reflect.Method method, Class sourceType, final Annotation anno) {
 		this.controller = controller;
 		this.method = method;
 		this.sourceType = sourceType;
 		this.anno = anno;
+		this.binding = ArgumentBinding.forMethod(method);
+		this.invoker = createInvoker(controller, method);
+	}
+
+	/**
+	 * Invoke the method on the controller. Exceptions thrown by the method are
+	 * wrapped in an InvocationTargetException, as with Method.invoke
+	 *
+	 * @param args
+	 * @return
+	 * @throws InvocationTargetException
+	 * @throws IllegalAccessException
+	 */
+	public Object invoke(Object... args) throws InvocationTargetException, IllegalAccessException {
+		if (invoker == null) {
+			return method.invoke(controller, args);
+		}
+		if (args.length != binding.size()) {
+			throw new IllegalArgumentException("Wrong number of arguments for " + this + ": expected " + binding.size() + " but got " + args.length);
+		}
+		try {
+			return invoker.invokeExact(args);
+		} catch (Throwable e) {
+			throw new InvocationTargetException(e);
+		}
+	}
+
+	/**
+	 * Create a handle of type (Object[])Object bound to the controller, or null
+	 * if the method can't be accessed through a handle, in which case
+	 * reflection is used
+	 */
+	private static MethodHandle createInvoker(Object controller, java.lang.reflect.Method method) {
+		MethodHandle h;
+		try {
+			h = MethodHandles.publicLookup().unreflect(method);
+		} catch (IllegalAccessException e) {
+			return null;
+		}
+		if (h.isVarargsCollector()) {
+			h = h.asFixedArity();
+		}
+		if (!Modifier.isStatic(method.getModifiers())) {
+			h = h.bindTo(controller);
+		}
+		return h.asSpreader(Object[].class, method.getParameterTypes().length).asType(INVOKER_TYPE);
 	}
 
 	@Override
@@ -44,8 +44,8 @@ public class DeleteAnnotationHandler extends AbstractAnnotationHandler {
 			throw new RuntimeException("Method not found: " + getClass() + " - " + source.getClass());
 		}
 		try {
-			Object[] args = annoResourceFactory.buildInvokeArgs(res, cm.method);
-			cm.method.invoke(cm.controller, args);
+			Object[] args = annoResourceFactory.buildInvokeArgs(res, cm);
+			cm.invoke(args);
 		} catch (NotAuthorizedException e) {
 			throw e;
 		} catch (BadRequestException e) {
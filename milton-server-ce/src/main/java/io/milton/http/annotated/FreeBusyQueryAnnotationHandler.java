@@ -41,7 +41,7 @@ public class FreeBusyQueryAnnotationHandler extends AbstractAnnotationHandler {
 			if (cm == null) {
 				return null;
 			} else {
-				Object[] args = annoResourceFactory.buildInvokeArgs(principal, cm.method, icalText);
+				Object[] args = annoResourceFactory.buildInvokeArgs(principal, cm, icalText);
 				List<SchedulingResponseItem> responseItems = (List<SchedulingResponseItem>) invoke(cm, principal, args);
 				return responseItems;
 			}
@@ -46,8 +46,8 @@ public class MakeCalendarAnnotationHandler extends AbstractAnnotationHandler {
 			throw new RuntimeException("Method not found: " + getClass() + " - " + source.getClass());
 		}
 		try {
-			Object[] args = annoResourceFactory.buildInvokeArgs(res, cm.method, newName, fieldsToSet);
-			Object o = cm.method.invoke(cm.controller, args);
+			Object[] args = annoResourceFactory.buildInvokeArgs(res, cm, newName, fieldsToSet);
+			Object o = cm.invoke(args);
 			if( o == null ) {
 				throw new RuntimeException("Method returned null object or void: " + cm.controller.getClass() + "::" + cm.method.getName() + " - should return newly created object");
 			}
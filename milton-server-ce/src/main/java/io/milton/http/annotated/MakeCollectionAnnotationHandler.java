@@ -44,8 +44,8 @@ public class MakeCollectionAnnotationHandler extends AbstractAnnotationHandler {
 			throw new RuntimeException("Method not found: Annotation=" + MakeCollection.class + " - source object=" + source.getClass());
 		}
 		try {
-			Object[] args = annoResourceFactory.buildInvokeArgs(res, cm.method, newName);
-			Object o = cm.method.invoke(cm.controller, args);
+			Object[] args = annoResourceFactory.buildInvokeArgs(res, cm, newName);
+			Object o = cm.invoke(args);
 			if( o == null ) {
 				throw new RuntimeException("Method returned null object or void: " + cm.controller.getClass() + "::" + cm.method.getName() + " - should return newly created object");
 			}
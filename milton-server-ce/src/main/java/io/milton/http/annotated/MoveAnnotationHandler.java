@@ -50,8 +50,8 @@ public class MoveAnnotationHandler extends AbstractAnnotationHandler {
 				AnnoResource arDest = (AnnoResource) rDest;
 				destObject = arDest.getSource();
 			}
-			Object[] args = annoResourceFactory.buildInvokeArgs(res, cm.method, newName, rDest, destObject);
-			cm.method.invoke(cm.controller, args);
+			Object[] args = annoResourceFactory.buildInvokeArgs(res, cm, newName, rDest, destObject);
+			cm.invoke(args);
 		} catch (NotAuthorizedException e) {
 			throw e;
 		} catch (BadRequestException e) {
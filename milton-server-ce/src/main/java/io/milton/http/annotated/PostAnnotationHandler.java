@@ -84,8 +84,8 @@ public class PostAnnotationHandler extends AbstractAnnotationHandler {
 		}
 
 		try {
-			Object[] args = annoResourceFactory.buildInvokeArgs(resource, cm.method, params);
-			Object result = cm.method.invoke(cm.controller, args);
+			Object[] args = annoResourceFactory.buildInvokeArgs(resource, cm, params);
+			Object result = cm.invoke(args);
 			return result;
 		} catch (NotAuthorizedException e) {
 			throw e;
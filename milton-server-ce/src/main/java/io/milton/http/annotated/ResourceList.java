@@ -21,13 +21,21 @@ import io.milton.resource.Resource;
 import java.util.*;
 
 /**
+ * A list of resources which can also be looked up by name or type.
+ *
+ * The name index and the lists of resources by type are built on first use
+ * and then kept up to date as resources are added or removed through add and
+ * remove. Any other modification to the list (eg addAll or sorting) causes
+ * them to be rebuilt on next use
  *
  * @author brad
  */
 public class ResourceList extends ArrayList<CommonResource> {
 
 	private static final long serialVersionUID = 1L;
-	private final Map<String, CommonResource> map = new HashMap<>();
+	private transient Map<String, CommonResource> map;
+	private transient Map<String, ResourceList> typeBuckets;
+	private transient int indexedModCount;
 
 	public ResourceList() {
 	}
@@ -68,11 +76,31 @@ public class ResourceList extends ArrayList<CommonResource> {
 		if (e.getName() == null) {
 			throw new NullPointerException("Attempt to add resource with null name: " + e.getClass().getName());
 		}
-		map.put(e.getName(), e);
+		boolean indexed = isIndexCurrent();
 		boolean b = super.add(e);
+		if (indexed) {
+			map.put(e.getName(), e);
+			if (typeBuckets != null) {
+				for (Map.Entry<String, ResourceList> entry : typeBuckets.entrySet()) {
+					if (e.is(entry.getKey())) {
+						entry.getValue().add(e);
+					}
+				}
+			}
+			indexedModCount = modCount;
+		}
 		return b;
 	}
 
+	@Override
+	public CommonResource set(int index, CommonResource element) {
+		CommonResource old = super.set(index, element);
+		if (old != element) {
+			map = null; // ArrayList doesn't count this as a modification, but the index is now stale
+		}
+		return old;
+	}
+
 	/**
 	 * Just adds the elements in the given list to this list and returns list to
 	 * make it suitable for chaining and use from velocity
@@ -86,13 +114,13 @@ public class ResourceList extends ArrayList<CommonResource> {
 	}
 
 	public CommonResource get(String name) {
-		return map.get(name);
+		return index().get(name);
 	}
 
 	public Resource remove(String name) {
-		CommonResource r = map.remove(name);
+		CommonResource r = index().get(name);
 		if (r != null) {
-			super.remove(r);
+			remove(r);
 		}
 		return r;
 	}
@@ -103,11 +131,92 @@ public class ResourceList extends ArrayList<CommonResource> {
 
 	@Override
 	public boolean remove(Object o) {
-		if (o instanceof Resource) {
-			Resource e = (Resource) o;
-			map.remove(e.getName());
+		boolean indexed = isIndexCurrent();
+		boolean b = super.remove(o);
+		if (indexed) {
+			if (b && o instanceof Resource) {
+				Resource e = (Resource) o;
+				String name = e.getName();
+				if (map.get(name) == e) {
+					// another entry with the same name might still be in the list
+					CommonResource other = findLast(name);
+					if (other == null) {
+						map.remove(name);
+					} else {
+						map.put(name, other);
+					}
+				}
+			}
+			if (b && typeBuckets != null) {
+				for (ResourceList bucket : typeBuckets.values()) {
+					bucket.remove(o);
+				}
+			}
+			indexedModCount = modCount;
+		}
+		return b;
+	}
+
+	/**
+	 * The last entry with the given name, which is the one the name index
+	 * holds when it is built
+	 */
+	private CommonResource findLast(String name) {
+		for (int i = size() - 1; i >= 0; i--) {
+			CommonResource r = get(i);
+			if (name.equals(r.getName())) {
+				return r;
+			}
+		}
+		return null;
+	}
+
+	private boolean isIndexCurrent() {
+		return map != null && indexedModCount == modCount;
+	}
+
+	/**
+	 * Get the name index, rebuilding it if the list has been modified other
+	 * than through add or remove
+	 *
+	 * @return
+	 */
+	private Map<String, CommonResource> index() {
+		if (!isIndexCurrent()) {
+			Map<String, CommonResource> m = new HashMap<>(size() * 4 / 3 + 1);
+			for (CommonResource r : this) {
+				m.put(r.getName(), r);
+			}
+			map = m;
+			typeBuckets = null;
+			indexedModCount = modCount;
+		}
+		return map;
+	}
+
+	/**
+	 * The resources which satisfy is(type), in list order. Must not be
+	 * modified by callers
+	 *
+	 * @param type
+	 * @return
+	 */
+	private ResourceList typeBucket(String type) {
+		index();
+		if (typeBuckets == null) {
+			typeBuckets = new HashMap<>();
+		}
+		ResourceList bucket = typeBuckets.get(type);
+		if (bucket == null) {
+			bucket = new ResourceList();
+			for (CommonResource cr : this) {
+				if (cr.is(type)) {
+					bucket.add(cr);
+				}
+			}
+			typeBuckets.put(type, bucket);
 		}
-		return super.remove(o);
+		return bucket;
 	}
 
 	@Override
@@ -242,15 +351,7 @@ public class ResourceList extends ArrayList<CommonResource> {
 	 * @return
 	 */
 	public ResourceList ofType(String s) {
-		ResourceList newList = new ResourceList(this);
-		Iterator<CommonResource> it = newList.iterator();
-		while (it.hasNext()) {
-			CommonResource ct = it.next();
-			if (!ct.is(s)) {
-				it.remove();
-			}
-		}
-		return newList;
+		return new ResourceList(typeBucket(s));
 	}
 
 	/**
@@ -310,7 +411,7 @@ public class ResourceList extends ArrayList<CommonResource> {
 	}
 
 	public Map<String, CommonResource> getMap() {
-		return map;
+		return index();
 	}
 
 //	public ResourceList find(String path, String type) {
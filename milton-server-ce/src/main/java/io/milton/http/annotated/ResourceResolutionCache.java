@@ -0,0 +1,329 @@
+/*
+ *
+ * Copyright 2014 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.http.annotated;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import io.milton.annotations.ResolutionMaxAge;
+import io.milton.event.DeleteEvent;
+import io.milton.event.Event;
+import io.milton.event.EventListener;
+import io.milton.event.EventManager;
+import io.milton.event.MoveEvent;
+import io.milton.event.NewFolderEvent;
+import io.milton.event.ResourceEvent;
+import io.milton.http.HttpManager;
+import io.milton.http.Request;
+import io.milton.resource.Resource;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers the resources located for each path by AnnotationResourceFactory
+ * within the current request, so that resolving the same path or one of its
+ * ancestors again, for example when the parent is located for permission
+ * checks, doesn't need to call ChildOf/ChildrenOf controller methods again.
+ *
+ * Resources are held in a request attribute, so they are never shared across
+ * requests or transactions, and every request resolves each path through the
+ * controllers at least once.
+ *
+ * Across requests, only the route is remembered: that is, which ChildOf method
+ * located each path. Later requests call that method directly, rather than
+ * trying each ChildOf method or loading all children in turn, but the method
+ * is still called so it can perform its own checks. This only happens for
+ * methods which have a ResolutionMaxAge (on the method or its controller
+ * class), unless a default max age is given.
+ *
+ * Entries for a path and everything beneath it are removed when a MoveEvent,
+ * DeleteEvent or NewFolderEvent is fired for a resource at that path, so this
+ * must be registered with the EventManager (see register)
+ *
+ * @author brad
+ */
+public class ResourceResolutionCache implements EventListener {
+
+	private static final Logger log = LoggerFactory.getLogger(ResourceResolutionCache.class);
+
+	/**
+	 * Request attribute holding resources already resolved in the current
+	 * request, by host and then by path
+	 */
+	public static final String REQUEST_ATTRIBUTE = "AnnoResolved";
+
+	private final Map<Key, Route> routes;
+	private final int defaultMaxAgeSeconds;
+	private final Map<java.lang.reflect.Method, Integer> maxAgeByMethod = new ConcurrentHashMap<java.lang.reflect.Method, Integer>();
+
+	/**
+	 * Remember resources within each request only
+	 */
+	public ResourceResolutionCache() {
+		this(10000, 0);
+	}
+
+	/**
+	 *
+	 * @param maxSize - maximum number of routes to hold, least recently used
+	 * are evicted first
+	 * @param defaultMaxAgeSeconds - how long to remember ChildOf methods
+	 * without a ResolutionMaxAge annotation. Zero means they are not
+	 * remembered
+	 */
+	public ResourceResolutionCache(int maxSize, int defaultMaxAgeSeconds) {
+		this.routes = new ConcurrentLinkedHashMap.Builder<Key, Route>()
+				.maximumWeightedCapacity(maxSize)
+				.build();
+		this.defaultMaxAgeSeconds = defaultMaxAgeSeconds;
+	}
+
+	/**
+	 * Listen for events which invalidate resolved paths
+	 *
+	 * @param eventManager
+	 */
+	public void register(EventManager eventManager) {
+		eventManager.registerEventListener(this, MoveEvent.class);
+		eventManager.registerEventListener(this, DeleteEvent.class);
+		eventManager.registerEventListener(this, NewFolderEvent.class);
+	}
+
+	/**
+	 *
+	 * @param host
+	 * @param path - path within the host, eg /users/joe
+	 * @return - the resource resolved for the path earlier in this request, or
+	 * null if none or there is no current request
+	 */
+	public Resource get(String host, String path) {
+		Map<String, NavigableMap<String, Resource>> resolved = resolved(false);
+		if (resolved == null) {
+			return null;
+		}
+		NavigableMap<String, Resource> paths = resolved.get(host);
+		return paths == null ? null : paths.get(path);
+	}
+
+	public void put(String host, String path, Resource r) {
+		Map<String, NavigableMap<String, Resource>> resolved = resolved(true);
+		if (resolved == null) {
+			return;
+		}
+		NavigableMap<String, Resource> paths = resolved.get(host);
+		if (paths == null) {
+			paths = new TreeMap<String, Resource>();
+			resolved.put(host, paths);
+		}
+		paths.put(path, r);
+	}
+
+	/**
+	 *
+	 * @param host
+	 * @param path
+	 * @return - the ChildOf method which located the path in an earlier
+	 * request, or null if not known or expired
+	 */
+	public java.lang.reflect.Method getRoute(String host, String path) {
+		Key key = new Key(host, path);
+		Route route = routes.get(key);
+		if (route == null) {
+			return null;
+		}
+		if (route.expiresAt < System.currentTimeMillis()) {
+			routes.remove(key, route);
+			return null;
+		}
+		return route.method;
+	}
+
+	/**
+	 * Remember the ChildOf method which located the path, if the method allows
+	 * it
+	 *
+	 * @param host
+	 * @param path
+	 * @param m - the locating method, may be null
+	 */
+	public void putRoute(String host, String path, java.lang.reflect.Method m) {
+		if (m == null) {
+			return;
+		}
+		int maxAge = getMaxAgeSeconds(m);
+		if (maxAge <= 0) {
+			return;
+		}
+		routes.put(new Key(host, path), new Route(m, System.currentTimeMillis() + maxAge * 1000l));
+	}
+
+	public void removeRoute(String host, String path) {
+		routes.remove(new Key(host, path));
+	}
+
+	/**
+	 * Remove entries for the given path and all paths beneath it, for all
+	 * hosts, both in the current request and from remembered routes
+	 *
+	 * @param path
+	 */
+	public void invalidate(String path) {
+		if (path.length() > 1 && path.endsWith("/")) {
+			path = path.substring(0, path.length() - 1);
+		}
+		String routePrefix = path.endsWith("/") ? path : path + "/";
+		Iterator<Key> it = routes.keySet().iterator();
+		while (it.hasNext()) {
+			Key k = it.next();
+			if (k.path.equals(path) || k.path.startsWith(routePrefix)) {
+				log.trace("invalidate route: {}", k.path);
+				it.remove();
+			}
+		}
+		Map<String, NavigableMap<String, Resource>> resolved = resolved(false);
+		if (resolved == null) {
+			return;
+		}
+		for (NavigableMap<String, Resource> paths : resolved.values()) {
+			paths.remove(path);
+			// '0' is the character after '/', so this is everything beneath the path
+			String prefix = path.endsWith("/") ? path : path + "/";
+			NavigableMap<String, Resource> beneath = paths.subMap(prefix, true, prefix.substring(0, prefix.length() - 1) + '0', false);
+			if (!beneath.isEmpty()) {
+				log.trace("invalidate: {} entries beneath {}", beneath.size(), path);
+				beneath.clear();
+			}
+		}
+	}
+
+	@Override
+	public void onEvent(Event e) {
+		if (e instanceof ResourceEvent) {
+			invalidate(((ResourceEvent) e).getResource());
+		}
+		if (e instanceof MoveEvent) {
+			MoveEvent me = (MoveEvent) e;
+			if (me.getDestCollection() instanceof AnnoResource) {
+				String destPath = pathOf((AnnoResource) me.getDestCollection());
+				invalidate(destPath.endsWith("/") ? destPath + me.getNewName() : destPath + "/" + me.getNewName());
+			}
+		}
+	}
+
+	private void invalidate(Resource r) {
+		if (r instanceof AnnoResource) {
+			invalidate(pathOf((AnnoResource) r));
+		}
+	}
+
+	/**
+	 * The path of the resource within its host, as used for keys
+	 */
+	static String pathOf(AnnoResource r) {
+		if (r.getParent() == null) {
+			return "/";
+		}
+		StringBuilder sb = new StringBuilder();
+		while (r.getParent() != null) {
+			sb.insert(0, r.getName()).insert(0, '/');
+			r = r.getParent();
+		}
+		return sb.toString();
+	}
+
+	private int getMaxAgeSeconds(java.lang.reflect.Method m) {
+		Integer i = maxAgeByMethod.get(m);
+		if (i == null) {
+			ResolutionMaxAge a = m.getAnnotation(ResolutionMaxAge.class);
+			if (a == null) {
+				a = m.getDeclaringClass().getAnnotation(ResolutionMaxAge.class);
+			}
+			i = a == null ? defaultMaxAgeSeconds : a.value();
+			maxAgeByMethod.put(m, i);
+		}
+		return i;
+	}
+
+	public void clearRoutes() {
+		routes.clear();
+	}
+
+	public int getRouteCount() {
+		return routes.size();
+	}
+
+	private Map<String, NavigableMap<String, Resource>> resolved(boolean create) {
+		Request request = HttpManager.request();
+		if (request == null) {
+			return null;
+		}
+		Map<String, Object> atts = request.getAttributes();
+		Map<String, NavigableMap<String, Resource>> resolved = (Map<String, NavigableMap<String, Resource>>) atts.get(REQUEST_ATTRIBUTE);
+		if (resolved == null && create) {
+			resolved = new HashMap<String, NavigableMap<String, Resource>>();
+			atts.put(REQUEST_ATTRIBUTE, resolved);
+		}
+		return resolved;
+	}
+
+	/**
+	 * A remembered ChildOf method, and when it expires
+	 */
+	private static class Route {
+
+		final java.lang.reflect.Method method;
+		final long expiresAt;
+
+		Route(java.lang.reflect.Method method, long expiresAt) {
+			this.method = method;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	private static class Key {
+
+		private final String host;
+		private final String path;
+		private final int hash;
+
+		Key(String host, String path) {
+			this.host = host;
+			this.path = path;
+			this.hash = 31 * (host == null ? 0 : host.hashCode()) + path.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return hash == other.hash
+					&& path.equals(other.path)
+					&& (host == null ? other.host == null : host.equals(other.host));
+		}
+	}
+}
@@ -38,9 +38,9 @@ public class RootAnnotationHandler implements AnnotationHandler {
 			try {
 				Object root;
 				if (cm.method.getParameterTypes().length == 0) {
-					root = cm.method.invoke(cm.controller);
+					root = cm.invoke();
 				} else {
-					root = cm.method.invoke(cm.controller, host); // TODO: other args like request, response, etc
+					root = cm.invoke(host); // TODO: other args like request, response, etc
 					// TODO: other args like request, response, etc
 					// TODO: other args like request, response, etc
 				}
@@ -56,13 +56,21 @@ public class RootAnnotationHandler implements AnnotationHandler {
 
 	@Override
 	public void parseController(Object controller) {
+		List<java.lang.reflect.Method> annotatedMethods = new ArrayList<java.lang.reflect.Method>();
 		for (java.lang.reflect.Method m : controller.getClass().getMethods()) {
-			Root a = m.getAnnotation(Root.class);
-			if (a != null) {
-				ControllerMethod cm = new ControllerMethod(controller, m, null, null);
-				controllerMethods.add(cm);
+			if (m.getAnnotation(Root.class) != null) {
+				annotatedMethods.add(m);
 			}
 		}
+		parseController(controller, annotatedMethods);
+	}
+
+	@Override
+	public void parseController(Object controller, List<java.lang.reflect.Method> annotatedMethods) {
+		for (java.lang.reflect.Method m : annotatedMethods) {
+			ControllerMethod cm = new ControllerMethod(controller, m, null, null);
+			controllerMethods.add(cm);
+		}
 	}
 
 	@Override
@@ -144,7 +144,8 @@ public class SimpleLockManager implements LockManager {
 			log.warn("attempt to refresh missing token/etaqg: " + tokenId + " on resource: " + resource.getName() + " will create a new lock");
 			LockTimeout timeout = new LockTimeout(60 * 60l);
 			String lockedByUser = null;
-			Auth auth = HttpManager.request().getAuthorization();
+			Request req = HttpManager.request();
+			Auth auth = req == null ? null : req.getAuthorization();
 			if (auth != null) {
 				lockedByUser = auth.getUser();
 			} else {
@@ -57,6 +57,7 @@ public class CookieAuthenticationHandler implements AuthenticationHandler {
 	private boolean useLongLivedCookies = true;
 	private final List<String> keys;
 	private final String keepLoggedInParamName = "keepLoggedIn";
+	private CookiePrincipalCache principalCache;
 
 	public CookieAuthenticationHandler(NonceProvider nonceProvider, List<AuthenticationHandler> handlers, ResourceFactory principalResourceFactory, List<String> keys, RequestHostService requestHostService) {
 		this.nonceProvider = nonceProvider;
@@ -163,13 +164,20 @@ public class CookieAuthenticationHandler implements AuthenticationHandler {
 					}
 					// we found a userUrl
 					String host = request.getHostHeader();
-					Resource r;
-					try {
-						r = principalResourceFactory.getResource(host, userUrl);
-						log.trace("found current user: " + r);
-					} catch (NotAuthorizedException | BadRequestException ex) {
-						log.error("Couldnt check userUrl in cookie", ex);
-						r = null;
+					Resource r = findCachedPrincipal(userUrl, request);
+					if (r != null) {
+						log.trace("found current user in principal cache: {}", r);
+					} else {
+						try {
+							r = principalResourceFactory.getResource(host, userUrl);
+							log.trace("found current user: " + r);
+						} catch (NotAuthorizedException | BadRequestException ex) {
+							log.error("Couldnt check userUrl in cookie", ex);
+							r = null;
+						}
+						if (r instanceof DiscretePrincipal) {
+							cachePrincipal(userUrl, request, (DiscretePrincipal) r);
+						}
 					}
 					if (r == null) {
 						log.warn("User not found host: " + host + " userUrl: " + userUrl + " with resourcefactory: " + principalResourceFactory);
@@ -234,6 +242,8 @@ public class CookieAuthenticationHandler implements AuthenticationHandler {
 			log.trace("setLoginCookies: No response object");
 			return;
 		}
+		// the cookie in this request is being replaced
+		removeCachedPrincipal(request);
 		String signing = getUrlSigningHash(userUrl, request, r);
 
 		boolean keepLoggedIn = isKeepLoggedIn(request);
@@ -422,17 +432,6 @@ public class CookieAuthenticationHandler implements AuthenticationHandler {
 			return false;
 		}
 
-		for (String key : keys) {
-			if (key != null && key.length() > 0) {
-				if (verifyHash(userUrl, key, signing, request, r)) {
-					return true;
-				}
-			}
-		}
-		return false;
-	}
-
-	private boolean verifyHash(String userUrl, String key, String signing, Request request, Resource r) {
 		// split the signing into nonce and hmac
 		int pos = signing.indexOf(":");
 		if (pos < 1) {
@@ -441,7 +440,23 @@ public class CookieAuthenticationHandler implements AuthenticationHandler {
 		}
 		String host = requestHostService.getHostName(request);
 		String nonce = signing.substring(0, pos);
+		if (principalCache != null && principalCache.get(request.getHostHeader(), host, userUrl, signing) != null) {
+			// only cached once the hmac has been verified
+			log.trace("verifyHash: hmac already verified");
+			return checkNonce(userUrl, nonce, host, request, r);
+		}
 		String hmac = signing.substring(pos + 1);
+		for (String key : keys) {
+			if (key != null && key.length() > 0) {
+				if (verifyHmac(userUrl, key, nonce, hmac, host)) {
+					return checkNonce(userUrl, nonce, host, request, r);
+				}
+			}
+		}
+		return false;
+	}
+
+	private boolean verifyHmac(String userUrl, String key, String nonce, String hmac, String host) {
 		String message = nonce + ":" + userUrl + ":" + host;
 
 		// Check that the hmac is a valid signature
@@ -450,35 +465,37 @@ public class CookieAuthenticationHandler implements AuthenticationHandler {
 			log.trace("Message:" + message);
 			log.trace("Key:" + key);
 			log.trace("Hash:" + expectedHmac);
-			log.trace("Given Signing:" + signing);
+			log.trace("Given Hmac:" + hmac);
 		}
 		boolean ok = expectedHmac.equals(hmac);
-		if (!ok) {
-			if (log.isDebugEnabled()) {
-				log.debug("Cookie sig does not match expected. Given=" + hmac + " Expected=" + expectedHmac);
-			}
-			return false;
+		if (!ok && log.isDebugEnabled()) {
+			log.debug("Cookie sig does not match expected. Given=" + hmac + " Expected=" + expectedHmac);
+		}
+		return ok;
+	}
+
+	/**
+	 * Signed ok, so check to see if the nonce is still valid
+	 */
+	private boolean checkNonce(String userUrl, String nonce, String host, Request request, Resource r) {
+		NonceProvider.NonceValidity val = nonceProvider.getNonceValidity(nonce, null, userUrl, host);
+		if (val == null) {
+			throw new RuntimeException("Unhandled nonce validity value");
 		} else {
-			// signed ok, check to see if nonce is still valid
-			NonceProvider.NonceValidity val = nonceProvider.getNonceValidity(nonce, null, userUrl, host);
-			if (val == null) {
-				throw new RuntimeException("Unhandled nonce validity value");
-			} else {
-				switch (val) {
-					case OK:
-						return true;
-					case EXPIRED:
-						// Hopefully the nonce provider will have a time limit and only return expired
-						// for recently expired nonces. So we will accept these but replace with a refreshed nonce
-						log.warn("Nonce is valid, but expired. We will accept it but reset it");
-						setLoginCookies(userUrl, request, r);
-						return true;
-					case INVALID:
-						log.warn("Received an invalid nonce: " + nonce + " not found in provider: " + nonceProvider);
-						return false;
-					default:
-						throw new RuntimeException("Unhandled nonce validity value");
-				}
+			switch (val) {
+				case OK:
+					return true;
+				case EXPIRED:
+					// Hopefully the nonce provider will have a time limit and only return expired
+					// for recently expired nonces. So we will accept these but replace with a refreshed nonce
+					log.warn("Nonce is valid, but expired. We will accept it but reset it");
+					setLoginCookies(userUrl, request, r);
+					return true;
+				case INVALID:
+					log.warn("Received an invalid nonce: " + nonce + " not found in provider: " + nonceProvider);
+					return false;
+				default:
+					throw new RuntimeException("Unhandled nonce validity value");
 			}
 		}
 	}
@@ -584,12 +601,63 @@ public class CookieAuthenticationHandler implements AuthenticationHandler {
 		} else {
 			String nonce = signing.substring(0, pos);
 			nonceProvider.invalidateNonce(nonce);
+			removeCachedPrincipal(request);
 		}
 
 		response.setCookie(cookieUserUrlValue, "");
 		response.setCookie(cookieUserUrlHash, "");
 	}
 
+	/**
+	 * Look for a principal previously resolved from the same signed cookie.
+	 * The hmac and nonce must already have been checked for this request
+	 *
+	 * @param userUrl
+	 * @param request
+	 * @return - the cached principal, or null if there is no cache or no live
+	 * entry
+	 */
+	private DiscretePrincipal findCachedPrincipal(String userUrl, Request request) {
+		if (principalCache == null) {
+			return null;
+		}
+		String signing = getHashFromRequest(request);
+		if (signing == null) {
+			return null;
+		}
+		return principalCache.get(request.getHostHeader(), requestHostService.getHostName(request), userUrl, normaliseSigning(signing));
+	}
+
+	private void cachePrincipal(String userUrl, Request request, DiscretePrincipal p) {
+		if (principalCache == null) {
+			return;
+		}
+		String signing = getHashFromRequest(request);
+		if (signing == null) {
+			return;
+		}
+		principalCache.put(request.getHostHeader(), requestHostService.getHostName(request), userUrl, normaliseSigning(signing), p);
+	}
+
+	/**
+	 * Remove the entry, if any, for the cookie given in the request
+	 */
+	private void removeCachedPrincipal(Request request) {
+		if (principalCache == null) {
+			return;
+		}
+		String signing = getHashFromRequest(request);
+		String userUrl = getUserUrlFromRequest(request);
+		if (signing == null || userUrl == null) {
+			return;
+		}
+		principalCache.remove(request.getHostHeader(), requestHostService.getHostName(request), userUrl.trim(), normaliseSigning(signing));
+	}
+
+	private String normaliseSigning(String signing) {
+		return signing.replace("\"", "").trim();
+	}
+
 	private String getCookieOrParam(Request request, String name) {
 		if (request == null) {
 			return null;
@@ -645,4 +713,22 @@ public class CookieAuthenticationHandler implements AuthenticationHandler {
 		return useLongLivedCookies;
 	}
 
+	/**
+	 * If set, principals resolved from signed cookies will be cached so that
+	 * subsequent requests with the same cookie and host do not need to
+	 * recalculate the hmac or look the user up from the
+	 * principalResourceFactory. The nonce is still checked on every request.
+	 *
+	 * Null (the default) means no caching
+	 *
+	 * @return
+	 */
+	public CookiePrincipalCache getPrincipalCache() {
+		return principalCache;
+	}
+
+	public void setPrincipalCache(CookiePrincipalCache principalCache) {
+		this.principalCache = principalCache;
+	}
+
 }
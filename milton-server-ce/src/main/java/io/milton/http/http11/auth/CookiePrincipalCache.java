@@ -0,0 +1,157 @@
+/*
+ *
+ * Copyright 2014 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.http.http11.auth;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import io.milton.principal.DiscretePrincipal;
+import java.util.Map;
+
+/**
+ * A bounded, time limited cache of principals which have been resolved from a
+ * signed login cookie.
+ *
+ * Entries are keyed on the host header, the host name which was signed, the
+ * user url and the complete signing value (ie nonce:hmac) given in the cookie,
+ * so a hit means that exactly the same cookie was presented for the same host,
+ * had a valid hmac, and was resolved to this principal within the TTL. It says
+ * nothing about the nonce, which must still be checked with the NonceProvider
+ * on every request.
+ *
+ * Entries are removed by key when the cookie they were resolved from is
+ * logged out or replaced with new login cookies.
+ *
+ * @author brad
+ */
+public class CookiePrincipalCache {
+
+	private final Map<Key, Entry> cache;
+	private final long ttlMillis;
+
+	/**
+	 *
+	 * @param maxSize - maximum number of principals to hold
+	 * @param ttlSeconds - how long an entry can be used for after it was
+	 * resolved
+	 */
+	public CookiePrincipalCache(int maxSize, int ttlSeconds) {
+		this.cache = new ConcurrentLinkedHashMap.Builder<Key, Entry>()
+				.maximumWeightedCapacity(maxSize)
+				.build();
+		this.ttlMillis = ttlSeconds * 1000l;
+	}
+
+	/**
+	 * Find a principal previously resolved from the same signed cookie
+	 *
+	 * @param hostHeader - the Host header of the request
+	 * @param host - the host name which the signature was calculated over
+	 * @param userUrl
+	 * @param signing - the complete nonce:hmac value from the cookie
+	 * @return - the principal, or null if not present or expired
+	 */
+	public DiscretePrincipal get(String hostHeader, String host, String userUrl, String signing) {
+		Key key = new Key(hostHeader, host, userUrl, signing);
+		Entry e = cache.get(key);
+		if (e == null) {
+			return null;
+		}
+		if (e.expiresAt < System.currentTimeMillis()) {
+			cache.remove(key, e);
+			return null;
+		}
+		return e.principal;
+	}
+
+	/**
+	 * Record the principal resolved from a signed cookie whose hmac has been
+	 * verified
+	 *
+	 * @param hostHeader
+	 * @param host
+	 * @param userUrl
+	 * @param signing
+	 * @param principal
+	 */
+	public void put(String hostHeader, String host, String userUrl, String signing, DiscretePrincipal principal) {
+		cache.put(new Key(hostHeader, host, userUrl, signing), new Entry(principal, System.currentTimeMillis() + ttlMillis));
+	}
+
+	public void remove(String hostHeader, String host, String userUrl, String signing) {
+		cache.remove(new Key(hostHeader, host, userUrl, signing));
+	}
+
+	public void clear() {
+		cache.clear();
+	}
+
+	public int size() {
+		return cache.size();
+	}
+
+	private static class Entry {
+
+		private final DiscretePrincipal principal;
+		private final long expiresAt;
+
+		public Entry(DiscretePrincipal principal, long expiresAt) {
+			this.principal = principal;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	private static class Key {
+
+		private final String hostHeader;
+		private final String host;
+		private final String userUrl;
+		private final String signing;
+		private final int hash;
+
+		public Key(String hostHeader, String host, String userUrl, String signing) {
+			this.hostHeader = hostHeader;
+			this.host = host;
+			this.userUrl = userUrl;
+			this.signing = signing;
+			int h = hostHeader == null ? 0 : hostHeader.hashCode();
+			h = 31 * h + (host == null ? 0 : host.hashCode());
+			h = 31 * h + userUrl.hashCode();
+			this.hash = 31 * h + signing.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return hash == other.hash
+					&& userUrl.equals(other.userUrl)
+					&& signing.equals(other.signing)
+					&& eq(host, other.host)
+					&& eq(hostHeader, other.hostHeader);
+		}
+
+		private static boolean eq(String a, String b) {
+			return a == null ? b == null : a.equals(b);
+		}
+	}
+}
@@ -18,6 +18,8 @@ package io.milton.http.http11.auth;
 import java.security.InvalidKeyException;
 import java.security.Key;
 import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 import org.apache.commons.codec.binary.Base64;
@@ -29,13 +31,26 @@ import org.apache.commons.codec.binary.Base64;
 public class HmacUtils {
 
 	private static final String HMAC_SHA1_ALGORITHM = "HmacSHA1";
-	
-	public static String calcShaHash(String data, String key) {		
+
+	/**
+	 * Max number of distinct keys to hold initialised Mac instances for, per
+	 * thread. Normally there are only one or two signing keys
+	 */
+	private static final int MAX_MACS_PER_THREAD = 8;
+
+	// Mac instances are not thread safe, and are expensive to create, so keep
+	// initialised instances per thread, keyed on the signing key
+	private static final ThreadLocal<Map<String, Mac>> threadMacs = new ThreadLocal<Map<String, Mac>>() {
+		@Override
+		protected Map<String, Mac> initialValue() {
+			return new HashMap<>();
+		}
+	};
+
+	public static String calcShaHash(String data, String key) {
 		String result = null;
 		try {
-			Key signingKey = new SecretKeySpec(key.getBytes(), HMAC_SHA1_ALGORITHM);
-			Mac mac = Mac.getInstance(HMAC_SHA1_ALGORITHM);
-			mac.init(signingKey);
+			Mac mac = getMac(key);
 			byte[] rawHmac = mac.doFinal(data.getBytes());
 			result = Base64.encodeBase64URLSafeString(rawHmac);
 		} catch (NoSuchAlgorithmException e) {
@@ -48,6 +63,20 @@ public class HmacUtils {
 
 		return result;
 	}
-	
+
+	private static Mac getMac(String key) throws NoSuchAlgorithmException, InvalidKeyException {
+		Map<String, Mac> macs = threadMacs.get();
+		Mac mac = macs.get(key);
+		if (mac == null) {
+			if (macs.size() >= MAX_MACS_PER_THREAD) {
+				macs.clear();
+			}
+			Key signingKey = new SecretKeySpec(key.getBytes(), HMAC_SHA1_ALGORITHM);
+			mac = Mac.getInstance(HMAC_SHA1_ALGORITHM);
+			mac.init(signingKey);
+			macs.put(key, mac);
+		}
+		return mac;
+	}
 
 }
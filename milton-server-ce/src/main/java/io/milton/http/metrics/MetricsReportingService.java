@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.milton.http.metrics;
+
+import io.milton.common.Stoppable;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Passes the request metrics to each reporter periodically
+ *
+ * @author brad
+ */
+public class MetricsReportingService implements Stoppable {
+
+	private static final Logger log = LoggerFactory.getLogger(MetricsReportingService.class);
+
+	private final RequestMetrics metrics;
+	private final List<MetricsReporter> reporters;
+	private final int periodSeconds;
+	private ScheduledExecutorService scheduler;
+
+	public MetricsReportingService(RequestMetrics metrics, List<MetricsReporter> reporters, int periodSeconds) {
+		this.metrics = metrics;
+		this.reporters = reporters;
+		this.periodSeconds = periodSeconds;
+	}
+
+	public synchronized void start() {
+		if (scheduler != null) {
+			return;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "milton-metrics-reporter");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		scheduler.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				report();
+			}
+		}, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+		log.info("Started metrics reporting every {} seconds to {} reporters", periodSeconds, reporters.size());
+	}
+
+	public void report() {
+		for (MetricsReporter r : reporters) {
+			try {
+				r.report(metrics);
+			} catch (Throwable e) {
+				log.warn("Exception in metrics reporter: " + r.getClass(), e);
+			}
+		}
+	}
+
+	@Override
+	public synchronized void stop() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+}
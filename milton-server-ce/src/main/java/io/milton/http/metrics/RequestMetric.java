@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.milton.http.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregated measurements for one dimension value, eg all GET requests or all
+ * requests handled by PropFindHandler. Values recorded in the histogram are in
+ * microseconds, except for PROPFIND depth metrics where they are the number of
+ * responses
+ *
+ * @author brad
+ */
+public class RequestMetric {
+
+	private final String name;
+	private final Histogram histogram = new Histogram();
+	private final LongAdder bytesIn = new LongAdder();
+	private final LongAdder bytesOut = new LongAdder();
+
+	public RequestMetric(String name) {
+		this.name = name;
+	}
+
+	void record(long value, Long in, Long out) {
+		histogram.record(value);
+		if (in != null && in > 0) {
+			bytesIn.add(in);
+		}
+		if (out != null && out > 0) {
+			bytesOut.add(out);
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Histogram getHistogram() {
+		return histogram;
+	}
+
+	public long getCount() {
+		return histogram.getCount();
+	}
+
+	public long getBytesIn() {
+		return bytesIn.sum();
+	}
+
+	public long getBytesOut() {
+		return bytesOut.sum();
+	}
+
+	void reset() {
+		histogram.reset();
+		bytesIn.reset();
+		bytesOut.reset();
+	}
+
+	@Override
+	public String toString() {
+		return name + " count=" + getCount() + " mean=" + (long) histogram.getMean()
+				+ " p50=" + histogram.getValueAtPercentile(50) + " p99=" + histogram.getValueAtPercentile(99)
+				+ " max=" + histogram.getMax() + " bytesIn=" + getBytesIn() + " bytesOut=" + getBytesOut();
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.milton.http.metrics;
+
+import io.milton.http.AbstractRequest;
+import io.milton.http.Request;
+import io.milton.http.Response;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Aggregates request latency and byte counts by HTTP method, Handler class,
+ * response status and resource class, plus PROPFIND response counts by depth.
+ *
+ * Set on HttpManager to enable. When not set, the only cost is a null check
+ * per request.
+ *
+ * Metric names are of the form dimension.value, eg method.PROPFIND,
+ * handler.PropFindHandler, status.207, resource.FsDirectoryResource and
+ * propfind.depth.1
+ *
+ * @author brad
+ */
+public class RequestMetrics {
+
+	public static final String METHOD = "method.";
+	public static final String HANDLER = "handler.";
+	public static final String STATUS = "status.";
+	public static final String RESOURCE = "resource.";
+	public static final String PROPFIND_DEPTH = "propfind.depth.";
+
+	private final ConcurrentHashMap<Request.Method, RequestMetric> byMethod = new ConcurrentHashMap<Request.Method, RequestMetric>();
+	private final ConcurrentHashMap<Class, RequestMetric> byHandler = new ConcurrentHashMap<Class, RequestMetric>();
+	private final ConcurrentHashMap<Response.Status, RequestMetric> byStatus = new ConcurrentHashMap<Response.Status, RequestMetric>();
+	private final ConcurrentHashMap<Class, RequestMetric> byResource = new ConcurrentHashMap<Class, RequestMetric>();
+	private final ConcurrentHashMap<Integer, RequestMetric> byPropFindDepth = new ConcurrentHashMap<Integer, RequestMetric>();
+
+	/**
+	 * Record a completed request
+	 *
+	 * @param method
+	 * @param status - may be null
+	 * @param durationNanos
+	 * @param bytesIn - request content length, may be null
+	 * @param bytesOut - response content length, may be null
+	 */
+	public void recordRequest(Request.Method method, Response.Status status, long durationNanos, Long bytesIn, Long bytesOut) {
+		long micros = durationNanos / 1000;
+		if (method != null) {
+			metric(byMethod, method, METHOD + method.code).record(micros, bytesIn, bytesOut);
+		}
+		if (status != null) {
+			metric(byStatus, status, STATUS + status.code).record(micros, bytesIn, bytesOut);
+		}
+	}
+
+	public void recordHandler(Class handlerClass, long durationNanos) {
+		metric(byHandler, handlerClass, HANDLER + handlerClass.getSimpleName()).record(durationNanos / 1000, null, null);
+	}
+
+	public void recordResource(Class resourceClass, long durationMillis) {
+		metric(byResource, resourceClass, RESOURCE + resourceClass.getSimpleName()).record(durationMillis * 1000, null, null);
+	}
+
+	/**
+	 *
+	 * @param depth - depth header value, where AbstractRequest.INFINITY is recorded as
+	 * "infinity"
+	 * @param responseCount - number of resources in the multistatus response
+	 */
+	public void recordPropFind(int depth, int responseCount) {
+		RequestMetric m = byPropFindDepth.get(depth);
+		if (m == null) {
+			String s = depth == AbstractRequest.INFINITY ? "infinity" : Integer.toString(depth);
+			m = metric(byPropFindDepth, depth, PROPFIND_DEPTH + s);
+		}
+		m.record(responseCount, null, null);
+	}
+
+	private <K> RequestMetric metric(ConcurrentHashMap<K, RequestMetric> map, K key, String name) {
+		RequestMetric m = map.get(key);
+		if (m == null) {
+			m = new RequestMetric(name);
+			RequestMetric existing = map.putIfAbsent(key, m);
+			if (existing != null) {
+				m = existing;
+			}
+		}
+		return m;
+	}
+
+	/**
+	 *
+	 * @return - all metrics recorded so far, sorted by name
+	 */
+	public Map<String, RequestMetric> getMetrics() {
+		Map<String, RequestMetric> all = new TreeMap<String, RequestMetric>();
+		addAll(all, byMethod);
+		addAll(all, byHandler);
+		addAll(all, byStatus);
+		addAll(all, byResource);
+		addAll(all, byPropFindDepth);
+		return all;
+	}
+
+	private void addAll(Map<String, RequestMetric> all, Map<?, RequestMetric> map) {
+		for (RequestMetric m : map.values()) {
+			all.put(m.getName(), m);
+		}
+	}
+
+	/**
+	 * Zero all counters. Metric names are retained
+	 */
+	public void reset() {
+		for (RequestMetric m : getMetrics().values()) {
+			m.reset();
+		}
+	}
+}
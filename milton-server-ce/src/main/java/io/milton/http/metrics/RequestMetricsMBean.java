@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.milton.http.metrics;
+
+import io.milton.common.Stoppable;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.InvalidAttributeValueException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Exposes RequestMetrics over JMX. Each metric has read only attributes for
+ * count, mean, p50, p90, p99, max, bytesIn and bytesOut, named eg
+ * "method.GET.p99". Latencies are in microseconds
+ *
+ * @author brad
+ */
+public class RequestMetricsMBean implements DynamicMBean, Stoppable {
+
+	private static final Logger log = LoggerFactory.getLogger(RequestMetricsMBean.class);
+
+	public static final String DEFAULT_OBJECT_NAME = "io.milton:type=RequestMetrics";
+
+	private static final String[] STATS = {"count", "mean", "p50", "p90", "p99", "max", "bytesIn", "bytesOut"};
+
+	private final RequestMetrics metrics;
+	private ObjectName objectName;
+
+	public RequestMetricsMBean(RequestMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Register with the platform MBean server
+	 *
+	 * @param name - eg io.milton:type=RequestMetrics
+	 */
+	public synchronized void register(String name) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName on = new ObjectName(name);
+			if (server.isRegistered(on)) {
+				server.unregisterMBean(on);
+			}
+			server.registerMBean(this, on);
+			this.objectName = on;
+		} catch (Exception e) {
+			log.warn("Could not register request metrics mbean: " + name, e);
+		}
+	}
+
+	@Override
+	public synchronized void stop() {
+		if (objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			} catch (Exception e) {
+				log.warn("Could not unregister request metrics mbean: " + objectName, e);
+			}
+			objectName = null;
+		}
+	}
+
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException, MBeanException, ReflectionException {
+		int pos = attribute.lastIndexOf('.');
+		if (pos < 1) {
+			throw new AttributeNotFoundException(attribute);
+		}
+		RequestMetric m = metrics.getMetrics().get(attribute.substring(0, pos));
+		if (m == null) {
+			throw new AttributeNotFoundException(attribute);
+		}
+		Histogram h = m.getHistogram();
+		switch (attribute.substring(pos + 1)) {
+			case "count":
+				return h.getCount();
+			case "mean":
+				return h.getMean();
+			case "p50":
+				return h.getValueAtPercentile(50);
+			case "p90":
+				return h.getValueAtPercentile(90);
+			case "p99":
+				return h.getValueAtPercentile(99);
+			case "max":
+				return h.getMax();
+			case "bytesIn":
+				return m.getBytesIn();
+			case "bytesOut":
+				return m.getBytesOut();
+			default:
+				throw new AttributeNotFoundException(attribute);
+		}
+	}
+
+	@Override
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException, InvalidAttributeValueException, MBeanException, ReflectionException {
+		throw new AttributeNotFoundException("Request metrics are read only: " + attribute.getName());
+	}
+
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		AttributeList list = new AttributeList();
+		for (String a : attributes) {
+			try {
+				list.add(new Attribute(a, getAttribute(a)));
+			} catch (Exception e) {
+				log.trace("getAttributes: not found {}", a);
+			}
+		}
+		return list;
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature) throws MBeanException, ReflectionException {
+		if ("reset".equals(actionName)) {
+			metrics.reset();
+			return null;
+		}
+		throw new ReflectionException(new NoSuchMethodException(actionName));
+	}
+
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> atts = new ArrayList<MBeanAttributeInfo>();
+		for (Map.Entry<String, RequestMetric> e : metrics.getMetrics().entrySet()) {
+			for (String stat : STATS) {
+				String type = "mean".equals(stat) ? "double" : "long";
+				atts.add(new MBeanAttributeInfo(e.getKey() + "." + stat, type, stat + " of " + e.getKey(), true, false, false));
+			}
+		}
+		MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Zero all metrics", new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+		return new MBeanInfo(getClass().getName(), "Milton request metrics", atts.toArray(new MBeanAttributeInfo[atts.size()]), null, new MBeanOperationInfo[]{reset}, null);
+	}
+}
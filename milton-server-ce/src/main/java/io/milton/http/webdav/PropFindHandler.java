@@ -30,6 +30,7 @@ import io.milton.property.PropertySource;
 import io.milton.http.exceptions.BadRequestException;
 import io.milton.http.exceptions.ConflictException;
 import io.milton.http.exceptions.NotAuthorizedException;
+import io.milton.http.metrics.RequestMetrics;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.List;
@@ -153,6 +154,10 @@ public class PropFindHandler implements ExistingEntityHandler, PropertyHandler {
             if( log.isTraceEnabled() ) {
                 log.trace( "responses: " + propFindResponses.size() );
             }
+            RequestMetrics metrics = manager.getRequestMetrics();
+            if( metrics != null ) {
+                metrics.recordPropFind( depth, propFindResponses.size() );
+            }
             responseHandler.respondPropFind( propFindResponses, response, request, pfr );
         }
     }
@@ -97,7 +97,7 @@ public class PropFindXmlGenerator {
         writer.close(WebDavProtocol.NS_DAV.getPrefix(),"multistatus" );
         writer.flush();
         if(log.isTraceEnabled()) {
-            log.trace("---- PROPFIND response START: " + HttpManager.request().getAbsolutePath() + " -----");
+            log.trace("---- PROPFIND response START: " + (req == null ? null : req.getAbsolutePath()) + " -----");
             log.trace( generatedXml.toString() );
             log.trace("---- PROPFIND response END -----");
         }
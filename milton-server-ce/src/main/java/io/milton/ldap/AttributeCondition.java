@@ -66,6 +66,15 @@ public class AttributeCondition implements Condition {
 		return attributeName;
 	}
 
+	/**
+	 * Condition operator.
+	 *
+	 * @return operator
+	 */
+	public Operator getOperator() {
+		return operator;
+	}
+
 	/**
 	 * Condition value.
 	 *
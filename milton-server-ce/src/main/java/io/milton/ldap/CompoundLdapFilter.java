@@ -27,6 +27,7 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
 
 /**
  *
@@ -59,6 +60,34 @@ public class CompoundLdapFilter implements LdapFilter {
 		return buffer.toString();
 	}
 
+	/**
+	 * Children are sorted and duplicates dropped, and an and or an or with a
+	 * single child is the same as the child
+	 */
+	@Override
+	public String toNormalisedString() {
+		Set<String> children = new TreeSet<String>();
+		for (LdapFilter child : criteria) {
+			children.add(child.toNormalisedString());
+		}
+		if (children.size() == 1 && type != Ldap.LDAP_FILTER_NOT) {
+			return children.iterator().next();
+		}
+		StringBuilder buffer = new StringBuilder();
+		if (type == Ldap.LDAP_FILTER_OR) {
+			buffer.append("(|");
+		} else if (type == Ldap.LDAP_FILTER_AND) {
+			buffer.append("(&");
+		} else {
+			buffer.append("(!");
+		}
+		for (String child : children) {
+			buffer.append(child);
+		}
+		buffer.append(')');
+		return buffer.toString();
+	}
+
 	/**
 	 * Add child filter
 	 *
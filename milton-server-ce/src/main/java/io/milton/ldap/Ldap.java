@@ -100,6 +100,7 @@ public class Ldap {
 	static final int LDAP_OTHER = 80;
 	static final int LDAP_SUCCESS = 0;
 	static final int LDAP_SIZE_LIMIT_EXCEEDED = 4;
+	static final int LDAP_UNWILLING_TO_PERFORM = 53;
 	static final int LDAP_INVALID_CREDENTIALS = 49;
 	// LDAP filter code
 	static final int LDAP_FILTER_AND = 0xa0;
@@ -116,6 +117,9 @@ public class Ldap {
 	static final int LDAP_SUBSTRING_INITIAL = 0x80;
 	static final int LDAP_SUBSTRING_ANY = 0x81;
 	static final int LDAP_SUBSTRING_FINAL = 0x82;
+	// Simple Paged Results control, RFC 2696
+	static final String PAGED_RESULTS_OID = "1.2.840.113556.1.4.319";
+	static final int LDAP_CONTROLS = 0xa0;
 	// BER data types
 	static final int LBER_ENUMERATED = 0x0a;
 	static final int LBER_SET = 0x31;
@@ -24,8 +24,10 @@ import com.sun.jndi.ldap.BerDecoder;
 import io.milton.common.LogUtils;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.net.InetAddress;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
@@ -64,9 +66,11 @@ public class LdapConnection extends Thread {
     private final LdapPropertyMapper propertyMapper;
     private final LdapResponseHandler responseHandler;
     private final LdapParser ldapParser;
-    private final Socket client;
+    private final InetAddress localAddress;
+    private final Closeable client;
     private final SearchManager searchManager;
     private final LdapTransactionManager txManager;
+    private final PagedSearches pagedSearches = new PagedSearches();
     private LdapPrincipal user;
     private LineReaderInputStream in;
     private final OutputStream os;
@@ -81,23 +85,48 @@ public class LdapConnection extends Thread {
      * @param clientSocket LDAP client socket
      */
     public LdapConnection(Socket clientSocket, UserFactory userSessionFactory, SearchManager searchManager, LdapTransactionManager txManager, PropFindPropertyBuilder propFindPropertyBuilder) {
-        super(LdapConnection.class.getSimpleName() + '-' + clientSocket.getPort());
+        this(LdapConnection.class.getSimpleName() + '-' + clientSocket.getPort(), clientSocket.getLocalAddress(), clientSocket.getInetAddress(), outputStream(clientSocket), clientSocket, userSessionFactory, searchManager, txManager, propFindPropertyBuilder);
+        try {
+            is = new BufferedInputStream(clientSocket.getInputStream());
+        } catch (IOException e) {
+            close();
+            throw new RuntimeException(e);
+        }
+        System.out.println("Created LDAP Connection handler");
+    }
+
+    /**
+     * Create a handler for a connection which is read by something else, such
+     * as NioLdapServer. The thread is not started, instead each request message
+     * is passed to handleRequest
+     *
+     * @param name - used to name search threads
+     * @param localAddress - the address the client connected to
+     * @param clientAddress - the address of the client
+     * @param os - responses are written to this
+     * @param client - closed when the connection is closed
+     */
+    public LdapConnection(String name, InetAddress localAddress, InetAddress clientAddress, OutputStream os, Closeable client, UserFactory userSessionFactory, SearchManager searchManager, LdapTransactionManager txManager, PropFindPropertyBuilder propFindPropertyBuilder) {
+        super(name);
         this.searchManager = searchManager;
-        this.client = clientSocket;
+        this.localAddress = localAddress;
+        this.client = client;
         this.txManager = txManager;
         setDaemon(true);
         this.userFactory = userSessionFactory;
         this.propertyMapper = new LdapPropertyMapper(propFindPropertyBuilder);
+        this.os = os;
+        responseHandler = new LdapResponseHandler(clientAddress, os);
+        ldapParser = new LdapParser(propertyMapper, responseHandler, userFactory);
+    }
+
+    private static OutputStream outputStream(Socket clientSocket) {
         try {
-            is = new BufferedInputStream(client.getInputStream());
-            os = new BufferedOutputStream(client.getOutputStream());
+            return new BufferedOutputStream(clientSocket.getOutputStream());
         } catch (IOException e) {
-            close();
+            IOUtils.closeQuietly(clientSocket);
             throw new RuntimeException(e);
         }
-        responseHandler = new LdapResponseHandler(client, os);
-        ldapParser = new LdapParser(propertyMapper, responseHandler, userFactory);
-        System.out.println("Created LDAP Connection handler");
     }
 
     @Override
@@ -285,7 +314,7 @@ public class LdapConnection extends Thread {
                     } else {
                         Map<String, String> properties = new HashMap<String, String>();
                         properties.put("javax.security.sasl.qop", "auth,auth-int");
-                        saslServer = Sasl.createSaslServer(mechanism, "ldap", client.getLocalAddress().getHostAddress(), properties, callbackHandler);
+                        saslServer = Sasl.createSaslServer(mechanism, "ldap", localAddress.getHostAddress(), properties, callbackHandler);
                         serverResponse = saslServer.evaluateResponse(EMPTY_BYTE_ARRAY);
                         status = Ldap.LDAP_SASL_BIND_IN_PROGRESS;
                     }
@@ -326,9 +355,6 @@ public class LdapConnection extends Thread {
                  */
                 reqBer.parseEnumeration();
                 int sizeLimit = reqBer.parseInt();
-                if (sizeLimit > 100 || sizeLimit == 0) {
-                    sizeLimit = 100;
-                }
                 int timelimit = reqBer.parseInt();
                 /*
                  * boolean typesOnly =
@@ -336,7 +362,16 @@ public class LdapConnection extends Thread {
                 reqBer.parseBoolean();
                 LdapFilter ldapFilter = ldapParser.parseFilter(reqBer, user, userName);
                 Set<String> returningAttributes = ldapParser.parseReturningAttributes(reqBer);
-                SearchRunnable searchRunnable = new SearchRunnable(userFactory, propertyMapper, currentMessageId, dn, scope, sizeLimit, timelimit, ldapFilter, returningAttributes, responseHandler, user, searchManager);
+                PagedSearches.Control paging = ldapParser.parsePagedResultsControl(reqBer);
+                if (paging != null) {
+                    // results are streamed a page at a time, so only limit if the client asks
+                    if (sizeLimit == 0) {
+                        sizeLimit = Integer.MAX_VALUE;
+                    }
+                } else if (sizeLimit > 100 || sizeLimit == 0) {
+                    sizeLimit = 100;
+                }
+                SearchRunnable searchRunnable = new SearchRunnable(userFactory, propertyMapper, currentMessageId, dn, scope, sizeLimit, timelimit, ldapFilter, returningAttributes, responseHandler, user, searchManager, paging, pagedSearches);
                 if (Ldap.BASE_CONTEXT.equalsIgnoreCase(dn) || Ldap.OD_USER_CONTEXT.equalsIgnoreCase(dn) || Ldap.OD_USER_CONTEXT_LION.equalsIgnoreCase(dn)) {
                     // launch search in a separate thread
                     searchManager.beginAsyncSearch(this, currentMessageId, searchRunnable);
@@ -362,6 +397,10 @@ public class LdapConnection extends Thread {
         }
     }
 
+    public LdapResponseHandler getResponseHandler() {
+        return responseHandler;
+    }
+
     /**
      * Close client connection, streams and Exchange session .
      */
@@ -42,4 +42,15 @@ public interface LdapFilter {
 
 	boolean isMatch(LdapContact person) throws NotAuthorizedException, BadRequestException;
 
+	/**
+	 * A string form of this filter which is the same for equivalent filters,
+	 * regardless of the order of children and the case of attribute names and
+	 * values. Used to key cached search results
+	 *
+	 * @return
+	 */
+	default String toNormalisedString() {
+		return toString();
+	}
+
 }
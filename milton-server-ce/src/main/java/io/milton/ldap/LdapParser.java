@@ -19,6 +19,7 @@
 
 package io.milton.ldap;
 
+import com.sun.jndi.ldap.Ber;
 import com.sun.jndi.ldap.BerDecoder;
 import io.milton.common.LogUtils;
 import java.io.IOException;
@@ -139,4 +140,43 @@ public class LdapParser {
 		return returningAttributes;
 	}
 
+	/**
+	 * Parse the controls which may follow a request, returning the Simple
+	 * Paged Results control if the client sent one. Other controls are ignored
+	 *
+	 * @param reqBer
+	 * @return - the paged results control, or null
+	 * @throws IOException
+	 */
+	public PagedSearches.Control parsePagedResultsControl(BerDecoder reqBer) throws IOException {
+		if (reqBer.bytesLeft() <= 0 || reqBer.peekByte() != Ldap.LDAP_CONTROLS) {
+			return null;
+		}
+		PagedSearches.Control control = null;
+		reqBer.parseByte();
+		int end = reqBer.parseLength() + reqBer.getParsePosition();
+		int[] seqSize = new int[1];
+		while (reqBer.getParsePosition() < end && reqBer.bytesLeft() > 0) {
+			reqBer.parseSeq(seqSize);
+			int controlEnd = reqBer.getParsePosition() + seqSize[0];
+			String oid = reqBer.parseString(true);
+			if (reqBer.getParsePosition() < controlEnd && reqBer.peekByte() == Ber.ASN_BOOLEAN) {
+				// criticality
+				reqBer.parseBoolean();
+			}
+			byte[] value = null;
+			if (reqBer.getParsePosition() < controlEnd) {
+				value = reqBer.parseOctetString(Ber.ASN_OCTET_STR, null);
+			}
+			if (Ldap.PAGED_RESULTS_OID.equals(oid) && value != null) {
+				BerDecoder valueBer = new BerDecoder(value, 0, value.length);
+				valueBer.parseSeq(null);
+				int pageSize = valueBer.parseInt();
+				byte[] cookie = valueBer.parseOctetString(Ber.ASN_OCTET_STR, null);
+				control = new PagedSearches.Control(pageSize, new String(cookie, "UTF-8"));
+			}
+		}
+		return control;
+	}
+
 }
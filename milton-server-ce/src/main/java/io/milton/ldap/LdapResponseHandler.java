@@ -45,7 +45,7 @@ public class LdapResponseHandler {
 	 */
 	final BerEncoder responseBer = new BerEncoder();
 	
-	private final Socket client;
+	private final InetAddress clientAddress;
 	private final OutputStream os;
 	/**
 	 * Current LDAP version (used for String encoding)
@@ -55,7 +55,11 @@ public class LdapResponseHandler {
 	private String currentHostName;
 
 	public LdapResponseHandler(Socket client, OutputStream os) {
-		this.client = client;
+		this(client.getInetAddress(), os);
+	}
+
+	public LdapResponseHandler(InetAddress clientAddress, OutputStream os) {
+		this.clientAddress = clientAddress;
 		this.os = os;
 	}
 	
@@ -77,6 +81,7 @@ public class LdapResponseHandler {
 		Map<String, Object> attributes = new HashMap<String, Object>();
 		attributes.put("objectClass", "top");
 		attributes.put("namingContexts", Ldap.NAMING_CONTEXTS);
+		attributes.put("supportedControl", Ldap.PAGED_RESULTS_OID);
 		//attributes.put("supportedsaslmechanisms", "PLAIN");
 
 		sendEntry(currentMessageId, "Root DSE", attributes);
@@ -140,6 +145,45 @@ public class LdapResponseHandler {
 		sendResponse();
 	}
 
+	/**
+	 * Send a search result done response carrying the Simple Paged Results
+	 * control
+	 *
+	 * @param currentMessageId
+	 * @param status
+	 * @param message
+	 * @param cookie - identifies the next page, or empty if there are no more
+	 * @throws IOException
+	 */
+	public void sendPagedResult(int currentMessageId, int status, String message, String cookie) throws IOException {
+		BerEncoder valueBer = new BerEncoder();
+		valueBer.beginSeq(Ber.ASN_SEQUENCE | Ber.ASN_CONSTRUCTOR);
+		// size estimate, zero as it is not known
+		valueBer.encodeInt(0);
+		valueBer.encodeOctetString(cookie.getBytes("UTF-8"), Ber.ASN_OCTET_STR);
+		valueBer.endSeq();
+		synchronized (responseBer) {
+			responseBer.reset();
+			responseBer.beginSeq(Ber.ASN_SEQUENCE | Ber.ASN_CONSTRUCTOR);
+			responseBer.encodeInt(currentMessageId);
+			responseBer.beginSeq(Ldap.LDAP_REP_RESULT);
+			responseBer.encodeInt(status, Ldap.LBER_ENUMERATED);
+			// dn
+			responseBer.encodeString("", isLdapV3());
+			// error message
+			responseBer.encodeString(message, isLdapV3());
+			responseBer.endSeq();
+			responseBer.beginSeq(Ldap.LDAP_CONTROLS);
+			responseBer.beginSeq(Ber.ASN_SEQUENCE | Ber.ASN_CONSTRUCTOR);
+			responseBer.encodeString(Ldap.PAGED_RESULTS_OID, isLdapV3());
+			responseBer.encodeOctetString(valueBer.getTrimmedBuf(), Ber.ASN_OCTET_STR);
+			responseBer.endSeq();
+			responseBer.endSeq();
+			responseBer.endSeq();
+			sendResponse();
+		}
+	}
+
 	public void sendResponse() throws IOException {
 		//Ber.dumpBER(System.out, ">\n", responseBer.getBuf(), 0, responseBer.getDataLen());
 		os.write(responseBer.getBuf(), 0, responseBer.getDataLen());
@@ -263,7 +307,7 @@ public class LdapResponseHandler {
 
 	protected String getCurrentHostName() throws UnknownHostException {
 		if (currentHostName == null) {
-			if (client.getInetAddress().isLoopbackAddress()) {
+			if (clientAddress.isLoopbackAddress()) {
 				// local address, probably using localhost in iCal URL
 				currentHostName = "localhost";
 			} else {
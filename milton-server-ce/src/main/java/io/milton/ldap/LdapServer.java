@@ -306,4 +306,8 @@ public class LdapServer extends Thread {
     public void setAllowRemote(boolean allowRemote) {
         this.allowRemote = allowRemote;
     }
+
+    public SearchManager getSearchManager() {
+        return searchManager;
+    }
 }
\ No newline at end of file
@@ -105,6 +105,15 @@ public class MemoryUserSessionFactory implements UserFactory {
 		return results;
 	}
 
+	/**
+	 * Iterates over a copy of the users, so a paged search which is resumed on
+	 * a later request is not affected by users added in the meantime
+	 */
+	@Override
+	public Iterator<LdapContact> galSearch(Conditions conditions, int sizeLimit) {
+		return new ArrayList<LdapContact>(users.values()).iterator();
+	}
+
 
 	/**
 	 * The BeanPropertyResource annotation makes the bean properties on this class
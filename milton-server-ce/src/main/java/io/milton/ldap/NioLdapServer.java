@@ -0,0 +1,953 @@
+/*
+ *
+ * Copyright 2014 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.milton.ldap;
+
+import com.sun.jndi.ldap.Ber;
+import io.milton.http.webdav.PropFindPropertyBuilder;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * LDAP server which uses non-blocking IO, as an alternative to LdapServer.
+ *
+ * LdapServer uses a thread for every connection, and mail clients with address
+ * books configured keep connections open, so a busy server has many threads
+ * which are mostly idle. This server has a small number of selector threads
+ * (selectorThreads) which read and write for all connections, and decode
+ * complete BER messages. Each message is processed by LdapConnection, as for
+ * LdapServer, on a fixed pool of worker threads (workerThreads). Messages from
+ * a connection are processed one at a time and in order. Async searches run
+ * on another fixed pool (searchThreads) rather than a thread each; if that is
+ * saturated the search runs on the worker which received it.
+ *
+ * If a keystore is configured, and nosslFlag is not set, connections use TLS
+ * (ie LDAPS) with an SSLEngine.
+ *
+ * Connections which send nothing for idleTimeoutMillis are closed, as with the
+ * socket timeout of LdapServer.
+ *
+ * Call start to begin listening, and stop to close all connections.
+ *
+ * @author brad
+ */
+public class NioLdapServer {
+
+    private static final Logger log = LoggerFactory.getLogger(NioLdapServer.class);
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    private final UserFactory userSessionFactory;
+    private final SearchManager searchManager;
+    private final LdapTransactionManager txManager;
+    private final PropFindPropertyBuilder propFindPropertyBuilder;
+    private boolean nosslFlag;
+    private int port = LdapServer.DEFAULT_PORT;
+    private String bindAddress;
+    private boolean allowRemote = true;
+    private File keystoreFile;
+    private String keystoreType;
+    private String keystorePass;
+    private SSLContext sslContext;
+    private int selectorThreads = 1;
+    private int workerThreads = 8;
+    private int searchThreads = 8;
+    private int searchQueueSize = 100;
+    private int idleTimeoutMillis = 300000;
+    private int maxMessageSize = 1024 * 1024;
+    private int maxPendingWriteBytes = 1024 * 1024;
+    private ServerSocketChannel serverChannel;
+    private EventLoop[] loops;
+    private ThreadPoolExecutor workers;
+    private ThreadPoolExecutor searchers;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private volatile boolean running;
+
+    public NioLdapServer(LdapTransactionManager txManager, UserFactory userSessionFactory, PropFindPropertyBuilder propFindPropertyBuilder) {
+        this.txManager = txManager;
+        this.userSessionFactory = userSessionFactory;
+        this.propFindPropertyBuilder = propFindPropertyBuilder;
+        this.searchManager = new SearchManager(txManager);
+    }
+
+    /**
+     * Bind to the port and start the selector and worker threads
+     *
+     * @throws IOException
+     */
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        SSLContext ctx = getServerSslContext();
+        workers = new ThreadPoolExecutor(workerThreads, workerThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("LdapWorker"));
+        searchers = new ThreadPoolExecutor(searchThreads, searchThreads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(searchQueueSize), new NamedThreadFactory("LdapSearch"), new ThreadPoolExecutor.CallerRunsPolicy());
+        searchManager.setExecutor(searchers);
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.socket().setReuseAddress(true);
+        if (bindAddress == null || bindAddress.length() == 0) {
+            log.info("Starting NIO LDAP server on all interfaces and port: " + port);
+            serverChannel.socket().bind(new InetSocketAddress(port));
+        } else {
+            log.info("Starting NIO LDAP server on interface: " + bindAddress + " and port: " + port);
+            serverChannel.socket().bind(new InetSocketAddress(InetAddress.getByName(bindAddress), port));
+        }
+        running = true;
+        loops = new EventLoop[Math.max(1, selectorThreads)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(i, ctx);
+        }
+        serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+        for (EventLoop loop : loops) {
+            loop.thread.start();
+        }
+    }
+
+    /**
+     * Close the server socket and all connections, and stop the threads
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            log.error("LOG_EXCEPTION_CLOSING_SERVER_SOCKET", e);
+        }
+        for (EventLoop loop : loops) {
+            loop.selector.wakeup();
+        }
+        for (EventLoop loop : loops) {
+            try {
+                loop.thread.join(5000);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        workers.shutdownNow();
+        searchers.shutdownNow();
+    }
+
+    /**
+     * The port actually bound, which is useful if port was 0
+     *
+     * @return
+     */
+    public int getLocalPort() {
+        return serverChannel == null ? -1 : serverChannel.socket().getLocalPort();
+    }
+
+    private SSLContext getServerSslContext() throws IOException {
+        if (nosslFlag) {
+            return null;
+        }
+        if (sslContext != null) {
+            return sslContext;
+        }
+        if (keystoreFile == null || keystoreFile.length() == 0) {
+            return null;
+        }
+        FileInputStream keyStoreInputStream = new FileInputStream(keystoreFile);
+        try {
+            KeyStore keystore = KeyStore.getInstance(keystoreType);
+            keystore.load(keyStoreInputStream, keystorePass.toCharArray());
+            KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            kmf.init(keystore, keystorePass.toCharArray());
+            SSLContext ctx = SSLContext.getInstance("TLS");
+            ctx.init(kmf.getKeyManagers(), null, null);
+            return ctx;
+        } catch (GeneralSecurityException ex) {
+            throw new IOException(ex);
+        } finally {
+            keyStoreInputStream.close();
+        }
+    }
+
+    private void accept(EventLoop acceptingLoop) throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            Socket socket = channel.socket();
+            log.info("CONNECTION_FROM" + socket.getInetAddress() + port);
+            // only accept localhost connections for security reasons
+            if (!allowRemote && !socket.getInetAddress().isLoopbackAddress()) {
+                channel.close();
+                log.warn("external connection refused");
+                continue;
+            }
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            EventLoop loop = loops[(nextLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+            loop.add(new Connection(loop, channel));
+        }
+    }
+
+    /**
+     * Find the length of the BER encoded message starting at the buffer's
+     * position, without changing the buffer's position
+     *
+     * @param buf - must start with a sequence tag
+     * @return - the length of the whole message, including tag and length, or
+     * -1 if the buffer doesn't hold all of the length bytes yet
+     * @throws IOException - if the length can't be represented
+     */
+    static int messageLength(ByteBuffer buf) throws IOException {
+        int pos = buf.position();
+        if (buf.limit() - pos < 2) {
+            return -1;
+        }
+        int len = buf.get(pos + 1) & 0xff;
+        if ((len & 0x80) == 0) {
+            return 2 + len;
+        }
+        int lenlen = len & 0x7f;
+        if (lenlen == 0 || lenlen > 4) {
+            throw new IOException("Unsupported BER length of " + lenlen + " bytes");
+        }
+        if (buf.limit() - pos < 2 + lenlen) {
+            return -1;
+        }
+        long seqlen = 0;
+        for (int i = 0; i < lenlen; i++) {
+            seqlen = (seqlen << 8) + (buf.get(pos + 2 + i) & 0xff);
+        }
+        if (seqlen > Integer.MAX_VALUE - 6) {
+            throw new IOException("BER message too long: " + seqlen);
+        }
+        return (int) (2 + lenlen + seqlen);
+    }
+
+    private static ByteBuffer enlarge(ByteBuffer buf, int minCapacity) {
+        ByteBuffer b = ByteBuffer.allocate(Math.max(buf.capacity() * 2, minCapacity));
+        buf.flip();
+        b.put(buf);
+        return b;
+    }
+
+    /**
+     * A selector and its thread, which reads and writes for some of the
+     * connections
+     */
+    private class EventLoop implements Runnable {
+
+        private final Selector selector;
+        private final Thread thread;
+        private final SSLContext ctx;
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+        EventLoop(int num, SSLContext ctx) throws IOException {
+            this.selector = Selector.open();
+            this.ctx = ctx;
+            this.thread = new Thread(this, NioLdapServer.class.getSimpleName() + "-" + num);
+            this.thread.setDaemon(true);
+        }
+
+        void add(final Connection c) {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        c.key = c.channel.register(selector, SelectionKey.OP_READ, c);
+                    } catch (ClosedChannelException ex) {
+                        c.close();
+                    }
+                }
+            });
+        }
+
+        /**
+         * Run the task on the selector thread
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            long lastIdleCheck = System.currentTimeMillis();
+            while (running) {
+                try {
+                    selector.select(1000);
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        handle(key);
+                    }
+                    selector.selectedKeys().clear();
+                    long now = System.currentTimeMillis();
+                    if (now - lastIdleCheck >= 1000) {
+                        lastIdleCheck = now;
+                        closeIdle(now);
+                    }
+                } catch (IOException ex) {
+                    log.error("Exception in selector loop", ex);
+                }
+            }
+            for (SelectionKey key : new ArrayList<SelectionKey>(selector.keys())) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).close();
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException ex) {
+                log.warn("exception closing selector", ex);
+            }
+            log.info("LDAP selector thread has exited");
+        }
+
+        private void handle(SelectionKey key) {
+            if (!key.isValid()) {
+                return;
+            }
+            if (key.attachment() == null) {
+                if (key.isAcceptable()) {
+                    try {
+                        accept(this);
+                    } catch (IOException e) {
+                        // do not warn if exception on socket close (gateway restart)
+                        if (serverChannel.isOpen()) {
+                            log.warn("exception", e);
+                        }
+                    }
+                }
+                return;
+            }
+            Connection c = (Connection) key.attachment();
+            try {
+                if (key.isReadable()) {
+                    c.read();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    c.flushQueue();
+                }
+            } catch (IOException e) {
+                log.debug("LOG_CONNECTION_CLOSED", e);
+                c.close();
+            } catch (RuntimeException e) {
+                log.error("err", e);
+                c.close();
+            }
+        }
+
+        private void closeIdle(long now) {
+            if (idleTimeoutMillis <= 0) {
+                return;
+            }
+            List<Connection> idle = new ArrayList<Connection>();
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    Connection c = (Connection) key.attachment();
+                    if (now - c.lastRead > idleTimeoutMillis) {
+                        idle.add(c);
+                    }
+                }
+            }
+            for (Connection c : idle) {
+                log.debug("LOG_CLOSE_CONNECTION_ON_TIMEOUT");
+                c.close();
+            }
+        }
+    }
+
+    /**
+     * The state of a client connection. Reads happen on the selector thread,
+     * and requests are processed on worker threads. Writes are queued by
+     * whichever thread produces them, and flushed by the selector thread if
+     * the socket can't take them immediately. Everything which touches the
+     * buffers or the SSLEngine is synchronized on the connection.
+     */
+    private class Connection implements Runnable {
+
+        private final EventLoop loop;
+        private final SocketChannel channel;
+        private final SSLEngine engine;
+        private final LdapConnection ldap;
+        private final ArrayDeque<ByteBuffer> writeQueue = new ArrayDeque<ByteBuffer>();
+        private final ArrayDeque<byte[]> requests = new ArrayDeque<byte[]>();
+        private SelectionKey key;
+        /**
+         * network data waiting to be decrypted, only used for TLS
+         */
+        private ByteBuffer netIn;
+        /**
+         * plain data waiting to be decoded into messages
+         */
+        private ByteBuffer in;
+        private int pendingWriteBytes;
+        private boolean processing;
+        private volatile boolean closed;
+        private volatile long lastRead = System.currentTimeMillis();
+
+        Connection(EventLoop loop, SocketChannel channel) throws IOException {
+            this.loop = loop;
+            this.channel = channel;
+            Socket socket = channel.socket();
+            if (loop.ctx != null) {
+                engine = loop.ctx.createSSLEngine(socket.getInetAddress().getHostAddress(), socket.getPort());
+                engine.setUseClientMode(false);
+                engine.beginHandshake();
+                netIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+                in = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+            } else {
+                engine = null;
+                in = ByteBuffer.allocate(2048);
+            }
+            String name = LdapConnection.class.getSimpleName() + '-' + socket.getPort();
+            ldap = new LdapConnection(name, socket.getLocalAddress(), socket.getInetAddress(), new ConnectionOutputStream(this), channel, userSessionFactory, searchManager, txManager, propFindPropertyBuilder);
+        }
+
+        /**
+         * Called on the selector thread when the channel is readable
+         */
+        void read() throws IOException {
+            List<byte[]> messages;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                int n;
+                if (engine == null) {
+                    if (!in.hasRemaining()) {
+                        in = enlarge(in, in.capacity() * 2);
+                    }
+                    n = channel.read(in);
+                } else {
+                    n = channel.read(netIn);
+                    if (n > 0) {
+                        unwrap();
+                    }
+                }
+                if (n < 0) {
+                    throw new IOException("EOF");
+                }
+                lastRead = System.currentTimeMillis();
+                if (engine != null) {
+                    flushQueue(); // handshake messages
+                }
+                messages = decode();
+            }
+            for (byte[] m : messages) {
+                dispatch(m);
+            }
+        }
+
+        /**
+         * Decrypt what we can from netIn into in, doing any handshaking
+         * required
+         */
+        private void unwrap() throws IOException {
+            netIn.flip();
+            try {
+                while (true) {
+                    SSLEngineResult res = engine.unwrap(netIn, in);
+                    if (res.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                        in = enlarge(in, in.position() + engine.getSession().getApplicationBufferSize());
+                        continue;
+                    }
+                    if (res.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        throw new IOException("TLS session closed");
+                    }
+                    SSLEngineResult.HandshakeStatus hs = handshake(res.getHandshakeStatus());
+                    if (res.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW || !netIn.hasRemaining()) {
+                        return;
+                    }
+                    if (res.bytesConsumed() == 0 && res.bytesProduced() == 0 && hs != SSLEngineResult.HandshakeStatus.NEED_UNWRAP) {
+                        return;
+                    }
+                }
+            } finally {
+                netIn.compact();
+            }
+        }
+
+        private SSLEngineResult.HandshakeStatus handshake(SSLEngineResult.HandshakeStatus hs) throws IOException {
+            while (true) {
+                if (hs == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    Runnable task;
+                    while ((task = engine.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                    hs = engine.getHandshakeStatus();
+                } else if (hs == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                    hs = wrap(EMPTY.duplicate());
+                } else {
+                    return hs;
+                }
+            }
+        }
+
+        /**
+         * Encrypt the data and queue it for writing
+         */
+        private SSLEngineResult.HandshakeStatus wrap(ByteBuffer src) throws IOException {
+            SSLEngineResult.HandshakeStatus hs;
+            do {
+                ByteBuffer out = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+                SSLEngineResult res = engine.wrap(src, out);
+                if (res.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    throw new IOException("TLS session closed");
+                }
+                out.flip();
+                if (out.hasRemaining()) {
+                    queue(out);
+                }
+                hs = res.getHandshakeStatus();
+                if (hs == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    hs = handshake(hs);
+                }
+            } while (src.hasRemaining());
+            return hs;
+        }
+
+        /**
+         * Take complete messages from the input buffer
+         */
+        private List<byte[]> decode() throws IOException {
+            List<byte[]> messages = new ArrayList<byte[]>();
+            in.flip();
+            try {
+                while (in.hasRemaining()) {
+                    // check that it is the beginning of a sequence
+                    if (in.get(in.position()) != (byte) (Ber.ASN_SEQUENCE | Ber.ASN_CONSTRUCTOR)) {
+                        in.get();
+                        continue;
+                    }
+                    int len = messageLength(in);
+                    if (len < 0) {
+                        break;
+                    }
+                    if (len > maxMessageSize) {
+                        throw new IOException("LDAP message too large: " + len);
+                    }
+                    if (in.remaining() < len) {
+                        if (in.capacity() < len) {
+                            in.compact();
+                            in = enlarge(in, len);
+                            in.flip();
+                        }
+                        break;
+                    }
+                    byte[] message = new byte[len];
+                    in.get(message);
+                    messages.add(message);
+                }
+            } finally {
+                in.compact();
+            }
+            return messages;
+        }
+
+        private void dispatch(byte[] message) {
+            synchronized (requests) {
+                requests.add(message);
+                if (processing) {
+                    return;
+                }
+                processing = true;
+            }
+            workers.execute(this);
+        }
+
+        /**
+         * Process queued requests in order, on a worker thread
+         */
+        @Override
+        public void run() {
+            while (true) {
+                byte[] message;
+                synchronized (requests) {
+                    message = requests.poll();
+                    if (message == null || closed) {
+                        processing = false;
+                        return;
+                    }
+                }
+                try {
+                    ldap.handleRequest(message, message.length);
+                } catch (Exception e) {
+                    log.error("err", e);
+                    try {
+                        ldap.getResponseHandler().sendErr(0, Ldap.LDAP_REP_BIND, e);
+                    } catch (IOException e2) {
+                        log.warn("LOG_EXCEPTION_SENDING_ERROR_TO_CLIENT", e2);
+                    }
+                    close();
+                } catch (Error e) {
+                    close();
+                    throw e;
+                }
+            }
+        }
+
+        /**
+         * Write the response data, waiting if too much is already queued
+         */
+        synchronized void send(byte[] data, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Connection is closed");
+            }
+            if (engine == null) {
+                queue(ByteBuffer.wrap(data, off, len));
+            } else {
+                wrap(ByteBuffer.wrap(data, off, len));
+            }
+            flushQueue();
+            while (pendingWriteBytes > maxPendingWriteBytes && !closed && Thread.currentThread() != loop.thread) {
+                try {
+                    wait(1000);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted waiting to write");
+                }
+            }
+        }
+
+        private void queue(ByteBuffer buf) {
+            writeQueue.add(buf);
+            pendingWriteBytes += buf.remaining();
+        }
+
+        /**
+         * Write as much queued data as the socket will take, and ask to be
+         * told when it can take more if there is any left
+         */
+        synchronized void flushQueue() throws IOException {
+            while (!writeQueue.isEmpty()) {
+                ByteBuffer buf = writeQueue.peek();
+                int n = channel.write(buf);
+                pendingWriteBytes -= n;
+                if (buf.hasRemaining()) {
+                    break;
+                }
+                writeQueue.poll();
+            }
+            final boolean wantWrite = !writeQueue.isEmpty();
+            if (key != null && key.isValid() && ((key.interestOps() & SelectionKey.OP_WRITE) != 0) != wantWrite) {
+                if (Thread.currentThread() == loop.thread) {
+                    setWriteInterest(wantWrite);
+                } else {
+                    loop.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            synchronized (Connection.this) {
+                                setWriteInterest(!writeQueue.isEmpty());
+                            }
+                        }
+                    });
+                }
+            }
+            if (pendingWriteBytes <= maxPendingWriteBytes) {
+                notifyAll();
+            }
+        }
+
+        private void setWriteInterest(boolean wantWrite) {
+            if (key != null && key.isValid()) {
+                int ops = key.interestOps();
+                key.interestOps(wantWrite ? ops | SelectionKey.OP_WRITE : ops & ~SelectionKey.OP_WRITE);
+            }
+        }
+
+        void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                if (key != null) {
+                    key.cancel();
+                }
+                notifyAll();
+            }
+            searchManager.cancelAllSearches(ldap);
+            ldap.close();
+        }
+    }
+
+    /**
+     * Used by LdapResponseHandler, which writes each response and then
+     * flushes it
+     */
+    private static class ConnectionOutputStream extends OutputStream {
+
+        private final Connection connection;
+        private byte[] buf = new byte[512];
+        private int count;
+
+        ConnectionOutputStream(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            ensure(1);
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            ensure(len);
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+
+        @Override
+        public synchronized void flush() throws IOException {
+            if (count > 0) {
+                byte[] data = new byte[count];
+                System.arraycopy(buf, 0, data, 0, count);
+                count = 0;
+                connection.send(data, 0, data.length);
+            }
+        }
+
+        private void ensure(int len) {
+            if (count + len > buf.length) {
+                byte[] b = new byte[Math.max(buf.length * 2, count + len)];
+                System.arraycopy(buf, 0, b, 0, count);
+                buf = b;
+            }
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+    public SearchManager getSearchManager() {
+        return searchManager;
+    }
+
+    public boolean isNosslFlag() {
+        return nosslFlag;
+    }
+
+    public void setNosslFlag(boolean nosslFlag) {
+        this.nosslFlag = nosslFlag;
+    }
+
+    public String getBindAddress() {
+        return bindAddress;
+    }
+
+    public void setBindAddress(String bindAddress) {
+        this.bindAddress = bindAddress;
+    }
+
+    /**
+     * Server socket TCP port
+     *
+     * @return port
+     */
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public String getProtocolName() {
+        return "LDAP";
+    }
+
+    public String getKeystorePass() {
+        return keystorePass;
+    }
+
+    public void setKeystorePass(String keystorePass) {
+        this.keystorePass = keystorePass;
+    }
+
+    public String getKeystoreType() {
+        return keystoreType;
+    }
+
+    public void setKeystoreType(String keystoreType) {
+        this.keystoreType = keystoreType;
+    }
+
+    public File getKeystoreFile() {
+        return keystoreFile;
+    }
+
+    public void setKeystoreFile(File keystoreFile) {
+        this.keystoreFile = keystoreFile;
+    }
+
+    public SSLContext getSslContext() {
+        return sslContext;
+    }
+
+    /**
+     * Use this for TLS, instead of loading the keystore
+     *
+     * @param sslContext
+     */
+    public void setSslContext(SSLContext sslContext) {
+        this.sslContext = sslContext;
+    }
+
+    public boolean isAllowRemote() {
+        return allowRemote;
+    }
+
+    public void setAllowRemote(boolean allowRemote) {
+        this.allowRemote = allowRemote;
+    }
+
+    public int getSelectorThreads() {
+        return selectorThreads;
+    }
+
+    /**
+     * Number of threads doing network IO. Default 1
+     *
+     * @param selectorThreads
+     */
+    public void setSelectorThreads(int selectorThreads) {
+        this.selectorThreads = selectorThreads;
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    /**
+     * Number of threads processing requests. Default 8
+     *
+     * @param workerThreads
+     */
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    public int getSearchThreads() {
+        return searchThreads;
+    }
+
+    /**
+     * Number of threads running async searches. Default 8
+     *
+     * @param searchThreads
+     */
+    public void setSearchThreads(int searchThreads) {
+        this.searchThreads = searchThreads;
+    }
+
+    public int getSearchQueueSize() {
+        return searchQueueSize;
+    }
+
+    /**
+     * Number of async searches which can wait for a search thread, after
+     * which they are run on the worker thread. Default 100
+     *
+     * @param searchQueueSize
+     */
+    public void setSearchQueueSize(int searchQueueSize) {
+        this.searchQueueSize = searchQueueSize;
+    }
+
+    public int getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    /**
+     * Connections are closed if nothing is received for this long. Default 5
+     * minutes, zero means never
+     *
+     * @param idleTimeoutMillis
+     */
+    public void setIdleTimeoutMillis(int idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    public int getMaxMessageSize() {
+        return maxMessageSize;
+    }
+
+    /**
+     * Connections which send larger messages are closed. Default 1MB
+     *
+     * @param maxMessageSize
+     */
+    public void setMaxMessageSize(int maxMessageSize) {
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    public int getMaxPendingWriteBytes() {
+        return maxPendingWriteBytes;
+    }
+
+    /**
+     * Threads writing responses wait while more than this has not yet been
+     * sent to the client. Default 1MB
+     *
+     * @param maxPendingWriteBytes
+     */
+    public void setMaxPendingWriteBytes(int maxPendingWriteBytes) {
+        this.maxPendingWriteBytes = maxPendingWriteBytes;
+    }
+}
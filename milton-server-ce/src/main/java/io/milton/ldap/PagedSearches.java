@@ -0,0 +1,159 @@
+/*
+ * Copyright 2014 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.ldap;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Server side state for searches using the Simple Paged Results control (RFC
+ * 2696). One of these is held per connection, and maps the cookie given to
+ * the client to the remainder of the result stream.
+ *
+ * A cookie may only be used to continue the search it was returned for, ie
+ * with the same base and filter.
+ *
+ * Only a few cursors are kept per connection. If a client starts more paged
+ * searches than that without finishing them the oldest are discarded, and a
+ * later request for them is refused.
+ *
+ * @author brad
+ */
+public class PagedSearches {
+
+	private final Map<String, Cursor> cursors;
+	private int nextCookie;
+
+	public PagedSearches() {
+		this(10);
+	}
+
+	public PagedSearches(final int maxCursors) {
+		this.cursors = new LinkedHashMap<String, Cursor>() {
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Cursor> eldest) {
+				return size() > maxCursors;
+			}
+		};
+	}
+
+	/**
+	 * Hold the cursor until the client asks for the next page
+	 *
+	 * @param cursor
+	 * @return - the cookie to return to the client
+	 */
+	public synchronized String add(Cursor cursor) {
+		String cookie = Integer.toString(++nextCookie);
+		cursors.put(cookie, cursor);
+		return cookie;
+	}
+
+	/**
+	 * Take the cursor for a cookie previously returned from add
+	 *
+	 * @param cookie
+	 * @param base - the base DN of the search continuing with the cookie
+	 * @param filter - the filter of the search continuing with the cookie
+	 * @return - the cursor, or null if the cookie is unknown, has expired, or
+	 * was returned for a different search
+	 */
+	public synchronized Cursor remove(String cookie, String base, String filter) {
+		Cursor cursor = cursors.get(cookie);
+		if (cursor == null || !cursor.isFor(base, filter)) {
+			return null;
+		}
+		return cursors.remove(cookie);
+	}
+
+	public synchronized int size() {
+		return cursors.size();
+	}
+
+	/**
+	 * The remaining results of a search, and how many have been sent so far
+	 */
+	public static class Cursor {
+
+		private final String base;
+		private final String filter;
+		private final Iterator<Map<String, Object>> entries;
+		private int sent;
+
+		/**
+		 * @param base - the base DN of the search
+		 * @param filter - the search filter, as given by LdapFilter.toString
+		 * @param entries - the attributes of each remaining entry
+		 */
+		public Cursor(String base, String filter, Iterator<Map<String, Object>> entries) {
+			this.base = base;
+			this.filter = filter;
+			this.entries = entries;
+		}
+
+		/**
+		 * Base DNs are compared ignoring case, as they are for the search
+		 * itself
+		 */
+		boolean isFor(String base, String filter) {
+			return this.base.equalsIgnoreCase(base) && this.filter.equals(filter);
+		}
+
+		public Iterator<Map<String, Object>> getEntries() {
+			return entries;
+		}
+
+		public int getSent() {
+			return sent;
+		}
+
+		void incrementSent() {
+			sent++;
+		}
+	}
+
+	/**
+	 * The paged results control as sent by the client
+	 */
+	public static class Control {
+
+		private final int pageSize;
+		private final String cookie;
+
+		public Control(int pageSize, String cookie) {
+			this.pageSize = pageSize;
+			this.cookie = cookie;
+		}
+
+		/**
+		 * @return - the number of entries to send in this page. Zero means the
+		 * client is abandoning the paged search
+		 */
+		public int getPageSize() {
+			return pageSize;
+		}
+
+		/**
+		 * @return - empty for the first page, otherwise the cookie returned
+		 * with the previous page
+		 */
+		public String getCookie() {
+			return cookie;
+		}
+	}
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2014 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.ldap;
+
+import io.milton.event.DeleteEvent;
+import io.milton.event.Event;
+import io.milton.event.EventListener;
+import io.milton.event.EventManager;
+import io.milton.event.MoveEvent;
+import io.milton.event.PutEvent;
+import io.milton.event.ResourceEvent;
+import io.milton.resource.AddressResource;
+import io.milton.resource.CollectionResource;
+import io.milton.resource.LdapContact;
+import io.milton.resource.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the entries sent for LDAP searches, so that the repeated identical
+ * searches made by mail clients for autocomplete and address book refreshes
+ * don't each query the backend.
+ *
+ * Each entry is held as the attributes that were sent for it, rather than the
+ * contact resource it was rendered from, so cached results don't keep
+ * resources (and whatever session state they hold) alive.
+ *
+ * Results are keyed on the bound user, base DN, normalised filter, returning
+ * attributes and size limit, and are only kept for a short time. The store is
+ * bounded by the total number of entries held, evicting the least recently
+ * used results first.
+ *
+ * Register with the EventManager so that results are dropped when contacts are
+ * changed over HTTP. Changes made in other ways are only seen once cached
+ * results expire
+ *
+ * @author brad
+ */
+public class SearchCache implements EventListener {
+
+	private static final Logger log = LoggerFactory.getLogger(SearchCache.class);
+	private final long ttlMillis;
+	private final int maxEntries;
+	private final LinkedHashMap<String, Results> results = new LinkedHashMap<String, Results>(16, 0.75f, true);
+	private int size;
+	/**
+	 * Incremented on every invalidation, so searches which overlap a change
+	 * aren't kept
+	 */
+	private long changeCount;
+
+	public SearchCache() {
+		this(30000, 10000);
+	}
+
+	/**
+	 *
+	 * @param ttlMillis - how long results are kept for
+	 * @param maxEntries - the most entries to hold over all cached results
+	 */
+	public SearchCache(long ttlMillis, int maxEntries) {
+		this.ttlMillis = ttlMillis;
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * Listen for events which change contacts
+	 *
+	 * @param eventManager
+	 */
+	public void register(EventManager eventManager) {
+		eventManager.registerEventListener(this, PutEvent.class);
+		eventManager.registerEventListener(this, DeleteEvent.class);
+		eventManager.registerEventListener(this, MoveEvent.class);
+	}
+
+	/**
+	 * Build the cache key for a search
+	 *
+	 * @param user
+	 * @param dn
+	 * @param filter
+	 * @param returningAttributes
+	 * @param sizeLimit
+	 * @return
+	 */
+	public static String key(LdapPrincipal user, String dn, LdapFilter filter, Set<String> returningAttributes, int sizeLimit) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(user.getName()).append('\n');
+		sb.append(dn.toLowerCase(Locale.ROOT)).append('\n');
+		sb.append(filter.toNormalisedString()).append('\n');
+		sb.append(new TreeSet<String>(returningAttributes)).append('\n');
+		sb.append(sizeLimit);
+		return sb.toString();
+	}
+
+	/**
+	 *
+	 * @param key
+	 * @return - the attributes of each cached entry, or null if not cached or
+	 * expired
+	 */
+	public synchronized List<Map<String, Object>> get(String key) {
+		Results r = results.get(key);
+		if (r == null) {
+			return null;
+		}
+		if (System.currentTimeMillis() > r.expires) {
+			remove(key);
+			return null;
+		}
+		return r.entries;
+	}
+
+	/**
+	 * Wrap the results of a search, so they are cached once the search has
+	 * been iterated to the end or to the size limit
+	 *
+	 * @param key
+	 * @param entries - the attributes of each entry
+	 * @param sizeLimit
+	 * @return
+	 */
+	public Iterator<Map<String, Object>> record(String key, Iterator<Map<String, Object>> entries, int sizeLimit) {
+		long startCount;
+		synchronized (this) {
+			startCount = changeCount;
+		}
+		return new RecordingIterator(key, entries, sizeLimit, startCount);
+	}
+
+	public synchronized void clear() {
+		changeCount++;
+		results.clear();
+		size = 0;
+	}
+
+	/**
+	 * @return - the number of entries held over all cached results
+	 */
+	public synchronized int getSize() {
+		return size;
+	}
+
+	@Override
+	public void onEvent(Event e) {
+		if (e instanceof ResourceEvent) {
+			Resource r = ((ResourceEvent) e).getResource();
+			if (r != null && !(r instanceof LdapContact) && !(r instanceof AddressResource) && !(r instanceof CollectionResource)) {
+				return;
+			}
+		}
+		log.trace("contacts changed, clearing cache");
+		clear();
+	}
+
+	private synchronized void put(String key, List<Map<String, Object>> entries, long startCount) {
+		if (startCount != changeCount || entries.size() > maxEntries) {
+			return;
+		}
+		remove(key);
+		results.put(key, new Results(entries, System.currentTimeMillis() + ttlMillis));
+		size += entries.size();
+		Iterator<Results> it = results.values().iterator();
+		while (size > maxEntries && it.hasNext()) {
+			size -= it.next().entries.size();
+			it.remove();
+		}
+	}
+
+	private void remove(String key) {
+		Results r = results.remove(key);
+		if (r != null) {
+			size -= r.entries.size();
+		}
+	}
+
+	private static class Results {
+
+		final List<Map<String, Object>> entries;
+		final long expires;
+
+		Results(List<Map<String, Object>> entries, long expires) {
+			this.entries = Collections.unmodifiableList(entries);
+			this.expires = expires;
+		}
+	}
+
+	private class RecordingIterator implements Iterator<Map<String, Object>> {
+
+		private final String key;
+		private final Iterator<Map<String, Object>> entries;
+		private final int sizeLimit;
+		private final long startCount;
+		private List<Map<String, Object>> recorded = new ArrayList<Map<String, Object>>();
+
+		RecordingIterator(String key, Iterator<Map<String, Object>> entries, int sizeLimit, long startCount) {
+			this.key = key;
+			this.entries = entries;
+			this.sizeLimit = sizeLimit;
+			this.startCount = startCount;
+		}
+
+		@Override
+		public boolean hasNext() {
+			boolean b = entries.hasNext();
+			if (!b) {
+				done();
+			}
+			return b;
+		}
+
+		@Override
+		public Map<String, Object> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Map<String, Object> entry = Collections.unmodifiableMap(entries.next());
+			if (recorded != null) {
+				recorded.add(entry);
+				if (recorded.size() > maxEntries) {
+					// too big to cache
+					recorded = null;
+				} else if (recorded.size() >= sizeLimit) {
+					done();
+				}
+			}
+			return entry;
+		}
+
+		private void done() {
+			if (recorded != null) {
+				put(key, recorded, startCount);
+				recorded = null;
+			}
+		}
+	}
+}
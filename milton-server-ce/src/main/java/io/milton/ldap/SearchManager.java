@@ -26,6 +26,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Executor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -42,6 +43,8 @@ public class SearchManager {
     private final HashMap<LdapConnection, Map<Integer, SearchRunnable>> mapOfSearchesByConnection = new HashMap<LdapConnection, Map<Integer, SearchRunnable>>();
     private final HashMap<UUID, LdapConnection> mapOfUuids = new HashMap<UUID, LdapConnection>();
     private final LdapTransactionManager txManager;
+    private Executor executor;
+    private SearchCache searchCache;
 
     public SearchManager(LdapTransactionManager txManager) {
         this.txManager = txManager;
@@ -85,6 +88,10 @@ public class SearchManager {
                 }
             }
         };
+        if (executor != null) {
+            executor.execute(runnableRunner);
+            return;
+        }
         Thread searchThread = new Thread(runnableRunner);
         searchThread.setName(aThis.getName() + "-Search-" + currentMessageId);
         searchThread.start();
@@ -114,6 +121,35 @@ public class SearchManager {
         LogUtils.debug(log, "LOG_LDAP_REQ_ABANDON_SEARCH", currentMessageId, abandonMessageId);
     }
 
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * If set, async searches are run by this executor rather than on a new
+     * thread each
+     *
+     * @param executor
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    public SearchCache getSearchCache() {
+        return searchCache;
+    }
+
+    /**
+     * If set, the contacts found by searches are cached, so repeated searches
+     * don't query the UserFactory each time. Remember to register the cache
+     * with the EventManager
+     *
+     * @param searchCache
+     */
+    public void setSearchCache(SearchCache searchCache) {
+        this.searchCache = searchCache;
+    }
+
     public void searchComplete(UUID id, Integer currentMessageId) {
         LdapConnection con = mapOfUuids.get(id);
         if (con != null) {
@@ -52,8 +52,22 @@ public class SearchRunnable implements Runnable {
 	private boolean abandon;
 	private final LdapResponseHandler responseHandler;
 	private final LdapPrincipal user;
+	private final PagedSearches.Control paging;
+	private final PagedSearches pagedSearches;
 
 	protected SearchRunnable(UserFactory userFactory, LdapPropertyMapper propertyMapper, int currentMessageId, String dn, int scope, int sizeLimit, int timelimit, LdapFilter ldapFilter, Set<String> returningAttributes, LdapResponseHandler ldapResponseHandler, LdapPrincipal user, SearchManager searchManager) {
+		this(userFactory, propertyMapper, currentMessageId, dn, scope, sizeLimit, timelimit, ldapFilter, returningAttributes, ldapResponseHandler, user, searchManager, null, null);
+	}
+
+	/**
+	 *
+	 * @param paging - the paged results control sent by the client, or null
+	 * @param pagedSearches - cursors for paged searches on this connection,
+	 * required if paging is given
+	 */
+	protected SearchRunnable(UserFactory userFactory, LdapPropertyMapper propertyMapper, int currentMessageId, String dn, int scope, int sizeLimit, int timelimit, LdapFilter ldapFilter, Set<String> returningAttributes, LdapResponseHandler ldapResponseHandler, LdapPrincipal user, SearchManager searchManager, PagedSearches.Control paging, PagedSearches pagedSearches) {
+		this.paging = paging;
+		this.pagedSearches = pagedSearches;
 		this.userFactory = userFactory;
 		this.searchManager = searchManager;
 		this.user = user;
@@ -80,6 +94,7 @@ public class SearchRunnable implements Runnable {
 	public void run() {
 		try {
 			int size = 0;
+			String cookie = null;
 			LogUtils.debug(log, "LOG_LDAP_REQ_SEARCH", currentMessageId, dn, scope, sizeLimit, timelimit, ldapFilter.toString(), returningAttributes);
 			if (scope == Ldap.SCOPE_BASE_OBJECT) {
 				log.debug("Check type of search... scope is BASE OBJECT" );
@@ -154,94 +169,35 @@ public class SearchRunnable implements Runnable {
 				log.info("not a weird search... check for normal conditions");
 				if (user != null) {
 					log.debug("we have a user...");
-					Set<LdapContact> persons = new HashSet<LdapContact>();
-					if (ldapFilter.isFullSearch()) {
-						// append personal contacts first
-						log.info("do personcal contact search");
-						Set<LdapContact> contacts = contactFind(null, returningAttributes, sizeLimit);
-						LogUtils.debug(log, "fullSearch: results:", contacts.size());
-						for (LdapContact person : contacts) {
-							persons.add(person);
-							if (persons.size() == sizeLimit) {
-								break;
-							}
-						}
-
-						// full search
-						for (char c = 'A'; c <= 'Z'; c++) {
-							if (!abandon && persons.size() < sizeLimit) {
-								Condition startsWith = conditions.startsWith("cn", String.valueOf(c));
-								Collection<LdapContact> galContacts = null;
-								try {
-									log.info("now do GAL search");
-									galContacts = userFactory.galFind(startsWith, sizeLimit);
-								} catch (NotAuthorizedException ex) {
-									log.error("not auth", ex);
-								} catch (BadRequestException ex) {
-									log.error("bad req", ex);
-								}
-								if (galContacts != null) {
-									LogUtils.debug(log, "doSearch: results:", contacts.size());
-									for (LdapContact person : galContacts) {
-										persons.add(person);
-										if (persons.size() == sizeLimit) {
-											break;
-										}
-									}
-								}
-							}
-							if (persons.size() == sizeLimit) {
-								break;
-							}
+					PagedSearches.Cursor cursor = null;
+					if (paging != null && paging.getCookie().length() > 0) {
+						cursor = pagedSearches.remove(paging.getCookie(), dn, ldapFilter.toString());
+						if (cursor == null) {
+							LogUtils.debug(log, "LOG_LDAP_REQ_SEARCH_INVALID_COOKIE", currentMessageId, paging.getCookie());
+							responseHandler.sendPagedResult(currentMessageId, Ldap.LDAP_UNWILLING_TO_PERFORM, "Unknown paged results cookie, or not for this search", "");
+							return;
 						}
 					} else {
-						// append only personal contacts
-						log.info("do personcal contact search only");
-						Condition filter = ldapFilter.getContactSearchFilter();
-						LogUtils.debug(log, "not full search:", filter);
-						//if ldapfilter is not a full search and filter is null,
-						//ignored all attribute filters => return empty results
-						if (ldapFilter.isFullSearch() || filter != null) {
-							Set<LdapContact> contacts = contactFind(filter, returningAttributes, sizeLimit);
-							for (LdapContact person : contacts) {
-								persons.add(person);
-								if (persons.size() == sizeLimit) {
-									log.debug("EXceeded size limit1");
-									break;
-								}
-							}
-							LogUtils.trace(log, "local contacts result size: ", persons.size());
-							if (!abandon && persons.size() < sizeLimit) {
-								List<LdapContact> galContacts = null;
-								try {
-									galContacts = ldapFilter.findInGAL(user, returningAttributes, sizeLimit - persons.size());
-								} catch (NotAuthorizedException ex) {
-									log.error("not auth", ex);
-								} catch (BadRequestException ex) {
-									log.error("bad req", ex);
-								}
-								if (galContacts != null) {
-									LogUtils.trace(log, "gal contacts result size: ", galContacts.size());
-									for (LdapContact person : galContacts) {
-										if (persons.size() >= sizeLimit) {
-											log.debug("EXceeded size limit2");
-											break;
-										}
-										LogUtils.trace(log, "add contact to results: ", person.getName());
-										persons.add(person);
-									}
-								}
-							}
+						cursor = new PagedSearches.Cursor(dn, ldapFilter.toString(), findEntries());
+					}
+					// a page size of zero abandons the paged search
+					int pageSize = paging == null ? Integer.MAX_VALUE : paging.getPageSize();
+					Iterator<Map<String, Object>> entries = cursor.getEntries();
+					int pageCount = 0;
+					while (pageCount < pageSize && cursor.getSent() < sizeLimit && entries.hasNext()) {
+						if (abandon) {
+							log.warn("Abandon flag is set, so exiting send!!!!!!!!!!!!!!!!!!!!!!!!!!!!!");
+							break;
 						}
+						sendEntry(currentMessageId, ", " + dn, entries.next());
+						cursor.incrementSent();
+						pageCount++;
 					}
-					LogUtils.debug(log, "LOG_LDAP_REQ_SEARCH_FOUND_RESULTS", currentMessageId, persons.size());
-					try {
-						sendPersons(currentMessageId, ", " + dn, persons, returningAttributes);
-					} catch (NotAuthorizedException ex) {
-						log.error("not auth", ex);
-					} catch (BadRequestException ex) {
-						log.error("bad req", ex);
+					size = cursor.getSent();
+					if (paging != null && pageSize > 0 && !abandon && size < sizeLimit && entries.hasNext()) {
+						cookie = pagedSearches.add(cursor);
 					}
+					LogUtils.debug(log, "LOG_LDAP_REQ_SEARCH_FOUND_RESULTS", currentMessageId, pageCount);
 					LogUtils.debug(log, "LOG_LDAP_REQ_SEARCH_END", currentMessageId);
 				} else {
 					LogUtils.debug(log, "LOG_LDAP_REQ_SEARCH_ANONYMOUS_ACCESS_FORBIDDEN", currentMessageId, dn);
@@ -253,13 +209,19 @@ public class SearchRunnable implements Runnable {
 				log.warn("Search criteria didnt match any of the expected patterns. Perhaps the user name is missing a context? DN=" + dn + ", expected something like: " + Ldap.OD_USER_CONTEXT);
 			}
 			// iCal: do not send LDAP_SIZE_LIMIT_EXCEEDED on apple-computer search by cn with sizelimit 1
+			int status;
 			if (size > 1 && size == sizeLimit) {
 				LogUtils.debug(log, "LOG_LDAP_REQ_SEARCH_SIZE_LIMIT_EXCEEDED", currentMessageId);
-				responseHandler.sendClient(currentMessageId, Ldap.LDAP_REP_RESULT, Ldap.LDAP_SIZE_LIMIT_EXCEEDED, "");
+				status = Ldap.LDAP_SIZE_LIMIT_EXCEEDED;
 			} else {
 				log.debug("No search results");
 				LogUtils.debug(log, "LOG_LDAP_REQ_SEARCH_SUCCESS", currentMessageId);
-				responseHandler.sendClient(currentMessageId, Ldap.LDAP_REP_RESULT, Ldap.LDAP_SUCCESS, "");
+				status = Ldap.LDAP_SUCCESS;
+			}
+			if (paging != null) {
+				responseHandler.sendPagedResult(currentMessageId, status, "", cookie == null ? "" : cookie);
+			} else {
+				responseHandler.sendClient(currentMessageId, Ldap.LDAP_REP_RESULT, status, "");
 			}
 		} catch (SocketException e) {
 			log.warn("closed connection", e);
@@ -276,6 +238,97 @@ public class SearchRunnable implements Runnable {
 		}
 	}
 
+	/**
+	 * Find the entries to return for a search of the user context, from the
+	 * search cache if there is one
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	private Iterator<Map<String, Object>> findEntries() throws IOException {
+		SearchCache searchCache = searchManager.getSearchCache();
+		if (searchCache == null) {
+			return new EntryIterator(searchPersons());
+		}
+		String key = SearchCache.key(user, dn, ldapFilter, returningAttributes, sizeLimit);
+		List<Map<String, Object>> cached = searchCache.get(key);
+		if (cached != null) {
+			LogUtils.debug(log, "findEntries: using cached results", cached.size());
+			return cached.iterator();
+		}
+		return searchCache.record(key, new EntryIterator(searchPersons()), sizeLimit);
+	}
+
+	/**
+	 * For a full search the personal contacts are followed by a single
+	 * streaming search of the GAL, so entries can be sent as they are found
+	 * rather than collected first
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	private Iterator<LdapContact> searchPersons() throws IOException {
+		if (ldapFilter.isFullSearch()) {
+			// append personal contacts first
+			log.info("do personcal contact search");
+			Set<LdapContact> contacts = contactFind(null, returningAttributes, sizeLimit);
+			LogUtils.debug(log, "fullSearch: results:", contacts.size());
+			Iterator<LdapContact> galContacts = null;
+			try {
+				log.info("now do GAL search");
+				galContacts = userFactory.galSearch(conditions, sizeLimit);
+			} catch (NotAuthorizedException ex) {
+				log.error("not auth", ex);
+			} catch (BadRequestException ex) {
+				log.error("bad req", ex);
+			}
+			if (galContacts == null) {
+				return contacts.iterator();
+			}
+			return new FullSearchIterator(contacts, galContacts);
+		}
+		Set<LdapContact> persons = new HashSet<LdapContact>();
+		// append only personal contacts
+		log.info("do personcal contact search only");
+		Condition filter = ldapFilter.getContactSearchFilter();
+		LogUtils.debug(log, "not full search:", filter);
+		//if ldapfilter is not a full search and filter is null,
+		//ignored all attribute filters => return empty results
+		if (filter != null) {
+			Set<LdapContact> contacts = contactFind(filter, returningAttributes, sizeLimit);
+			for (LdapContact person : contacts) {
+				persons.add(person);
+				if (persons.size() == sizeLimit) {
+					log.debug("EXceeded size limit1");
+					break;
+				}
+			}
+			LogUtils.trace(log, "local contacts result size: ", persons.size());
+			if (!abandon && persons.size() < sizeLimit) {
+				List<LdapContact> galContacts = null;
+				try {
+					galContacts = ldapFilter.findInGAL(user, returningAttributes, sizeLimit - persons.size());
+				} catch (NotAuthorizedException ex) {
+					log.error("not auth", ex);
+				} catch (BadRequestException ex) {
+					log.error("bad req", ex);
+				}
+				if (galContacts != null) {
+					LogUtils.trace(log, "gal contacts result size: ", galContacts.size());
+					for (LdapContact person : galContacts) {
+						if (persons.size() >= sizeLimit) {
+							log.debug("EXceeded size limit2");
+							break;
+						}
+						LogUtils.trace(log, "add contact to results: ", person.getName());
+						persons.add(person);
+					}
+				}
+			}
+		}
+		return persons.iterator();
+	}
+
 	/**
 	 * Search users in contacts folder
 	 *
@@ -297,8 +350,6 @@ public class SearchRunnable implements Runnable {
 
 	private void sendPersons(int currentMessageId, String baseContext, Set<LdapContact> persons, Set<String> returningAttributes) throws IOException, NotAuthorizedException, BadRequestException {
 		LogUtils.debug(log, "sendPersons", baseContext, "size:", persons.size());
-		boolean needObjectClasses = returningAttributes.contains("objectclass") || returningAttributes.isEmpty();
-		boolean returnAllAttributes = returningAttributes.isEmpty();
 		if (persons.isEmpty()) {
 			log.warn("No contacts to send! -------------------");
 		}
@@ -307,56 +358,160 @@ public class SearchRunnable implements Runnable {
 				log.warn("Abandon flag is set, so exiting send!!!!!!!!!!!!!!!!!!!!!!!!!!!!!");
 				break;
 			}
-			Map<String, Object> response = new HashMap<String, Object>();
-			Set<LdapMappedProp> props = propertyMapper.mapProperties(returnAllAttributes, returningAttributes, person);
+			sendEntry(currentMessageId, baseContext, toEntry(person));
+		}
+	}
+
+	private void sendEntry(int currentMessageId, String baseContext, Map<String, Object> response) throws IOException {
+		LogUtils.debug(log, "LOG_LDAP_REQ_SEARCH_SEND_PERSON", currentMessageId, response.get("uid"), baseContext, response);
+		responseHandler.sendEntry(currentMessageId, "uid=" + response.get("uid") + baseContext, response);
+	}
+
+	/**
+	 * Build the attributes to send for a contact. These depend only on the
+	 * contact, the bound user and the returning attributes, so they can be
+	 * held by the search cache and by paged search cursors
+	 *
+	 * @param person
+	 * @return
+	 * @throws NotAuthorizedException
+	 * @throws BadRequestException
+	 */
+	private Map<String, Object> toEntry(LdapContact person) throws NotAuthorizedException, BadRequestException {
+		boolean needObjectClasses = returningAttributes.contains("objectclass") || returningAttributes.isEmpty();
+		boolean returnAllAttributes = returningAttributes.isEmpty();
+		Map<String, Object> response = new HashMap<String, Object>();
+		Set<LdapMappedProp> props = propertyMapper.mapProperties(returnAllAttributes, returningAttributes, person);
+
+		response.put("uid", person.getName());
+		for (LdapMappedProp prop : props) {
+			ValueAndType vt;
+			try {
+				vt = propertyMapper.getProperty(prop.mappedName, person);
+			} catch (NotAuthorizedException ex) {
+				vt = null;
+			}
+			if (vt == null) {
+				LogUtils.trace(log, "sendPersons: property not found: ldap property: ", prop.ldapName, " - dav prop: ", prop.mappedName, "resource: ", person.getClass());
+			} else {
+				if (vt.getValue() != null) {
+					response.put(prop.ldapName, vt.getValue());
+				}
+			}
+		}
 
-			response.put("uid", person.getName());
-			for (LdapMappedProp prop : props) {
-				ValueAndType vt;
+		// Process all attributes which have static mappings
+		for (Map.Entry<String, String> entry : Ldap.STATIC_ATTRIBUTE_MAP.entrySet()) {
+			String ldapAttribute = entry.getKey();
+			String value = entry.getValue();
+			if (value != null && (returnAllAttributes || returningAttributes.contains(ldapAttribute))) {
+				response.put(ldapAttribute, value);
+			}
+		}
+		if (needObjectClasses) {
+			response.put("objectClass", Ldap.PERSON_OBJECT_CLASSES);
+		}
+		// iCal: copy email to apple-generateduid, encode @
+		if (returnAllAttributes || returningAttributes.contains("apple-generateduid")) {
+			String mail = (String) response.get("mail");
+			if (mail != null) {
+				response.put("apple-generateduid", mail.replaceAll("@", "__AT__"));
+			} else {
+				// failover, should not happen
+				// failover, should not happen
+				response.put("apple-generateduid", response.get("uid"));
+			}
+		}
+		// iCal: replace current user alias with login name
+		if (user.getName().equals(response.get("uid"))) {
+			if (returningAttributes.contains("uidnumber")) {
+				response.put("uidnumber", user.getName());
+			}
+		}
+		return response;
+	}
+
+	/**
+	 * Renders contacts as they are iterated. A contact which can't be read is
+	 * logged and skipped
+	 */
+	private class EntryIterator implements Iterator<Map<String, Object>> {
+
+		private final Iterator<LdapContact> contacts;
+		private Map<String, Object> next;
+
+		EntryIterator(Iterator<LdapContact> contacts) {
+			this.contacts = contacts;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (next == null && contacts.hasNext()) {
+				LdapContact person = contacts.next();
 				try {
-					vt = propertyMapper.getProperty(prop.mappedName, person);
+					next = toEntry(person);
 				} catch (NotAuthorizedException ex) {
-					vt = null;
-				}
-				if (vt == null) {
-					LogUtils.trace(log, "sendPersons: property not found: ldap property: ", prop.ldapName, " - dav prop: ", prop.mappedName, "resource: ", person.getClass());
-				} else {
-					if (vt.getValue() != null) {
-						response.put(prop.ldapName, vt.getValue());
-					}
+					log.error("not auth", ex);
+				} catch (BadRequestException ex) {
+					log.error("bad req", ex);
 				}
 			}
+			return next != null;
+		}
 
-			// Process all attributes which have static mappings
-			for (Map.Entry<String, String> entry : Ldap.STATIC_ATTRIBUTE_MAP.entrySet()) {
-				String ldapAttribute = entry.getKey();
-				String value = entry.getValue();
-				if (value != null && (returnAllAttributes || returningAttributes.contains(ldapAttribute))) {
-					response.put(ldapAttribute, value);
-				}
+		@Override
+		public Map<String, Object> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
 			}
-			if (needObjectClasses) {
-				response.put("objectClass", Ldap.PERSON_OBJECT_CLASSES);
-			}
-			// iCal: copy email to apple-generateduid, encode @
-			if (returnAllAttributes || returningAttributes.contains("apple-generateduid")) {
-				String mail = (String) response.get("mail");
-				if (mail != null) {
-					response.put("apple-generateduid", mail.replaceAll("@", "__AT__"));
+			Map<String, Object> entry = next;
+			next = null;
+			return entry;
+		}
+	}
+
+	/**
+	 * Personal contacts, then GAL contacts which were not already returned as
+	 * personal contacts. The GAL iterator is only advanced as needed
+	 */
+	private static class FullSearchIterator implements Iterator<LdapContact> {
+
+		private final Set<LdapContact> contacts;
+		private final Iterator<LdapContact> contactsIt;
+		private final Iterator<LdapContact> galContacts;
+		private LdapContact next;
+
+		FullSearchIterator(Set<LdapContact> contacts, Iterator<LdapContact> galContacts) {
+			this.contacts = contacts;
+			this.contactsIt = contacts.iterator();
+			this.galContacts = galContacts;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (next == null) {
+				if (contactsIt.hasNext()) {
+					next = contactsIt.next();
 				} else {
-					// failover, should not happen
-					// failover, should not happen
-					response.put("apple-generateduid", response.get("uid"));
+					while (next == null && galContacts.hasNext()) {
+						LdapContact c = galContacts.next();
+						if (!contacts.contains(c)) {
+							next = c;
+						}
+					}
 				}
 			}
-			// iCal: replace current user alias with login name
-			if (user.getName().equals(response.get("uid"))) {
-				if (returningAttributes.contains("uidnumber")) {
-					response.put("uidnumber", user.getName());
-				}
+			return next != null;
+		}
+
+		@Override
+		public LdapContact next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
 			}
-			LogUtils.debug(log, "LOG_LDAP_REQ_SEARCH_SEND_PERSON", currentMessageId, response.get("uid"), baseContext, response);
-			responseHandler.sendEntry(currentMessageId, "uid=" + response.get("uid") + baseContext, response);
+			LdapContact c = next;
+			next = null;
+			return c;
 		}
 	}
 
@@ -26,6 +26,7 @@ import io.milton.http.exceptions.NotAuthorizedException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -110,6 +111,14 @@ class SimpleLdapFilter implements LdapFilter {
 		return buffer.toString();
 	}
 
+	/**
+	 * Attribute values are matched case insensitively, so are lower cased
+	 */
+	@Override
+	public String toNormalisedString() {
+		return toString().toLowerCase(Locale.ROOT);
+	}
+
 	@Override
 	public Condition getContactSearchFilter() {
 		String contactAttributeName = attributeName;
@@ -22,7 +22,10 @@ package io.milton.ldap;
 import io.milton.http.exceptions.BadRequestException;
 import io.milton.http.exceptions.NotAuthorizedException;
 import io.milton.resource.LdapContact;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  *
@@ -50,4 +53,38 @@ public interface UserFactory {
 	 * @return 
 	 */
 	List<LdapContact> galFind(Condition equalTo, int sizeLimit) throws NotAuthorizedException, BadRequestException;	
+
+	/**
+	 * The most contacts returned by the default implementation of galSearch,
+	 * which is the limit that applied to all full searches before paging was
+	 * supported
+	 */
+	int DEFAULT_GAL_SEARCH_LIMIT = 100;
+
+	/**
+	 * Search the whole Global Address List, yielding contacts as the iterator
+	 * is advanced. This is used for full address book searches, which may be
+	 * paged, so implementations backed by a large directory should override
+	 * this to avoid materialising every contact.
+	 * 
+	 * The default implementation runs galFind once for each initial letter of
+	 * the common name, and returns at most DEFAULT_GAL_SEARCH_LIMIT contacts
+	 * 
+	 * @param conditions - to build conditions for galFind
+	 * @param sizeLimit - the most contacts the client will accept
+	 * @return 
+	 */
+	default Iterator<LdapContact> galSearch(Conditions conditions, int sizeLimit) throws NotAuthorizedException, BadRequestException {
+		int limit = Math.min(sizeLimit, DEFAULT_GAL_SEARCH_LIMIT);
+		Set<LdapContact> contacts = new LinkedHashSet<LdapContact>();
+		for (char c = 'A'; c <= 'Z' && contacts.size() < limit; c++) {
+			for (LdapContact contact : galFind(conditions.startsWith("cn", String.valueOf(c)), limit)) {
+				contacts.add(contact);
+				if (contacts.size() == limit) {
+					break;
+				}
+			}
+		}
+		return contacts.iterator();
+	}
 }
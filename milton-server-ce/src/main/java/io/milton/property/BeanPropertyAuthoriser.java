@@ -25,7 +25,6 @@ import io.milton.http.Request;
 import io.milton.http.Response;
 import io.milton.resource.AccessControlledResource;
 import io.milton.resource.Resource;
-import java.beans.PropertyDescriptor;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -54,7 +53,8 @@ public class BeanPropertyAuthoriser implements PropertyAuthoriser{
 	public Set<CheckResult> checkPermissions(Request request, Request.Method method, PropertyPermission perm, Set<QName> fields, Resource resource) {
 		log.trace("checkPermissions");
 		Set<CheckResult> results = null;
-		BeanPropertyResource anno = beanPropertySource.getAnnotation(resource);
+		BeanPropertyModel model = beanPropertySource.getModel(resource);
+		BeanPropertyResource anno = model.getAnnotation();
 		if (anno == null) {
 			return results;
 		}
@@ -75,9 +75,9 @@ public class BeanPropertyAuthoriser implements PropertyAuthoriser{
 			if (!name.getNamespaceURI().equals(anno.value())) {
 				log.debug("different namespace", anno.value(), name.getNamespaceURI());
 			} else {
-				PropertyDescriptor pd = beanPropertySource.getPropertyDescriptor(resource, name.getLocalPart());
-				if (pd != null) {					
-					AccessControlledResource.Priviledge role = getRequiredRole(name, resource, perm);
+				BeanPropertyModel.Property p = model.getProperty(name.getLocalPart());
+				if (p != null) {					
+					AccessControlledResource.Priviledge role = getRequiredRole(name, p, perm);
 					if (role != null) {						
 						if (log.isTraceEnabled()) {
 							log.trace("requires Priviledge: " + role + "  for field: " + name);
@@ -106,20 +106,19 @@ public class BeanPropertyAuthoriser implements PropertyAuthoriser{
 	
 	
 
-    private AccessControlledResource.Priviledge getRequiredRole(QName name, Resource resource, PropertyPermission propertyPermission) {
+    private AccessControlledResource.Priviledge getRequiredRole(QName name, BeanPropertyModel.Property p, PropertyPermission propertyPermission) {
         if (log.isTraceEnabled()) {
             log.trace("getRequiredRole: " + name);
         }
 
-        PropertyDescriptor pd = beanPropertySource.getPropertyDescriptor(resource, name.getLocalPart());
-        if (pd == null || pd.getReadMethod() == null) {
+        if (!p.isReadable()) {
             log.trace("property not found, so use default role");
-            return defaultRequiredRole(resource, propertyPermission);
+            return defaultRequiredRole(propertyPermission);
         } else {
-            BeanProperty anno = pd.getReadMethod().getAnnotation(BeanProperty.class);
+            BeanProperty anno = p.getBeanProperty();
             if (anno == null) {
                 log.trace("no annotation");
-                return defaultRequiredRole(resource, propertyPermission);
+                return defaultRequiredRole(propertyPermission);
             }
             log.trace("got annotation");
 
@@ -131,7 +130,7 @@ public class BeanPropertyAuthoriser implements PropertyAuthoriser{
         }
     }	
 	
-    private AccessControlledResource.Priviledge defaultRequiredRole(Resource resource, PropertyPermission propertyPermission) {
+    private AccessControlledResource.Priviledge defaultRequiredRole(PropertyPermission propertyPermission) {
         if (propertyPermission == PropertyPermission.READ) {
             return AccessControlledResource.Priviledge.READ;
         } else {
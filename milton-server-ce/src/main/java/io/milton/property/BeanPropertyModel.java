@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.milton.property;
+
+import io.milton.annotations.BeanProperty;
+import io.milton.annotations.BeanPropertyResource;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.namespace.QName;
+import org.apache.commons.beanutils.MethodUtils;
+import org.apache.commons.beanutils.PropertyUtils;
+
+/**
+ * Everything BeanPropertySource and BeanPropertyAuthoriser need to know about a
+ * class, ie its BeanPropertyResource annotation, its properties and their
+ * BeanProperty annotations, and handles to invoke their getters and setters.
+ *
+ * Models are built once for each class and then shared, see forClass
+ *
+ * @author brad
+ */
+public class BeanPropertyModel {
+
+	private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+	private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+	private static final ClassValue<BeanPropertyModel> models = new ClassValue<BeanPropertyModel>() {
+		@Override
+		protected BeanPropertyModel computeValue(Class<?> type) {
+			return new BeanPropertyModel(type);
+		}
+	};
+
+	/**
+	 * Get the model for the given class. Models are held against the class,
+	 * so don't prevent it from being unloaded
+	 *
+	 * @param beanClass
+	 * @return
+	 */
+	public static BeanPropertyModel forClass(Class beanClass) {
+		return models.get(beanClass);
+	}
+
+	private final BeanPropertyResource annotation;
+	private final Map<String, Property> properties;
+	private final List<QName> propertyNames;
+
+	private BeanPropertyModel(Class<?> beanClass) {
+		this.annotation = beanClass.getAnnotation(BeanPropertyResource.class);
+		Map<String, Property> map = new LinkedHashMap<String, Property>();
+		List<QName> names = new ArrayList<QName>();
+		for (PropertyDescriptor pd : PropertyUtils.getPropertyDescriptors(beanClass)) {
+			Property p = new Property(beanClass, pd);
+			map.put(pd.getName(), p);
+			if (annotation != null && p.isReadable()) {
+				names.add(new QName(annotation.value(), pd.getName()));
+			}
+		}
+		this.properties = Collections.unmodifiableMap(map);
+		this.propertyNames = Collections.unmodifiableList(names);
+	}
+
+	/**
+	 *
+	 * @return - the BeanPropertyResource annotation on the class, or null
+	 */
+	public BeanPropertyResource getAnnotation() {
+		return annotation;
+	}
+
+	/**
+	 *
+	 * @param name
+	 * @return - the property with the given name, or null if there is none
+	 */
+	public Property getProperty(String name) {
+		return properties.get(name);
+	}
+
+	/**
+	 *
+	 * @return - names of properties which have a getter, in the namespace given
+	 * by the BeanPropertyResource annotation. Empty if there is no annotation
+	 */
+	public List<QName> getPropertyNames() {
+		return propertyNames;
+	}
+
+	/**
+	 * A single bean property
+	 */
+	public static class Property {
+
+		private final PropertyDescriptor descriptor;
+		private final BeanProperty beanProperty;
+		private final MethodHandle getter;
+		private final MethodHandle setter;
+
+		private Property(Class beanClass, PropertyDescriptor pd) {
+			this.descriptor = pd;
+			this.beanProperty = pd.getReadMethod() == null ? null : pd.getReadMethod().getAnnotation(BeanProperty.class);
+			this.getter = handle(beanClass, pd.getReadMethod(), GETTER_TYPE);
+			this.setter = handle(beanClass, pd.getWriteMethod(), SETTER_TYPE);
+		}
+
+		/**
+		 * Get the property value. Exceptions thrown by the getter are
+		 * propagated as is, rather than wrapped. Check isReadable first
+		 *
+		 * @param bean
+		 * @return
+		 * @throws NoSuchMethodException - if the property has no getter
+		 * @throws Throwable
+		 */
+		public Object get(Object bean) throws Throwable {
+			if (getter != null) {
+				return getter.invokeExact(bean);
+			}
+			java.lang.reflect.Method m = descriptor.getReadMethod();
+			if (m == null) {
+				throw new NoSuchMethodException("No getter for property: " + descriptor.getName());
+			}
+			return invoke(m, bean);
+		}
+
+		/**
+		 * Set the property value. Exceptions thrown by the setter are
+		 * propagated as is, rather than wrapped. Check isWritable first
+		 *
+		 * @param bean
+		 * @param value
+		 * @throws NoSuchMethodException - if the property has no setter
+		 * @throws Throwable
+		 */
+		public void set(Object bean, Object value) throws Throwable {
+			if (setter != null) {
+				setter.invokeExact(bean, value);
+				return;
+			}
+			java.lang.reflect.Method m = descriptor.getWriteMethod();
+			if (m == null) {
+				throw new NoSuchMethodException("No setter for property: " + descriptor.getName());
+			}
+			invoke(m, bean, value);
+		}
+
+		public PropertyDescriptor getDescriptor() {
+			return descriptor;
+		}
+
+		/**
+		 *
+		 * @return - the BeanProperty annotation on the getter, or null
+		 */
+		public BeanProperty getBeanProperty() {
+			return beanProperty;
+		}
+
+		public boolean isReadable() {
+			return descriptor.getReadMethod() != null;
+		}
+
+		public boolean isWritable() {
+			return descriptor.getWriteMethod() != null;
+		}
+
+		public Class getPropertyType() {
+			return descriptor.getPropertyType();
+		}
+
+		private static Object invoke(java.lang.reflect.Method m, Object bean, Object... args) throws Throwable {
+			try {
+				return m.invoke(bean, args);
+			} catch (java.lang.reflect.InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+
+		private static MethodHandle handle(Class beanClass, java.lang.reflect.Method m, MethodType type) {
+			if (m == null) {
+				return null;
+			}
+			java.lang.reflect.Method accessible = MethodUtils.getAccessibleMethod(beanClass, m);
+			if (accessible == null) {
+				return null; // use reflection, which will report the problem
+			}
+			try {
+				return MethodHandles.publicLookup().unreflect(accessible).asType(type);
+			} catch (IllegalAccessException e) {
+				return null;
+			}
+		}
+	}
+}
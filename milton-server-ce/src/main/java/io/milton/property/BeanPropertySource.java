@@ -24,12 +24,11 @@ import io.milton.resource.Resource;
 import io.milton.http.exceptions.NotAuthorizedException;
 import io.milton.common.LogUtils;
 import io.milton.http.annotated.AnnoResource;
+import io.milton.http.Response;
 import java.beans.PropertyDescriptor;
-import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.List;
 import javax.xml.namespace.QName;
-import org.apache.commons.beanutils.PropertyUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,7 +44,6 @@ import org.slf4j.LoggerFactory;
 public class BeanPropertySource implements PropertySource {
 
 	private static final Logger log = LoggerFactory.getLogger(BeanPropertySource.class);
-	private static final Object[] NOARGS = new Object[0];
 
 
 
@@ -64,19 +62,16 @@ public class BeanPropertySource implements PropertySource {
 			bean = r;
 		}
 
-		PropertyDescriptor pd = getPropertyDescriptor(bean, name.getLocalPart());
-		if (pd == null) {
+		BeanPropertyModel.Property p = getModel(bean).getProperty(name.getLocalPart());
+		if (p == null || !p.isReadable()) {
 			throw new IllegalArgumentException("no prop: " + name.getLocalPart() + " on " + bean.getClass());
 		}
 		try {
-			return pd.getReadMethod().invoke(bean, NOARGS);
-		} catch (Exception ex) {
-			if (ex.getCause() instanceof NotAuthorizedException) {
-				NotAuthorizedException na = (NotAuthorizedException) ex.getCause();
-				throw na;
-			} else {
-				throw new RuntimeException(name.toString(), ex);
-			}
+			return p.get(bean);
+		} catch (NotAuthorizedException | Error e) {
+			throw e;
+		} catch (Throwable ex) {
+			throw new RuntimeException(name.toString(), ex);
 		}
 	}
 
@@ -92,26 +87,26 @@ public class BeanPropertySource implements PropertySource {
 			bean = r;
 		}
 
-		PropertyDescriptor pd = getPropertyDescriptor(bean, name.getLocalPart());
+		BeanPropertyModel.Property p = getModel(bean).getProperty(name.getLocalPart());
 		try {
-			pd.getWriteMethod().invoke(bean, value);
-		} catch (PropertySetException e) {
+			if (p == null) {
+				throw new IllegalArgumentException("no prop: " + name.getLocalPart() + " on " + bean.getClass());
+			}
+			if (!p.isWritable()) {
+				throw new PropertySetException(Response.Status.SC_FORBIDDEN, "Property is read only: " + name.getLocalPart());
+			}
+			p.set(bean, value);
+		} catch (PropertySetException | NotAuthorizedException e) {
+			throw e;
+		} catch (Error e) {
 			throw e;
-		} catch (Exception ex) {
-			if (ex.getCause() instanceof NotAuthorizedException) {
-				NotAuthorizedException na = (NotAuthorizedException) ex.getCause();
-				throw na;
-			} else if (ex.getCause() instanceof PropertySetException) {
-				PropertySetException na = (PropertySetException) ex.getCause();
-				throw na;
+		} catch (Throwable ex) {
+			if (value == null) {
+				log.error("Exception setting property: " + name.toString() + " to null");
 			} else {
-				if (value == null) {
-					log.error("Exception setting property: " + name.toString() + " to null");
-				} else {
-					log.error("Exception setting property: " + name.toString() + " to value: " + value + " class:" + value.getClass());
-				}
-				throw new RuntimeException(name.toString(), ex);
+				log.error("Exception setting property: " + name.toString() + " to value: " + value + " class:" + value.getClass());
 			}
+			throw new RuntimeException(name.toString(), ex);
 		}
 	}
 
@@ -126,7 +121,8 @@ public class BeanPropertySource implements PropertySource {
 			bean = r;
 		}
 
-		BeanPropertyResource anno = getAnnotation(bean);
+		BeanPropertyModel model = getModel(bean);
+		BeanPropertyResource anno = model.getAnnotation();
 		if (anno == null) {
 			log.debug(" no annotation: ", bean.getClass().getCanonicalName());
 			return PropertyMetaData.UNKNOWN;
@@ -136,12 +132,12 @@ public class BeanPropertySource implements PropertySource {
 			return PropertyMetaData.UNKNOWN;
 		}
 
-		PropertyDescriptor pd = getPropertyDescriptor(bean, name.getLocalPart());
-		if (pd == null || pd.getReadMethod() == null) {
+		BeanPropertyModel.Property p = model.getProperty(name.getLocalPart());
+		if (p == null || !p.isReadable()) {
 			LogUtils.debug(log, "getPropertyMetaData: no read method:", name.getLocalPart(), r.getClass());
 			return PropertyMetaData.UNKNOWN;
 		} else {
-			BeanProperty propAnno = pd.getReadMethod().getAnnotation(BeanProperty.class);
+			BeanProperty propAnno = p.getBeanProperty();
 			if (propAnno != null) {
 				if (!propAnno.value()) {
 					log.trace("getPropertyMetaData: property is annotated and value is false, so do not allow access");
@@ -158,13 +154,13 @@ public class BeanPropertySource implements PropertySource {
 				}
 			}
 			if (log.isDebugEnabled()) {
-				log.debug("writable: " + anno.writable() + " - " + (pd.getWriteMethod() != null));
+				log.debug("writable: " + anno.writable() + " - " + p.isWritable());
 			}
-			boolean writable = anno.writable() && (pd.getWriteMethod() != null);
+			boolean writable = anno.writable() && p.isWritable();
 			if (writable) {
-				return new PropertyMetaData(PropertyAccessibility.WRITABLE, pd.getPropertyType());
+				return new PropertyMetaData(PropertyAccessibility.WRITABLE, p.getPropertyType());
 			} else {
-				return new PropertyMetaData(PropertyAccessibility.READ_ONLY, pd.getPropertyType());
+				return new PropertyMetaData(PropertyAccessibility.READ_ONLY, p.getPropertyType());
 			}
 		}
 	}
@@ -184,36 +180,32 @@ public class BeanPropertySource implements PropertySource {
 			bean = r;
 		}
 
-		BeanPropertyResource anno = getAnnotation(bean);
-		if (anno == null) {
+		BeanPropertyModel model = getModel(bean);
+		if (model.getAnnotation() == null) {
 			return null;
 		}
-		PropertyDescriptor[] pds = PropertyUtils.getPropertyDescriptors(bean);
-		List<QName> list = new ArrayList<QName>();
-		for (PropertyDescriptor pd : pds) {
-			if (pd.getReadMethod() != null) {
-				list.add(new QName(anno.value(), pd.getName()));
-			}
-		}
-		return list;
+		return new ArrayList<QName>(model.getPropertyNames());
 	}
 
 
 
+	/**
+	 * Get the cached model of the given object's class, which is shared with
+	 * BeanPropertyAuthoriser
+	 *
+	 * @param r
+	 * @return
+	 */
+	public BeanPropertyModel getModel(Object r) {
+		return BeanPropertyModel.forClass(r.getClass());
+	}
+
 	public BeanPropertyResource getAnnotation(Object r) {
-		return r.getClass().getAnnotation(BeanPropertyResource.class);
+		return getModel(r).getAnnotation();
 	}
 
 	public PropertyDescriptor getPropertyDescriptor(Object r, String name) {
-		try {
-			PropertyDescriptor pd = PropertyUtils.getPropertyDescriptor(r, name);
-			return pd;
-		} catch (IllegalAccessException ex) {
-			throw new RuntimeException(ex);
-		} catch (InvocationTargetException ex) {
-			throw new RuntimeException(ex);
-		} catch (NoSuchMethodException ex) {
-			return null;
-		}
+		BeanPropertyModel.Property p = getModel(r).getProperty(name);
+		return p == null ? null : p.getDescriptor();
 	}
 }
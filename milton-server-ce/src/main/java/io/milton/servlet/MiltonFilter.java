@@ -45,6 +45,11 @@ public class MiltonFilter implements javax.servlet.Filter {
 	 * continue so they will be served by JSP or a servlet
 	 */
 	private String[] excludeMiltonPaths;
+	/**
+	 * If not null, requests are processed asynchronously on this executor. See
+	 * ServletRequestExecutor for the init parameters which configure it
+	 */
+	protected ServletRequestExecutor requestExecutor;
 
 	@Override
 	public void init(FilterConfig config) throws ServletException {
@@ -67,8 +72,11 @@ public class MiltonFilter implements javax.servlet.Filter {
 			}
 
 			httpManager = configurator.configure(this.config);
-					
-						
+
+			requestExecutor = ServletRequestExecutor.create(
+					config.getInitParameter(ServletRequestExecutor.PARAM_EXECUTION_MODE),
+					config.getInitParameter(ServletRequestExecutor.PARAM_REQUEST_THREADS),
+					config.getInitParameter(ServletRequestExecutor.PARAM_ASYNC_TIMEOUT));
 		} catch (ServletException ex) {
 			log.error("Exception starting milton servlet", ex);
 			throw ex;
@@ -81,6 +89,9 @@ public class MiltonFilter implements javax.servlet.Filter {
 	@Override
 	public void destroy() {
 		log.debug("destroy");
+		if (requestExecutor != null) {
+			requestExecutor.shutdown();
+		}
 		if (configurator == null) {
 			return;
 		}
@@ -101,7 +112,21 @@ public class MiltonFilter implements javax.servlet.Filter {
 					}
 				}
 			}
-			doMiltonProcessing((HttpServletRequest) req, (HttpServletResponse) resp);
+			final HttpServletRequest hreq = (HttpServletRequest) req;
+			final HttpServletResponse hresp = (HttpServletResponse) resp;
+			if (requestExecutor != null) {
+				boolean dispatched = requestExecutor.dispatch(hreq, hresp, new ServletRequestExecutor.RequestTask() {
+
+					@Override
+					public void process() throws IOException {
+						doMiltonProcessing(hreq, hresp);
+					}
+				});
+				if (dispatched) {
+					return;
+				}
+			}
+			doMiltonProcessing(hreq, hresp);
 		} else {
 			fc.doFilter(req, resp);
 		}
@@ -81,6 +81,11 @@ public class MiltonServlet implements Servlet {
     private ServletContext servletContext;
     protected HttpManager httpManager;
     protected MiltonConfigurator configurator;
+    /**
+     * If not null, requests are processed asynchronously on this executor. See
+     * ServletRequestExecutor for the init parameters which configure it
+     */
+    protected ServletRequestExecutor requestExecutor;
 
     @Override
     public void init(ServletConfig config) throws ServletException {
@@ -95,7 +100,11 @@ public class MiltonServlet implements Servlet {
                 configurator = new DefaultMiltonConfigurator();
             }
             httpManager = configurator.configure(this.config);
-            
+
+            requestExecutor = ServletRequestExecutor.create(
+                    config.getInitParameter(ServletRequestExecutor.PARAM_EXECUTION_MODE),
+                    config.getInitParameter(ServletRequestExecutor.PARAM_REQUEST_THREADS),
+                    config.getInitParameter(ServletRequestExecutor.PARAM_ASYNC_TIMEOUT));
         } catch (ServletException ex) {
             log.error("Exception starting milton servlet", ex);
             throw ex;
@@ -109,6 +118,9 @@ public class MiltonServlet implements Servlet {
     @Override
     public void destroy() {
         log.debug("destroy");
+        if (requestExecutor != null) {
+            requestExecutor.shutdown();
+        }
         if (configurator == null) {
             return;
         }
@@ -117,8 +129,34 @@ public class MiltonServlet implements Servlet {
 
     @Override
     public void service(javax.servlet.ServletRequest servletRequest, javax.servlet.ServletResponse servletResponse) throws ServletException, IOException {
-        HttpServletRequest req = (HttpServletRequest) servletRequest;
-        HttpServletResponse resp = (HttpServletResponse) servletResponse;
+        final HttpServletRequest req = (HttpServletRequest) servletRequest;
+        final HttpServletResponse resp = (HttpServletResponse) servletResponse;
+        if (requestExecutor != null) {
+            boolean dispatched = requestExecutor.dispatch(req, resp, new ServletRequestExecutor.RequestTask() {
+
+                @Override
+                public void process() throws IOException, ServletException {
+                    doService(req, resp);
+                }
+            });
+            if (dispatched) {
+                return;
+            }
+        }
+        doService(req, resp);
+    }
+
+    /**
+     * Process the request on the current thread. The milton request and
+     * response must be created here, because ServletRequest binds thread
+     * locals in its constructor
+     *
+     * @param req
+     * @param resp
+     * @throws ServletException
+     * @throws IOException
+     */
+    protected void doService(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
         try {
             setThreadlocals(req, resp);
             tlServletConfig.set(config.getServletConfig());
@@ -129,8 +167,8 @@ public class MiltonServlet implements Servlet {
             clearThreadlocals();
             tlServletConfig.remove();
             ServletRequest.clearThreadLocals();
-            servletResponse.getOutputStream().flush();
-            servletResponse.flushBuffer();
+            resp.getOutputStream().flush();
+            resp.flushBuffer();
         }
     }
 
@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.milton.servlet;
+
+import io.milton.http.RequestExecutors;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Used by MiltonServlet and MiltonFilter to process requests on an executor
+ * (eg virtual threads) using servlet 3.0 async processing, so the container's
+ * worker thread is released while milton is working.
+ *
+ * Configured with these init parameters:
+ * <ul>
+ * <li>milton.executionMode - worker (default), virtual or pool. See
+ * RequestExecutors</li>
+ * <li>milton.requestThreads - pool size for pool mode, or when virtual threads
+ * are not available. Default 200</li>
+ * <li>milton.asyncTimeoutMillis - async timeout given to the container.
+ * Default 0, meaning no timeout</li>
+ * </ul>
+ *
+ * Note that the servlet or filter must be declared with
+ * &lt;async-supported&gt;true&lt;/async-supported&gt;, otherwise requests are
+ * processed on the container thread as before
+ *
+ * @author brad
+ */
+public class ServletRequestExecutor {
+
+	private static final Logger log = LoggerFactory.getLogger(ServletRequestExecutor.class);
+
+	public static final String PARAM_EXECUTION_MODE = "milton.executionMode";
+	public static final String PARAM_REQUEST_THREADS = "milton.requestThreads";
+	public static final String PARAM_ASYNC_TIMEOUT = "milton.asyncTimeoutMillis";
+
+	/**
+	 * The work to do for a request, run on the executor
+	 */
+	public interface RequestTask {
+
+		void process() throws IOException, ServletException;
+	}
+
+	/**
+	 * Create from init parameters
+	 *
+	 * @param executionMode
+	 * @param requestThreads
+	 * @param asyncTimeout
+	 * @return - null if the execution mode is worker, in which case requests
+	 * should be processed on the calling thread
+	 */
+	public static ServletRequestExecutor create(String executionMode, String requestThreads, String asyncTimeout) {
+		int threads = requestThreads == null ? 200 : Integer.parseInt(requestThreads.trim());
+		ExecutorService exec = RequestExecutors.forMode(executionMode, threads);
+		if (exec == null) {
+			return null;
+		}
+		long timeout = asyncTimeout == null ? 0 : Long.parseLong(asyncTimeout.trim());
+		return new ServletRequestExecutor(exec, timeout);
+	}
+
+	private final ExecutorService executor;
+	private final long asyncTimeoutMillis;
+
+	public ServletRequestExecutor(ExecutorService executor, long asyncTimeoutMillis) {
+		this.executor = executor;
+		this.asyncTimeoutMillis = asyncTimeoutMillis;
+	}
+
+	/**
+	 * Start async processing and run the task on the executor. The async
+	 * context is completed after the task, and after the response has been
+	 * flushed
+	 *
+	 * @param req
+	 * @param resp
+	 * @param task
+	 * @return - false if the request does not support async processing, in
+	 * which case the caller must process it on the current thread
+	 * @throws IOException
+	 */
+	public boolean dispatch(HttpServletRequest req, final HttpServletResponse resp, final RequestTask task) throws IOException {
+		if (!req.isAsyncSupported()) {
+			return false;
+		}
+		final AsyncContext ac = req.startAsync(req, resp);
+		ac.setTimeout(asyncTimeoutMillis);
+		try {
+			executor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						task.process();
+						resp.getOutputStream().flush();
+						resp.flushBuffer();
+					} catch (Throwable e) {
+						log.error("Exception processing request: " + req.getRequestURI(), e);
+					} finally {
+						ac.complete();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			log.warn("Request executor rejected request, sending 503: {}", req.getRequestURI());
+			try {
+				resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			} finally {
+				ac.complete();
+			}
+		}
+		return true;
+	}
+
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+}
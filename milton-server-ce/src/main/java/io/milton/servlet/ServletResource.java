@@ -312,6 +312,31 @@ public class ServletResource implements GetableResource {
 			return MiltonServlet.response().getLocale();
 		}
 
+		@Override
+		public int getStatus() {
+			Response.Status s = response.getStatus();
+			return s == null ? 200 : s.code;
+		}
+
+		@Override
+		public String getHeader(String name) {
+			return response.getHeaders().get(name);
+		}
+
+		@Override
+		public Collection<String> getHeaders(String name) {
+			String v = response.getHeaders().get(name);
+			if (v == null) {
+				return Collections.emptyList();
+			}
+			return Collections.singletonList(v);
+		}
+
+		@Override
+		public Collection<String> getHeaderNames() {
+			return response.getHeaders().keySet();
+		}
+
 		@Override
 		public void write(int b) throws IOException {
 			out.write(b);
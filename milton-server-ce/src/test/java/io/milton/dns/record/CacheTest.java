@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.dns.record;
+
+import io.milton.dns.Name;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author brad
+ */
+public class CacheTest extends TestCase {
+
+	Cache cache;
+
+	@Override
+	protected void setUp() throws Exception {
+		cache = new Cache();
+	}
+
+	public void testAddAndLookup() throws Exception {
+		Name name = Name.fromString("www.example.com.");
+		cache.addRecord(a(name, "10.0.0.1", 60), Credibility.NORMAL, null);
+		cache.addRecord(a(name, "10.0.0.2", 60), Credibility.NORMAL, null);
+		RRset[] found = cache.findRecords(name, Type.A);
+		assertNotNull(found);
+		assertEquals(2, found[0].size());
+		assertNull(cache.findRecords(name, Type.MX));
+
+		// an RRset already returned isn't changed by later additions
+		cache.addRecord(a(name, "10.0.0.3", 60), Credibility.NORMAL, null);
+		assertEquals(2, found[0].size());
+		assertEquals(3, cache.findRecords(name, Type.A)[0].size());
+
+		cache.flushSet(name, Type.A);
+		assertNull(cache.findRecords(name, Type.A));
+		assertEquals(0, cache.getSize());
+	}
+
+	public void testExpiry() throws Exception {
+		Name name = Name.fromString("www.example.com.");
+		cache.addRecord(a(name, "10.0.0.1", 60), Credibility.NORMAL, null);
+		cache.setMaxCache(0);
+		Name other = Name.fromString("old.example.com.");
+		cache.addRecord(a(other, "10.0.0.1", 60), Credibility.NORMAL, null);
+		assertEquals(2, cache.getSize());
+		assertNull(cache.findRecords(other, Type.A));
+		assertEquals(1, cache.getSize());
+		assertNotNull(cache.findRecords(name, Type.A));
+	}
+
+	public void testMaxEntries() throws Exception {
+		cache.setMaxEntries(100);
+		Name first = Name.fromString("host0.example.com.");
+		for (int i = 0; i < 1000; i++) {
+			Name name = Name.fromString("host" + i + ".example.com.");
+			cache.addRecord(a(name, "10.0.0.1", 60), Credibility.NORMAL, null);
+			assertTrue(cache.getSize() <= 100);
+			// the name just added is never evicted
+			assertNotNull(cache.findRecords(name, Type.A));
+			// least recently used names are evicted first
+			assertNotNull(cache.findRecords(first, Type.A));
+		}
+		assertNull(cache.findRecords(Name.fromString("host1.example.com."), Type.A));
+
+		cache.setMaxEntries(10);
+		assertEquals(10, cache.getSize());
+		assertNotNull(cache.findRecords(Name.fromString("host999.example.com."), Type.A));
+	}
+
+	public void testConcurrentAdds() throws Exception {
+		final Name name = Name.fromString("www.example.com.");
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++) {
+			final int base = t * 50;
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 50; i++) {
+						cache.addRecord(a(name, "10.0." + ((base + i) / 250) + "." + ((base + i) % 250), 60), Credibility.NORMAL, null);
+						cache.lookupRecords(name, Type.A, Credibility.NORMAL);
+					}
+				}
+			};
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(200, cache.findRecords(name, Type.A)[0].size());
+	}
+
+	private ARecord a(Name name, String address, long ttl) {
+		try {
+			return new ARecord(name, DClass.IN, ttl, InetAddress.getByName(address));
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2014 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.dns.record;
+
+import io.milton.dns.Name;
+import java.net.InetAddress;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author brad
+ */
+public class CompressionTest extends TestCase {
+
+	public void testSuffixes() throws Exception {
+		Compression c = new Compression();
+		Name www = Name.fromString("www.example.com.");
+		c.add(12, www);
+		c.add(16, www, 1);
+		c.add(24, www, 2);
+		assertEquals(12, c.get(Name.fromString("WWW.example.com.")));
+		assertEquals(16, c.get(Name.fromString("example.com.")));
+		assertEquals(16, c.get(Name.fromString("mail.example.com."), 1));
+		assertEquals(24, c.get(Name.fromString("com.")));
+		assertEquals(-1, c.get(Name.fromString("mail.example.com.")));
+		// the first position is kept
+		c.add(40, Name.fromString("example.com."));
+		assertEquals(16, c.get(Name.fromString("example.com.")));
+
+		c.reset();
+		assertEquals(-1, c.get(www));
+	}
+
+	public void testGrow() throws Exception {
+		Compression c = new Compression();
+		for (int i = 0; i < 500; i++) {
+			c.add(i, Name.fromString("host" + i + ".example.com."));
+		}
+		for (int i = 0; i < 500; i++) {
+			assertEquals(i, c.get(Name.fromString("host" + i + ".example.com.")));
+		}
+	}
+
+	public void testMessageRoundTrip() throws Exception {
+		Name origin = Name.fromString("example.com.");
+		Message m = new Message(1);
+		m.addRecord(Record.newRecord(Name.fromString("www.example.com."), Type.A, DClass.IN), Section.QUESTION);
+		for (int i = 0; i < 100; i++) {
+			Name host = Name.fromString("host" + i + ".example.com.");
+			m.addRecord(new ARecord(host, DClass.IN, 60, InetAddress.getByName("10.0.0." + i)), Section.ANSWER);
+			m.addRecord(new MXRecord(origin, DClass.IN, 60, i, host), Section.AUTHORITY);
+		}
+		byte[] wire = m.toWire();
+		// rendering again gives the same result
+		byte[] again = m.toWire();
+		assertTrue(java.util.Arrays.equals(wire, again));
+
+		Message parsed = new Message(wire);
+		Record[] answers = parsed.getSectionArray(Section.ANSWER);
+		Record[] authority = parsed.getSectionArray(Section.AUTHORITY);
+		assertEquals(100, answers.length);
+		for (int i = 0; i < 100; i++) {
+			assertEquals("host" + i + ".example.com.", answers[i].getName().toString());
+			assertEquals("host" + i + ".example.com.", ((MXRecord) authority[i]).getTarget().toString());
+		}
+		// each A owner is its first label and a pointer to example.com, and
+		// each MX has pointers for its owner and target
+		int expected = Header.LENGTH + 17 + 4;
+		for (int i = 0; i < 100; i++) {
+			expected += ("host" + i).length() + 1 + 2 + 10 + 4;
+			expected += 2 + 10 + 2 + 2;
+		}
+		assertEquals(expected, wire.length);
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2014 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.dns.record;
+
+import io.milton.dns.Name;
+import java.net.InetAddress;
+import java.util.Iterator;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author brad
+ */
+public class ZoneTest extends TestCase {
+
+	Name origin;
+	Zone zone;
+
+	@Override
+	protected void setUp() throws Exception {
+		origin = Name.fromString("example.com.");
+		Name ns = Name.fromString("ns.example.com.");
+		zone = new Zone(origin, new Record[]{
+			new SOARecord(origin, DClass.IN, 3600, ns, Name.fromString("admin.example.com."), 1, 3600, 600, 86400, 60),
+			new NSRecord(origin, DClass.IN, 3600, ns),
+			a("ns.example.com.", "10.0.0.2"),
+			a("www.example.com.", "10.0.0.1"),
+			a("*.wild.example.com.", "10.0.0.3")
+		});
+	}
+
+	public void testFindRecords() throws Exception {
+		assertTrue(zone.findRecords(Name.fromString("www.example.com."), Type.A).isSuccessful());
+		assertTrue(zone.findRecords(Name.fromString("www.example.com."), Type.MX).isNXRRSET());
+		assertTrue(zone.findRecords(Name.fromString("ftp.example.com."), Type.A).isNXDOMAIN());
+		assertTrue(zone.findRecords(Name.fromString("x.wild.example.com."), Type.A).isSuccessful());
+		assertEquals(1, zone.getSOA().getSerial());
+	}
+
+	public void testUpdatesDontChangeIterators() throws Exception {
+		Iterator before = zone.AXFR();
+		RRset www = zone.findExactMatch(Name.fromString("www.example.com."), Type.A);
+
+		zone.addRecord(a("www.example.com.", "10.0.0.9"));
+		zone.addRecord(a("ftp.example.com.", "10.0.0.8"));
+		zone.removeRecord(a("ns.example.com.", "10.0.0.2"));
+
+		assertEquals(1, www.size());
+		assertEquals(2, zone.findExactMatch(Name.fromString("www.example.com."), Type.A).size());
+		assertTrue(zone.findRecords(Name.fromString("ftp.example.com."), Type.A).isSuccessful());
+		assertTrue(zone.findRecords(Name.fromString("ns.example.com."), Type.A).isNXDOMAIN());
+
+		// the iterator started before the changes sees the old zone
+		int count = 0;
+		while (before.hasNext()) {
+			RRset rrset = (RRset) before.next();
+			assertFalse(rrset.getName().toString().startsWith("ftp."));
+			count++;
+		}
+		// SOA, NS, 3 A sets and the last SOA
+		assertEquals(6, count);
+	}
+
+	public void testAddAndRemoveRecords() throws Exception {
+		Record[] records = new Record[1000];
+		for (int i = 0; i < records.length; i++) {
+			records[i] = a("host" + i + ".example.com.", "10.0." + (i / 250) + "." + (i % 250));
+		}
+		RRset www = zone.findExactMatch(Name.fromString("www.example.com."), Type.A);
+		zone.addRecords(records);
+		assertTrue(zone.findRecords(Name.fromString("host0.example.com."), Type.A).isSuccessful());
+		assertTrue(zone.findRecords(Name.fromString("host999.example.com."), Type.A).isSuccessful());
+		assertSame(www, zone.findExactMatch(Name.fromString("www.example.com."), Type.A));
+		assertTrue(zone.findRecords(Name.fromString("x.wild.example.com."), Type.A).isSuccessful());
+
+		zone.removeRecords(records);
+		assertTrue(zone.findRecords(Name.fromString("host0.example.com."), Type.A).isNXDOMAIN());
+		assertTrue(zone.findRecords(Name.fromString("host999.example.com."), Type.A).isNXDOMAIN());
+		assertTrue(zone.findRecords(Name.fromString("www.example.com."), Type.A).isSuccessful());
+	}
+
+	private Record a(String name, String address) throws Exception {
+		return new ARecord(Name.fromString(name), DClass.IN, 3600, InetAddress.getByName(address));
+	}
+}
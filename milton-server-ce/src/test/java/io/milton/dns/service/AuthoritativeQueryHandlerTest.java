@@ -0,0 +1,326 @@
+/*
+ * Copyright 2014 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.dns.service;
+
+import io.milton.dns.Name;
+import io.milton.dns.record.ARecord;
+import io.milton.dns.record.DClass;
+import io.milton.dns.record.Flags;
+import io.milton.dns.record.Message;
+import io.milton.dns.record.OPTRecord;
+import io.milton.dns.record.Rcode;
+import io.milton.dns.record.Record;
+import io.milton.dns.record.SOARecord;
+import io.milton.dns.record.Section;
+import io.milton.dns.record.Type;
+import io.milton.dns.resource.ADomainResourceRecord;
+import io.milton.dns.resource.DomainResource;
+import io.milton.dns.resource.DomainResourceFactory;
+import io.milton.dns.resource.DomainResourceRecord;
+import io.milton.dns.resource.NSDomainResourceRecord;
+import io.milton.dns.resource.NonAuthoritativeException;
+import io.milton.dns.resource.SOADomainResourceRecord;
+import io.milton.dns.resource.ZoneDomainResource;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author brad
+ */
+public class AuthoritativeQueryHandlerTest extends TestCase {
+
+	Map<String, DomainResource> domains;
+	int lookups;
+	AuthoritativeQueryHandler handler;
+
+	@Override
+	protected void setUp() throws Exception {
+		domains = new HashMap<String, DomainResource>();
+		List<DomainResourceRecord> zoneRecords = new ArrayList<DomainResourceRecord>();
+		zoneRecords.add(soa("example.com"));
+		zoneRecords.add(ns("example.com", "ns.example.com"));
+		domains.put("example.com", new Zone("example.com", zoneRecords));
+		domains.put("ns.example.com", domain("ns.example.com", a("ns.example.com", "10.0.0.2")));
+		domains.put("www.example.com", domain("www.example.com", a("www.example.com", "10.0.0.1")));
+		handler = new AuthoritativeQueryHandler(new DomainResourceFactory() {
+			@Override
+			public DomainResource getDomainResource(String domainName) throws NonAuthoritativeException {
+				lookups++;
+				String s = domainName.toLowerCase();
+				if (!s.endsWith("example.com")) {
+					throw new NonAuthoritativeException(domainName);
+				}
+				return domains.get(s);
+			}
+		});
+	}
+
+	public void testAnswerFromCache() throws Exception {
+		Message reply = query("www.example.com.", Type.A, 1234, false, false);
+		assertEquals(1234, reply.getHeader().getID());
+		assertTrue(reply.getHeader().getFlag(Flags.AA));
+		assertTrue(reply.getHeader().getFlag(Flags.RD));
+		Record[] answers = reply.getSectionArray(Section.ANSWER);
+		assertEquals(1, answers.length);
+		assertEquals("10.0.0.1", ((ARecord) answers[0]).getAddress().getHostAddress());
+		int lookupsBefore = lookups;
+
+		reply = query("WWW.Example.com.", Type.A, 4321, false, false);
+		assertEquals(lookupsBefore, lookups);
+		assertEquals(4321, reply.getHeader().getID());
+		assertEquals("WWW.Example.com.", reply.getQuestion().getName().toString());
+		assertEquals(1, reply.getSectionArray(Section.ANSWER).length);
+		assertEquals(1, handler.getCacheSize());
+
+		// EDNS flags are part of the key
+		reply = query("www.example.com.", Type.A, 1, true, false);
+		assertNotNull(reply.getOPT());
+		assertEquals(2, handler.getCacheSize());
+	}
+
+	public void testNegativeAnswers() throws Exception {
+		Message reply = query("ftp.example.com.", Type.A, 1, false, false);
+		assertEquals(Rcode.NXDOMAIN, reply.getRcode());
+		assertTrue(reply.getSectionArray(Section.AUTHORITY)[0] instanceof SOARecord);
+
+		reply = query("www.example.com.", Type.MX, 1, false, false);
+		assertEquals(Rcode.NOERROR, reply.getRcode());
+		assertEquals(0, reply.getSectionArray(Section.ANSWER).length);
+		assertTrue(reply.getSectionArray(Section.AUTHORITY)[0] instanceof SOARecord);
+
+		reply = query("www.other.com.", Type.A, 1, false, false);
+		assertEquals(Rcode.REFUSED, reply.getRcode());
+	}
+
+	public void testNsWithAdditional() throws Exception {
+		Message reply = query("example.com.", Type.NS, 1, false, false);
+		assertEquals(1, reply.getSectionArray(Section.ANSWER).length);
+		Record[] additional = reply.getSectionArray(Section.ADDITIONAL);
+		assertEquals(1, additional.length);
+		assertEquals("ns.example.com.", additional[0].getName().toString());
+	}
+
+	public void testInvalidate() throws Exception {
+		query("www.example.com.", Type.A, 1, false, false);
+		domains.put("www.example.com", domain("www.example.com", a("www.example.com", "10.0.0.5")));
+		Message reply = query("www.example.com.", Type.A, 1, false, false);
+		assertEquals("10.0.0.1", ((ARecord) reply.getSectionArray(Section.ANSWER)[0]).getAddress().getHostAddress());
+
+		handler.invalidate("example.com");
+		assertEquals(0, handler.getCacheSize());
+		reply = query("www.example.com.", Type.A, 1, false, false);
+		assertEquals("10.0.0.5", ((ARecord) reply.getSectionArray(Section.ANSWER)[0]).getAddress().getHostAddress());
+	}
+
+	public void testMaxCacheEntries() throws Exception {
+		handler.setMaxCacheEntries(2);
+		query("www.example.com.", Type.A, 1, false, false);
+		query("ns.example.com.", Type.A, 1, false, false);
+		// www is now the most recently used, so ns is dropped
+		query("www.example.com.", Type.A, 1, false, false);
+		query("example.com.", Type.NS, 1, false, false);
+		assertEquals(2, handler.getCacheSize());
+
+		int lookupsBefore = lookups;
+		query("www.example.com.", Type.A, 1, false, false);
+		assertEquals(lookupsBefore, lookups);
+		query("ns.example.com.", Type.A, 1, false, false);
+		assertTrue(lookups > lookupsBefore);
+	}
+
+	public void testTruncation() throws Exception {
+		DomainResourceRecord[] records = new DomainResourceRecord[60];
+		for (int i = 0; i < records.length; i++) {
+			records[i] = a("big.example.com", "10.0.1." + i);
+		}
+		domains.put("big.example.com", domain("big.example.com", records));
+
+		Message reply = query("big.example.com.", Type.A, 1, false, false);
+		assertTrue(reply.getHeader().getFlag(Flags.TC));
+		assertEquals(0, reply.getSectionArray(Section.ANSWER).length);
+
+		reply = query("big.example.com.", Type.A, 1, true, false);
+		assertFalse(reply.getHeader().getFlag(Flags.TC));
+		assertEquals(60, reply.getSectionArray(Section.ANSWER).length);
+
+		reply = query("big.example.com.", Type.A, 1, false, true);
+		assertFalse(reply.getHeader().getFlag(Flags.TC));
+		assertEquals(60, reply.getSectionArray(Section.ANSWER).length);
+	}
+
+	private Message query(String name, int type, int id, boolean edns, boolean tcp) throws Exception {
+		Message query = Message.newQuery(Record.newRecord(Name.fromString(name), type, DClass.IN));
+		query.getHeader().setID(id);
+		if (edns) {
+			query.addRecord(new OPTRecord(4096, 0, 0), Section.ADDITIONAL);
+		}
+		byte[] in = query.toWire();
+		// the handler may be given a larger buffer than the query
+		byte[] buf = new byte[512];
+		System.arraycopy(in, 0, buf, 0, in.length);
+		QueryHandler.TcpReplies replies = null;
+		if (tcp) {
+			replies = new QueryHandler.TcpReplies() {
+				@Override
+				public void send(byte[] message) {
+					fail("unexpected message");
+				}
+			};
+		}
+		return new Message(handler.handleQuery(buf, in.length, replies));
+	}
+
+	private DomainResource domain(final String name, final DomainResourceRecord... records) {
+		return new DomainResource() {
+			@Override
+			public String getName() {
+				return name;
+			}
+
+			@Override
+			public List<DomainResourceRecord> getRecords() {
+				List<DomainResourceRecord> list = new ArrayList<DomainResourceRecord>();
+				for (DomainResourceRecord r : records) {
+					list.add(r);
+				}
+				return list;
+			}
+		};
+	}
+
+	private ADomainResourceRecord a(final String name, final String address) {
+		return new ADomainResourceRecord() {
+			@Override
+			public InetAddress getAddress() {
+				try {
+					return InetAddress.getByName(address);
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+
+			@Override
+			public String getName() {
+				return name;
+			}
+
+			@Override
+			public long getTtl() {
+				return 3600;
+			}
+		};
+	}
+
+	private NSDomainResourceRecord ns(final String name, final String target) {
+		return new NSDomainResourceRecord() {
+			@Override
+			public String getTarget() {
+				return target;
+			}
+
+			@Override
+			public String getName() {
+				return name;
+			}
+
+			@Override
+			public long getTtl() {
+				return 3600;
+			}
+		};
+	}
+
+	private SOADomainResourceRecord soa(final String name) {
+		return new SOADomainResourceRecord() {
+			@Override
+			public String getHost() {
+				return "ns.example.com";
+			}
+
+			@Override
+			public String getAdminEmail() {
+				return "admin@example.com";
+			}
+
+			@Override
+			public long getZoneSerialNumber() {
+				return 1;
+			}
+
+			@Override
+			public long getRefresh() {
+				return 3600;
+			}
+
+			@Override
+			public long getRetry() {
+				return 600;
+			}
+
+			@Override
+			public long getExpire() {
+				return 86400;
+			}
+
+			@Override
+			public long getMinimum() {
+				return 300;
+			}
+
+			@Override
+			public String getName() {
+				return name;
+			}
+
+			@Override
+			public long getTtl() {
+				return 3600;
+			}
+		};
+	}
+
+	private static class Zone implements ZoneDomainResource {
+
+		private final String name;
+		private final List<DomainResourceRecord> records;
+
+		Zone(String name, List<DomainResourceRecord> records) {
+			this.name = name;
+			this.records = records;
+		}
+
+		@Override
+		public Set<DomainResource> getDomainResources() {
+			return null;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public List<DomainResourceRecord> getRecords() {
+			return records;
+		}
+	}
+}
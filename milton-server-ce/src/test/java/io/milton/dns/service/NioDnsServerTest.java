@@ -0,0 +1,172 @@
+/*
+ * Copyright 2014 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.dns.service;
+
+import io.milton.dns.Name;
+import io.milton.dns.record.ARecord;
+import io.milton.dns.record.DClass;
+import io.milton.dns.record.Flags;
+import io.milton.dns.record.Message;
+import io.milton.dns.record.Record;
+import io.milton.dns.record.Section;
+import io.milton.dns.record.SimpleResolver;
+import io.milton.dns.record.Type;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Set;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author brad
+ */
+public class NioDnsServerTest extends TestCase {
+
+	NioDnsServer server;
+
+	@Override
+	protected void setUp() throws Exception {
+		server = new NioDnsServer(new QueryHandler() {
+			@Override
+			public byte[] handleQuery(byte[] in, int length, TcpReplies tcp) throws IOException {
+				Message query = new Message(Arrays.copyOf(in, length));
+				Message reply = new Message(query.getHeader().getID());
+				reply.getHeader().setFlag(Flags.QR);
+				reply.getHeader().setFlag(Flags.AA);
+				Record q = query.getQuestion();
+				reply.addRecord(q, Section.QUESTION);
+				if (q.getName().toString().startsWith("two.") && tcp != null) {
+					// an extra message first, as for a zone transfer
+					tcp.send(reply.toWire());
+				}
+				reply.addRecord(new ARecord(q.getName(), DClass.IN, 60, InetAddress.getByName("10.0.0.1")), Section.ANSWER);
+				return reply.toWire();
+			}
+		});
+		server.setBindAddress("127.0.0.1");
+		server.setPort(0);
+		server.setUdpChannels(2);
+		server.setWorkerThreads(2);
+		server.start();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		server.stop();
+	}
+
+	public void testUdp() throws Exception {
+		Message reply = resolver(false).send(query("www.example.com."));
+		assertAnswer(reply, "www.example.com.");
+	}
+
+	public void testTcp() throws Exception {
+		Message reply = resolver(true).send(query("www.example.com."));
+		assertAnswer(reply, "www.example.com.");
+	}
+
+	public void testTcp_Pipelined() throws Exception {
+		Socket s = new Socket("127.0.0.1", server.getLocalPort());
+		try {
+			OutputStream out = s.getOutputStream();
+			byte[] q1 = query("a.example.com.").toWire();
+			byte[] q2 = query("two.example.com.").toWire();
+			// both queries in one write
+			byte[] both = new byte[q1.length + q2.length + 4];
+			frame(q1, both, 0);
+			frame(q2, both, q1.length + 2);
+			out.write(both);
+			out.flush();
+
+			// replies can arrive in any order, but the extra message for the
+			// second query must come before its answer
+			DataInputStream in = new DataInputStream(s.getInputStream());
+			boolean gotA = false;
+			boolean gotExtra = false;
+			boolean gotTwo = false;
+			for (int i = 0; i < 3; i++) {
+				Message m = read(in);
+				String name = m.getQuestion().getName().toString();
+				if (name.equals("a.example.com.")) {
+					assertAnswer(m, name);
+					gotA = true;
+				} else if (m.getSectionArray(Section.ANSWER).length == 0) {
+					gotExtra = true;
+				} else {
+					assertTrue(gotExtra);
+					assertAnswer(m, "two.example.com.");
+					gotTwo = true;
+				}
+			}
+			assertTrue(gotA && gotTwo);
+		} finally {
+			s.close();
+		}
+	}
+
+	public void testDaemon() throws Exception {
+		server.stop();
+		Set<Thread> before = Thread.getAllStackTraces().keySet();
+		server.setDaemon(false);
+		server.start();
+		// send a query so a worker thread is started
+		resolver(false).send(query("www.example.com."));
+		int count = 0;
+		for (Thread t : Thread.getAllStackTraces().keySet()) {
+			if (t.getName().startsWith("Dns") && !before.contains(t)) {
+				assertFalse(t.getName(), t.isDaemon());
+				count++;
+			}
+		}
+		// two UDP receivers, the selector, and at least one worker
+		assertTrue(count >= 4);
+	}
+
+	private SimpleResolver resolver(boolean tcp) throws Exception {
+		SimpleResolver r = new SimpleResolver("127.0.0.1");
+		r.setPort(server.getLocalPort());
+		r.setTCP(tcp);
+		r.setTimeout(5);
+		return r;
+	}
+
+	private Message query(String name) throws Exception {
+		return Message.newQuery(Record.newRecord(Name.fromString(name), Type.A, DClass.IN));
+	}
+
+	private void frame(byte[] message, byte[] dest, int offset) {
+		dest[offset] = (byte) (message.length >>> 8);
+		dest[offset + 1] = (byte) message.length;
+		System.arraycopy(message, 0, dest, offset + 2, message.length);
+	}
+
+	private Message read(DataInputStream in) throws IOException {
+		byte[] b = new byte[in.readUnsignedShort()];
+		in.readFully(b);
+		return new Message(b);
+	}
+
+	private void assertAnswer(Message reply, String name) {
+		Record[] answers = reply.getSectionArray(Section.ANSWER);
+		assertEquals(1, answers.length);
+		assertEquals(name, answers[0].getName().toString());
+		assertEquals("10.0.0.1", ((ARecord) answers[0]).getAddress().getHostAddress());
+	}
+}
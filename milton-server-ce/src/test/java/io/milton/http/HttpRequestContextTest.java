@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.milton.http;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import junit.framework.TestCase;
+import static org.easymock.EasyMock.createMock;
+
+/**
+ *
+ * @author brad
+ */
+public class HttpRequestContextTest extends TestCase {
+
+	public void testAttach_RestoresPrevious() {
+		HttpRequestContext outer = new HttpRequestContext(createMock(Request.class), null);
+		HttpRequestContext inner = new HttpRequestContext(createMock(Request.class), null);
+		assertNull(HttpManager.request());
+		try (HttpRequestContext.Scope s1 = outer.attach()) {
+			assertSame(outer.getRequest(), HttpManager.request());
+			try (HttpRequestContext.Scope s2 = inner.attach()) {
+				assertSame(inner.getRequest(), HttpManager.request());
+			}
+			assertSame(outer.getRequest(), HttpManager.request());
+		}
+		assertNull(HttpManager.request());
+	}
+
+	public void testPropagating() throws Exception {
+		HttpRequestContext ctx = new HttpRequestContext(createMock(Request.class), null);
+		ExecutorService exec = Executors.newSingleThreadExecutor();
+		try {
+			FutureTask<Request> task = new FutureTask<Request>(() -> HttpManager.request());
+			try (HttpRequestContext.Scope s = ctx.attach()) {
+				HttpRequestContext.propagating(exec).execute(task);
+			}
+			assertSame(ctx.getRequest(), task.get());
+
+			// not propagated, so the worker thread has no request
+			Future<Request> f = exec.submit(() -> HttpManager.request());
+			assertNull(f.get());
+		} finally {
+			exec.shutdown();
+		}
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.http.annotated;
+
+import io.milton.annotations.Name;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author brad
+ */
+public class CommonPropertyAnnotationHandlerTest extends TestCase {
+
+	AnnotationResourceFactory arf;
+	CommonPropertyAnnotationHandler<String> handler;
+
+	@Override
+	protected void setUp() throws Exception {
+		arf = new AnnotationResourceFactory();
+		handler = new CommonPropertyAnnotationHandler<String>(Name.class, arf, "name", "fileName");
+		handler.setDefaultValue("default");
+	}
+
+	public void testGet_AnnotatedSourceMethod() {
+		assertEquals("annotated", handler.get(res(new AnnotatedSource())));
+	}
+
+	public void testGet_BeanProperty() {
+		assertEquals("bean", handler.get(res(new BeanSource("bean", "file"))));
+		// first property is null, so use the next one
+		assertEquals("file", handler.get(res(new BeanSource(null, "file"))));
+		assertEquals("default", handler.get(res(new BeanSource(null, null))));
+	}
+
+	public void testGet_Default() {
+		assertEquals("default", handler.get(res(new Object())));
+	}
+
+	public void testAccessorCachedUntilControllersParsed() {
+		CommonPropertyAnnotationHandler.Accessor a = handler.getAccessor(BeanSource.class);
+		assertSame(a, handler.getAccessor(BeanSource.class));
+		handler.parseController(new Object());
+		assertNotSame(a, handler.getAccessor(BeanSource.class));
+	}
+
+	private AnnoResource res(Object source) {
+		return new AnnoFileResource(arf, source, null);
+	}
+
+	public static class AnnotatedSource {
+
+		@Name
+		public String findName() {
+			return "annotated";
+		}
+
+		public String getName() {
+			return "bean";
+		}
+	}
+
+	public static class BeanSource {
+
+		private final String name;
+		private final String fileName;
+
+		public BeanSource(String name, String fileName) {
+			this.name = name;
+			this.fileName = fileName;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getFileName() {
+			return fileName;
+		}
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2013 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.http.annotated;
+
+import io.milton.annotations.ChildOf;
+import io.milton.annotations.Get;
+import io.milton.annotations.Root;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author brad
+ */
+public class ControllerIndexTest extends TestCase {
+
+	private static final String CONTROLLER = TestController.class.getName();
+
+	ControllerIndex index;
+
+	@Override
+	protected void setUp() throws Exception {
+		index = new ControllerIndex(getClass().getClassLoader());
+	}
+
+	public void testGetAnnotatedMethods() throws Exception {
+		read("C\t" + CONTROLLER + "\n"
+				+ "M\tio.milton.annotations.Root\tgetRoot\t\n"
+				+ "M\tio.milton.annotations.ChildOf\tfind\tjava.lang.Object,java.lang.String\n"
+				+ "M\tio.milton.annotations.Get\trender\tjava.lang.Object,int[]\n");
+		Map<Class, List<java.lang.reflect.Method>> map = index.getAnnotatedMethods(TestController.class);
+		assertEquals(3, map.size());
+		assertEquals("find", map.get(ChildOf.class).get(0).getName());
+		assertEquals("render", map.get(Get.class).get(0).getName());
+		assertEquals(1, index.getControllerClassNames("io.milton.http.annotated").size());
+		// sub-packages are not included, as for scanning
+		assertEquals(0, index.getControllerClassNames("io.milton.http").size());
+		assertEquals(0, index.getControllerClassNames("com.example").size());
+	}
+
+	public void testGetAnnotatedMethods_OutOfDate() throws Exception {
+		read("C\t" + CONTROLLER + "\n"
+				+ "M\tio.milton.annotations.ChildOf\tfindRemoved\tjava.lang.Object\n");
+		Map<Class, List<java.lang.reflect.Method>> map = index.getAnnotatedMethods(TestController.class);
+		assertEquals(ControllerIndex.findAnnotatedMethods(TestController.class).keySet(), map.keySet());
+		assertEquals(1, map.get(Root.class).size());
+	}
+
+	public void testGetAnnotatedMethods_NotIndexed() throws Exception {
+		Map<Class, List<java.lang.reflect.Method>> map = index.getAnnotatedMethods(TestController.class);
+		assertEquals(3, map.size());
+	}
+
+	public void testIsComplete() throws Exception {
+		File indexed = root("indexed", true);
+		File notIndexed = root("notIndexed", false);
+		URLClassLoader cl = new URLClassLoader(new URL[]{indexed.toURI().toURL()}, null);
+		ControllerIndex loaded = ControllerIndex.load(cl);
+		assertTrue(loaded.isComplete("com.example"));
+		assertEquals(1, loaded.getControllerClassNames("com.example").size());
+
+		// the package is split across an indexed and an unindexed root
+		cl = new URLClassLoader(new URL[]{indexed.toURI().toURL(), notIndexed.toURI().toURL()}, null);
+		loaded = ControllerIndex.load(cl);
+		assertFalse(loaded.isComplete("com.example"));
+	}
+
+	private File root(String name, boolean withIndex) throws Exception {
+		File dir = new File(System.getProperty("java.io.tmpdir"), "controllerindex-" + System.nanoTime() + "-" + name);
+		new File(dir, "com/example").mkdirs();
+		if (withIndex) {
+			File f = new File(dir, ControllerIndex.INDEX_RESOURCE);
+			f.getParentFile().mkdirs();
+			try (FileOutputStream out = new FileOutputStream(f)) {
+				out.write("C\tcom.example.Controller\n".getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		return dir;
+	}
+
+	private void read(String s) throws Exception {
+		index.read(new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	public static class TestController {
+
+		@Root
+		public TestController getRoot() {
+			return this;
+		}
+
+		@ChildOf
+		public Object find(Object parent, String name) {
+			return null;
+		}
+
+		@Get
+		public byte[] render(Object source, int[] sizes) {
+			return null;
+		}
+
+		public Object notAnnotated(Object source) {
+			return null;
+		}
+	}
+}
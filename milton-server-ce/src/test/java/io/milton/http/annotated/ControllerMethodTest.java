@@ -0,0 +1,77 @@
+/*
+ * Copyright 2013 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.http.annotated;
+
+import io.milton.http.exceptions.NotFoundException;
+import java.lang.reflect.InvocationTargetException;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author brad
+ */
+public class ControllerMethodTest extends TestCase {
+
+	public void testInvoke() throws Exception {
+		ControllerMethod cm = controllerMethod("describe", String.class, Integer.class);
+		assertEquals("a-1", cm.invoke("a", 1));
+	}
+
+	public void testInvoke_ExceptionIsWrapped() throws Exception {
+		ControllerMethod cm = controllerMethod("fail", String.class);
+		try {
+			cm.invoke("a");
+			fail("should have thrown");
+		} catch (InvocationTargetException e) {
+			assertTrue(e.getCause() instanceof NotFoundException);
+		}
+	}
+
+	public void testBuildInvokeArgs() throws Exception {
+		AnnotationResourceFactory arf = new AnnotationResourceFactory();
+		Parent parentSource = new Parent();
+		AnnoCollectionResource parent = new AnnoCollectionResource(arf, parentSource, null);
+		AnnoResource res = new AnnoFileResource(arf, "child", parent);
+		ControllerMethod cm = controllerMethod("withParent", String.class, Parent.class, Integer.class);
+		Object[] args = arf.buildInvokeArgs(res, cm, 7);
+		assertEquals("child", args[0]);
+		assertSame(parentSource, args[1]);
+		assertEquals(7, args[2]);
+	}
+
+	private ControllerMethod controllerMethod(String name, Class... params) throws Exception {
+		TestController c = new TestController();
+		return new ControllerMethod(c, TestController.class.getMethod(name, params), params[0], null);
+	}
+
+	public static class Parent {
+	}
+
+	public static class TestController {
+
+		public String describe(String s, Integer i) {
+			return s + "-" + i;
+		}
+
+		public String fail(String s) throws NotFoundException {
+			throw new NotFoundException("not found: " + s);
+		}
+
+		public String withParent(String s, Parent p, Integer i) {
+			return s;
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2013 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.http.annotated;
+
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author brad
+ */
+public class ResourceListTest extends TestCase {
+
+	AnnotationResourceFactory arf;
+	ResourceList list;
+	AnnoResource a;
+	AnnoResource b;
+	AnnoResource c;
+
+	@Override
+	protected void setUp() throws Exception {
+		arf = new AnnotationResourceFactory();
+		a = res(new Doc("a"));
+		b = res(new Folder("b"));
+		c = res(new Doc("c"));
+		list = new ResourceList();
+		list.add(a);
+		list.add(b);
+	}
+
+	public void testGet_AfterAddAndRemove() {
+		assertSame(a, list.get("a"));
+		list.add(c);
+		assertSame(c, list.get("c"));
+		list.remove("a");
+		assertNull(list.get("a"));
+		assertEquals(2, list.size());
+		list.remove(b);
+		assertNull(list.get("b"));
+		assertEquals(1, list.size());
+	}
+
+	public void testRemove_DuplicateName() {
+		AnnoResource a2 = res(new Doc("a"));
+		list.add(a2);
+		assertSame(a2, list.get("a"));
+		list.remove(a2);
+		assertSame(a, list.get("a"));
+		list.add(a2);
+		list.remove(a);
+		assertSame(a2, list.get("a"));
+		list.remove(a2);
+		assertNull(list.get("a"));
+	}
+
+	public void testGet_CopyIsIndexed() {
+		ResourceList copy = new ResourceList(list);
+		assertSame(b, copy.get("b"));
+	}
+
+	public void testGet_OtherModifications() {
+		assertSame(a, list.get("a"));
+		list.addAll(Arrays.asList(c));
+		assertSame(c, list.get("c"));
+		list.set(0, res(new Doc("d")));
+		assertNull(list.get("a"));
+		assertNotNull(list.get("d"));
+		list.clear();
+		assertNull(list.get("b"));
+	}
+
+	public void testOfType() {
+		assertEquals(1, list.ofType("doc").size());
+		list.add(c);
+		assertEquals(2, list.ofType("doc").size());
+		list.remove(a);
+		ResourceList docs = list.getOfType().get("doc");
+		assertEquals(1, docs.size());
+		assertSame(c, docs.get(0));
+		// modifying the result must not affect later results
+		docs.clear();
+		assertEquals(1, list.ofType("doc").size());
+		assertEquals(1, list.ofType("folder").size());
+	}
+
+	private AnnoResource res(Object source) {
+		return new AnnoFileResource(arf, source, null);
+	}
+
+	public static class Doc {
+
+		private final String name;
+
+		public Doc(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+	}
+
+	public static class Folder extends Doc {
+
+		public Folder(String name) {
+			super(name);
+		}
+	}
+}
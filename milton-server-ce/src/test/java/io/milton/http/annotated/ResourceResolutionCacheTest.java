@@ -0,0 +1,170 @@
+/*
+ * Copyright 2013 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.http.annotated;
+
+import io.milton.annotations.ChildOf;
+import io.milton.annotations.ResolutionMaxAge;
+import io.milton.event.DeleteEvent;
+import io.milton.http.HttpRequestContext;
+import io.milton.http.Request;
+import java.util.HashMap;
+import java.util.Map;
+import junit.framework.TestCase;
+import static org.easymock.EasyMock.*;
+
+/**
+ *
+ * @author brad
+ */
+public class ResourceResolutionCacheTest extends TestCase {
+
+	AnnotationResourceFactory arf;
+	ResourceResolutionCache cache;
+	AnnoCollectionResource root;
+	HttpRequestContext.Scope scope;
+
+	@Override
+	protected void setUp() throws Exception {
+		arf = new AnnotationResourceFactory();
+		cache = new ResourceResolutionCache();
+		root = new AnnoCollectionResource(arf, new Object(), null);
+		scope = newRequest();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		scope.close();
+	}
+
+	public void testGet_OnlyInSameRequest() throws Exception {
+		AnnoCollectionResource users = folder(root, "users");
+		cache.put("host", "/users", users);
+		assertSame(users, cache.get("host", "/users"));
+		assertNull(cache.get("otherhost", "/users"));
+
+		HttpRequestContext.Scope next = newRequest();
+		try {
+			assertNull(cache.get("host", "/users"));
+		} finally {
+			next.close();
+		}
+		scope.close();
+		assertNull(cache.get("host", "/users"));
+		cache.put("host", "/users", users);
+		assertNull(cache.get("host", "/users"));
+	}
+
+	public void testInvalidate() throws Exception {
+		AnnoCollectionResource users = folder(root, "users");
+		cache.put("host", "/users", users);
+		cache.put("host", "/users/joe", folder(users, "joe"));
+		cache.put("host", "/users/joe/cal", folder(users, "cal"));
+		cache.put("host", "/users0", folder(root, "users0"));
+		cache.put("host", "/usersx", folder(root, "usersx"));
+		cache.invalidate("/users/");
+		assertNull(cache.get("host", "/users"));
+		assertNull(cache.get("host", "/users/joe"));
+		assertNull(cache.get("host", "/users/joe/cal"));
+		assertNotNull(cache.get("host", "/users0"));
+		assertNotNull(cache.get("host", "/usersx"));
+	}
+
+	public void testDeleteEvent() throws Exception {
+		AnnoCollectionResource users = folder(root, "users");
+		AnnoCollectionResource joe = folder(users, "joe");
+		cache.put("host", "/users", users);
+		cache.put("host", "/users/joe", joe);
+		cache.onEvent(new DeleteEvent(joe));
+		assertNotNull(cache.get("host", "/users"));
+		assertNull(cache.get("host", "/users/joe"));
+	}
+
+	public void testPutRoute_OnlyWithMaxAge() throws Exception {
+		java.lang.reflect.Method cached = TestController.class.getMethod("findCached", Object.class, String.class);
+		java.lang.reflect.Method notCached = TestController.class.getMethod("findNotCached", Object.class, String.class);
+		cache.putRoute("host", "/users", cached);
+		cache.putRoute("host", "/other", notCached);
+		assertEquals(cached, cache.getRoute("host", "/users"));
+		assertNull(cache.getRoute("otherhost", "/users"));
+		assertNull(cache.getRoute("host", "/other"));
+
+		// routes are remembered across requests
+		scope.close();
+		assertEquals(cached, cache.getRoute("host", "/users"));
+		scope = newRequest();
+
+		cache = new ResourceResolutionCache(100, 60);
+		cache.putRoute("host", "/other", notCached);
+		assertEquals(notCached, cache.getRoute("host", "/other"));
+	}
+
+	public void testInvalidate_Routes() throws Exception {
+		java.lang.reflect.Method m = TestController.class.getMethod("findCached", Object.class, String.class);
+		cache.putRoute("host", "/users", m);
+		cache.putRoute("host", "/users/joe", m);
+		cache.putRoute("host", "/usersx", m);
+		cache.onEvent(new DeleteEvent(folder(root, "users")));
+		assertNull(cache.getRoute("host", "/users"));
+		assertNull(cache.getRoute("host", "/users/joe"));
+		assertNotNull(cache.getRoute("host", "/usersx"));
+	}
+
+	public void testRouteStillCallsController() throws Exception {
+		TestController controller = new TestController();
+		arf.childOfAnnotationHandler.parseController(controller);
+		java.lang.reflect.Method m = TestController.class.getMethod("findCached", Object.class, String.class);
+
+		AnnoResource joe = arf.childOfAnnotationHandler.execute(root, "joe", m);
+		assertNotNull(joe);
+		assertEquals("joe", joe.getName());
+		assertEquals(m, joe.sourceMethod);
+		assertEquals(1, controller.calls);
+
+		assertNull(arf.childOfAnnotationHandler.execute(root, "missing", m));
+		assertEquals(2, controller.calls);
+	}
+
+	private HttpRequestContext.Scope newRequest() {
+		Map<String, Object> atts = new HashMap<String, Object>();
+		Request request = createNiceMock(Request.class);
+		expect(request.getAttributes()).andReturn(atts).anyTimes();
+		replay(request);
+		return new HttpRequestContext(request, null).attach();
+	}
+
+	private AnnoCollectionResource folder(AnnoCollectionResource parent, String name) {
+		AnnoCollectionResource r = new AnnoCollectionResource(arf, new Object(), parent);
+		r.setNameOverride(name);
+		return r;
+	}
+
+	public static class TestController {
+
+		int calls;
+
+		@ChildOf
+		@ResolutionMaxAge(60)
+		public Object findCached(Object parent, String name) {
+			calls++;
+			return name.equals("missing") ? null : new Object();
+		}
+
+		@ChildOf
+		public Object findNotCached(Object parent, String name) {
+			return null;
+		}
+	}
+}
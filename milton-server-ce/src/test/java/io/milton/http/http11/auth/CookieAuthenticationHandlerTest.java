@@ -17,10 +17,15 @@ package io.milton.http.http11.auth;
 
 import io.milton.http.AbstractRequest;
 import io.milton.http.Auth;
+import io.milton.http.BeanCookie;
 import io.milton.http.Cookie;
 import io.milton.http.DefaultRequestHostService;
 import io.milton.http.FileItem;
+import io.milton.http.HttpRequestContext;
 import io.milton.http.RequestParseException;
+import io.milton.http.ResourceFactory;
+import io.milton.http.Response;
+import io.milton.principal.DiscretePrincipal;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -34,6 +39,7 @@ import java.util.UUID;
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
 import junit.framework.TestCase;
+import static org.easymock.EasyMock.*;
 
 /**
  *
@@ -119,6 +125,80 @@ public class CookieAuthenticationHandlerTest extends TestCase {
 		assertEquals(s, validatedUrl);
 	}
 
+	public void test_CachedPrincipalSkipsResolution() throws Exception {
+		DiscretePrincipal p = createMock(DiscretePrincipal.class);
+		ResourceFactory rf = createMock(ResourceFactory.class);
+		expect(rf.getResource("xyz.com", "/users/Reviewer/")).andReturn(p).once();
+		replay(p, rf);
+		CookieAuthenticationHandler c = new CookieAuthenticationHandler(nonceProvider, Collections.EMPTY_LIST, rf, keys, new DefaultRequestHostService());
+		CookiePrincipalCache cache = new CookiePrincipalCache(10, 60);
+		c.setPrincipalCache(cache);
+		MockRequest request = loggedIn(c, "/users/Reviewer/");
+
+		assertSame(p, c.authenticate(null, request));
+		assertEquals(1, cache.size());
+		// resolved from the cache, not the resource factory
+		assertSame(p, c.authenticate(null, request));
+		verify(rf);
+	}
+
+	public void test_InvalidatedNonceRejectedWithPrincipalCache() throws Exception {
+		DiscretePrincipal p = createMock(DiscretePrincipal.class);
+		ResourceFactory rf = createMock(ResourceFactory.class);
+		expect(rf.getResource("xyz.com", "/users/Reviewer/")).andReturn(p).once();
+		replay(p, rf);
+		CookieAuthenticationHandler c = new CookieAuthenticationHandler(nonceProvider, Collections.EMPTY_LIST, rf, keys, new DefaultRequestHostService());
+		CookiePrincipalCache cache = new CookiePrincipalCache(10, 60);
+		c.setPrincipalCache(cache);
+		MockRequest request = loggedIn(c, "/users/Reviewer/");
+
+		assertSame(p, c.authenticate(null, request));
+		assertEquals(1, cache.size());
+
+		// the principal is still cached, but the nonce must be checked every time
+		String hash = request.cookies.get(c.getCookieNameUserUrlHash()).getValue();
+		nonceProvider.invalidateNonce(hash.substring(0, hash.indexOf(":")));
+		assertNull(c.getUserUrl(request, null));
+		assertNull(c.authenticate(null, request));
+	}
+
+	public void test_LogoutRemovesCachedPrincipal() throws Exception {
+		DiscretePrincipal p = createMock(DiscretePrincipal.class);
+		ResourceFactory rf = createMock(ResourceFactory.class);
+		expect(rf.getResource("xyz.com", "/users/Reviewer/")).andReturn(p).once();
+		Response response = createNiceMock(Response.class);
+		replay(p, rf, response);
+		CookieAuthenticationHandler c = new CookieAuthenticationHandler(nonceProvider, Collections.EMPTY_LIST, rf, keys, new DefaultRequestHostService());
+		CookiePrincipalCache cache = new CookiePrincipalCache(10, 60);
+		c.setPrincipalCache(cache);
+		MockRequest request = loggedIn(c, "/users/Reviewer/");
+		assertSame(p, c.authenticate(null, request));
+		assertEquals(1, cache.size());
+
+		request.params.put("miltonLogout", "true");
+		try (HttpRequestContext.Scope scope = new HttpRequestContext(request, response).attach()) {
+			c.supports(null, request);
+		}
+		assertEquals(0, cache.size());
+	}
+
+	/**
+	 * A request with login cookies for the given user
+	 */
+	private MockRequest loggedIn(CookieAuthenticationHandler c, String userUrl) {
+		MockRequest request = new MockRequest();
+		String hash = c.getUrlSigningHash(userUrl, request, request.getHostHeader());
+		request.cookies.put(c.getCookieNameUserUrl(), cookie(c.getCookieNameUserUrl(), c.encodeUserUrl(userUrl)));
+		request.cookies.put(c.getCookieNameUserUrlHash(), cookie(c.getCookieNameUserUrlHash(), hash));
+		return request;
+	}
+
+	private Cookie cookie(String name, String value) {
+		BeanCookie cookie = new BeanCookie(name);
+		cookie.setValue(value);
+		return cookie;
+	}
+
 	public class MockRequest extends AbstractRequest {
 
 		private final Map<String, Cookie> cookies = new HashMap<String, Cookie>();
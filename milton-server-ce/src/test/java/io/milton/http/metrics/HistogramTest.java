@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.milton.http.metrics;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author brad
+ */
+public class HistogramTest extends TestCase {
+
+	public void testBucketBounds() {
+		for (long v = 0; v < 100000; v++) {
+			int i = Histogram.bucketIndex(v);
+			assertTrue("v=" + v, Histogram.bucketUpperBound(i) >= v);
+			if (i > 0) {
+				assertTrue("v=" + v, Histogram.bucketUpperBound(i - 1) < v);
+			}
+		}
+	}
+
+	public void testPercentiles() {
+		Histogram h = new Histogram();
+		for (int i = 1; i <= 1000; i++) {
+			h.record(i);
+		}
+		assertEquals(1000, h.getCount());
+		assertEquals(1000, h.getMax());
+		assertEquals(500.5, h.getMean(), 0.001);
+		long p50 = h.getValueAtPercentile(50);
+		assertTrue("p50=" + p50, p50 >= 500 && p50 <= 500 * 1.125);
+		long p99 = h.getValueAtPercentile(99);
+		assertTrue("p99=" + p99, p99 >= 990 && p99 <= 1000);
+	}
+
+	public void testOverflowBucket() {
+		long largest = (1L << 40) - 1;
+		int top = Histogram.bucketIndex(largest);
+		assertTrue(top < Histogram.OVERFLOW_BUCKET);
+		assertEquals(largest, Histogram.bucketUpperBound(top));
+		assertEquals(Histogram.OVERFLOW_BUCKET, Histogram.bucketIndex(largest + 1));
+		assertEquals(Histogram.OVERFLOW_BUCKET, Histogram.bucketIndex(Long.MAX_VALUE));
+
+		Histogram h = new Histogram();
+		h.record(largest);
+		assertEquals(largest, h.getValueAtPercentile(100));
+	}
+
+	public void testHugeValue() {
+		Histogram h = new Histogram();
+		h.record(Long.MAX_VALUE);
+		assertEquals(Long.MAX_VALUE, h.getValueAtPercentile(100));
+	}
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2014 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.ldap;
+
+import io.milton.http.exceptions.BadRequestException;
+import io.milton.http.exceptions.NotAuthorizedException;
+import io.milton.http.webdav.PropFindPropertyBuilder;
+import io.milton.resource.LdapContact;
+import io.milton.resource.PropFindableResource;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Set;
+import javax.naming.Context;
+import javax.naming.NamingEnumeration;
+import javax.naming.OperationNotSupportedException;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+import javax.xml.namespace.QName;
+import junit.framework.TestCase;
+import static org.easymock.EasyMock.*;
+
+/**
+ *
+ * @author brad
+ */
+public class NioLdapServerTest extends TestCase {
+
+	NioLdapServer server;
+	int galFindCount;
+
+	@Override
+	protected void setUp() throws Exception {
+		MemoryUserSessionFactory userFactory = new MemoryUserSessionFactory() {
+			@Override
+			public List<LdapContact> galFind(Condition condition, int sizeLimit) throws NotAuthorizedException, BadRequestException {
+				galFindCount++;
+				return super.galFind(condition, sizeLimit);
+			}
+		};
+		for (int i = 0; i < 5; i++) {
+			userFactory.addUser("user" + i, "password", "User", "Number" + i, "user" + i + "@example.com");
+		}
+		PropFindPropertyBuilder propertyBuilder = createNiceMock(PropFindPropertyBuilder.class);
+		expect(propertyBuilder.findAllProps(anyObject(PropFindableResource.class))).andReturn(Collections.<QName>emptySet()).anyTimes();
+		replay(propertyBuilder);
+		server = new NioLdapServer(new NullLdapTransactionManager(), userFactory, propertyBuilder);
+		server.setPort(0);
+		server.setBindAddress("127.0.0.1");
+		server.setWorkerThreads(2);
+		server.start();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		server.stop();
+	}
+
+	public void testMessageLength() throws Exception {
+		assertEquals(14, NioLdapServer.messageLength(ByteBuffer.wrap(new byte[]{0x30, 0x0c, 0x02})));
+		assertEquals(-1, NioLdapServer.messageLength(ByteBuffer.wrap(new byte[]{0x30})));
+		assertEquals(-1, NioLdapServer.messageLength(ByteBuffer.wrap(new byte[]{0x30, (byte) 0x82, 0x01})));
+		assertEquals(4 + 0x0123, NioLdapServer.messageLength(ByteBuffer.wrap(new byte[]{0x30, (byte) 0x82, 0x01, 0x23})));
+		ByteBuffer buf = ByteBuffer.wrap(new byte[]{0, 0x30, (byte) 0x81, (byte) 0xff});
+		buf.position(1);
+		assertEquals(3 + 0xff, NioLdapServer.messageLength(buf));
+		assertEquals(1, buf.position());
+	}
+
+	public void testBind() throws Exception {
+		Socket socket = new Socket("127.0.0.1", server.getLocalPort());
+		socket.setSoTimeout(5000);
+		try {
+			OutputStream out = socket.getOutputStream();
+			InputStream in = socket.getInputStream();
+			// a message split over several packets, then two in one
+			byte[] bind1 = bindRequest(1);
+			out.write(bind1, 0, 5);
+			out.flush();
+			Thread.sleep(50);
+			out.write(bind1, 5, bind1.length - 5);
+			byte[] bind2 = bindRequest(2);
+			byte[] bind3 = bindRequest(3);
+			byte[] both = new byte[bind2.length + bind3.length];
+			System.arraycopy(bind2, 0, both, 0, bind2.length);
+			System.arraycopy(bind3, 0, both, bind2.length, bind3.length);
+			out.write(both);
+			out.flush();
+			for (int id = 1; id <= 3; id++) {
+				byte[] resp = readMessage(in);
+				// message id, then a bind response with success
+				assertEquals(0x02, resp[2]);
+				assertEquals(id, resp[4]);
+				assertEquals((byte) Ldap.LDAP_REP_BIND, resp[5]);
+				assertEquals(Ldap.LDAP_SUCCESS, resp[9]);
+			}
+		} finally {
+			socket.close();
+		}
+	}
+
+	public void testPagedFullSearch() throws Exception {
+		LdapContext ctx = new InitialLdapContext(env("user0"), null);
+		try {
+			SearchControls searchControls = new SearchControls();
+			searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+			searchControls.setReturningAttributes(new String[]{"cn"});
+			ctx.setRequestControls(new Control[]{new PagedResultsControl(2, Control.CRITICAL)});
+			Set<String> names = new HashSet<String>();
+			int pages = 0;
+			byte[] cookie;
+			do {
+				NamingEnumeration<SearchResult> results = ctx.search("ou=people", "(objectclass=*)", searchControls);
+				int count = 0;
+				while (results.hasMore()) {
+					names.add(results.next().getName());
+					count++;
+				}
+				assertTrue(count <= 2);
+				pages++;
+				cookie = null;
+				for (Control c : ctx.getResponseControls()) {
+					if (c instanceof PagedResultsResponseControl) {
+						cookie = ((PagedResultsResponseControl) c).getCookie();
+					}
+				}
+				ctx.setRequestControls(new Control[]{new PagedResultsControl(2, cookie, Control.CRITICAL)});
+			} while (cookie != null && cookie.length > 0);
+			assertEquals(5, names.size());
+			assertEquals(3, pages);
+			// a single streaming search rather than one per letter
+			assertEquals(0, galFindCount);
+		} finally {
+			ctx.close();
+		}
+	}
+
+	public void testPagedFullSearch_OtherFilter() throws Exception {
+		LdapContext ctx = new InitialLdapContext(env("user0"), null);
+		try {
+			SearchControls searchControls = new SearchControls();
+			searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+			ctx.setRequestControls(new Control[]{new PagedResultsControl(2, Control.CRITICAL)});
+			NamingEnumeration<SearchResult> results = ctx.search("ou=people", "(objectclass=*)", searchControls);
+			while (results.hasMore()) {
+				results.next();
+			}
+			byte[] cookie = null;
+			for (Control c : ctx.getResponseControls()) {
+				if (c instanceof PagedResultsResponseControl) {
+					cookie = ((PagedResultsResponseControl) c).getCookie();
+				}
+			}
+			assertNotNull(cookie);
+
+			// the cookie can't be used to continue a different search
+			ctx.setRequestControls(new Control[]{new PagedResultsControl(2, cookie, Control.CRITICAL)});
+			try {
+				results = ctx.search("ou=people", "(cn=User*)", searchControls);
+				while (results.hasMore()) {
+					results.next();
+				}
+				fail("expected the cookie to be refused");
+			} catch (OperationNotSupportedException e) {
+				// unwillingToPerform
+			}
+		} finally {
+			ctx.close();
+		}
+	}
+
+	private Hashtable<String, Object> env(String userName) {
+		Hashtable<String, Object> env = new Hashtable<String, Object>();
+		env.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
+		env.put(Context.PROVIDER_URL, "ldap://127.0.0.1:" + server.getLocalPort());
+		env.put(Context.SECURITY_AUTHENTICATION, "simple");
+		env.put(Context.SECURITY_PRINCIPAL, userName);
+		env.put(Context.SECURITY_CREDENTIALS, "password");
+		env.put("com.sun.jndi.ldap.read.timeout", "5000");
+		return env;
+	}
+
+	/**
+	 * An anonymous simple bind
+	 */
+	private byte[] bindRequest(int messageId) {
+		return new byte[]{0x30, 0x0c, 0x02, 0x01, (byte) messageId, 0x60, 0x07, 0x02, 0x01, 0x03, 0x04, 0x00, (byte) 0x80, 0x00};
+	}
+
+	private byte[] readMessage(InputStream in) throws IOException {
+		DataInputStream din = new DataInputStream(in);
+		byte[] header = new byte[2];
+		din.readFully(header);
+		assertEquals(0x30, header[0]);
+		byte[] msg = new byte[2 + header[1]];
+		System.arraycopy(header, 0, msg, 0, 2);
+		din.readFully(msg, 2, header[1]);
+		return msg;
+	}
+}
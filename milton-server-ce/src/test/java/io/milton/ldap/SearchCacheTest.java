@@ -0,0 +1,163 @@
+/*
+ * Copyright 2014 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.ldap;
+
+import io.milton.event.PutEvent;
+import io.milton.resource.GetableResource;
+import io.milton.resource.LdapContact;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+import static org.easymock.EasyMock.*;
+
+/**
+ *
+ * @author brad
+ */
+public class SearchCacheTest extends TestCase {
+
+	SearchCache cache;
+	List<Map<String, Object>> entries;
+
+	@Override
+	protected void setUp() throws Exception {
+		cache = new SearchCache(60000, 5);
+		entries = new ArrayList<Map<String, Object>>();
+		for (int i = 0; i < 3; i++) {
+			entries.add(Collections.<String, Object>singletonMap("uid", "user" + i));
+		}
+	}
+
+	public void testNormalisedFilter() {
+		CompoundLdapFilter f1 = new CompoundLdapFilter(null, Ldap.LDAP_FILTER_OR);
+		f1.add(filter("cn", "Joe", Ldap.LDAP_FILTER_SUBSTRINGS, Ldap.LDAP_SUBSTRING_INITIAL));
+		f1.add(filter("mail", "joe", Ldap.LDAP_FILTER_SUBSTRINGS, Ldap.LDAP_SUBSTRING_INITIAL));
+		CompoundLdapFilter f2 = new CompoundLdapFilter(null, Ldap.LDAP_FILTER_OR);
+		f2.add(filter("mail", "JOE", Ldap.LDAP_FILTER_SUBSTRINGS, Ldap.LDAP_SUBSTRING_INITIAL));
+		f2.add(filter("cn", "joe", Ldap.LDAP_FILTER_SUBSTRINGS, Ldap.LDAP_SUBSTRING_INITIAL));
+		assertEquals("(|(cn=joe*)(mail=joe*))", f1.toNormalisedString());
+		assertEquals(f1.toNormalisedString(), f2.toNormalisedString());
+
+		CompoundLdapFilter single = new CompoundLdapFilter(null, Ldap.LDAP_FILTER_AND);
+		single.add(filter("cn", "joe", Ldap.LDAP_FILTER_EQUALITY, 0));
+		assertEquals("(cn=joe)", single.toNormalisedString());
+	}
+
+	public void testRecordAndGet() {
+		String key = key("joe", 100);
+		assertNull(cache.get(key));
+		drain(cache.record(key, entries.iterator(), 100));
+		assertEquals(entries, cache.get(key));
+		assertEquals(3, cache.getSize());
+		// a different size limit is a different search
+		assertNull(cache.get(key("joe", 2)));
+	}
+
+	public void testRecord_SizeLimit() {
+		String key = key("joe", 2);
+		Iterator<Map<String, Object>> it = cache.record(key, entries.iterator(), 2);
+		it.next();
+		assertNull(cache.get(key));
+		it.next();
+		assertEquals(entries.subList(0, 2), cache.get(key));
+	}
+
+	public void testRecord_Abandoned() {
+		String key = key("joe", 100);
+		Iterator<Map<String, Object>> it = cache.record(key, entries.iterator(), 100);
+		it.next();
+		assertNull(cache.get(key));
+	}
+
+	public void testRecord_Unmodifiable() {
+		String key = key("joe", 100);
+		drain(cache.record(key, entries.iterator(), 100));
+		try {
+			cache.get(key).get(0).put("mail", "joe@example.com");
+			fail("cached entries should not be modifiable");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+	public void testExpiry() throws Exception {
+		cache = new SearchCache(1, 5);
+		String key = key("joe", 100);
+		drain(cache.record(key, entries.iterator(), 100));
+		Thread.sleep(10);
+		assertNull(cache.get(key));
+		assertEquals(0, cache.getSize());
+	}
+
+	public void testEviction() {
+		String key1 = key("a", 100);
+		String key2 = key("b", 100);
+		drain(cache.record(key1, entries.iterator(), 100));
+		drain(cache.record(key2, entries.iterator(), 100));
+		assertNull(cache.get(key1));
+		assertNotNull(cache.get(key2));
+		assertEquals(3, cache.getSize());
+		// too big to cache at all
+		String key3 = key("c", 100);
+		drain(cache.record(key3, Collections.nCopies(6, entries.get(0)).iterator(), 100));
+		assertNull(cache.get(key3));
+	}
+
+	public void testInvalidation() {
+		String key = key("joe", 100);
+		drain(cache.record(key, entries.iterator(), 100));
+		// other resources don't affect contacts
+		GetableResource other = createNiceMock(GetableResource.class);
+		LdapContact contact = createNiceMock(LdapContact.class);
+		replay(other, contact);
+		cache.onEvent(new PutEvent(other));
+		assertNotNull(cache.get(key));
+		cache.onEvent(new PutEvent(contact));
+		assertNull(cache.get(key));
+
+		// a search which overlaps a change isn't kept
+		Iterator<Map<String, Object>> it = cache.record(key, entries.iterator(), 100);
+		cache.onEvent(new PutEvent(contact));
+		drain(it);
+		assertNull(cache.get(key));
+	}
+
+	/**
+	 * Key for a search of cn starting with the given value
+	 */
+	private String key(String cn, int sizeLimit) {
+		LdapPrincipal user = createNiceMock(LdapPrincipal.class);
+		expect(user.getName()).andReturn("joe").anyTimes();
+		replay(user);
+		LdapFilter f = filter("cn", cn, Ldap.LDAP_FILTER_SUBSTRINGS, Ldap.LDAP_SUBSTRING_INITIAL);
+		return SearchCache.key(user, "ou=people", f, new HashSet<String>(Arrays.asList("mail", "cn")), sizeLimit);
+	}
+
+	private SimpleLdapFilter filter(String attributeName, String value, int operator, int mode) {
+		return new SimpleLdapFilter(null, null, attributeName, value, operator, mode);
+	}
+
+	private void drain(Iterator<Map<String, Object>> it) {
+		while (it.hasNext()) {
+			it.next();
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2013 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.property;
+
+import io.milton.annotations.BeanProperty;
+import io.milton.annotations.BeanPropertyResource;
+import io.milton.http.annotated.AnnoFileResource;
+import io.milton.http.annotated.AnnotationResourceFactory;
+import io.milton.http.Response;
+import io.milton.http.exceptions.NotAuthorizedException;
+import io.milton.property.PropertySource.PropertyMetaData;
+import java.util.List;
+import javax.xml.namespace.QName;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author brad
+ */
+public class BeanPropertySourceTest extends TestCase {
+
+	private static final String NS = "http://example.com/ns";
+
+	BeanPropertySource propertySource;
+	Person person;
+	AnnoFileResource res;
+
+	@Override
+	protected void setUp() throws Exception {
+		propertySource = new BeanPropertySource();
+		person = new Person();
+		res = new AnnoFileResource(new AnnotationResourceFactory(), person, null);
+	}
+
+	public void testGetAndSet() throws Exception {
+		propertySource.setProperty(new QName(NS, "name"), "joe", res);
+		assertEquals("joe", person.getName());
+		assertEquals("joe", propertySource.getProperty(new QName(NS, "name"), res));
+		propertySource.setProperty(new QName(NS, "age"), 21, res);
+		assertEquals(21, propertySource.getProperty(new QName(NS, "age"), res));
+	}
+
+	public void testGetProperty_NotAuthorized() throws Exception {
+		try {
+			propertySource.getProperty(new QName(NS, "secret"), res);
+			fail("expected NotAuthorizedException");
+		} catch (NotAuthorizedException e) {
+			// good
+		}
+	}
+
+	public void testNoAccessor() throws Exception {
+		try {
+			propertySource.setProperty(new QName(NS, "id"), "2", res);
+			fail("expected PropertySetException");
+		} catch (PropertySource.PropertySetException e) {
+			assertEquals(Response.Status.SC_FORBIDDEN, e.getStatus());
+		}
+		try {
+			propertySource.getProperty(new QName(NS, "password"), res);
+			fail("expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// good, there is no getter
+		}
+		propertySource.setProperty(new QName(NS, "password"), "secret", res);
+		assertEquals("secret", person.password);
+	}
+
+	public void testGetPropertyMetaData() {
+		PropertyMetaData md = propertySource.getPropertyMetaData(new QName(NS, "name"), res);
+		assertTrue(md.isWritable());
+		assertEquals(String.class, md.getValueType());
+		assertTrue(propertySource.getPropertyMetaData(new QName(NS, "hidden"), res).isUnknown());
+		assertTrue(propertySource.getPropertyMetaData(new QName("other", "name"), res).isUnknown());
+		assertFalse(propertySource.getPropertyMetaData(new QName(NS, "id"), res).isWritable());
+	}
+
+	public void testGetAllPropertyNames() {
+		List<QName> names = propertySource.getAllPropertyNames(res);
+		assertTrue(names.contains(new QName(NS, "name")));
+		assertTrue(names.contains(new QName(NS, "id")));
+		names.clear(); // must not affect the cached model
+		assertFalse(propertySource.getAllPropertyNames(res).isEmpty());
+	}
+
+	@BeanPropertyResource(NS)
+	public static class Person {
+
+		private String name;
+		private int age;
+		private String password;
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public int getAge() {
+			return age;
+		}
+
+		public void setAge(int age) {
+			this.age = age;
+		}
+
+		public String getId() {
+			return "1";
+		}
+
+		@BeanProperty(false)
+		public String getHidden() {
+			return "hidden";
+		}
+
+		public String getSecret() throws NotAuthorizedException {
+			throw new NotAuthorizedException();
+		}
+
+		public void setPassword(String password) {
+			this.password = password;
+		}
+	}
+}
@@ -14,20 +14,26 @@ import io.milton.http.acl.AccessControlledResourceTypeHelper;
 import io.milton.http.acl.AnnotationsPrincipalSearchService;
 import io.milton.http.annotated.AnnotationResourceFactory;
 import io.milton.http.caldav.AnnotationsCalendarSearchService;
+import io.milton.http.caldav.AttendeeIndex;
 import io.milton.http.caldav.CalDavProtocol;
 import io.milton.http.caldav.CalendarResourceTypeHelper;
 import io.milton.http.caldav.CalendarSearchService;
+import io.milton.http.caldav.CalendarTimeRangeIndex;
 import io.milton.http.caldav.DefaultCalendarSearchService;
 import io.milton.http.caldav.ICalFormatter;
+import io.milton.http.caldav.ParsedICalCache;
 import io.milton.http.caldav.SupportedCalendarComponentListValueWriter;
 import io.milton.http.caldav.SupportedCalendarComponentListsSetValueWriter;
 import io.milton.http.carddav.AddressBookResourceTypeHelper;
 import io.milton.http.carddav.CardDavProtocol;
+import io.milton.http.carddav.VCardIndex;
 import io.milton.http.fck.FckResourceFactory;
 import io.milton.http.fs.SimpleLockManager;
 import io.milton.http.http11.Http11Protocol;
 import io.milton.http.http11.MatchHelper;
 import io.milton.http.http11.PartialGetHelper;
+import io.milton.http.report.SyncCollectionReport;
+import io.milton.http.report.SyncJournal;
 import io.milton.http.webdav.PropertySourcePatchSetter;
 import io.milton.http.webdav.ResourceTypeHelper;
 import io.milton.http.webdav.WebDavResourceTypeHelper;
@@ -38,6 +44,8 @@ import io.milton.http.webdav2.WebDavLevel2Protocol;
 import io.milton.http.webdav2.WebDavLevel2ResourceTypeHelper;
 import io.milton.principal.PrincipalSearchService;
 import io.milton.property.PropertySource;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import org.slf4j.Logger;
@@ -90,6 +98,21 @@ public class HttpManagerBuilderEnt extends HttpManagerBuilder {
 
     private CalendarSearchService calendarSearchService;
     private AnnotationsCalendarSearchService annotationsCalendarSearchService;
+    private boolean enableCalendarTimeRangeIndex = false;
+    private int calendarTimeRangeIndexMaxCalendars = 1000;
+    private boolean enableCalendarAttendeeIndex = false;
+    private int calendarAttendeeIndexMaxAgeSeconds = 0;
+    private int calendarAttendeeIndexMaxHomes = 10000;
+    private int calendarQueryMaxResults = 0;
+    private boolean enableParsedICalCache = false;
+    private int parsedICalCacheMaxChars = 5000000;
+    private boolean enableVCardIndex = false;
+    private int vCardIndexMaxBooks = 1000;
+    private VCardIndex vCardIndex;
+    private boolean enableSyncJournal = false;
+    private File syncJournalFile;
+    private int syncJournalTombstoneRetentionSeconds = 30 * 24 * 60 * 60;
+    private SyncJournal syncJournal;
 
     private PrincipalSearchService principalSearchService;
     private AnnotationsPrincipalSearchService annotationsPrincipalSearchService;
@@ -146,7 +169,21 @@ public class HttpManagerBuilderEnt extends HttpManagerBuilder {
                 if( iCalFormatter == null ) {
                     iCalFormatter = new ICalFormatter();
                 }
+                if (enableParsedICalCache && iCalFormatter.getParsedCache() == null) {
+                    log.info("Enable parsed iCalendar cache: maxChars={}", parsedICalCacheMaxChars);
+                    iCalFormatter.setParsedCache(new ParsedICalCache(parsedICalCacheMaxChars, eTagGenerator));
+                }
                 DefaultCalendarSearchService c = new DefaultCalendarSearchService(iCalFormatter, mainResourceFactory);
+                if (enableCalendarTimeRangeIndex) {
+                    log.info("Enable calendar time range index: maxCalendars={}", calendarTimeRangeIndexMaxCalendars);
+                    c.setTimeRangeIndex(new CalendarTimeRangeIndex(iCalFormatter, calendarTimeRangeIndexMaxCalendars));
+                }
+                if (enableCalendarAttendeeIndex) {
+                    log.info("Enable calendar attendee index: maxAgeSeconds={} maxHomes={}", calendarAttendeeIndexMaxAgeSeconds, calendarAttendeeIndexMaxHomes);
+                    AttendeeIndex attendeeIndex = new AttendeeIndex(iCalFormatter, calendarAttendeeIndexMaxAgeSeconds, calendarAttendeeIndexMaxHomes);
+                    attendeeIndex.register(eventManager);
+                    c.setAttendeeIndex(attendeeIndex);
+                }
                 // Wrap the default in an annotations handler. It will forward requests to the wrapped
                 // instance for non-annotation resources
                 annotationsCalendarSearchService = new AnnotationsCalendarSearchService(c);
@@ -204,6 +241,21 @@ public class HttpManagerBuilderEnt extends HttpManagerBuilder {
                 log.info("Enabled DAV level 1 protocol");
                 protocols.add(webDavProtocol);
             }
+            if (syncJournal == null && enableSyncJournal) {
+                try {
+                    syncJournal = syncJournalFile == null ? new SyncJournal() : new SyncJournal(syncJournalFile);
+                } catch (IOException ex) {
+                    throw new RuntimeException("Couldnt open sync journal: " + syncJournalFile, ex);
+                }
+                syncJournal.setTombstoneRetentionSeconds(syncJournalTombstoneRetentionSeconds);
+                syncJournal.register(eventManager);
+                log.info("Enabled sync journal: tombstoneRetentionSeconds={}", syncJournalTombstoneRetentionSeconds);
+            }
+            if (syncJournal != null && webDavProtocol != null) {
+                SyncCollectionReport syncCollectionReport = new SyncCollectionReport(propFindPropertyBuilder(), propFindXmlGenerator);
+                syncCollectionReport.setSyncJournal(syncJournal);
+                webDavProtocol.addReport(syncCollectionReport);
+            }
 
             if (webDavLevel2Protocol == null && webdavLevel2Enabled) {
                 webDavLevel2Protocol = new WebDavLevel2Protocol(handlerHelper, webdavResponseHandler, resourceHandlerHelper, userAgentHelper());
@@ -223,6 +275,7 @@ public class HttpManagerBuilderEnt extends HttpManagerBuilder {
                 calDavProtocol = new CalDavProtocol(outerResourceFactory, webdavResponseHandler, handlerHelper, webDavProtocol, propFindXmlGenerator, propFindPropertyBuilder(), calendarSearchService);
             }
             if (calDavProtocol != null) {
+                calDavProtocol.getCalendarQueryReport().setMaxResults(calendarQueryMaxResults);
                 log.info("Add Caldav protocol: {} with resource factory: {}", calDavProtocol.getClass(), calDavProtocol.getResourceFactory());
                 protocols.add(calDavProtocol);
             }
@@ -238,7 +291,15 @@ public class HttpManagerBuilderEnt extends HttpManagerBuilder {
             if (cardDavProtocol == null && carddavEnabled) {
                 cardDavProtocol = new CardDavProtocol(mainResourceFactory, webdavResponseHandler, handlerHelper, webDavProtocol, propFindXmlGenerator, propFindPropertyBuilder());
             }
+            if (vCardIndex == null && enableVCardIndex) {
+                vCardIndex = new VCardIndex(vCardIndexMaxBooks);
+                vCardIndex.register(eventManager);
+                log.info("Enabled vCard index: maxBooks={}", vCardIndexMaxBooks);
+            }
             if (cardDavProtocol != null) {
+                if (vCardIndex != null) {
+                    cardDavProtocol.setVCardIndex(vCardIndex);
+                }
                 valueWriters.getValueWriters().add(0, new SupportedCalendarComponentListValueWriter());
                 valueWriters.getValueWriters().add(0, new SupportedCalendarComponentListsSetValueWriter());
                 protocols.add(cardDavProtocol);
@@ -387,6 +448,223 @@ public class HttpManagerBuilderEnt extends HttpManagerBuilder {
         this.calendarSearchService = calendarSearchService;
     }
 
+    /**
+     * If true, the default calendar search service indexes the start and end
+     * dates of events in each calendar, so that time range queries don't need
+     * to parse every event. Default is false
+     *
+     * @return
+     */
+    public boolean isEnableCalendarTimeRangeIndex() {
+        return enableCalendarTimeRangeIndex;
+    }
+
+    public void setEnableCalendarTimeRangeIndex(boolean enableCalendarTimeRangeIndex) {
+        this.enableCalendarTimeRangeIndex = enableCalendarTimeRangeIndex;
+    }
+
+    /**
+     * Maximum number of calendars to hold time range indexes for
+     *
+     * @return
+     */
+    public int getCalendarTimeRangeIndexMaxCalendars() {
+        return calendarTimeRangeIndexMaxCalendars;
+    }
+
+    public void setCalendarTimeRangeIndexMaxCalendars(int calendarTimeRangeIndexMaxCalendars) {
+        this.calendarTimeRangeIndexMaxCalendars = calendarTimeRangeIndexMaxCalendars;
+    }
+
+    /**
+     * If true, the default calendar search service indexes events in users'
+     * calendar homes, with their attendees, so free-busy queries and attendee
+     * searches don't need to scan and parse events. Default is false
+     *
+     * @return
+     */
+    public boolean isEnableCalendarAttendeeIndex() {
+        return enableCalendarAttendeeIndex;
+    }
+
+    public void setEnableCalendarAttendeeIndex(boolean enableCalendarAttendeeIndex) {
+        this.enableCalendarAttendeeIndex = enableCalendarAttendeeIndex;
+    }
+
+    /**
+     * If greater then zero, calendar homes are reloaded into the attendee index
+     * after this many seconds. Use this if calendars can be changed other than
+     * through milton
+     *
+     * @return
+     */
+    public int getCalendarAttendeeIndexMaxAgeSeconds() {
+        return calendarAttendeeIndexMaxAgeSeconds;
+    }
+
+    public void setCalendarAttendeeIndexMaxAgeSeconds(int calendarAttendeeIndexMaxAgeSeconds) {
+        this.calendarAttendeeIndexMaxAgeSeconds = calendarAttendeeIndexMaxAgeSeconds;
+    }
+
+    /**
+     * The maximum number of calendar homes held in the attendee index. If
+     * there are more calendar homes than this, attendee searches can't be
+     * answered from the index. Default is 10000
+     *
+     * @return
+     */
+    public int getCalendarAttendeeIndexMaxHomes() {
+        return calendarAttendeeIndexMaxHomes;
+    }
+
+    public void setCalendarAttendeeIndexMaxHomes(int calendarAttendeeIndexMaxHomes) {
+        this.calendarAttendeeIndexMaxHomes = calendarAttendeeIndexMaxHomes;
+    }
+
+    /**
+     * If true, the iCalendar formatter used by the default calendar search
+     * service caches parsed events, keyed on their unique id and ETag. Only
+     * enable this if the ETag of a calendar resource changes whenever its
+     * content changes. Default is false
+     *
+     * @return
+     */
+    public boolean isEnableParsedICalCache() {
+        return enableParsedICalCache;
+    }
+
+    public void setEnableParsedICalCache(boolean enableParsedICalCache) {
+        this.enableParsedICalCache = enableParsedICalCache;
+    }
+
+    /**
+     * Maximum total characters of iCalendar text to hold parsed events for
+     *
+     * @return
+     */
+    public int getParsedICalCacheMaxChars() {
+        return parsedICalCacheMaxChars;
+    }
+
+    public void setParsedICalCacheMaxChars(int parsedICalCacheMaxChars) {
+        this.parsedICalCacheMaxChars = parsedICalCacheMaxChars;
+    }
+
+    /**
+     * The most results a calendar-query report will return, regardless of
+     * any limit requested by the client. Zero (the default) means no limit
+     *
+     * @return
+     */
+    public int getCalendarQueryMaxResults() {
+        return calendarQueryMaxResults;
+    }
+
+    public void setCalendarQueryMaxResults(int calendarQueryMaxResults) {
+        this.calendarQueryMaxResults = calendarQueryMaxResults;
+    }
+
+    /**
+     * If true, a VCardIndex is created and used for addressbook-query reports
+     * on address books which don't implement
+     * AddressBookQuerySearchableResource. Default is false
+     *
+     * @return
+     */
+    public boolean isEnableVCardIndex() {
+        return enableVCardIndex;
+    }
+
+    public void setEnableVCardIndex(boolean enableVCardIndex) {
+        this.enableVCardIndex = enableVCardIndex;
+    }
+
+    /**
+     * The maximum number of address books held in the vCard index, the least
+     * recently used being dropped first. Default is 1000
+     *
+     * @return
+     */
+    public int getvCardIndexMaxBooks() {
+        return vCardIndexMaxBooks;
+    }
+
+    public void setvCardIndexMaxBooks(int vCardIndexMaxBooks) {
+        this.vCardIndexMaxBooks = vCardIndexMaxBooks;
+    }
+
+    /**
+     * The vCard index, if enabled. UserFactory implementations can use this
+     * for galFind
+     *
+     * @return
+     */
+    public VCardIndex getvCardIndex() {
+        return vCardIndex;
+    }
+
+    public void setvCardIndex(VCardIndex vCardIndex) {
+        this.vCardIndex = vCardIndex;
+    }
+
+    /**
+     * If true, a SyncJournal is created, which records changes reported
+     * through the event manager, and the sync-collection report is enabled
+     * to answer requests from it. Default is false
+     *
+     * @return
+     */
+    public boolean isEnableSyncJournal() {
+        return enableSyncJournal;
+    }
+
+    public void setEnableSyncJournal(boolean enableSyncJournal) {
+        this.enableSyncJournal = enableSyncJournal;
+    }
+
+    /**
+     * File the sync journal is persisted to, so tokens survive a restart. If
+     * null the journal is only held in memory
+     *
+     * @return
+     */
+    public File getSyncJournalFile() {
+        return syncJournalFile;
+    }
+
+    public void setSyncJournalFile(File syncJournalFile) {
+        this.syncJournalFile = syncJournalFile;
+    }
+
+    /**
+     * Removed members are forgotten by the sync journal after this many
+     * seconds, and clients with older sync tokens do a full sync. Zero means
+     * they are kept forever. Default is 30 days
+     *
+     * @return
+     */
+    public int getSyncJournalTombstoneRetentionSeconds() {
+        return syncJournalTombstoneRetentionSeconds;
+    }
+
+    public void setSyncJournalTombstoneRetentionSeconds(int syncJournalTombstoneRetentionSeconds) {
+        this.syncJournalTombstoneRetentionSeconds = syncJournalTombstoneRetentionSeconds;
+    }
+
+    /**
+     * The sync journal, if enabled. SyncCollectionResource implementations
+     * can use this for findResourcesBySyncToken and getSyncToken
+     *
+     * @return
+     */
+    public SyncJournal getSyncJournal() {
+        return syncJournal;
+    }
+
+    public void setSyncJournal(SyncJournal syncJournal) {
+        this.syncJournal = syncJournal;
+    }
+
    /**
     * Search service used to satisfy principal property search reports. You can set this
     *  to prevent the default search service from being created.
@@ -28,6 +28,7 @@ import io.milton.resource.SchedulingResponseItem;
 import java.util.AbstractMap;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -74,6 +75,18 @@ public class AnnotationsCalendarSearchService implements CalendarSearchService {
         }
         return results;
     }
+
+    @Override
+    public Iterator<ICalResource> iterateCalendarResources(CalendarResource calendar, Date start, Date finish, AbstractMap.SimpleImmutableEntry<String, String> propFilter) throws NotAuthorizedException, BadRequestException {
+        if (calendar instanceof AnnoCalendarResource) {
+            List<ICalResource> results = annotationResourceFactory.getCalendarDateRangeQueryAnnotationHandler().execute((AnnoCalendarResource) calendar, start, finish);
+            if (results != null) {
+                return results.iterator();
+            }
+            log.trace("Got null results from annotations calendar date range query, so will fallback to iterative query: " + wrapped.getClass());
+        }
+        return wrapped.iterateCalendarResources(calendar, start, finish, propFilter);
+    }
     
 
     @Override
@@ -0,0 +1,766 @@
+/*
+ * Copyright 2013 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.http.caldav;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.EvictionListener;
+import io.milton.event.DeleteEvent;
+import io.milton.event.Event;
+import io.milton.event.EventListener;
+import io.milton.event.EventManager;
+import io.milton.event.MoveEvent;
+import io.milton.event.PutEvent;
+import io.milton.event.ResourceEvent;
+import io.milton.http.AbstractRequest;
+import io.milton.http.HttpManager;
+import io.milton.http.Request;
+import io.milton.http.annotated.AnnoResource;
+import io.milton.http.exceptions.BadRequestException;
+import io.milton.http.exceptions.NotAuthorizedException;
+import io.milton.mail.MailboxAddress;
+import io.milton.resource.CalendarResource;
+import io.milton.resource.CollectionResource;
+import io.milton.resource.ICalResource;
+import io.milton.resource.Resource;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import net.fortuna.ical4j.data.ParserException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Indexes the events in users' calendar homes by href and start date, with
+ * their end dates, attendees and organizer, so that free-busy queries only
+ * look at the requested attendees' events in the requested range and don't
+ * parse them, and so that finding the events a user is an attendee or
+ * organizer of doesn't need to iterate over every user's calendars.
+ *
+ * Calendar homes are loaded (ie scanned and parsed) the first time they are
+ * needed, and then kept up to date from PutEvent and DeleteEvent, so this
+ * must be registered with the EventManager (see register). For changes which
+ * can't be applied directly, such as a MOVE, the affected calendar homes are
+ * dropped and will be loaded again when next needed. Events fired outside a
+ * request drop the calendar homes containing the resource, for all hosts, if
+ * it is an AnnoResource, or otherwise everything. Changes made other than
+ * through milton are not seen, so either set maxAgeSeconds or call clear
+ * when they happen.
+ *
+ * Entries are keyed on host as well as href. Events are applied for the host
+ * of the request, and calendar homes for other hosts containing the same
+ * href are dropped, in case they are aliases.
+ *
+ * At most maxHomes calendar homes are kept, the least recently used being
+ * dropped first. Dropping a home means the attendee index for its host is no
+ * longer complete, so maxHomes should be more than the number of calendar
+ * homes if attendee searches are to be answered from the index.
+ *
+ * @author brad
+ */
+public class AttendeeIndex implements EventListener {
+
+    private static final Logger log = LoggerFactory.getLogger(AttendeeIndex.class);
+
+    private static final int MAX_HOSTS = 1000;
+
+    private final ICalFormatter formatter;
+    private final long maxAgeMillis;
+    /**
+     * Loaded calendar homes, keyed on href (with a trailing slash) then host
+     */
+    private final Map<String, Map<String, Home>> homes;
+    private final Map<String, Attendees> attendeesByHost;
+    /**
+     * Calendar homes currently being loaded. A change within one of these, or
+     * to a folder containing it, marks it as stale so it isn't kept
+     */
+    private final Set<Home> loading = new HashSet<Home>();
+    /**
+     * Source of attendee index generations, so a token from beginLoadAll
+     * can't match an index created after the one it was taken from was dropped
+     */
+    private long generations;
+
+    /**
+     *
+     * @param formatter
+     * @param maxAgeSeconds - calendar homes are loaded again after this many
+     * seconds. Zero means they don't expire
+     * @param maxHomes - the maximum number of calendar home hrefs to keep
+     */
+    public AttendeeIndex(ICalFormatter formatter, int maxAgeSeconds, int maxHomes) {
+        this.formatter = formatter;
+        this.maxAgeMillis = maxAgeSeconds * 1000l;
+        this.homes = new ConcurrentLinkedHashMap.Builder<String, Map<String, Home>>()
+                .maximumWeightedCapacity(maxHomes)
+                .listener(new EvictionListener<String, Map<String, Home>>() {
+                    @Override
+                    public void onEviction(String href, Map<String, Home> byHost) {
+                        synchronized (AttendeeIndex.this) {
+                            for (Home home : byHost.values()) {
+                                unindex(home);
+                            }
+                        }
+                    }
+                })
+                .build();
+        this.attendeesByHost = new ConcurrentLinkedHashMap.Builder<String, Attendees>()
+                .maximumWeightedCapacity(MAX_HOSTS)
+                .listener(new EvictionListener<String, Attendees>() {
+                    @Override
+                    public void onEviction(String host, Attendees attendees) {
+                        // the homes for the host aren't in any attendee index now
+                        synchronized (AttendeeIndex.this) {
+                            for (Map<String, Home> byHost : homes.values()) {
+                                byHost.remove(host);
+                            }
+                        }
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Listen for events which change calendars
+     *
+     * @param eventManager
+     */
+    public void register(EventManager eventManager) {
+        eventManager.registerEventListener(this, PutEvent.class);
+        eventManager.registerEventListener(this, DeleteEvent.class);
+        eventManager.registerEventListener(this, MoveEvent.class);
+    }
+
+    /**
+     *
+     * @param host
+     * @param homeHref
+     * @return - the indexed calendar home, or null if it is not loaded
+     */
+    public Home getHome(String host, String homeHref) {
+        Map<String, Home> byHost = homes.get(folder(homeHref));
+        Home home = byHost == null ? null : byHost.get(host);
+        if (home != null && maxAgeMillis > 0 && home.loadedAt + maxAgeMillis < System.currentTimeMillis()) {
+            return null;
+        }
+        return home;
+    }
+
+    /**
+     * Scan the calendars in the given calendar home, and add their events to
+     * the index
+     *
+     * @param host
+     * @param homeHref
+     * @param calHome
+     * @return
+     * @throws NotAuthorizedException
+     * @throws BadRequestException
+     */
+    public Home loadHome(String host, String homeHref, CollectionResource calHome) throws NotAuthorizedException, BadRequestException {
+        homeHref = folder(homeHref);
+        Home home = new Home(host, homeHref);
+        synchronized (this) {
+            loading.add(home);
+        }
+        try {
+            for (Resource rCal : calHome.getChildren()) {
+                if (rCal instanceof CalendarResource) {
+                    CalendarResource cal = (CalendarResource) rCal;
+                    for (Resource rEvent : cal.getChildren()) {
+                        if (rEvent instanceof ICalResource) {
+                            String href = homeHref + cal.getName() + "/" + rEvent.getName();
+                            home.put(parse(href, (ICalResource) rEvent));
+                        }
+                    }
+                }
+            }
+        } finally {
+            synchronized (this) {
+                loading.remove(home);
+            }
+        }
+        log.info("loadHome: host={} href={} events={}", host, homeHref, home.entries.size());
+        synchronized (this) {
+            if (home.stale) {
+                log.info("loadHome: calendars changed while loading, so not keeping: {}", homeHref);
+                return home;
+            }
+            Map<String, Home> byHost = homes.get(homeHref);
+            if (byHost == null) {
+                byHost = new ConcurrentHashMap<String, Home>();
+                homes.put(homeHref, byHost);
+            }
+            Home previous = byHost.put(host, home);
+            Attendees attendees = attendees(host);
+            if (previous != null) {
+                for (Entry e : previous.entries.values()) {
+                    attendees.remove(e);
+                }
+            }
+            for (Entry e : home.entries.values()) {
+                attendees.add(e);
+            }
+        }
+        return home;
+    }
+
+    /**
+     * Call before loading all calendar homes for a host, so that the attendee
+     * index can be marked as complete afterwards
+     *
+     * @param host
+     * @return - a token to pass to setComplete
+     */
+    public synchronized long beginLoadAll(String host) {
+        return attendees(host).generation;
+    }
+
+    /**
+     * Mark the attendee index for the host as complete, unless calendar homes
+     * have been dropped or created since beginLoadAll
+     *
+     * @param host
+     * @param token
+     */
+    public synchronized void setComplete(String host, long token) {
+        Attendees a = attendees(host);
+        if (a.generation == token) {
+            a.completedAt = System.currentTimeMillis();
+            a.complete = true;
+        }
+    }
+
+    /**
+     *
+     * @param host
+     * @param user - the user portion of the attendee's mailto address
+     * @return - hrefs of events the user is an attendee of, or null if not all
+     * calendar homes for the host are loaded
+     */
+    public List<String> getAttendeeEventHrefs(String host, String user) {
+        Attendees a = completeAttendees(host);
+        return a == null ? null : hrefs(a.byAttendee, user);
+    }
+
+    /**
+     *
+     * @param host
+     * @param user - the user portion of the organizer's mailto address
+     * @return - hrefs of events the user is the organizer of, or null if not
+     * all calendar homes for the host are loaded
+     */
+    public List<String> getOrganizerEventHrefs(String host, String user) {
+        Attendees a = completeAttendees(host);
+        return a == null ? null : hrefs(a.byOrganizer, user);
+    }
+
+    private Attendees completeAttendees(String host) {
+        Attendees a = attendeesByHost.get(host);
+        if (a == null || !a.complete) {
+            return null;
+        }
+        if (maxAgeMillis > 0 && a.completedAt + maxAgeMillis < System.currentTimeMillis()) {
+            return null;
+        }
+        return a;
+    }
+
+    private static List<String> hrefs(Map<String, Set<String>> byUser, String user) {
+        Set<String> hrefs = byUser.get(user);
+        if (hrefs == null) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<String>(hrefs);
+    }
+
+    /**
+     * Drop everything
+     */
+    public synchronized void clear() {
+        for (Home home : loading) {
+            home.stale = true;
+        }
+        homes.clear();
+        for (Attendees a : attendeesByHost.values()) {
+            a.clear();
+            incomplete(a);
+        }
+    }
+
+    @Override
+    public void onEvent(Event e) {
+        Request request = HttpManager.request();
+        if (request == null) {
+            onEventWithoutRequest(e);
+            return;
+        }
+        String host = request.getHostHeader();
+        String path = HttpManager.decodeUrl(request.getAbsolutePath());
+        if (e instanceof PutEvent) {
+            Resource r = ((PutEvent) e).getResource();
+            if (r instanceof ICalResource && path.endsWith("/" + r.getName())) {
+                put(host, path, (ICalResource) r);
+            } else {
+                invalidate(path);
+            }
+        } else if (e instanceof DeleteEvent) {
+            remove(host, path);
+        } else {
+            invalidate(path);
+            String dest = request.getDestinationHeader();
+            if (dest != null) {
+                invalidate(HttpManager.decodeUrl(AbstractRequest.stripToPath(dest)));
+            }
+        }
+    }
+
+    /**
+     * We don't know the host, so drop the calendar homes containing the
+     * resource for all hosts
+     */
+    private void onEventWithoutRequest(Event e) {
+        String href = e instanceof ResourceEvent ? hrefOf(((ResourceEvent) e).getResource()) : null;
+        if (href == null) {
+            // we don't know where the change was, so can't trust anything
+            log.warn("onEvent: no current request, and couldnt find the href of the resource, so dropping all calendar homes: {}", e.getClass());
+            clear();
+            return;
+        }
+        invalidate(strip(href));
+        if (e instanceof MoveEvent) {
+            MoveEvent me = (MoveEvent) e;
+            String destHref = hrefOf(me.getDestCollection());
+            if (destHref == null || me.getNewName() == null) {
+                log.warn("onEvent: no current request, and couldnt find the destination of the move, so dropping all calendar homes");
+                clear();
+            } else {
+                invalidate(folder(destHref) + me.getNewName());
+            }
+        }
+    }
+
+    private synchronized void put(String host, String path, ICalResource r) {
+        stale(path);
+        boolean found = false;
+        Entry entry = null;
+        for (String homeHref : parents(path)) {
+            Map<String, Home> byHost = homes.get(homeHref);
+            if (byHost == null) {
+                continue;
+            }
+            for (Home home : new ArrayList<Home>(byHost.values())) {
+                // only events directly in a calendar in the home are indexed
+                if (home.host.equals(host) && path.indexOf('/', homeHref.length()) == path.lastIndexOf('/')) {
+                    if (entry == null) {
+                        entry = parse(path, r);
+                    }
+                    Attendees attendees = attendees(host);
+                    Entry previous = home.put(entry);
+                    if (previous != null) {
+                        attendees.remove(previous);
+                    }
+                    attendees.add(entry);
+                    found = true;
+                } else {
+                    drop(home);
+                }
+            }
+        }
+        if (!found) {
+            // might be in a calendar home which didn't exist when we loaded, so
+            // the attendee index can't be complete
+            for (Attendees a : attendeesByHost.values()) {
+                incomplete(a);
+            }
+        }
+    }
+
+    private synchronized void remove(String host, String path) {
+        stale(path);
+        for (String homeHref : parents(path)) {
+            Map<String, Home> byHost = homes.get(homeHref);
+            if (byHost == null) {
+                continue;
+            }
+            for (Home home : new ArrayList<Home>(byHost.values())) {
+                if (home.host.equals(host)) {
+                    Attendees attendees = attendees(host);
+                    Entry removed = home.remove(path);
+                    if (removed != null) {
+                        attendees.remove(removed);
+                    }
+                    // and anything in it, if it was a calendar
+                    for (Entry e : home.removeWithin(folder(path))) {
+                        attendees.remove(e);
+                    }
+                } else {
+                    drop(home);
+                }
+            }
+        }
+        // deleting a user or calendar home
+        dropWithin(path);
+    }
+
+    private synchronized void invalidate(String path) {
+        stale(path);
+        for (String homeHref : parents(path)) {
+            Map<String, Home> byHost = homes.get(homeHref);
+            if (byHost != null) {
+                for (Home home : new ArrayList<Home>(byHost.values())) {
+                    drop(home);
+                }
+            }
+        }
+        dropWithin(path);
+    }
+
+    /**
+     * Mark calendar homes being loaded which contain the path, or are within
+     * it, as stale
+     */
+    private void stale(String path) {
+        String prefix = folder(path);
+        for (Home home : loading) {
+            if (path.startsWith(home.href) || home.href.startsWith(prefix)) {
+                home.stale = true;
+            }
+        }
+    }
+
+    private void dropWithin(String path) {
+        String prefix = folder(path);
+        for (Map<String, Home> byHost : new ArrayList<Map<String, Home>>(homes.values())) {
+            for (Home home : new ArrayList<Home>(byHost.values())) {
+                if (home.href.startsWith(prefix)) {
+                    drop(home);
+                }
+            }
+        }
+    }
+
+    private void drop(Home home) {
+        log.trace("drop: {} {}", home.host, home.href);
+        Map<String, Home> byHost = homes.get(home.href);
+        if (byHost != null && byHost.remove(home.host, home)) {
+            if (byHost.isEmpty()) {
+                homes.remove(home.href, byHost);
+            }
+            unindex(home);
+        }
+    }
+
+    /**
+     * Remove the home's events from the attendee index for its host, which is
+     * then no longer complete
+     */
+    private void unindex(Home home) {
+        Attendees attendees = attendeesByHost.get(home.host);
+        if (attendees != null) {
+            for (Entry e : home.entries.values()) {
+                attendees.remove(e);
+            }
+            incomplete(attendees);
+        }
+    }
+
+    private void incomplete(Attendees a) {
+        a.generation = ++generations;
+        a.complete = false;
+    }
+
+    private Attendees attendees(String host) {
+        Attendees a = attendeesByHost.get(host);
+        if (a == null) {
+            a = new Attendees();
+            a.generation = ++generations;
+            attendeesByHost.put(host, a);
+        }
+        return a;
+    }
+
+    private Entry parse(String href, ICalResource r) {
+        EventResource event;
+        if (r instanceof EventResource) {
+            event = (EventResource) r;
+        } else {
+            event = new EventResourceImpl();
+            try {
+                formatter.parseEvent(event, r);
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            } catch (ParserException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+        List<String> users = new ArrayList<String>();
+        for (String mailto : formatter.parseAttendees(r)) {
+            String user = user(mailto, href);
+            if (user != null) {
+                users.add(user);
+            }
+        }
+        String organizer = user(formatter.parseOrganizer(r.getICalData()), href);
+        long start = event.getStart() == null ? Long.MIN_VALUE : event.getStart().getTime();
+        long end = event.getEnd() == null ? start : event.getEnd().getTime();
+        return new Entry(href, start, end, users.toArray(new String[users.size()]), organizer);
+    }
+
+    private static String user(String mailto, String href) {
+        if (mailto == null) {
+            return null;
+        }
+        try {
+            return MailboxAddress.parse(mailto).user;
+        } catch (IllegalArgumentException ex) {
+            log.warn("Couldnt parse mailto: " + mailto + " in " + href);
+            return null;
+        }
+    }
+
+    /**
+     * The folder paths containing the given path, eg /users/ and /users/joe/
+     * for /users/joe/cals
+     */
+    private static List<String> parents(String path) {
+        List<String> list = new ArrayList<String>();
+        int pos = path.indexOf('/');
+        while (pos >= 0 && pos < path.length() - 1) {
+            list.add(path.substring(0, pos + 1));
+            pos = path.indexOf('/', pos + 1);
+        }
+        return list;
+    }
+
+    private static String hrefOf(Resource r) {
+        if (r instanceof AnnoResource) {
+            return ((AnnoResource) r).getHref();
+        }
+        return null;
+    }
+
+    private static String strip(String href) {
+        return href.length() > 1 && href.endsWith("/") ? href.substring(0, href.length() - 1) : href;
+    }
+
+    private static String folder(String href) {
+        return href.endsWith("/") ? href : href + "/";
+    }
+
+    /**
+     * An indexed event
+     */
+    public static class Entry {
+
+        private final String href;
+        private final long start;
+        private final long end;
+        private final String[] attendees;
+        private final String organizer;
+
+        Entry(String href, long start, long end, String[] attendees, String organizer) {
+            this.href = href;
+            this.start = start;
+            this.end = end;
+            this.attendees = attendees;
+            this.organizer = organizer;
+        }
+
+        public String getHref() {
+            return href;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        /**
+         * @return - the user portion of the organizer's mailto, or null
+         */
+        public String getOrganizer() {
+            return organizer;
+        }
+    }
+
+    /**
+     * The indexed events in a calendar home
+     */
+    public static class Home {
+
+        private static final Comparator<Entry> START_ORDER = new Comparator<Entry>() {
+            @Override
+            public int compare(Entry e1, Entry e2) {
+                if (e1.start != e2.start) {
+                    return e1.start < e2.start ? -1 : 1;
+                }
+                return e1.href.compareTo(e2.href);
+            }
+        };
+
+        private final String host;
+        private final String href;
+        private final ConcurrentSkipListMap<String, Entry> entries = new ConcurrentSkipListMap<String, Entry>();
+        private final ConcurrentSkipListSet<Entry> byStart = new ConcurrentSkipListSet<Entry>(START_ORDER);
+        private final long loadedAt = System.currentTimeMillis();
+        /**
+         * Set if the calendars changed while this was being loaded
+         */
+        private boolean stale;
+
+        Home(String host, String href) {
+            this.host = host;
+            this.href = href;
+        }
+
+        /**
+         * As for CalendarSearchService.findCalendarResources, events are
+         * in range if they start and end within it
+         *
+         * @param start - may be null
+         * @param end - may be null
+         * @return
+         */
+        public List<Entry> findContained(java.util.Date start, java.util.Date end) {
+            long s = start == null ? Long.MIN_VALUE : start.getTime();
+            long f = end == null ? Long.MAX_VALUE : end.getTime();
+            NavigableSet<Entry> starting;
+            if (f == Long.MAX_VALUE) {
+                starting = byStart.tailSet(bound(s), true);
+            } else {
+                starting = byStart.subSet(bound(s), true, bound(f + 1), false);
+            }
+            List<Entry> list = new ArrayList<Entry>();
+            for (Entry e : starting) {
+                if (e.end <= f) {
+                    list.add(e);
+                }
+            }
+            return list;
+        }
+
+        Entry put(Entry e) {
+            Entry previous = entries.put(e.href, e);
+            if (previous != null) {
+                byStart.remove(previous);
+            }
+            byStart.add(e);
+            return previous;
+        }
+
+        Entry remove(String href) {
+            Entry removed = entries.remove(href);
+            if (removed != null) {
+                byStart.remove(removed);
+            }
+            return removed;
+        }
+
+        /**
+         * Remove the entries with hrefs starting with the given prefix
+         */
+        List<Entry> removeWithin(String prefix) {
+            List<Entry> removed = new ArrayList<Entry>();
+            Iterator<Entry> it = entries.subMap(prefix, prefix + Character.MAX_VALUE).values().iterator();
+            while (it.hasNext()) {
+                Entry e = it.next();
+                it.remove();
+                byStart.remove(e);
+                removed.add(e);
+            }
+            return removed;
+        }
+
+        /**
+         * An entry which sorts before any others starting at the given time
+         */
+        private static Entry bound(long start) {
+            return new Entry("", start, start, new String[0], null);
+        }
+
+        public int size() {
+            return entries.size();
+        }
+    }
+
+    /**
+     * The events each user is an attendee or organizer of, for a host
+     */
+    private static class Attendees {
+
+        private final Map<String, Set<String>> byAttendee = new ConcurrentHashMap<String, Set<String>>();
+        private final Map<String, Set<String>> byOrganizer = new ConcurrentHashMap<String, Set<String>>();
+        private volatile boolean complete;
+        private volatile long completedAt;
+        private long generation;
+
+        void add(Entry e) {
+            for (String user : e.attendees) {
+                add(byAttendee, user, e.href);
+            }
+            if (e.organizer != null) {
+                add(byOrganizer, e.organizer, e.href);
+            }
+        }
+
+        void remove(Entry e) {
+            for (String user : e.attendees) {
+                remove(byAttendee, user, e.href);
+            }
+            if (e.organizer != null) {
+                remove(byOrganizer, e.organizer, e.href);
+            }
+        }
+
+        void clear() {
+            byAttendee.clear();
+            byOrganizer.clear();
+        }
+
+        private static void add(Map<String, Set<String>> byUser, String user, String href) {
+            Set<String> hrefs = byUser.get(user);
+            if (hrefs == null) {
+                hrefs = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                byUser.put(user, hrefs);
+            }
+            hrefs.add(href);
+        }
+
+        private static void remove(Map<String, Set<String>> byUser, String user, String href) {
+            Set<String> hrefs = byUser.get(user);
+            if (hrefs != null) {
+                hrefs.remove(href);
+                if (hrefs.isEmpty()) {
+                    byUser.remove(user);
+                }
+            }
+        }
+    }
+}
@@ -72,6 +72,7 @@ public class CalDavProtocol implements HttpExtension, PropertySource, WellKnownH
     //private final PropertyMap propertyMapDav;
     private final CalendarSearchService calendarSearchService;
     private final List<CustomPostHandler> customPostHandlers;
+    private final CalendarQueryReport calendarQueryReport;
     private ResourceFactory resourceFactory;
 
     public CalDavProtocol(ResourceFactory resourceFactory, WebDavResponseHandler responseHandler, HandlerHelper handlerHelper, WebDavProtocol webDavProtocol, PropFindXmlGenerator gen, PropFindPropertyBuilder propertyBuilder, CalendarSearchService calendarSearchService) {
@@ -116,12 +117,17 @@ public class CalDavProtocol implements HttpExtension, PropertySource, WellKnownH
         webDavProtocol.addReport(new ACLPrincipalPropSetReport());
         webDavProtocol.addReport(new PrincipalMatchReport());
         //webDavProtocol.addReport(new ExpandPropertyReport());
-        webDavProtocol.addReport(new CalendarQueryReport(propertyBuilder, gen, calendarSearchService));
+        calendarQueryReport = new CalendarQueryReport(propertyBuilder, gen, calendarSearchService);
+        webDavProtocol.addReport(calendarQueryReport);
 
         customPostHandlers = Collections.EMPTY_LIST;
 
     }
 
+    public CalendarQueryReport getCalendarQueryReport() {
+        return calendarQueryReport;
+    }
+
     @Override
     public Set<Handler> getHandlers() {
         return Collections.unmodifiableSet(handlers);
@@ -7,6 +7,7 @@ package io.milton.http.caldav;
 import io.milton.http.DateUtils;
 import io.milton.http.DateUtils.DateParseException;
 import io.milton.http.HttpManager;
+import io.milton.http.Response;
 import io.milton.common.Utils;
 import io.milton.http.exceptions.BadRequestException;
 import io.milton.http.exceptions.NotAuthorizedException;
@@ -24,6 +25,7 @@ import io.milton.resource.Resource;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import javax.xml.namespace.QName;
@@ -47,6 +49,7 @@ public class CalendarQueryReport implements QualifiedReport {
     private final CalendarSearchService calendarSearchService;
     private final Namespace NS_DAV = Namespace.getNamespace(WebDavProtocol.NS_DAV.getPrefix(), WebDavProtocol.NS_DAV.getName());
     private final Namespace NS_CAL = Namespace.getNamespace("C", CalDavProtocol.CALDAV_NS);
+    private int maxResults;
 
     public CalendarQueryReport(PropFindPropertyBuilder propertyBuilder, PropFindXmlGenerator xmlGenerator, CalendarSearchService calendarSearchService) {
         this.propertyBuilder = propertyBuilder;
@@ -78,23 +81,34 @@ public class CalendarQueryReport implements QualifiedReport {
 
         if (resource instanceof CalendarResource) {
             CalendarResource calendar = (CalendarResource) resource;
-            List<ICalResource> foundResources = findCalendarResources(calendar, doc);
-            if (foundResources != null) {
-                log.trace("foundResources: " + foundResources.size());
-            } else {
-                log.trace("foundResources: null");
-            }
+            int limit = getLimit(doc);
+            Iterator<ICalResource> foundResources = findCalendarResources(calendar, doc);
             String parentHref = HttpManager.request().getAbsolutePath();
             parentHref = Utils.suffixSlash(parentHref);
-            for (ICalResource cr : foundResources) {
-                String href = parentHref + cr.getName();
-                //List<PropFindResponse> resps = propertyBuilder.buildProperties(calendar, 0, parseResult, href);
+            int count = 0;
+            try {
+                while (foundResources.hasNext()) {
+                    if (limit > 0 && count >= limit) {
+                        // RFC 5323 5.17 - the results have been truncated
+                        log.info("process: truncated calendar-query results at: " + limit);
+                        respProps.add(new PropFindResponse(parentHref, Response.Status.SC_INSUFFICIENT_STORAGE));
+                        break;
+                    }
+                    ICalResource cr = foundResources.next();
+                    String href = parentHref + cr.getName();
+                    //List<PropFindResponse> resps = propertyBuilder.buildProperties(calendar, 0, parseResult, href);
 
-                List<PropFindResponse> resps = new ArrayList<PropFindResponse>();
-                propertyBuilder.processResource(resps, cr, parseResult, href, 0, 0, href);
+                    List<PropFindResponse> resps = new ArrayList<PropFindResponse>();
+                    propertyBuilder.processResource(resps, cr, parseResult, href, 0, 0, href);
 
-                respProps.addAll(resps);
+                    respProps.addAll(resps);
+                    count++;
+                }
+            } catch (LazyIterator.IterationException ex) {
+                // finding the next event failed, eg not authorised for it
+                ex.rethrow();
             }
+            log.trace("foundResources: " + count);
         } else {
             throw new BadRequestException(resource, "Resource is not a " + CalendarResource.class.getCanonicalName() + " is a: " + resource.getClass());
         }
@@ -104,7 +118,29 @@ public class CalendarQueryReport implements QualifiedReport {
     }
 
 
-    private List<ICalResource> findCalendarResources(CalendarResource calendar, Document doc) throws NotAuthorizedException, BadRequestException {
+    /**
+     * The maximum number of results to return, from the request's limit
+     * element and maxResults, or zero if unlimited
+     */
+    private int getLimit(Document doc) throws BadRequestException {
+        int limit = maxResults;
+        Element elLimit = ReportUtils.find(doc.getRootElement(), "limit", null);
+        Element elResults = elLimit == null ? null : ReportUtils.find(elLimit, "nresults", null);
+        if (elResults != null) {
+            int requested;
+            try {
+                requested = Integer.parseInt(elResults.getTextTrim());
+            } catch (NumberFormatException ex) {
+                throw new BadRequestException("Invalid nresults in calendar-query: " + elResults.getTextTrim());
+            }
+            if (requested > 0 && (limit <= 0 || requested < limit)) {
+                limit = requested;
+            }
+        }
+        return limit;
+    }
+
+    private Iterator<ICalResource> findCalendarResources(CalendarResource calendar, Document doc) throws NotAuthorizedException, BadRequestException {
         Date start;
         Date end;
         AbstractMap.SimpleImmutableEntry<String, String> propFilter = null;
@@ -154,9 +190,23 @@ public class CalendarQueryReport implements QualifiedReport {
             }
         }
         log.info("Search calendar resources. Start=" + start + " End:" + end);
-        return calendarSearchService.findCalendarResources(calendar, start, end, propFilter);
+        return calendarSearchService.iterateCalendarResources(calendar, start, end, propFilter);
 
     }
 
+    public int getMaxResults() {
+        return maxResults;
+    }
+
+    /**
+     * The most results a calendar-query will return, whatever the client asks
+     * for. If there are more a 507 response is included for the calendar, as
+     * for a limit in the request. Zero (the default) means no limit
+     *
+     * @param maxResults
+     */
+    public void setMaxResults(int maxResults) {
+        this.maxResults = maxResults;
+    }
 
 }
@@ -0,0 +1,405 @@
+/*
+ * Copyright 2013 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.http.caldav;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import io.milton.http.exceptions.BadRequestException;
+import io.milton.http.exceptions.NotAuthorizedException;
+import io.milton.resource.CalendarResource;
+import io.milton.resource.ICalResource;
+import io.milton.resource.Resource;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import net.fortuna.ical4j.data.ParserException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Indexes the start and end dates of the events in calendars, so that
+ * calendar-query time range searches don't need to parse every event in the
+ * calendar.
+ *
+ * The index for a calendar is keyed on its unique id and is only trusted while
+ * the calendar's CTag is unchanged. When the CTag changes the calendar's
+ * children are listed again, but only events whose unique id or modified date
+ * have changed are parsed. Calendars without a unique id are not indexed.
+ *
+ * Indexed calendars are held in a Store, which by default is a bounded in
+ * memory map. Implement Store to persist them.
+ *
+ * Note that, as for DefaultCalendarSearchService, an event is in a range if its
+ * start and end (of the master event) are within the range.
+ *
+ * @author brad
+ */
+public class CalendarTimeRangeIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(CalendarTimeRangeIndex.class);
+
+    /**
+     * Holds indexed calendars, keyed on the calendar's unique id
+     */
+    public interface Store {
+
+        IndexedCalendar get(String calendarId);
+
+        void put(String calendarId, IndexedCalendar indexedCalendar);
+    }
+
+    /**
+     * Default store, holds the most recently used calendars in memory
+     */
+    public static class MemoryStore implements Store {
+
+        private final Map<String, IndexedCalendar> map;
+
+        public MemoryStore(int maxCalendars) {
+            map = new ConcurrentLinkedHashMap.Builder<String, IndexedCalendar>()
+                    .maximumWeightedCapacity(maxCalendars)
+                    .build();
+        }
+
+        @Override
+        public IndexedCalendar get(String calendarId) {
+            return map.get(calendarId);
+        }
+
+        @Override
+        public void put(String calendarId, IndexedCalendar indexedCalendar) {
+            map.put(calendarId, indexedCalendar);
+        }
+    }
+
+    private final ICalFormatter formatter;
+    private final Store store;
+
+    public CalendarTimeRangeIndex(ICalFormatter formatter, int maxCalendars) {
+        this(formatter, new MemoryStore(maxCalendars));
+    }
+
+    public CalendarTimeRangeIndex(ICalFormatter formatter, Store store) {
+        this.formatter = formatter;
+        this.store = store;
+    }
+
+    /**
+     * Find events in the calendar which start on or after start and end on or
+     * before end
+     *
+     * @param calendar
+     * @param start - may be null
+     * @param end - may be null
+     * @return - matching events, ordered by start date
+     * @throws NotAuthorizedException
+     * @throws BadRequestException
+     */
+    public List<ICalResource> find(CalendarResource calendar, Date start, Date end) throws NotAuthorizedException, BadRequestException {
+        long qStart = start == null ? Long.MIN_VALUE : start.getTime();
+        long qEnd = end == null ? Long.MAX_VALUE : end.getTime();
+        String calendarId = calendar.getUniqueId();
+        String ctag = calendar.getCTag();
+        IndexedCalendar ic = calendarId == null ? null : store.get(calendarId);
+        if (ic != null && ctag != null && ctag.equals(ic.ctag)) {
+            List<ICalResource> list = locate(calendar, ic.findContained(qStart, qEnd));
+            if (list != null) {
+                return list;
+            }
+            log.info("find: indexed event is missing, so rebuild index for calendar: {}", calendar.getName());
+        }
+        // CTag has changed (or we have no index) so list children and re-index changed ones
+        Map<String, ICalResource> events = new HashMap<String, ICalResource>();
+        for (Resource r : calendar.getChildren()) {
+            if (r instanceof ICalResource) {
+                events.put(r.getName(), (ICalResource) r);
+            }
+        }
+        ic = index(ctag, events, ic);
+        if (calendarId != null) {
+            store.put(calendarId, ic);
+        }
+        List<ICalResource> list = new ArrayList<ICalResource>();
+        for (String name : ic.findContained(qStart, qEnd)) {
+            list.add(events.get(name));
+        }
+        return list;
+    }
+
+    /**
+     * As for find, but if the index is current events are only located in the
+     * calendar as the iterator advances, so callers which stop early don't
+     * load every matching event. Events which have been removed since the
+     * index was built are skipped
+     *
+     * @param calendar
+     * @param start - may be null
+     * @param end - may be null
+     * @return - matching events, ordered by start date
+     * @throws NotAuthorizedException
+     * @throws BadRequestException
+     */
+    public Iterator<ICalResource> iterate(final CalendarResource calendar, Date start, Date end) throws NotAuthorizedException, BadRequestException {
+        String calendarId = calendar.getUniqueId();
+        String ctag = calendar.getCTag();
+        IndexedCalendar ic = calendarId == null ? null : store.get(calendarId);
+        if (ic == null || ctag == null || !ctag.equals(ic.ctag)) {
+            return find(calendar, start, end).iterator();
+        }
+        long qStart = start == null ? Long.MIN_VALUE : start.getTime();
+        long qEnd = end == null ? Long.MAX_VALUE : end.getTime();
+        final Iterator<String> names = ic.findContained(qStart, qEnd).iterator();
+        return new LazyIterator<ICalResource>() {
+            @Override
+            protected ICalResource computeNext() throws NotAuthorizedException, BadRequestException {
+                while (names.hasNext()) {
+                    String name = names.next();
+                    Resource r = calendar.child(name);
+                    if (r instanceof ICalResource) {
+                        return (ICalResource) r;
+                    }
+                    log.info("iterate: indexed event is missing: {}", name);
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Build a new index for the given events, reusing entries from the
+     * previous index for events which have not changed
+     */
+    IndexedCalendar index(String ctag, Map<String, ICalResource> events, IndexedCalendar previous) throws BadRequestException {
+        List<Entry> entries = new ArrayList<Entry>(events.size());
+        int parsed = 0;
+        for (Map.Entry<String, ICalResource> e : events.entrySet()) {
+            ICalResource r = e.getValue();
+            String version = version(r);
+            Entry existing = previous == null ? null : previous.get(e.getKey());
+            if (existing != null && version != null && version.equals(existing.version)) {
+                entries.add(existing);
+            } else {
+                entries.add(parse(e.getKey(), version, r));
+                parsed++;
+            }
+        }
+        if (log.isTraceEnabled()) {
+            log.trace("index: events=" + entries.size() + " parsed=" + parsed);
+        }
+        return new IndexedCalendar(ctag, entries);
+    }
+
+    private Entry parse(String name, String version, ICalResource r) throws BadRequestException {
+        EventResource event;
+        if (r instanceof EventResource) {
+            event = (EventResource) r;
+        } else {
+            event = new EventResourceImpl();
+            try {
+                formatter.parseEvent(event, r);
+            } catch (IOException ex) {
+                throw new BadRequestException("Couldnt read event: " + name, ex);
+            } catch (ParserException ex) {
+                throw new BadRequestException("Couldnt parse event: " + name, ex);
+            }
+        }
+        long start = event.getStart() == null ? Long.MIN_VALUE : event.getStart().getTime();
+        long end = event.getEnd() == null ? start : Math.max(start, event.getEnd().getTime());
+        return new Entry(name, version, start, end);
+    }
+
+    /**
+     * Identifies the version of an event, so we know if it needs to be parsed
+     * again. Null means it must always be parsed
+     */
+    private String version(ICalResource r) {
+        String id = r.getUniqueId();
+        Date mod = r.getModifiedDate();
+        if (id == null || mod == null) {
+            return null;
+        }
+        return id + "_" + mod.getTime();
+    }
+
+    /**
+     * Get the named events from the calendar, or null if any are missing. A
+     * single event is looked up with child, otherwise the calendar's children
+     * are listed once rather than looking up each event
+     */
+    private List<ICalResource> locate(CalendarResource calendar, List<String> names) throws NotAuthorizedException, BadRequestException {
+        List<ICalResource> list = new ArrayList<ICalResource>(names.size());
+        if (names.isEmpty()) {
+            return list;
+        }
+        if (names.size() == 1) {
+            Resource r = calendar.child(names.get(0));
+            if (!(r instanceof ICalResource)) {
+                return null;
+            }
+            list.add((ICalResource) r);
+            return list;
+        }
+        Map<String, ICalResource> children = new HashMap<String, ICalResource>();
+        for (Resource r : calendar.getChildren()) {
+            if (r instanceof ICalResource) {
+                children.put(r.getName(), (ICalResource) r);
+            }
+        }
+        for (String name : names) {
+            ICalResource r = children.get(name);
+            if (r == null) {
+                return null;
+            }
+            list.add(r);
+        }
+        return list;
+    }
+
+    /**
+     * Start and end of an event, and the version it was parsed from
+     */
+    public static class Entry implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+        final String name;
+        final String version;
+        final long start;
+        final long end;
+
+        Entry(String name, String version, long start, long end) {
+            this.name = name;
+            this.version = version;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * The index for a single calendar, as at a CTag. This is an interval tree
+     * held in arrays: entries are sorted by start date, the tree for a range
+     * of the array is rooted at its middle element, and maxEnd holds the
+     * latest end date within each subtree. Immutable once built.
+     */
+    public static class IndexedCalendar implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+        private final String ctag;
+        private final Entry[] entries;
+        private final long[] maxEnd;
+        /**
+         * Built on first use. Volatile so that the fully built map is
+         * safely published to other threads sharing this index
+         */
+        private transient volatile Map<String, Entry> byName;
+
+        IndexedCalendar(String ctag, List<Entry> list) {
+            this.ctag = ctag;
+            this.entries = list.toArray(new Entry[list.size()]);
+            Arrays.sort(entries, new Comparator<Entry>() {
+                @Override
+                public int compare(Entry o1, Entry o2) {
+                    return Long.compare(o1.start, o2.start);
+                }
+            });
+            this.maxEnd = new long[entries.length];
+            computeMaxEnd(0, entries.length - 1);
+        }
+
+        public String getCtag() {
+            return ctag;
+        }
+
+        public int size() {
+            return entries.length;
+        }
+
+        Entry get(String name) {
+            Map<String, Entry> map = byName;
+            if (map == null) {
+                map = new HashMap<String, Entry>(entries.length * 2);
+                for (Entry e : entries) {
+                    map.put(e.name, e);
+                }
+                byName = map;
+            }
+            return map.get(name);
+        }
+
+        /**
+         *
+         * @return - names of events which overlap the given range, ordered by
+         * start
+         */
+        public List<String> findOverlapping(long start, long end) {
+            List<String> list = new ArrayList<String>();
+            overlapping(0, entries.length - 1, start, end, list, false);
+            return list;
+        }
+
+        /**
+         *
+         * @return - names of events which are within the given range, ordered
+         * by start
+         */
+        public List<String> findContained(long start, long end) {
+            if (start == Long.MIN_VALUE && end == Long.MAX_VALUE) {
+                List<String> list = new ArrayList<String>(entries.length);
+                for (Entry e : entries) {
+                    list.add(e.name);
+                }
+                return list;
+            }
+            List<String> list = new ArrayList<String>();
+            overlapping(0, entries.length - 1, start, end, list, true);
+            return list;
+        }
+
+        private long computeMaxEnd(int lo, int hi) {
+            if (lo > hi) {
+                return Long.MIN_VALUE;
+            }
+            int mid = (lo + hi) >>> 1;
+            long max = Math.max(entries[mid].end, Math.max(computeMaxEnd(lo, mid - 1), computeMaxEnd(mid + 1, hi)));
+            maxEnd[mid] = max;
+            return max;
+        }
+
+        private void overlapping(int lo, int hi, long start, long end, List<String> list, boolean contained) {
+            if (lo > hi) {
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            if (maxEnd[mid] < start) {
+                return; // nothing in this subtree ends after the range starts
+            }
+            overlapping(lo, mid - 1, start, end, list, contained);
+            Entry e = entries[mid];
+            if (e.start > end) {
+                return; // this and everything to the right starts after the range
+            }
+            if (e.end >= start && (!contained || (e.start >= start && e.end <= end))) {
+                list.add(e.name);
+            }
+            overlapping(mid + 1, hi, start, end, list, contained);
+        }
+    }
+}
@@ -27,7 +27,6 @@ import io.milton.resource.ICalResource;
 import io.milton.resource.Resource;
 import io.milton.resource.SchedulingResponseItem;
 import java.io.IOException;
-import java.io.StringReader;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Date;
@@ -35,10 +34,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
-import net.fortuna.ical4j.data.CalendarBuilder;
 import net.fortuna.ical4j.data.ParserException;
-import net.fortuna.ical4j.model.Calendar;
-import net.fortuna.ical4j.model.PropertyList;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -56,6 +52,8 @@ public class DefaultCalendarSearchService implements CalendarSearchService {
     private String inboxName = "inbox";
     private String outBoxName = "outbox";
     private String usersBasePath = "/users/";
+    private CalendarTimeRangeIndex timeRangeIndex;
+    private AttendeeIndex attendeeIndex;
 
     public DefaultCalendarSearchService(ICalFormatter formatter, ResourceFactory resourceFactory) {
         if (resourceFactory == null) {
@@ -72,45 +70,76 @@ public class DefaultCalendarSearchService implements CalendarSearchService {
     
     @Override
     public List<ICalResource> findCalendarResources(CalendarResource calendar, Date start, Date end, AbstractMap.SimpleImmutableEntry<String, String> propFilter) throws NotAuthorizedException, BadRequestException {
-        // build a list of all calendar resources
         List<ICalResource> list = new ArrayList<ICalResource>();
-        for (Resource r : calendar.getChildren()) {
-            if (r instanceof ICalResource) {
-                ICalResource cr = (ICalResource) r;
-                list.add(cr);
+        Iterator<ICalResource> it = iterateCalendarResources(calendar, start, end, propFilter);
+        try {
+            while (it.hasNext()) {
+                list.add(it.next());
             }
+        } catch (LazyIterator.IterationException ex) {
+            ex.rethrow();
         }
+        return list;
+    }
 
-        // So now we have (or might have) start and end dates, so filter list
-        Iterator<ICalResource> it = list.iterator();
-        while (it.hasNext()) {
-            ICalResource r = it.next();
-            if (outsideDates(r, start, end)) {
-                log.info("Not in range: " + r.getName());
-                it.remove();
+    /**
+     * Events are only parsed, to check dates and the property filter, as the
+     * iterator advances. If there is a time range index they are ordered by
+     * start date, otherwise they are in the order of the calendar's children
+     */
+    @Override
+    public Iterator<ICalResource> iterateCalendarResources(CalendarResource calendar, final Date start, final Date end, final AbstractMap.SimpleImmutableEntry<String, String> propFilter) throws NotAuthorizedException, BadRequestException {
+        final Iterator<ICalResource> candidates;
+        final boolean checkDates;
+        if (timeRangeIndex != null) {
+            candidates = timeRangeIndex.iterate(calendar, start, end);
+            checkDates = false;
+        } else {
+            // build a list of all calendar resources
+            List<ICalResource> list = new ArrayList<ICalResource>();
+            for (Resource r : calendar.getChildren()) {
+                if (r instanceof ICalResource) {
+                    ICalResource cr = (ICalResource) r;
+                    list.add(cr);
+                }
             }
-
-			StringReader sin = new StringReader(r.getICalData());
-			CalendarBuilder builder = new CalendarBuilder();
-			Calendar cal = null;
-
-			try {
-				cal = builder.build(sin);
-			} catch(IOException e) {
-				log.error("Exception building calendar from ics", e);
-			} catch(ParserException e) {
-				log.error("Unable to parse ics", e);
-			}
-
-			if (propFilter != null) {
-				if (!cal.getComponent("VEVENT").getProperty(propFilter.getKey()).getValue().equals(propFilter.getValue())) {
-					log.info("Event do not match properties filter");
-					it.remove();
-				}
-			}
+            candidates = list.iterator();
+            checkDates = true;
         }
-        return list;
+        return new LazyIterator<ICalResource>() {
+            @Override
+            protected ICalResource computeNext() {
+                while (candidates.hasNext()) {
+                    ICalResource r = candidates.next();
+                    // So now we have (or might have) start and end dates, so filter list
+                    if (checkDates && outsideDates(r, start, end)) {
+                        log.info("Not in range: " + r.getName());
+                        continue;
+                    }
+                    // Only parse the full calendar for events which are in range, and only if we need to
+                    if (propFilter != null && !matchesPropFilter(r, propFilter)) {
+                        log.info("Event do not match properties filter");
+                        continue;
+                    }
+                    return r;
+                }
+                return null;
+            }
+        };
+    }
 
+    private boolean matchesPropFilter(ICalResource r, AbstractMap.SimpleImmutableEntry<String, String> propFilter) {
+        ParsedICal parsed;
+        try {
+            parsed = formatter.parse(r);
+        } catch (IOException e) {
+            log.error("Exception building calendar from ics", e);
+            return false;
+        } catch (ParserException e) {
+            log.error("Unable to parse ics", e);
+            return false;
+        }
+        return propFilter.getValue().equals(parsed.getEventProperty(propFilter.getKey()));
     }
 
     private boolean outsideDates(ICalResource r, Date start, Date end) {
@@ -121,7 +150,7 @@ public class DefaultCalendarSearchService implements CalendarSearchService {
         } else {
             event = new EventResourceImpl();
             try {
-                formatter.parseEvent(event, r.getICalData());
+                formatter.parseEvent(event, r);
             } catch (IOException ex) {
                 throw new RuntimeException(ex);
             } catch (ParserException ex) {
@@ -190,8 +219,15 @@ public class DefaultCalendarSearchService implements CalendarSearchService {
      */
     @Override
     public List<ICalResource> findAttendeeResources(CalDavPrincipal user) throws NotAuthorizedException, BadRequestException {
-        List<ICalResource> list = new ArrayList<ICalResource>();
         String host = HttpManager.request().getHostHeader();
+        if (attendeeIndex != null) {
+            return findAttendeeResourcesIndexed(user, host);
+        }
+        return findAttendeeResourcesByScan(user, host);
+    }
+
+    private List<ICalResource> findAttendeeResourcesByScan(CalDavPrincipal user, String host) throws NotAuthorizedException, BadRequestException {
+        List<ICalResource> list = new ArrayList<ICalResource>();
         Resource rUsersHome = resourceFactory.getResource(host, usersBasePath);
         if( rUsersHome instanceof CollectionResource ) {
             CollectionResource usersHome = (CollectionResource) rUsersHome;
@@ -223,6 +259,48 @@ public class DefaultCalendarSearchService implements CalendarSearchService {
         return list;
     }
 
+    /**
+     * Find attendee events from the index, first loading all calendar homes
+     * into it if necessary
+     */
+    private List<ICalResource> findAttendeeResourcesIndexed(CalDavPrincipal user, String host) throws NotAuthorizedException, BadRequestException {
+        List<String> hrefs = attendeeIndex.getAttendeeEventHrefs(host, user.getName());
+        if (hrefs == null) {
+            long token = attendeeIndex.beginLoadAll(host);
+            Resource rUsersHome = resourceFactory.getResource(host, usersBasePath);
+            if (rUsersHome instanceof CollectionResource) {
+                CollectionResource usersHome = (CollectionResource) rUsersHome;
+                for (Resource rUser : usersHome.getChildren()) {
+                    if (rUser instanceof CalDavPrincipal) {
+                        CalDavPrincipal p = (CalDavPrincipal) rUser;
+                        for (String href : p.getCalendarHomeSet()) {
+                            if (attendeeIndex.getHome(host, href) == null) {
+                                Resource rCalHome = resourceFactory.getResource(host, href);
+                                if (rCalHome instanceof CollectionResource) {
+                                    attendeeIndex.loadHome(host, href, (CollectionResource) rCalHome);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+            attendeeIndex.setComplete(host, token);
+            hrefs = attendeeIndex.getAttendeeEventHrefs(host, user.getName());
+            if (hrefs == null) {
+                // calendars changed while loading, so fall back to a full search this time
+                return findAttendeeResourcesByScan(user, host);
+            }
+        }
+        List<ICalResource> list = new ArrayList<ICalResource>();
+        for (String href : hrefs) {
+            Resource r = resourceFactory.getResource(host, href);
+            if (r instanceof ICalResource) {
+                list.add((ICalResource) r);
+            }
+        }
+        return list;
+    }
+
     @Override
     public String findAttendeeResourcesCTag(CalDavPrincipal attendee) throws NotAuthorizedException, BadRequestException {
         Date latest = null;
@@ -299,6 +377,35 @@ public class DefaultCalendarSearchService implements CalendarSearchService {
         }
     }
 
+    public CalendarTimeRangeIndex getTimeRangeIndex() {
+        return timeRangeIndex;
+    }
+
+    /**
+     * If set, time range searches use the index instead of parsing every event
+     * in the calendar
+     *
+     * @param timeRangeIndex
+     */
+    public void setTimeRangeIndex(CalendarTimeRangeIndex timeRangeIndex) {
+        this.timeRangeIndex = timeRangeIndex;
+    }
+
+    public AttendeeIndex getAttendeeIndex() {
+        return attendeeIndex;
+    }
+
+    /**
+     * If set, free-busy queries and attendee searches use the index instead
+     * of scanning and parsing events. The index must be registered with the
+     * EventManager
+     *
+     * @param attendeeIndex
+     */
+    public void setAttendeeIndex(AttendeeIndex attendeeIndex) {
+        this.attendeeIndex = attendeeIndex;
+    }
+
     public String getUsersBasePath() {
         return usersBasePath;
     }
@@ -329,6 +436,26 @@ public class DefaultCalendarSearchService implements CalendarSearchService {
             if (log.isTraceEnabled()) {
                 log.trace("Look for calendar home: " + href);
             }
+            if (attendeeIndex != null) {
+                AttendeeIndex.Home home = attendeeIndex.getHome(domain, href);
+                if (home == null) {
+                    Resource rCalHome = resourceFactory.getResource(domain, href);
+                    if (rCalHome instanceof CollectionResource) {
+                        home = attendeeIndex.loadHome(domain, href, (CollectionResource) rCalHome);
+                    } else {
+                        log.warn("Didnt find calendar home: " + href + " in domain: " + domain);
+                        continue;
+                    }
+                }
+                for (AttendeeIndex.Entry e : home.findContained(start, finish)) {
+                    sb.append("FREEBUSY;FBTYPE=BUSY:");
+                    sb.append(formatter.formatDate(new Date(e.getStart())));
+                    sb.append("/");
+                    sb.append(formatter.formatDate(new Date(e.getEnd())));
+                    sb.append("\n");
+                }
+                continue;
+            }
             Resource rCalHome = resourceFactory.getResource(domain, href);
             if (rCalHome instanceof CollectionResource) {
                 CollectionResource calHome = (CollectionResource) rCalHome;
@@ -345,7 +472,7 @@ public class DefaultCalendarSearchService implements CalendarSearchService {
                             log.trace("Process event: " + event.getName());
                             EventResourceImpl er = new EventResourceImpl();
                             try {
-                                formatter.parseEvent(er, event.getICalData());
+                                formatter.parseEvent(er, event);
                             } catch (IOException ex) {
                                 throw new RuntimeException(ex);
                             } catch (ParserException ex) {
@@ -385,7 +512,7 @@ public class DefaultCalendarSearchService implements CalendarSearchService {
      * @return 
      */
     private boolean isAttendeeOf(CalDavPrincipal user, ICalResource event) {
-        for( String mailto : formatter.parseAttendees(event.getICalData()) ) {
+        for( String mailto : formatter.parseAttendees(event) ) {
             MailboxAddress add = MailboxAddress.parse(mailto);
             if( add.user.equals(user.getName())) {
                 return true;
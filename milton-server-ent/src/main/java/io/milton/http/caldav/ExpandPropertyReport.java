@@ -20,8 +20,12 @@ import io.milton.http.webdav.WebDavProtocol;
 import io.milton.resource.PropFindableResource;
 import io.milton.resource.Resource;
 import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import javax.xml.namespace.QName;
@@ -167,6 +171,7 @@ public class ExpandPropertyReport implements Report {
 			PropFindableResource pfr = (PropFindableResource) calendar;
 			propFindResponses = propertyBuilder.buildProperties(pfr, 1, parseResult, path);
 
+			Expansion expansion = new Expansion(host);
 			for (PropFindResponse r : propFindResponses) {
 				Set<Entry<QName, ValueAndType>> set = r.getKnownProperties().entrySet();
 				set = new HashSet<Entry<QName, ValueAndType>>(set);
@@ -176,13 +181,13 @@ public class ExpandPropertyReport implements Report {
 					if (val instanceof HrefList) {
 						HrefList hrefList = (HrefList) val;
 						Property prop = parseResult.get(name);
-						PropFindResponseList propFindResponseList = toResponseList(host, hrefList, prop);
-						replaceHrefs(host, propFindResponseList, prop);
+						PropFindResponseList propFindResponseList = expansion.toResponseList(hrefList, prop);
 						r.getKnownProperties().remove(name);
 						r.getKnownProperties().put(name, new ValueAndType(propFindResponseList, PropFindResponseList.class));
 					}
 				}
 			}
+			log.debug("process: resolved {} hrefs, built {} responses", expansion.resources.size(), expansion.built);
 		} catch (URISyntaxException ex) {
 			throw new RuntimeException("Exception parsing url, indicating the requested URL is not correctly encoded. Please check the client application.", ex);
 		}
@@ -241,43 +246,86 @@ public class ExpandPropertyReport implements Report {
 		return "expand-property";
 	}
 
-	private PropFindResponseList toResponseList(String host, HrefList hrefList, Property prop) throws URISyntaxException, NotAuthorizedException, BadRequestException {
-		PropFindResponseList list = new PropFindResponseList();
-		for (String href : hrefList) {
-			Resource r = resourceFactory.getResource(host, href);
-			if (r != null) {
-				if (r instanceof PropFindableResource) {
-					PropFindableResource pfr = (PropFindableResource) r;
-					PropertiesRequest propertyRequest = new PropertiesRequest(prop.getNested());
-					List<PropFindResponse> propFindResponses = propertyBuilder.buildProperties(pfr, 0, propertyRequest, href);
-					// should be only one
-					list.addAll(propFindResponses);
+	/**
+	 * State for expanding a single report. Clients commonly ask for the
+	 * members of groups and proxy lists, so the same principals turn up many
+	 * times, and each href is only resolved once, and each resource only has
+	 * its properties built (and expanded) once for each level of the request.
+	 *
+	 * Responses are shared wherever the href appears, which is fine because
+	 * they are only written.
+	 */
+	private class Expansion {
+
+		private final String host;
+		/**
+		 * Resolved resources, with null for hrefs which don't exist
+		 */
+		private final Map<String, Resource> resources = new HashMap<String, Resource>();
+		/**
+		 * Expanded responses for each href, for each requested property. The
+		 * Property objects come from the parsed request, so identity is fine
+		 */
+		private final Map<Property, Map<String, List<PropFindResponse>>> responses = new IdentityHashMap<Property, Map<String, List<PropFindResponse>>>();
+		private int built;
+
+		Expansion(String host) {
+			this.host = host;
+		}
+
+		PropFindResponseList toResponseList(HrefList hrefList, Property prop) throws URISyntaxException, NotAuthorizedException, BadRequestException {
+			Map<String, List<PropFindResponse>> memo = responses.get(prop);
+			if (memo == null) {
+				memo = new HashMap<String, List<PropFindResponse>>();
+				responses.put(prop, memo);
+			}
+			// resolve everything at this level before building any properties
+			for (String href : hrefList) {
+				if (!resources.containsKey(href)) {
+					resources.put(href, resourceFactory.getResource(host, href));
+				}
+			}
+			PropFindResponseList list = new PropFindResponseList();
+			for (String href : hrefList) {
+				List<PropFindResponse> propFindResponses = memo.get(href);
+				if (propFindResponses == null) {
+					propFindResponses = build(href, prop);
+					memo.put(href, propFindResponses);
 				}
+				list.addAll(propFindResponses);
 			}
+			return list;
 		}
-		return list;
-	}
 
-	private void replaceHrefs(String host, PropFindResponseList propFindResponseList, Property prop) throws URISyntaxException, NotAuthorizedException, BadRequestException {		
-		for (PropFindResponse r : propFindResponseList) {
-			Set<Entry<QName, ValueAndType>> set = r.getKnownProperties().entrySet();
-			set = new HashSet<Entry<QName, ValueAndType>>(set);
-			for (Entry<QName, ValueAndType> p : set) {
-				Object val = p.getValue().getValue();
-				QName name = p.getKey();
-				if (val instanceof HrefList) {
-					HrefList hrefList = (HrefList) val;
-					Property nestedProp = prop.getNestedMap().get(name);
-					// Check for another level of nesting
-					if (nestedProp != null && nestedProp.getNested() != null && !nestedProp.getNested().isEmpty())
-					{
-						PropFindResponseList nestedList = toResponseList(host, hrefList, nestedProp);
-						replaceHrefs(host, nestedList, nestedProp);
-						r.getKnownProperties().remove(name);
-						r.getKnownProperties().put(name, new ValueAndType(nestedList, PropFindResponseList.class));
+		private List<PropFindResponse> build(String href, Property prop) throws URISyntaxException, NotAuthorizedException, BadRequestException {
+			Resource r = resources.get(href);
+			if (!(r instanceof PropFindableResource)) {
+				return Collections.emptyList();
+			}
+			PropFindableResource pfr = (PropFindableResource) r;
+			PropertiesRequest propertyRequest = new PropertiesRequest(prop.getNested());
+			// should be only one
+			List<PropFindResponse> propFindResponses = propertyBuilder.buildProperties(pfr, 0, propertyRequest, href);
+			built++;
+			for (PropFindResponse resp : propFindResponses) {
+				Set<Entry<QName, ValueAndType>> set = resp.getKnownProperties().entrySet();
+				set = new HashSet<Entry<QName, ValueAndType>>(set);
+				for (Entry<QName, ValueAndType> p : set) {
+					Object val = p.getValue().getValue();
+					QName name = p.getKey();
+					if (val instanceof HrefList) {
+						HrefList nestedHrefs = (HrefList) val;
+						Property nestedProp = prop.getNestedMap().get(name);
+						// Check for another level of nesting
+						if (nestedProp != null && nestedProp.getNested() != null && !nestedProp.getNested().isEmpty()) {
+							PropFindResponseList nestedList = toResponseList(nestedHrefs, nestedProp);
+							resp.getKnownProperties().remove(name);
+							resp.getKnownProperties().put(name, new ValueAndType(nestedList, PropFindResponseList.class));
+						}
 					}
 				}
 			}
+			return propFindResponses;
 		}
 	}
 
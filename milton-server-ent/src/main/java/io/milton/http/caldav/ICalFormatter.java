@@ -6,6 +6,7 @@ package io.milton.http.caldav;
 
 import io.milton.http.exceptions.BadRequestException;
 import io.milton.http.exceptions.NotAuthorizedException;
+import io.milton.resource.ICalResource;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.text.ParseException;
@@ -41,30 +42,91 @@ public class ICalFormatter {
     // Changed T to space. removed trailing Z
     private static final String PATTERN_ICAL = "yyyyMMdd HHmmss";
 
+    private ParsedICalCache parsedCache;
+
     public ICalFormatter() {
     }
 
     public void parseEvent(EventResource r, String data) throws IOException, ParserException {
-        CalendarBuilder builder = new CalendarBuilder();
-        net.fortuna.ical4j.model.Calendar calendar = builder.build(new ByteArrayInputStream(data.getBytes("UTF-8")));
-        if (calendar == null) {
-            return;
+        parse(data).copyTo(r);
+    }
+
+    /**
+     * Parse the iCalendar data of the given resource into the EventResource,
+     * using the parsed cache if there is one
+     *
+     * @param r
+     * @param source
+     * @throws IOException
+     * @throws ParserException
+     */
+    public void parseEvent(EventResource r, ICalResource source) throws IOException, ParserException {
+        parse(source).copyTo(r);
+    }
+
+    /**
+     * Parse the iCalendar data of the given resource. If a ParsedICalCache
+     * has been set the result is cached on the resource's unique id and ETag
+     *
+     * @param source
+     * @return
+     * @throws IOException
+     * @throws ParserException
+     */
+    public ParsedICal parse(ICalResource source) throws IOException, ParserException {
+        ParsedICalCache cache = parsedCache;
+        String key = cache == null ? null : cache.key(source);
+        if (key != null) {
+            ParsedICal parsed = cache.get(key);
+            if (parsed != null) {
+                return parsed;
+            }
         }
-        VEvent ev = event(calendar);
-        if( ev == null) {
-            return ;
+        ParsedICal parsed = parse(source.getICalData());
+        if (key != null) {
+            cache.put(key, parsed);
         }
+        return parsed;
+    }
+
+    public ParsedICal parse(String data) throws IOException, ParserException {
+        CalendarBuilder builder = new CalendarBuilder();
+        net.fortuna.ical4j.model.Calendar calendar = builder.build(new ByteArrayInputStream(data.getBytes("UTF-8")));
         String summary = null;
-        if (ev.getSummary() != null) {
-            summary = ev.getSummary().getValue();
-        }
-        r.setSummary(summary);
-        r.setStart(ev.getStartDate().getDate());
+        Date startDate = null;
         Date endDate = null;
-        if (ev.getEndDate() != null) {
-            endDate = ev.getEndDate().getDate();
+        VEvent ev = calendar == null ? null : event(calendar);
+        if (ev != null) {
+            if (ev.getSummary() != null) {
+                summary = ev.getSummary().getValue();
+            }
+            startDate = ev.getStartDate().getDate();
+            if (ev.getEndDate() != null) {
+                endDate = ev.getEndDate().getDate();
+            }
+        }
+        return new ParsedICal(calendar, data.length(), summary, startDate, endDate, parseAttendees(data));
+    }
+
+    /**
+     * Return the attendee mailtos of the given resource, using the parsed cache
+     * if there is one
+     *
+     * @param source
+     * @return
+     */
+    public List<String> parseAttendees(ICalResource source) {
+        if (parsedCache == null) {
+            return parseAttendees(source.getICalData());
+        }
+        try {
+            return parse(source).getAttendees();
+        } catch (IOException ex) {
+            // attendees are found by scanning lines, so don't need a valid calendar
+            return parseAttendees(source.getICalData());
+        } catch (ParserException ex) {
+            return parseAttendees(source.getICalData());
         }
-        r.setEnd(endDate);
     }
 
     /**
@@ -90,6 +152,27 @@ public class ICalFormatter {
         return attendees;
     }
 
+    /**
+     * Return the organizer mailto of some sort of ical request
+     *
+     * @param data
+     * @return - the mailto, or null if there is no organizer
+     */
+    public String parseOrganizer(String data) {
+        String[] lines = toLines(data);
+        for (String line : lines) {
+            if (line != null && line.contains(":")) {
+                int pos = line.indexOf(":");
+                String key = line.substring(0, pos);
+                String val = line.substring(pos + 1);
+                if (key.equals("ORGANIZER") || key.startsWith("ORGANIZER;")) {
+                    return getMailTo(val);
+                }
+            }
+        }
+        return null;
+    }
+
     public FreeBusyRequest parseFreeBusyRequest(String data) {
         FreeBusyRequest r = new FreeBusyRequest();
         String[] lines = toLines(data);
@@ -246,6 +329,20 @@ public class ICalFormatter {
         return sb.toString();
     }
 
+    public ParsedICalCache getParsedCache() {
+        return parsedCache;
+    }
+
+    /**
+     * Optional cache of parsed iCalendar data, used by the methods which take
+     * an ICalResource
+     *
+     * @param parsedCache
+     */
+    public void setParsedCache(ParsedICalCache parsedCache) {
+        this.parsedCache = parsedCache;
+    }
+
     public class FreeBusyRequest {
 
         private Date start;
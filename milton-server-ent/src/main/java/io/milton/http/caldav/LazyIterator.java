@@ -0,0 +1,98 @@
+/*
+ * Copyright 2013 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.http.caldav;
+
+import io.milton.http.exceptions.BadRequestException;
+import io.milton.http.exceptions.NotAuthorizedException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An iterator which only finds each item when it is asked for, so work (eg
+ * parsing) is not done for items after the caller stops
+ *
+ * If finding an item fails with a NotAuthorizedException or
+ * BadRequestException, hasNext and next throw an IterationException, which
+ * callers should unwrap with rethrow so the client gets the right status
+ *
+ * @author brad
+ */
+abstract class LazyIterator<T> implements Iterator<T> {
+
+    private T next;
+    private boolean done;
+
+    /**
+     *
+     * @return - the next item, or null if there are no more
+     */
+    protected abstract T computeNext() throws NotAuthorizedException, BadRequestException;
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !done) {
+            try {
+                next = computeNext();
+            } catch (NotAuthorizedException ex) {
+                throw new IterationException(ex);
+            } catch (BadRequestException ex) {
+                throw new IterationException(ex);
+            }
+            done = next == null;
+        }
+        return next != null;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        T t = next;
+        next = null;
+        return t;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Carries a checked exception out of hasNext or next
+     */
+    static class IterationException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        IterationException(Exception cause) {
+            super(cause);
+        }
+
+        /**
+         * Throw the checked exception which caused this
+         *
+         * @throws NotAuthorizedException
+         * @throws BadRequestException
+         */
+        void rethrow() throws NotAuthorizedException, BadRequestException {
+            if (getCause() instanceof NotAuthorizedException) {
+                throw (NotAuthorizedException) getCause();
+            }
+            throw (BadRequestException) getCause();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2013 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.http.caldav;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.text.ParseException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.Component;
+import net.fortuna.ical4j.model.Property;
+
+/**
+ * The result of parsing the iCalendar text of a resource with ICalFormatter.
+ *
+ * Instances are immutable so they can be shared between requests by
+ * ParsedICalCache. Dates are copied on the way out, and the parsed ical4j
+ * calendar is only available as a copy
+ *
+ * @author brad
+ */
+public class ParsedICal {
+
+    private final Calendar calendar;
+    private final int sourceLength;
+    private final String summary;
+    private final Long start;
+    private final Long end;
+    private final List<String> attendees;
+
+    ParsedICal(Calendar calendar, int sourceLength, String summary, Date start, Date end, List<String> attendees) {
+        this.calendar = calendar;
+        this.sourceLength = sourceLength;
+        this.summary = summary;
+        this.start = start == null ? null : start.getTime();
+        this.end = end == null ? null : end.getTime();
+        this.attendees = Collections.unmodifiableList(attendees);
+    }
+
+    /**
+     *
+     * @return - the number of characters in the source text
+     */
+    public int getSourceLength() {
+        return sourceLength;
+    }
+
+    /**
+     *
+     * @return - true if the calendar has a VEVENT
+     */
+    public boolean isEvent() {
+        return event() != null;
+    }
+
+    public String getSummary() {
+        return summary;
+    }
+
+    public Date getStart() {
+        return start == null ? null : new Date(start);
+    }
+
+    public Date getEnd() {
+        return end == null ? null : new Date(end);
+    }
+
+    /**
+     *
+     * @return - the attendee mailtos, as for ICalFormatter.parseAttendees
+     */
+    public List<String> getAttendees() {
+        return attendees;
+    }
+
+    /**
+     * Get the value of a property of the VEVENT
+     *
+     * @param name
+     * @return - the value, or null if there is no such property or no VEVENT
+     */
+    public String getEventProperty(String name) {
+        Component ev = event();
+        if (ev == null) {
+            return null;
+        }
+        Property p = ev.getProperty(name);
+        return p == null ? null : p.getValue();
+    }
+
+    /**
+     * Get a copy of the parsed calendar. Copying is much cheaper than parsing,
+     * but where possible use the other accessors which don't need to copy
+     *
+     * @return - a copy of the calendar, or null if the text could not be parsed
+     * to a calendar
+     */
+    public Calendar getCalendar() {
+        if (calendar == null) {
+            return null;
+        }
+        try {
+            return new Calendar(calendar);
+        } catch (ParseException ex) {
+            throw new RuntimeException(ex);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        } catch (URISyntaxException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Copy the event fields to the given EventResource
+     *
+     * @param r
+     */
+    public void copyTo(EventResource r) {
+        if (!isEvent()) {
+            return;
+        }
+        r.setSummary(summary);
+        r.setStart(getStart());
+        r.setEnd(getEnd());
+    }
+
+    private Component event() {
+        return calendar == null ? null : calendar.getComponent("VEVENT");
+    }
+}
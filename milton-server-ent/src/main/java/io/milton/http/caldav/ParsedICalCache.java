@@ -0,0 +1,99 @@
+/*
+ * Copyright 2013 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.http.caldav;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.Weigher;
+import io.milton.http.http11.DefaultETagGenerator;
+import io.milton.http.http11.ETagGenerator;
+import io.milton.resource.ICalResource;
+
+/**
+ * A bounded cache of parsed iCalendar data, shared by everything which uses the
+ * same ICalFormatter.
+ *
+ * Entries are keyed on the resource's unique id and ETag, so the cache is only
+ * correct if the ETag changes whenever the iCalendar text changes. With the
+ * DefaultETagGenerator that means resources must have a modified date. Resources
+ * without a unique id or ETag are not cached.
+ *
+ * The capacity is the total number of characters of source text held.
+ *
+ * @author brad
+ */
+public class ParsedICalCache {
+
+    private final ConcurrentLinkedHashMap<String, ParsedICal> map;
+    private final ETagGenerator eTagGenerator;
+
+    public ParsedICalCache(int maxChars) {
+        this(maxChars, new DefaultETagGenerator());
+    }
+
+    public ParsedICalCache(int maxChars, ETagGenerator eTagGenerator) {
+        this.eTagGenerator = eTagGenerator;
+        this.map = new ConcurrentLinkedHashMap.Builder<String, ParsedICal>()
+                .maximumWeightedCapacity(maxChars)
+                .weigher(new Weigher<ParsedICal>() {
+                    @Override
+                    public int weightOf(ParsedICal value) {
+                        return Math.max(1, value.getSourceLength());
+                    }
+                })
+                .build();
+    }
+
+    /**
+     *
+     * @param r
+     * @return - the cache key for the resource, or null if it can't be cached
+     */
+    public String key(ICalResource r) {
+        String id = r.getUniqueId();
+        if (id == null) {
+            return null;
+        }
+        String etag = eTagGenerator.generateEtag(r);
+        if (etag == null) {
+            return null;
+        }
+        return id + "/" + etag;
+    }
+
+    public ParsedICal get(String key) {
+        return map.get(key);
+    }
+
+    public void put(String key, ParsedICal parsed) {
+        map.put(key, parsed);
+    }
+
+    public void clear() {
+        map.clear();
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    /**
+     *
+     * @return - total characters of source text held
+     */
+    public long weightedSize() {
+        return map.weightedSize();
+    }
+}
@@ -18,6 +18,7 @@ import io.milton.http.webdav.WebDavProtocol;
 import io.milton.principal.PrincipalSearchCriteria;
 import io.milton.principal.PrincipalSearchCriteria.TestType;
 import io.milton.resource.AddressBookQuerySearchableResource;
+import io.milton.resource.AddressBookResource;
 import io.milton.resource.PropFindableResource;
 import io.milton.resource.Resource;
 
@@ -118,6 +119,7 @@ public class AddressBookQueryReport implements QualifiedReport
   	private final ResourceFactory					resourceFactory;
   	private final PropFindPropertyBuilder	propertyBuilder;
   	private final PropFindXmlGenerator		xmlGenerator;
+  	private VCardIndex										vCardIndex;
 
   	public AddressBookQueryReport( ResourceFactory resourceFactory, PropFindPropertyBuilder propertyBuilder, PropFindXmlGenerator xmlGenerator )
   	{
@@ -191,13 +193,21 @@ public class AddressBookQueryReport implements QualifiedReport
   		try
   		{
   			Resource resource = this.resourceFactory.getResource( host, path );
+  			List<? extends Resource> result = null;
   			if ( resource instanceof AddressBookQuerySearchableResource )
   			{
   				// Do the search
   				log.debug( "resource is AddressBookQuerySearchableResource" );
   				AddressBookQuerySearchableResource searchableAddressBook = (AddressBookQuerySearchableResource)resource;
-  				List<? extends Resource> result = searchableAddressBook.getChildren( crit );
-
+  				result = searchableAddressBook.getChildren( crit );
+  			}
+  			else if ( this.vCardIndex != null && resource instanceof AddressBookResource )
+  			{
+  				log.debug( "search address book with vCard index" );
+  				result = this.vCardIndex.search( host, path, (AddressBookResource)resource, crit );
+  			}
+  			if ( result != null )
+  			{
   				// Generate the response
   				List<PropFindResponse> respProps = new ArrayList<PropFindResponse>();
   				for ( Resource r : result )
@@ -239,6 +249,22 @@ public class AddressBookQueryReport implements QualifiedReport
   		return "";
   	}
 
+  	public VCardIndex getVCardIndex()
+  	{
+  		return vCardIndex;
+  	}
+
+  	/**
+  	 * Optional index used to search address books which do not implement
+  	 * AddressBookQuerySearchableResource
+  	 *
+  	 * @param vCardIndex
+  	 */
+  	public void setVCardIndex( VCardIndex vCardIndex )
+  	{
+  		this.vCardIndex = vCardIndex;
+  	}
+
   	private Set<QName> getProps( Document doc )
   	{
   		Element elProp = doc.getRootElement().getChild( "prop", this.NS_DAV );
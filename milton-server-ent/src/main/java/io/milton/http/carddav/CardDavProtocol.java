@@ -62,6 +62,7 @@ public class CardDavProtocol implements HttpExtension, PropertySource, WellKnown
     public static final String CARDDAV_NS = "urn:ietf:params:xml:ns:carddav";
     private final Set<Handler> handlers;
     private final PropertyMap propertyMapCardDav;
+    private final AddressBookQueryReport addressBookQueryReport;
 
     public CardDavProtocol(ResourceFactory resourceFactory, WebDavResponseHandler responseHandler, HandlerHelper handlerHelper, WebDavProtocol webDavProtocol, PropFindXmlGenerator gen, PropFindPropertyBuilder propertyBuilder) {
         propertyMapCardDav = new PropertyMap(CARDDAV_NS);
@@ -77,10 +78,25 @@ public class CardDavProtocol implements HttpExtension, PropertySource, WellKnown
         webDavProtocol.addPropertySource(this);
 
         webDavProtocol.addReport(new AddressBookMultiGetReport(resourceFactory, propertyBuilder, gen));
-        webDavProtocol.addReport(new AddressBookQueryReport(resourceFactory, propertyBuilder, gen));
+        addressBookQueryReport = new AddressBookQueryReport(resourceFactory, propertyBuilder, gen);
+        webDavProtocol.addReport(addressBookQueryReport);
         webDavProtocol.addReport(new ExpandPropertyReport(resourceFactory, propertyBuilder, gen));
     }
 
+    public VCardIndex getVCardIndex() {
+        return addressBookQueryReport.getVCardIndex();
+    }
+
+    /**
+     * Set an index to search address books which don't implement
+     * AddressBookQuerySearchableResource in addressbook-query reports
+     *
+     * @param vCardIndex
+     */
+    public void setVCardIndex(VCardIndex vCardIndex) {
+        addressBookQueryReport.setVCardIndex(vCardIndex);
+    }
+
     @Override
     public Set<Handler> getHandlers() {
         return Collections.unmodifiableSet(handlers);
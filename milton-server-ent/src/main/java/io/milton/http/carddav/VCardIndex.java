@@ -0,0 +1,867 @@
+/*
+ * Copyright 2013 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.http.carddav;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import io.milton.event.DeleteEvent;
+import io.milton.event.Event;
+import io.milton.event.EventListener;
+import io.milton.event.EventManager;
+import io.milton.event.MoveEvent;
+import io.milton.event.PutEvent;
+import io.milton.http.AbstractRequest;
+import io.milton.http.HttpManager;
+import io.milton.http.Request;
+import io.milton.http.exceptions.BadRequestException;
+import io.milton.http.exceptions.NotAuthorizedException;
+import io.milton.ldap.AttributeCondition;
+import io.milton.ldap.Condition;
+import io.milton.ldap.MultiCondition;
+import io.milton.principal.PrincipalSearchCriteria;
+import io.milton.principal.PrincipalSearchCriteria.MatchType;
+import io.milton.principal.PrincipalSearchCriteria.SearchItem;
+import io.milton.principal.PrincipalSearchCriteria.TestType;
+import io.milton.resource.AddressResource;
+import io.milton.resource.CollectionResource;
+import io.milton.resource.LdapContact;
+import io.milton.resource.Resource;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Indexes the vCards in address books so that addressbook-query reports and
+ * GAL searches don't need to parse every vCard.
+ *
+ * Every property of each vCard is held, case folded, so any text-match can be
+ * answered without parsing. The FN, EMAIL, TEL, N and ORG properties are also
+ * indexed by value (for equals and starts-with) and by trigram (for contains
+ * and ends-with). N and ORG are indexed by component, so eg a starts-with
+ * search on N matches either the family or given name.
+ *
+ * Case folding approximates the i;unicode-casemap collation: values are NFKD
+ * normalised, then upper cased and lower cased.
+ *
+ * Address books are loaded (ie their children listed and parsed) the first
+ * time they are searched, and then kept up to date from PutEvent and
+ * DeleteEvent, so this must be registered with the EventManager (see
+ * register). For changes which can't be applied directly, such as a MOVE,
+ * the affected address books are dropped and will be loaded again when next
+ * searched. Changes made other than through milton are not seen, so call
+ * clear or invalidate when they happen. At most maxBooks address book hrefs
+ * are kept, the least recently used being dropped first.
+ *
+ * To use it for addressbook-query reports on address books which don't
+ * implement AddressBookQuerySearchableResource, set it on the
+ * CardDavProtocol. Resources which do implement that interface, and
+ * UserFactory implementations, can delegate to search and galFind.
+ *
+ * @author brad
+ */
+public class VCardIndex implements EventListener {
+
+    private static final Logger log = LoggerFactory.getLogger(VCardIndex.class);
+
+    /**
+     * vCard properties which are indexed, rather than scanned
+     */
+    public static final List<String> INDEXED_FIELDS = Collections.unmodifiableList(Arrays.asList("FN", "EMAIL", "TEL", "N", "ORG"));
+
+    private static final int GRAM = 3;
+    private static final Map<String, String> FIELD_ALIASES = new HashMap<String, String>();
+
+    static {
+        // LDAP attribute names, as used by the LDAP gateway and some clients
+        FIELD_ALIASES.put("cn", "FN");
+        FIELD_ALIASES.put("displayname", "FN");
+        FIELD_ALIASES.put("mail", "EMAIL");
+        FIELD_ALIASES.put("email", "EMAIL");
+        FIELD_ALIASES.put("sn", "N");
+        FIELD_ALIASES.put("givenname", "N");
+        FIELD_ALIASES.put("telephonenumber", "TEL");
+        FIELD_ALIASES.put("mobile", "TEL");
+        FIELD_ALIASES.put("homephone", "TEL");
+        FIELD_ALIASES.put("o", "ORG");
+    }
+
+    /**
+     * Loaded address books, keyed on href (with a trailing slash) then host
+     */
+    private final Map<String, Map<String, Book>> books;
+    /**
+     * Address books currently being loaded. A change within one of these, or
+     * to a folder containing it, marks it as stale so it isn't kept
+     */
+    private final Set<Book> loading = new HashSet<Book>();
+
+    /**
+     *
+     * @param maxBooks - the maximum number of address book hrefs to keep
+     */
+    public VCardIndex(int maxBooks) {
+        books = new ConcurrentLinkedHashMap.Builder<String, Map<String, Book>>()
+                .maximumWeightedCapacity(maxBooks)
+                .build();
+    }
+
+    /**
+     * Listen for events which change address books
+     *
+     * @param eventManager
+     */
+    public void register(EventManager eventManager) {
+        eventManager.registerEventListener(this, PutEvent.class);
+        eventManager.registerEventListener(this, DeleteEvent.class);
+        eventManager.registerEventListener(this, MoveEvent.class);
+    }
+
+    /**
+     * Find the vCards in the address book which match the criteria. The
+     * address book is loaded if it isn't already
+     *
+     * @param host
+     * @param bookHref
+     * @param book
+     * @param crit
+     * @return - matching resources, ordered by name
+     * @throws NotAuthorizedException
+     * @throws BadRequestException
+     */
+    public List<Resource> search(String host, String bookHref, CollectionResource book, PrincipalSearchCriteria crit) throws NotAuthorizedException, BadRequestException {
+        Book b = getBook(host, bookHref, book);
+        return locate(book, b.find(crit));
+    }
+
+    /**
+     * Find contacts in the address book for a GAL search. Supports conditions
+     * made of And and Or MultiConditions and AttributeConditions on the
+     * indexed fields (eg cn, mail, sn, givenName), which covers the usual
+     * autocomplete searches. Candidates are checked against the condition, so
+     * this assumes that the contacts' LDAP properties are consistent with
+     * their vCards.
+     *
+     * @param host
+     * @param bookHref
+     * @param book
+     * @param condition
+     * @param sizeLimit
+     * @return - matching contacts, or null if the condition is not supported.
+     * Children which aren't LdapContact's are not returned
+     * @throws NotAuthorizedException
+     * @throws BadRequestException
+     */
+    public List<LdapContact> galFind(String host, String bookHref, CollectionResource book, Condition condition, int sizeLimit) throws NotAuthorizedException, BadRequestException {
+        Book b = getBook(host, bookHref, book);
+        Set<String> names = b.find(condition);
+        if (names == null) {
+            return null;
+        }
+        List<LdapContact> list = new ArrayList<LdapContact>();
+        for (String name : names) {
+            Resource r = book.child(name);
+            if (r instanceof LdapContact) {
+                LdapContact contact = (LdapContact) r;
+                if (condition == null || condition.isMatch(contact)) {
+                    list.add(contact);
+                    if (list.size() >= sizeLimit) {
+                        break;
+                    }
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Get the indexed address book, loading it if necessary
+     *
+     * @param host
+     * @param bookHref
+     * @param book
+     * @return
+     * @throws NotAuthorizedException
+     * @throws BadRequestException
+     */
+    public Book getBook(String host, String bookHref, CollectionResource book) throws NotAuthorizedException, BadRequestException {
+        bookHref = folder(bookHref);
+        Map<String, Book> byHost = books.get(bookHref);
+        Book b = byHost == null ? null : byHost.get(host);
+        if (b != null) {
+            return b;
+        }
+        b = new Book(host, bookHref);
+        synchronized (this) {
+            loading.add(b);
+        }
+        try {
+            for (Resource r : book.getChildren()) {
+                if (r instanceof AddressResource) {
+                    b.put(r.getName(), ((AddressResource) r).getAddressData());
+                }
+            }
+        } finally {
+            synchronized (this) {
+                loading.remove(b);
+            }
+        }
+        log.info("getBook: loaded host={} href={} cards={}", host, bookHref, b.size());
+        synchronized (this) {
+            if (b.stale) {
+                log.info("getBook: address books changed while loading, so not keeping: {}", bookHref);
+                return b;
+            }
+            byHost = books.get(bookHref);
+            if (byHost == null) {
+                byHost = new ConcurrentHashMap<String, Book>();
+                books.put(bookHref, byHost);
+            }
+            byHost.put(host, b);
+        }
+        return b;
+    }
+
+    /**
+     * Drop everything
+     */
+    public synchronized void clear() {
+        for (Book b : loading) {
+            b.stale = true;
+        }
+        books.clear();
+    }
+
+    /**
+     * Drop any address books containing, or within, the given path
+     *
+     * @param path
+     */
+    public synchronized void invalidate(String path) {
+        stale(path);
+        String parent = parent(path);
+        if (parent != null) {
+            books.remove(parent);
+        }
+        dropWithin(path);
+    }
+
+    @Override
+    public void onEvent(Event e) {
+        Request request = HttpManager.request();
+        if (request == null) {
+            // we don't know where the change was, so can't trust anything
+            clear();
+            return;
+        }
+        String host = request.getHostHeader();
+        String path = HttpManager.decodeUrl(request.getAbsolutePath());
+        if (e instanceof PutEvent) {
+            Resource r = ((PutEvent) e).getResource();
+            if (r instanceof AddressResource && path.endsWith("/" + r.getName())) {
+                put(host, path, (AddressResource) r);
+            } else {
+                invalidate(path);
+            }
+        } else if (e instanceof DeleteEvent) {
+            remove(host, path);
+        } else {
+            invalidate(path);
+            String dest = request.getDestinationHeader();
+            if (dest != null) {
+                invalidate(HttpManager.decodeUrl(AbstractRequest.stripToPath(dest)));
+            }
+        }
+    }
+
+    private synchronized void put(String host, String path, AddressResource r) {
+        stale(path);
+        Map<String, Book> byHost = books.get(parent(path));
+        if (byHost == null) {
+            return;
+        }
+        for (Book b : new ArrayList<Book>(byHost.values())) {
+            if (b.host.equals(host)) {
+                b.put(r.getName(), r.getAddressData());
+            } else {
+                // might be an alias for the same host
+                byHost.remove(b.host);
+            }
+        }
+    }
+
+    private synchronized void remove(String host, String path) {
+        stale(path);
+        String parent = parent(path);
+        Map<String, Book> byHost = parent == null ? null : books.get(parent);
+        if (byHost != null) {
+            String name = path.substring(parent.length());
+            for (Book b : new ArrayList<Book>(byHost.values())) {
+                if (b.host.equals(host)) {
+                    b.remove(name);
+                } else {
+                    byHost.remove(b.host);
+                }
+            }
+        }
+        // deleting an address book, or a folder containing them
+        dropWithin(path);
+    }
+
+    /**
+     * Mark address books being loaded which contain the path, or are within
+     * it, as stale
+     */
+    private void stale(String path) {
+        String prefix = folder(path);
+        for (Book b : loading) {
+            if (path.startsWith(b.href) || b.href.startsWith(prefix)) {
+                b.stale = true;
+            }
+        }
+    }
+
+    private void dropWithin(String path) {
+        String prefix = folder(path);
+        for (String href : new ArrayList<String>(books.keySet())) {
+            if (href.startsWith(prefix)) {
+                books.remove(href);
+            }
+        }
+    }
+
+    private List<Resource> locate(CollectionResource book, Set<String> names) throws NotAuthorizedException, BadRequestException {
+        List<Resource> list = new ArrayList<Resource>(names.size());
+        for (String name : names) {
+            Resource r = book.child(name);
+            if (r != null) {
+                list.add(r);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Fold case to approximate the i;unicode-casemap collation
+     *
+     * @param s
+     * @return
+     */
+    public static String fold(String s) {
+        if (s == null) {
+            return null;
+        }
+        return Normalizer.normalize(s, Normalizer.Form.NFKD).toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     *
+     * @param field - a vCard property name, or an LDAP attribute name
+     * @return - the vCard property name, in upper case
+     */
+    public static String toVCardField(String field) {
+        String s = FIELD_ALIASES.get(field.toLowerCase(Locale.ROOT));
+        return s != null ? s : field.toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * Parse the properties of a vCard
+     *
+     * @param vcard
+     * @return - folded values of each property, keyed on upper case name. N
+     * and ORG have a value for each non-empty component
+     */
+    static Map<String, List<String>> parse(String vcard) {
+        Map<String, List<String>> map = new HashMap<String, List<String>>();
+        if (vcard == null) {
+            return map;
+        }
+        for (String line : unfold(vcard)) {
+            int colon = valueStart(line);
+            if (colon < 0) {
+                continue;
+            }
+            String name = line.substring(0, colon);
+            int semi = name.indexOf(';');
+            if (semi >= 0) {
+                name = name.substring(0, semi);
+            }
+            int dot = name.lastIndexOf('.');
+            if (dot >= 0) {
+                name = name.substring(dot + 1); // group, eg item1.EMAIL
+            }
+            name = name.trim().toUpperCase(Locale.ROOT);
+            if (name.equals("BEGIN") || name.equals("END") || name.equals("VERSION")) {
+                continue;
+            }
+            String value = line.substring(colon + 1);
+            List<String> values = map.get(name);
+            if (values == null) {
+                values = new ArrayList<String>(1);
+                map.put(name, values);
+            }
+            if (name.equals("N") || name.equals("ORG")) {
+                for (String comp : split(value)) {
+                    if (comp.length() > 0) {
+                        values.add(fold(comp));
+                    }
+                }
+            } else {
+                values.add(fold(unescape(value)));
+            }
+        }
+        return map;
+    }
+
+    private static List<String> unfold(String s) {
+        List<String> lines = new ArrayList<String>();
+        StringBuilder current = null;
+        for (String line : s.split("\r\n|\n|\r")) {
+            if (current != null && line.length() > 0 && (line.charAt(0) == ' ' || line.charAt(0) == '\t')) {
+                current.append(line, 1, line.length());
+            } else {
+                if (current != null) {
+                    lines.add(current.toString());
+                }
+                current = new StringBuilder(line);
+            }
+        }
+        if (current != null) {
+            lines.add(current.toString());
+        }
+        return lines;
+    }
+
+    /**
+     * The position of the colon separating the name and parameters from the
+     * value, ignoring colons in quoted parameter values
+     */
+    private static int valueStart(String line) {
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ':' && !quoted) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static List<String> split(String value) {
+        List<String> list = new ArrayList<String>();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                sb.append(c).append(value.charAt(++i));
+            } else if (c == ';') {
+                list.add(unescape(sb.toString()).trim());
+                sb.setLength(0);
+            } else {
+                sb.append(c);
+            }
+        }
+        list.add(unescape(sb.toString()).trim());
+        return list;
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char n = value.charAt(++i);
+                sb.append(n == 'n' || n == 'N' ? '\n' : n);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String parent(String path) {
+        if (path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        int pos = path.lastIndexOf('/');
+        return pos < 0 ? null : path.substring(0, pos + 1);
+    }
+
+    private static String folder(String href) {
+        return href.endsWith("/") ? href : href + "/";
+    }
+
+    /**
+     * The indexed vCards in an address book
+     */
+    public static class Book {
+
+        private final String host;
+        private final String href;
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        /**
+         * Properties of each card, keyed on card name
+         */
+        private final TreeMap<String, Map<String, List<String>>> cards = new TreeMap<String, Map<String, List<String>>>();
+        private final Map<String, FieldIndex> fields = new HashMap<String, FieldIndex>();
+        /**
+         * Set if the address book changed while this was being loaded
+         */
+        private boolean stale;
+
+        Book(String host, String href) {
+            this.host = host;
+            this.href = href;
+            for (String f : INDEXED_FIELDS) {
+                fields.put(f, new FieldIndex());
+            }
+        }
+
+        public String getHref() {
+            return href;
+        }
+
+        public int size() {
+            lock.readLock().lock();
+            try {
+                return cards.size();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * Add or replace a card
+         *
+         * @param name
+         * @param vcard
+         */
+        public void put(String name, String vcard) {
+            Map<String, List<String>> props = parse(vcard);
+            lock.writeLock().lock();
+            try {
+                unindex(name, cards.put(name, props));
+                for (Map.Entry<String, FieldIndex> e : fields.entrySet()) {
+                    List<String> values = props.get(e.getKey());
+                    if (values != null) {
+                        for (String v : values) {
+                            e.getValue().add(v, name);
+                        }
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        public void remove(String name) {
+            lock.writeLock().lock();
+            try {
+                unindex(name, cards.remove(name));
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private void unindex(String name, Map<String, List<String>> props) {
+            if (props == null) {
+                return;
+            }
+            for (Map.Entry<String, FieldIndex> e : fields.entrySet()) {
+                List<String> values = props.get(e.getKey());
+                if (values != null) {
+                    for (String v : values) {
+                        e.getValue().remove(v, name);
+                    }
+                }
+            }
+        }
+
+        /**
+         *
+         * @param crit
+         * @return - names of matching cards, in order
+         */
+        public Set<String> find(PrincipalSearchCriteria crit) {
+            lock.readLock().lock();
+            try {
+                List<SearchItem> items = crit == null ? null : crit.getSearchItems();
+                if (items == null || items.isEmpty()) {
+                    return new TreeSet<String>(cards.keySet());
+                }
+                boolean all = crit.getTest() == TestType.ALL;
+                Set<String> result = null;
+                for (SearchItem item : items) {
+                    Set<String> found = find(item.getField(), item.getMatchType(), item.getValue());
+                    result = combine(result, found, all);
+                }
+                return result;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * Find candidates for an LDAP condition
+         *
+         * @param condition
+         * @return - names of candidate cards, or null if the condition isn't
+         * supported
+         */
+        public Set<String> find(Condition condition) {
+            lock.readLock().lock();
+            try {
+                return findCandidates(condition);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private Set<String> findCandidates(Condition condition) {
+            if (condition == null || condition.isEmpty()) {
+                return new TreeSet<String>(cards.keySet());
+            }
+            if (condition instanceof AttributeCondition) {
+                AttributeCondition ac = (AttributeCondition) condition;
+                String attName = ac.getAttributeName();
+                if (attName == null || !fields.containsKey(toVCardField(attName))) {
+                    return null; // only indexed fields have a known mapping to LDAP attributes
+                }
+                MatchType mt = ac.getOperator() == Condition.Operator.IsEqualTo ? MatchType.EXACT
+                        : ac.getOperator() == Condition.Operator.StartsWith ? MatchType.STARTSWITH
+                        : ac.getOperator() == Condition.Operator.Like ? MatchType.CONTAINS : null;
+                if (mt == null) {
+                    return null;
+                }
+                Set<String> found = find(attName, mt, ac.getValue());
+                if (attName.equalsIgnoreCase("sn") || attName.equalsIgnoreCase("givenName")) {
+                    // AttributeCondition falls back to cn when these are missing
+                    found.addAll(find("FN", MatchType.CONTAINS, ac.getValue()));
+                }
+                return found;
+            }
+            if (condition instanceof MultiCondition) {
+                MultiCondition mc = (MultiCondition) condition;
+                boolean all;
+                if (mc.getOperator() == Condition.Operator.And) {
+                    all = true;
+                } else if (mc.getOperator() == Condition.Operator.Or) {
+                    all = false;
+                } else {
+                    return null;
+                }
+                Set<String> result = null;
+                for (Condition c : mc.getConditions()) {
+                    if (c == null || c.isEmpty()) {
+                        continue;
+                    }
+                    Set<String> found = findCandidates(c);
+                    if (found == null) {
+                        if (all) {
+                            continue; // other conditions still narrow it down
+                        }
+                        return null;
+                    }
+                    result = combine(result, found, all);
+                }
+                return result == null ? new TreeSet<String>(cards.keySet()) : result;
+            }
+            return null;
+        }
+
+        private Set<String> combine(Set<String> result, Set<String> found, boolean all) {
+            if (result == null) {
+                return found;
+            }
+            if (all) {
+                result.retainAll(found);
+            } else {
+                result.addAll(found);
+            }
+            return result;
+        }
+
+        /**
+         * Find cards with a value of the field which matches
+         *
+         * @return - a new, sorted, set of card names
+         */
+        private Set<String> find(String field, MatchType matchType, String value) {
+            Set<String> result = new TreeSet<String>();
+            if (field == null || value == null) {
+                return result;
+            }
+            field = toVCardField(field);
+            value = fold(value);
+            if (matchType == null) {
+                matchType = MatchType.CONTAINS; // the default for text-match
+            }
+            FieldIndex fi = fields.get(field);
+            if (fi == null) {
+                // not indexed, so check the held values of every card
+                for (Map.Entry<String, Map<String, List<String>>> e : cards.entrySet()) {
+                    List<String> values = e.getValue().get(field);
+                    if (values != null) {
+                        for (String v : values) {
+                            if (matches(v, matchType, value)) {
+                                result.add(e.getKey());
+                                break;
+                            }
+                        }
+                    }
+                }
+                return result;
+            }
+            switch (matchType) {
+                case EXACT:
+                    Set<String> names = fi.byValue.get(value);
+                    if (names != null) {
+                        result.addAll(names);
+                    }
+                    break;
+                case STARTSWITH:
+                    for (Set<String> s : fi.byValue.subMap(value, value + Character.MAX_VALUE).values()) {
+                        result.addAll(s);
+                    }
+                    break;
+                default:
+                    for (String v : fi.candidateValues(value)) {
+                        if (matches(v, matchType, value)) {
+                            result.addAll(fi.byValue.get(v));
+                        }
+                    }
+            }
+            return result;
+        }
+
+        private static boolean matches(String v, MatchType matchType, String value) {
+            switch (matchType) {
+                case EXACT:
+                    return v.equals(value);
+                case STARTSWITH:
+                    return v.startsWith(value);
+                case ENDSWITH:
+                    return v.endsWith(value);
+                default:
+                    return v.contains(value);
+            }
+        }
+    }
+
+    /**
+     * Value and trigram indexes for one vCard property
+     */
+    static class FieldIndex {
+
+        /**
+         * card names, keyed on folded value
+         */
+        final TreeMap<String, Set<String>> byValue = new TreeMap<String, Set<String>>();
+        /**
+         * distinct values, keyed on each trigram in them
+         */
+        final Map<String, Set<String>> byGram = new HashMap<String, Set<String>>();
+
+        void add(String value, String name) {
+            Set<String> names = byValue.get(value);
+            if (names == null) {
+                names = new HashSet<String>(2);
+                byValue.put(value, names);
+                for (String g : grams(value)) {
+                    Set<String> values = byGram.get(g);
+                    if (values == null) {
+                        values = new HashSet<String>();
+                        byGram.put(g, values);
+                    }
+                    values.add(value);
+                }
+            }
+            names.add(name);
+        }
+
+        void remove(String value, String name) {
+            Set<String> names = byValue.get(value);
+            if (names == null) {
+                return;
+            }
+            names.remove(name);
+            if (names.isEmpty()) {
+                byValue.remove(value);
+                for (String g : grams(value)) {
+                    Set<String> values = byGram.get(g);
+                    if (values != null) {
+                        values.remove(value);
+                        if (values.isEmpty()) {
+                            byGram.remove(g);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Values which might contain the given string. Those which share all
+         * its trigrams, or every value if it is too short to have any
+         */
+        Set<String> candidateValues(String s) {
+            Set<String> grams = grams(s);
+            if (grams.isEmpty()) {
+                return byValue.keySet();
+            }
+            Set<String> result = null;
+            for (String g : grams) {
+                Set<String> values = byGram.get(g);
+                if (values == null) {
+                    return Collections.emptySet();
+                }
+                if (result == null) {
+                    result = new HashSet<String>(values);
+                } else {
+                    result.retainAll(values);
+                }
+                if (result.isEmpty()) {
+                    break;
+                }
+            }
+            return result;
+        }
+
+        static Set<String> grams(String s) {
+            Set<String> set = new HashSet<String>();
+            for (int i = 0; i + GRAM <= s.length(); i++) {
+                set.add(s.substring(i, i + GRAM));
+            }
+            return set;
+        }
+    }
+}
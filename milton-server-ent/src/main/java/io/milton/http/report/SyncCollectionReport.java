@@ -2,6 +2,7 @@ package io.milton.http.report;
 
 import io.milton.common.Utils;
 import io.milton.http.HttpManager;
+import io.milton.http.Request;
 import io.milton.http.Response;
 import io.milton.http.XmlWriter;
 import io.milton.http.exceptions.BadRequestException;
@@ -12,6 +13,7 @@ import io.milton.http.webdav.PropFindXmlFooter;
 import io.milton.http.webdav.PropFindXmlGenerator;
 import io.milton.http.webdav.PropertiesRequest;
 import io.milton.http.webdav.WebDavProtocol;
+import io.milton.resource.CollectionResource;
 import io.milton.resource.PropFindableResource;
 import io.milton.resource.RemovedResource;
 import io.milton.resource.Resource;
@@ -39,6 +41,7 @@ public class SyncCollectionReport implements Report {
     }
     private final PropFindPropertyBuilder propertyBuilder;
     private final PropFindXmlGenerator xmlGenerator;
+    private SyncJournal syncJournal;
     
     public SyncCollectionReport(PropFindPropertyBuilder propertyBuilder, PropFindXmlGenerator xmlGenerator) {
         this.propertyBuilder = propertyBuilder;
@@ -70,7 +73,8 @@ public class SyncCollectionReport implements Report {
            DAV:sync-collection report, i.e., the report targets only the
            collection being synchronized in a single request.
         */
-        if (HttpManager.request().getDepthHeader() != 0) {
+        Request request = HttpManager.request();
+        if (request != null && request.getDepthHeader() != 0) {
         //throw new BadRequestException(r, "Depth header must be 0");
         // iOS 8.1 sends depth=1 with sync-collection, so ignore the spec
         }
@@ -126,12 +130,39 @@ public class SyncCollectionReport implements Report {
             }
         }
 
-        String parentHref = HttpManager.request().getAbsolutePath();
+        /* 3.7.  Truncation of Results
+
+           A client can limit the number of results returned by the server
+           through use of the DAV:limit element in the request body. */
+        int limit = 0;
+        Element nresultsElm = ReportUtils.find(doc.getRootElement(), "nresults", NS_DAV);
+        if (nresultsElm != null) {
+            try {
+                limit = Integer.parseInt(nresultsElm.getTextTrim());
+            } catch (NumberFormatException e) {
+                throw new BadRequestException(r, "DAV:nresults must be an integer.");
+            }
+        }
+
+        String parentHref = request == null ? path : request.getAbsolutePath();
         parentHref = Utils.suffixSlash(parentHref);
         List<PropFindResponse> respProps = new ArrayList<PropFindResponse>();
-        findResources(syncCollectionResource, doc, syncToken, lv, parentHref, respProps);
-
-        final URI nextSyncToken = syncCollectionResource.getSyncToken();
+        final URI nextSyncToken;
+        if (syncJournal != null && SyncJournal.isJournalToken(syncToken)) {
+            // Only changes since the token, and at most limit of them
+            SyncJournal.Changes changes = syncJournal.getChanges(HttpManager.decodeUrl(parentHref), syncToken, limit, lv == SyncLevel.Infinite);
+            addChanges(syncCollectionResource, doc, parentHref, changes, respProps);
+            if (changes.isTruncated()) {
+                /* the server MUST include a DAV:response element for the
+                 request-URI with a DAV:status of 507 (Insufficient Storage),
+                 and the DAV:sync-token of the last change returned */
+                respProps.add(new PropFindResponse(parentHref, Response.Status.SC_INSUFFICIENT_STORAGE));
+            }
+            nextSyncToken = changes.getSyncToken();
+        } else {
+            findResources(syncCollectionResource, doc, syncToken, lv, parentHref, respProps);
+            nextSyncToken = syncCollectionResource.getSyncToken();
+        }
         /*
           <A:sync-collection xmlns:A="DAV:">
             <A:sync-token>http://example.org/sync/1414342005182</A:sync-token>
@@ -232,6 +263,68 @@ public class SyncCollectionReport implements Report {
         }
     }
     
+    private void addChanges(SyncCollectionResource parent, Document doc, String parentHref, SyncJournal.Changes changes, List<PropFindResponse> respProps) throws NotAuthorizedException, BadRequestException {
+        String parentPath = HttpManager.decodeUrl(parentHref);
+        PropertiesRequest parseResult = null;
+        for (SyncJournal.Change change : changes.getChanges()) {
+            String relative = change.getHref().substring(parentPath.length());
+            String href = parentHref + encode(relative);
+            Resource r = change.isRemoved() ? null : find(parent, relative);
+            if (r instanceof PropFindableResource) {
+                if (parseResult == null) {
+                    parseResult = PropertiesRequest.toProperties(getProps(doc));
+                }
+                if (r instanceof CollectionResource) {
+                    href = Utils.suffixSlash(href);
+                }
+                try {
+                    respProps.addAll(propertyBuilder.buildProperties((PropFindableResource) r, 0, parseResult, href));
+                } catch (URISyntaxException ex) {
+                    throw new RuntimeException("There was an unencoded url requested: " + href, ex);
+                }
+            } else if (r == null) {
+                respProps.add(new PropFindResponse(href, Response.Status.SC_NOT_FOUND));
+            }
+        }
+    }
+
+    private Resource find(CollectionResource parent, String relative) throws NotAuthorizedException, BadRequestException {
+        Resource r = parent;
+        for (String name : relative.split("/")) {
+            if (!(r instanceof CollectionResource)) {
+                return null;
+            }
+            r = ((CollectionResource) r).child(name);
+        }
+        return r;
+    }
+
+    private String encode(String relative) {
+        StringBuilder sb = new StringBuilder();
+        for (String name : relative.split("/")) {
+            if (sb.length() > 0) {
+                sb.append('/');
+            }
+            sb.append(Utils.percentEncode(name));
+        }
+        return sb.toString();
+    }
+
+    public SyncJournal getSyncJournal() {
+        return syncJournal;
+    }
+
+    /**
+     * If set, requests with a sync token issued by the journal are answered
+     * from it, rather than by calling findResourcesBySyncToken, and DAV:limit
+     * is supported
+     *
+     * @param syncJournal
+     */
+    public void setSyncJournal(SyncJournal syncJournal) {
+        this.syncJournal = syncJournal;
+    }
+
     private Set<QName> getProps(Document doc) {
         Element elProp = doc.getRootElement().getChild("prop", NS_DAV);
         if (elProp == null) {
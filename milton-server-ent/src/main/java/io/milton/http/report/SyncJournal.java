@@ -0,0 +1,861 @@
+/*
+ * Copyright 2013 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.http.report;
+
+import io.milton.event.DeleteEvent;
+import io.milton.event.Event;
+import io.milton.event.EventListener;
+import io.milton.event.EventManager;
+import io.milton.event.MoveEvent;
+import io.milton.event.NewFolderEvent;
+import io.milton.event.PutEvent;
+import io.milton.event.ResourceEvent;
+import io.milton.http.AbstractRequest;
+import io.milton.http.Auth;
+import io.milton.http.HttpManager;
+import io.milton.http.Request;
+import io.milton.http.annotated.AnnoResource;
+import io.milton.http.exceptions.BadRequestException;
+import io.milton.http.exceptions.NotAuthorizedException;
+import io.milton.resource.CollectionResource;
+import io.milton.resource.RemovedResource;
+import io.milton.resource.Resource;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A change journal for the sync-collection report (RFC 6578), so that
+ * SyncCollectionResource implementations don't need to compare the whole
+ * collection on every sync.
+ *
+ * Changes are recorded from PutEvent, DeleteEvent, MoveEvent and
+ * NewFolderEvent (see register) against the collection containing the changed
+ * resource. The href is taken from the current request, or for events fired
+ * outside a request from the resource if it is an AnnoResource. Only the
+ * latest change to each href is kept, ordered by a sequence number which is
+ * global to the journal, so finding changes since a sync-token costs
+ * O(changes).
+ *
+ * Sync tokens are URIs of the form http://milton.io/ns/sync/{epoch}/{sequence}.
+ * The epoch identifies the journal, and changes if it is reset, so tokens from
+ * a previous journal are rejected and clients do a full sync. Tokens are also
+ * rejected for collections which have been deleted or moved over since the
+ * token was issued, because the members removed with them are not recorded
+ * individually.
+ *
+ * Removed members are forgotten after tombstoneRetentionSeconds, and tokens
+ * for their collection issued before then are rejected, so clients which
+ * haven't synced for that long do a full sync.
+ *
+ * If a file is given, changes are appended to it and it is loaded on startup.
+ * Changes made concurrently are written and flushed together, without holding
+ * the journal's lock. It is compacted (rewritten with only the latest change
+ * for each href) once it holds more than twice as many lines as live entries.
+ *
+ * To use it, implement SyncCollectionResource.getSyncToken with getSyncToken,
+ * and findResourcesBySyncToken with findResourcesBySyncToken. If it is also
+ * set on the SyncCollectionReport then DAV:limit is supported for changes
+ * since a sync token.
+ *
+ * @author brad
+ */
+public class SyncJournal implements EventListener {
+
+    private static final Logger log = LoggerFactory.getLogger(SyncJournal.class);
+
+    public static final String TOKEN_PREFIX = "http://milton.io/ns/sync/";
+
+    private static final String HEADER = "#milton-sync-journal-2";
+    private static final int MIN_COMPACT_LINES = 1000;
+
+    private final File file;
+    /**
+     * Held while writing to the file, and always taken before the journal's
+     * own lock
+     */
+    private final Object writeLock = new Object();
+    /**
+     * Latest changes, keyed on the href of the containing collection (with a
+     * trailing slash)
+     */
+    private final TreeMap<String, Log> logs = new TreeMap<String, Log>();
+    /**
+     * Sequence at which collections (with a trailing slash) were last deleted
+     * or replaced. Tokens before that are not valid for them, or anything
+     * within them
+     */
+    private final TreeMap<String, Long> dropped = new TreeMap<String, Long>();
+    /**
+     * Removed members, in the order they were removed
+     */
+    private final TreeMap<Long, Change> tombstones = new TreeMap<Long, Change>();
+    private long tombstoneRetentionMillis = 30 * 24 * 60 * 60 * 1000l;
+    private String epoch;
+    private long seq;
+    private Writer out;
+    /**
+     * Lines to be written to the file by the next flush
+     */
+    private List<String> pending = new ArrayList<String>();
+    private int lines;
+    private int live;
+
+    /**
+     * Create a journal which is only held in memory
+     */
+    public SyncJournal() {
+        this.file = null;
+        this.epoch = newEpoch();
+    }
+
+    /**
+     * Create a journal persisted to the given file, loading it if it exists
+     *
+     * @param file
+     * @throws IOException
+     */
+    public SyncJournal(File file) throws IOException {
+        this.file = file;
+        if (file.exists()) {
+            load();
+        } else {
+            this.epoch = newEpoch();
+        }
+        compact();
+    }
+
+    /**
+     * Listen for events which change collections
+     *
+     * @param eventManager
+     */
+    public void register(EventManager eventManager) {
+        eventManager.registerEventListener(this, PutEvent.class);
+        eventManager.registerEventListener(this, DeleteEvent.class);
+        eventManager.registerEventListener(this, MoveEvent.class);
+        eventManager.registerEventListener(this, NewFolderEvent.class);
+    }
+
+    /**
+     *
+     * @return - the current sync token, which applies to every collection
+     */
+    public synchronized URI getSyncToken() {
+        return token(seq);
+    }
+
+    /**
+     *
+     * @param token
+     * @return - true if the token was issued by a SyncJournal
+     */
+    public static boolean isJournalToken(URI token) {
+        return token != null && token.toString().startsWith(TOKEN_PREFIX);
+    }
+
+    /**
+     * Find changes in a collection since the given sync token
+     *
+     * @param collectionHref
+     * @param syncToken
+     * @param limit - maximum number of changes to return, or less than 1 for
+     * no limit
+     * @param recursive - if true include changes in collections within the
+     * given one
+     * @return
+     * @throws BadRequestException - if the token is not valid for this
+     * journal and collection. Clients should do a full sync
+     */
+    public synchronized Changes getChanges(String collectionHref, URI syncToken, int limit, boolean recursive) throws BadRequestException {
+        collectionHref = folder(collectionHref);
+        long since = parseToken(syncToken);
+        // the collection, or one containing it, might have been replaced
+        int pos = collectionHref.indexOf('/');
+        while (pos >= 0) {
+            checkDropped(collectionHref.substring(0, pos + 1), since);
+            pos = collectionHref.indexOf('/', pos + 1);
+        }
+        if (recursive) {
+            for (String prefix : dropped.subMap(collectionHref, false, collectionHref + Character.MAX_VALUE, false).keySet()) {
+                checkDropped(prefix, since);
+            }
+        }
+        List<Change> list = new ArrayList<Change>();
+        if (recursive) {
+            for (Map.Entry<String, Log> e : within(collectionHref).entrySet()) {
+                checkPruned(e.getKey(), e.getValue(), since);
+                list.addAll(e.getValue().bySeq.tailMap(since, false).values());
+            }
+            Collections.sort(list, new Comparator<Change>() {
+                @Override
+                public int compare(Change o1, Change o2) {
+                    return Long.compare(o1.seq, o2.seq);
+                }
+            });
+        } else {
+            Log l = logs.get(collectionHref);
+            if (l != null) {
+                checkPruned(collectionHref, l, since);
+                list.addAll(l.bySeq.tailMap(since, false).values());
+            }
+        }
+        if (limit > 0 && list.size() > limit) {
+            list = new ArrayList<Change>(list.subList(0, limit));
+            return new Changes(list, token(list.get(limit - 1).seq), true);
+        }
+        return new Changes(list, token(seq), false);
+    }
+
+    /**
+     * A default implementation for SyncCollectionResource.findResourcesBySyncToken
+     *
+     * @param collection
+     * @param collectionHref
+     * @param syncToken - null for an initial sync, which returns all members
+     * @return - members, keyed on href, with RemovedResource for removed ones
+     * @throws NotAuthorizedException
+     * @throws BadRequestException
+     */
+    public Map<String, Resource> findResourcesBySyncToken(CollectionResource collection, String collectionHref, URI syncToken) throws NotAuthorizedException, BadRequestException {
+        collectionHref = folder(collectionHref);
+        Map<String, Resource> map = new LinkedHashMap<String, Resource>();
+        if (syncToken == null) {
+            for (Resource r : collection.getChildren()) {
+                map.put(href(collectionHref + r.getName(), r), r);
+            }
+            return map;
+        }
+        for (Change c : getChanges(collectionHref, syncToken, 0, false).getChanges()) {
+            Resource r = c.isRemoved() ? null : collection.child(c.getName());
+            if (r == null) {
+                map.put(c.getHref(), new Removed(c.getName()));
+            } else {
+                map.put(href(c.getHref(), r), r);
+            }
+        }
+        return map;
+    }
+
+    @Override
+    public void onEvent(Event e) {
+        Request request = HttpManager.request();
+        Resource r = e instanceof ResourceEvent ? ((ResourceEvent) e).getResource() : null;
+        if (request == null) {
+            onEvent(e, r);
+            flush();
+            return;
+        }
+        String path = HttpManager.decodeUrl(request.getAbsolutePath());
+        if (e instanceof PutEvent || e instanceof NewFolderEvent) {
+            add(locate(path, r), false);
+        } else if (e instanceof DeleteEvent) {
+            String href = strip(path);
+            // recursive deletes fire events for members too, which are covered by the drop
+            if (r == null || href.endsWith("/" + r.getName())) {
+                removed(href, r);
+            }
+        } else if (e instanceof MoveEvent) {
+            removed(strip(path), r);
+            String dest = request.getDestinationHeader();
+            if (dest != null) {
+                moved(strip(HttpManager.decodeUrl(AbstractRequest.stripToPath(dest))));
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Record an event fired outside a request, eg by a background task, using
+     * the hrefs of the resources
+     */
+    private void onEvent(Event e, Resource r) {
+        String href = hrefOf(r);
+        if (href == null) {
+            // we don't know what changed, so tokens before now can't be trusted
+            log.warn("onEvent: no current request, and couldnt find the href of the resource, so rejecting all existing sync tokens: {}", e.getClass());
+            drop("/");
+            return;
+        }
+        href = strip(href);
+        if (e instanceof PutEvent || e instanceof NewFolderEvent) {
+            add(href, false);
+        } else if (e instanceof DeleteEvent) {
+            removed(href, r);
+        } else if (e instanceof MoveEvent) {
+            MoveEvent me = (MoveEvent) e;
+            String destHref = hrefOf(me.getDestCollection());
+            removed(href, r);
+            if (destHref == null || me.getNewName() == null) {
+                log.warn("onEvent: no current request, and couldnt find the destination of the move, so rejecting all existing sync tokens");
+                drop("/");
+            } else {
+                moved(folder(destHref) + me.getNewName());
+            }
+        }
+    }
+
+    private void removed(String href, Resource r) {
+        add(href, true);
+        if (r == null || r instanceof CollectionResource) {
+            drop(href);
+        }
+    }
+
+    private void moved(String destHref) {
+        // might have replaced a collection, whose members aren't recorded
+        drop(destHref);
+        add(destHref, false);
+    }
+
+    /**
+     * Invalidate all sync tokens, so clients will do a full sync
+     */
+    public void reset() {
+        synchronized (writeLock) {
+            synchronized (this) {
+                log.info("reset");
+                logs.clear();
+                dropped.clear();
+                tombstones.clear();
+                String previous = epoch;
+                do {
+                    epoch = newEpoch();
+                } while (epoch.equals(previous));
+                live = 0;
+                try {
+                    compact();
+                } catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Record a change to the given href, which must not have a trailing slash
+     *
+     * @param href
+     * @param removed
+     */
+    public void record(String href, boolean removed) {
+        add(href, removed);
+        flush();
+    }
+
+    /**
+     * Removed members are forgotten after this many seconds, and tokens for
+     * their collection from before then are rejected. Zero means they are
+     * kept forever. Default is 30 days
+     *
+     * @param seconds
+     */
+    public synchronized void setTombstoneRetentionSeconds(int seconds) {
+        this.tombstoneRetentionMillis = seconds * 1000l;
+    }
+
+    public synchronized int getTombstoneRetentionSeconds() {
+        return (int) (tombstoneRetentionMillis / 1000);
+    }
+
+    private synchronized void add(String href, boolean removed) {
+        long now = System.currentTimeMillis();
+        Change c = new Change(++seq, href, removed, now);
+        put(c);
+        append(c.seq + "\t" + (removed ? "R" : "C") + "\t" + now + "\t" + href);
+        prune(now);
+    }
+
+    /**
+     * Forget changes within the given collection, and reject tokens for it
+     * issued before now
+     */
+    private synchronized void drop(String href) {
+        String prefix = folder(href);
+        seq++;
+        SortedMap<String, Log> within = within(prefix);
+        for (Log l : within.values()) {
+            live -= l.byHref.size();
+            for (Change c : l.bySeq.values()) {
+                if (c.removed) {
+                    tombstones.remove(c.seq);
+                }
+            }
+        }
+        within.clear();
+        dropped.subMap(prefix, prefix + Character.MAX_VALUE).clear();
+        dropped.put(prefix, seq);
+        append(seq + "\tD\t" + System.currentTimeMillis() + "\t" + prefix);
+    }
+
+    /**
+     * Forget removed members older than the retention period
+     *
+     * @param now
+     */
+    synchronized void prune(long now) {
+        if (tombstoneRetentionMillis <= 0) {
+            return;
+        }
+        long cutoff = now - tombstoneRetentionMillis;
+        while (!tombstones.isEmpty() && tombstones.firstEntry().getValue().time < cutoff) {
+            Change c = tombstones.pollFirstEntry().getValue();
+            Log l = logs.get(parent(c.href));
+            l.byHref.remove(c.href);
+            l.bySeq.remove(c.seq);
+            l.prunedSeq = c.seq;
+            live--;
+            append(c.seq + "\tP\t" + c.time + "\t" + c.href);
+        }
+    }
+
+    private Log log(String collectionHref) {
+        Log l = logs.get(collectionHref);
+        if (l == null) {
+            l = new Log();
+            logs.put(collectionHref, l);
+        }
+        return l;
+    }
+
+    /**
+     * The logs for the given collection (with a trailing slash) and any
+     * within it
+     */
+    private SortedMap<String, Log> within(String prefix) {
+        return logs.subMap(prefix, prefix + Character.MAX_VALUE);
+    }
+
+    private void append(String line) {
+        if (out == null) {
+            return; // not persisted, or loading
+        }
+        pending.add(line);
+    }
+
+    /**
+     * Write pending lines to the file. Lines added by other threads while the
+     * file is being written are written by the next flush, so concurrent
+     * changes are flushed together
+     */
+    private void flush() {
+        synchronized (writeLock) {
+            List<String> toWrite;
+            Writer w;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                toWrite = pending;
+                pending = new ArrayList<String>();
+                w = out;
+            }
+            try {
+                for (String line : toWrite) {
+                    w.write(line);
+                    w.write('\n');
+                }
+                w.flush();
+            } catch (IOException ex) {
+                throw new RuntimeException("Couldnt write to sync journal: " + file.getAbsolutePath(), ex);
+            }
+            synchronized (this) {
+                lines += toWrite.size();
+                if (lines > MIN_COMPACT_LINES && lines > (live + dropped.size() + logs.size()) * 2) {
+                    try {
+                        compact();
+                    } catch (IOException ex) {
+                        throw new RuntimeException("Couldnt compact sync journal: " + file.getAbsolutePath(), ex);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrite the journal file with only the current entries
+     *
+     * @throws IOException
+     */
+    public void compact() throws IOException {
+        if (file == null) {
+            return;
+        }
+        synchronized (writeLock) {
+            synchronized (this) {
+                close();
+                List<String[]> entries = new ArrayList<String[]>();
+                long now = System.currentTimeMillis();
+                for (Map.Entry<String, Long> e : dropped.entrySet()) {
+                    entries.add(new String[]{e.getValue().toString(), "D", Long.toString(now), e.getKey()});
+                }
+                for (Map.Entry<String, Log> e : logs.entrySet()) {
+                    Log l = e.getValue();
+                    if (l.prunedSeq > 0) {
+                        entries.add(new String[]{Long.toString(l.prunedSeq), "P", Long.toString(now), e.getKey()});
+                    }
+                    for (Change c : l.bySeq.values()) {
+                        entries.add(new String[]{Long.toString(c.seq), c.removed ? "R" : "C", Long.toString(c.time), c.href});
+                    }
+                }
+                Collections.sort(entries, new Comparator<String[]>() {
+                    @Override
+                    public int compare(String[] o1, String[] o2) {
+                        return Long.compare(Long.parseLong(o1[0]), Long.parseLong(o2[0]));
+                    }
+                });
+                File tmp = new File(file.getAbsolutePath() + ".tmp");
+                Writer w = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+                try {
+                    w.write(HEADER + "\t" + epoch + "\t" + seq + "\n");
+                    for (String[] arr : entries) {
+                        w.write(arr[0] + "\t" + arr[1] + "\t" + arr[2] + "\t" + arr[3] + "\n");
+                    }
+                } finally {
+                    w.close();
+                }
+                if (file.exists() && !file.delete()) {
+                    throw new IOException("Couldnt delete old journal: " + file.getAbsolutePath());
+                }
+                if (!tmp.renameTo(file)) {
+                    throw new IOException("Couldnt rename " + tmp.getAbsolutePath() + " to " + file.getAbsolutePath());
+                }
+                // everything pending is in the rewritten file
+                pending.clear();
+                lines = entries.size();
+                out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+            }
+        }
+    }
+
+    /**
+     * Close the journal file
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            flush();
+            synchronized (this) {
+                if (out != null) {
+                    out.close();
+                    out = null;
+                }
+            }
+        }
+    }
+
+    private void load() throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line = reader.readLine();
+            String[] header = line == null ? null : line.split("\t");
+            if (header == null || header.length < 3 || !header[0].equals(HEADER)) {
+                log.warn("Journal file is not valid, so starting a new one: {}", file.getAbsolutePath());
+                epoch = newEpoch();
+                return;
+            }
+            epoch = header[1];
+            long maxSeq = Long.parseLong(header[2]);
+            while ((line = reader.readLine()) != null) {
+                String[] arr = line.split("\t", 4);
+                if (arr.length < 4) {
+                    continue; // a partly written line
+                }
+                long s = Long.parseLong(arr[0]);
+                if (arr[1].equals("P")) {
+                    pruned(arr[3], s);
+                } else if (arr[1].equals("D")) {
+                    // replay the change with its original sequence
+                    seq = s - 1;
+                    drop(arr[3]);
+                } else {
+                    seq = s;
+                    put(new Change(s, arr[3], arr[1].equals("R"), Long.parseLong(arr[2])));
+                }
+                maxSeq = Math.max(maxSeq, s);
+            }
+            seq = maxSeq;
+        } finally {
+            reader.close();
+        }
+        log.info("load: loaded sync journal: epoch={} seq={} entries={}", epoch, seq, live);
+    }
+
+    private void put(Change c) {
+        Log l = log(parent(c.href));
+        Change previous = l.byHref.put(c.href, c);
+        if (previous != null) {
+            l.bySeq.remove(previous.seq);
+            tombstones.remove(previous.seq);
+        } else {
+            live++;
+        }
+        l.bySeq.put(c.seq, c);
+        if (c.removed) {
+            tombstones.put(c.seq, c);
+        }
+    }
+
+    /**
+     * Replay the pruning of a removed member, or for a compacted journal of a
+     * collection (with a trailing slash)
+     */
+    private void pruned(String href, long s) {
+        Log l = log(parent(href));
+        Change c = l.byHref.get(href);
+        if (c != null && c.removed && c.seq <= s) {
+            l.byHref.remove(href);
+            l.bySeq.remove(c.seq);
+            tombstones.remove(c.seq);
+            live--;
+        }
+        l.prunedSeq = Math.max(l.prunedSeq, s);
+    }
+
+    private void checkPruned(String collectionHref, Log l, long since) throws BadRequestException {
+        if (l.prunedSeq > since) {
+            throw new BadRequestException("valid-sync-token: removed members have been forgotten since the sync token: " + collectionHref);
+        }
+    }
+
+    private void checkDropped(String prefix, long since) throws BadRequestException {
+        Long droppedAt = dropped.get(prefix);
+        if (droppedAt != null && droppedAt > since) {
+            throw new BadRequestException("valid-sync-token: collection has been replaced since the sync token: " + prefix);
+        }
+    }
+
+    private long parseToken(URI syncToken) throws BadRequestException {
+        String s = syncToken == null ? null : syncToken.toString();
+        if (s == null || !s.startsWith(TOKEN_PREFIX + epoch + "/")) {
+            throw new BadRequestException("valid-sync-token: not issued by this journal: " + s);
+        }
+        try {
+            long l = Long.parseLong(s.substring(TOKEN_PREFIX.length() + epoch.length() + 1));
+            if (l < 0 || l > seq) {
+                throw new BadRequestException("valid-sync-token: unknown sequence: " + s);
+            }
+            return l;
+        } catch (NumberFormatException ex) {
+            throw new BadRequestException("valid-sync-token: invalid sequence: " + s);
+        }
+    }
+
+    private URI token(long s) {
+        return URI.create(TOKEN_PREFIX + epoch + "/" + s);
+    }
+
+    private static String newEpoch() {
+        return Long.toString(System.currentTimeMillis(), 36);
+    }
+
+    /**
+     * The href of the resource for the event. Usually the request path, but
+     * events can be fired for resources created in a parent folder, eg by a
+     * json post, or for intermediate folders created by a PUT
+     */
+    private static String locate(String path, Resource r) {
+        String href = strip(path);
+        if (r == null || r.getName() == null || href.endsWith("/" + r.getName())) {
+            return href;
+        }
+        int pos = href.indexOf("/" + r.getName() + "/");
+        if (pos >= 0) {
+            return href.substring(0, pos + r.getName().length() + 1);
+        }
+        return href + "/" + r.getName();
+    }
+
+    /**
+     * The href of a resource when there is no request to take it from, or null
+     * if it can't be found
+     */
+    private static String hrefOf(Resource r) {
+        if (r instanceof AnnoResource) {
+            return ((AnnoResource) r).getHref();
+        }
+        return null;
+    }
+
+    private static String href(String href, Resource r) {
+        return r instanceof CollectionResource ? folder(href) : href;
+    }
+
+    private static String strip(String href) {
+        return href.length() > 1 && href.endsWith("/") ? href.substring(0, href.length() - 1) : href;
+    }
+
+    private static String parent(String href) {
+        int pos = href.lastIndexOf('/');
+        return pos < 0 ? "/" : href.substring(0, pos + 1);
+    }
+
+    private static String folder(String href) {
+        return href.endsWith("/") ? href : href + "/";
+    }
+
+    /**
+     * A change to a member of a collection
+     */
+    public static class Change {
+
+        private final long seq;
+        private final String href;
+        private final boolean removed;
+        private final long time;
+
+        Change(long seq, String href, boolean removed, long time) {
+            this.seq = seq;
+            this.href = href;
+            this.removed = removed;
+            this.time = time;
+        }
+
+        public long getSeq() {
+            return seq;
+        }
+
+        /**
+         *
+         * @return - the href, without a trailing slash
+         */
+        public String getHref() {
+            return href;
+        }
+
+        public String getName() {
+            return href.substring(href.lastIndexOf('/') + 1);
+        }
+
+        public boolean isRemoved() {
+            return removed;
+        }
+    }
+
+    /**
+     * Changes found since a sync token
+     */
+    public static class Changes {
+
+        private final List<Change> changes;
+        private final URI syncToken;
+        private final boolean truncated;
+
+        Changes(List<Change> changes, URI syncToken, boolean truncated) {
+            this.changes = changes;
+            this.syncToken = syncToken;
+            this.truncated = truncated;
+        }
+
+        /**
+         *
+         * @return - changes, in the order they were made
+         */
+        public List<Change> getChanges() {
+            return changes;
+        }
+
+        /**
+         *
+         * @return - the token to return to the client. If truncated this is
+         * the token for the last change returned
+         */
+        public URI getSyncToken() {
+            return syncToken;
+        }
+
+        public boolean isTruncated() {
+            return truncated;
+        }
+    }
+
+    private static class Log {
+
+        private final Map<String, Change> byHref = new HashMap<String, Change>();
+        private final TreeMap<Long, Change> bySeq = new TreeMap<Long, Change>();
+        /**
+         * Sequence of the last removed member forgotten
+         */
+        private long prunedSeq;
+    }
+
+    /**
+     * Stands in for a removed member in findResourcesBySyncToken
+     */
+    private static class Removed implements RemovedResource {
+
+        private final String name;
+
+        Removed(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getUniqueId() {
+            return null;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public Object authenticate(String user, String password) {
+            return null;
+        }
+
+        @Override
+        public boolean authorise(Request request, Request.Method method, Auth auth) {
+            return false;
+        }
+
+        @Override
+        public String getRealm() {
+            return null;
+        }
+
+        @Override
+        public Date getModifiedDate() {
+            return null;
+        }
+
+        @Override
+        public String checkRedirect(Request request) {
+            return null;
+        }
+    }
+}
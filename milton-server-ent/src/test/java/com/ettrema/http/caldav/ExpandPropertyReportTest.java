@@ -111,6 +111,50 @@ public class ExpandPropertyReportTest extends TestCase {
 		System.out.println(xml);
 		verify(propertySource,  resourceFactory);
 	}
+
+	public void testProcess_RepeatedHrefs() throws Exception {
+		PropFindableResource pfr = createMock(PropFindableResource.class);
+		String xml = "<?xml version=\"1.0\" encoding=\"utf-8\" ?>" +
+						"<D:expand-property xmlns:D=\"DAV:\">" +
+						"<D:property name=\"group-member-set\">" +
+						" <D:property name=\"group-membership\">" +
+						"   <D:property name=\"displayname\"/>" +
+						" </D:property>" +
+					   "</D:property>" +
+					 "</D:expand-property>";
+		Document doc = new SAXBuilder().build(new ByteArrayInputStream(xml.getBytes()));
+
+		HrefList members = new HrefList();
+		members.add("/users/a");
+		members.add("/users/b");
+		members.add("/users/a");
+		HrefList groups = new HrefList();
+		groups.add("/groups/1");
+
+		QName memberSet = new QName(WebDavProtocol.DAV_URI, "group-member-set");
+		QName membership = new QName(WebDavProtocol.DAV_URI, "group-membership");
+		QName displayName = new QName(WebDavProtocol.DAV_URI, "displayname");
+		expect(propertySource.getPropertyMetaData(eq(memberSet), same(pfr))).andReturn(meta1);
+		expect(propertySource.getProperty(eq(memberSet), same(pfr))).andReturn(members);
+		// each principal is resolved and built once, however often it is referenced
+		expect(resourceFactory.getResource("host", "/users/a")).andReturn(otherResource);
+		expect(resourceFactory.getResource("host", "/users/b")).andReturn(otherResource2);
+		expect(propertySource.getPropertyMetaData(eq(membership), same(otherResource))).andReturn(meta2);
+		expect(propertySource.getProperty(eq(membership), same(otherResource))).andReturn(groups);
+		expect(propertySource.getPropertyMetaData(eq(membership), same(otherResource2))).andReturn(meta2);
+		expect(propertySource.getProperty(eq(membership), same(otherResource2))).andReturn(groups);
+		PropFindableResource group = createMock(PropFindableResource.class);
+		expect(resourceFactory.getResource("host", "/groups/1")).andReturn(group);
+		expect(propertySource.getPropertyMetaData(eq(displayName), same(group))).andReturn(new PropertySource.PropertyMetaData(PropertySource.PropertyAccessibility.READ_ONLY, String.class));
+		expect(propertySource.getProperty(eq(displayName), same(group))).andReturn("Group 1");
+		replay(propertySource, resourceFactory);
+
+		xml = rep.process("host", "/path", pfr, doc);
+
+		verify(propertySource, resourceFactory);
+		assertEquals(3, xml.split("/users/a").length);
+		assertEquals(4, xml.split("Group 1").length);
+	}
 //	
 //	public void testParse() throws JDOMException, IOException, NotAuthorizedException {
 //		SAXBuilder builder = new org.jdom.input.SAXBuilder();
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2013 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.http.caldav;
+
+import io.milton.event.DeleteEvent;
+import io.milton.event.MoveEvent;
+import io.milton.event.PutEvent;
+import io.milton.http.HttpRequestContext;
+import io.milton.http.Request;
+import io.milton.http.annotated.AnnoCollectionResource;
+import io.milton.http.annotated.AnnoFileResource;
+import io.milton.http.annotated.AnnoResource;
+import io.milton.http.annotated.AnnotationResourceFactory;
+import io.milton.resource.CalendarResource;
+import io.milton.resource.CollectionResource;
+import io.milton.resource.ICalResource;
+import io.milton.resource.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import junit.framework.TestCase;
+import static org.easymock.EasyMock.*;
+import org.easymock.IAnswer;
+
+/**
+ *
+ * @author brad
+ */
+public class AttendeeIndexTest extends TestCase {
+
+	AttendeeIndex index;
+	List<Resource> events;
+	CollectionResource calHome;
+
+	@Override
+	protected void setUp() throws Exception {
+		index = new AttendeeIndex(new ICalFormatter(), 0, 10);
+		events = new ArrayList<Resource>();
+		events.add(event("a.ics", "20130101T100000Z", "20130101T110000Z", "joe", "fred"));
+		events.add(event("b.ics", "20130102T100000Z", "20130102T110000Z", "sue", "fred"));
+		calHome = calHome(events);
+	}
+
+	public void testLoadAndFind() throws Exception {
+		assertNull(index.getHome("host", "/users/fred/cals"));
+		assertNull(index.getAttendeeEventHrefs("host", "joe"));
+		long token = index.beginLoadAll("host");
+		index.loadHome("host", "/users/fred/cals", calHome);
+		index.setComplete("host", token);
+
+		AttendeeIndex.Home home = index.getHome("host", "/users/fred/cals/");
+		assertEquals(2, home.size());
+		assertEquals(1, home.findContained(new Date(utc(2013, 1, 2)), new Date(utc(2013, 1, 3))).size());
+		assertEquals(Arrays.asList("/users/fred/cals/default/a.ics"), index.getAttendeeEventHrefs("host", "joe"));
+		assertTrue(index.getAttendeeEventHrefs("host", "nobody").isEmpty());
+		assertEquals(2, index.getOrganizerEventHrefs("host", "fred").size());
+		assertTrue(index.getAttendeeEventHrefs("host", "fred").isEmpty());
+	}
+
+	public void testFindContained() throws Exception {
+		events.add(event("c.ics", "20130101T100000Z", "20130103T110000Z", "joe", "fred"));
+		AttendeeIndex.Home home = index.loadHome("host", "/users/fred/cals/", calHome);
+		assertEquals(3, home.findContained(null, null).size());
+		// c.ics starts on the first but ends after the range
+		List<AttendeeIndex.Entry> list = home.findContained(new Date(utc(2013, 1, 1)), new Date(utc(2013, 1, 2)));
+		assertEquals(1, list.size());
+		assertEquals("/users/fred/cals/default/a.ics", list.get(0).getHref());
+		assertEquals("fred", list.get(0).getOrganizer());
+		assertEquals(3, home.findContained(new Date(utc(2013, 1, 1)), new Date(utc(2013, 1, 4))).size());
+		assertEquals(1, home.findContained(new Date(utc(2013, 1, 2)), null).size());
+		assertEquals(2, home.findContained(null, new Date(utc(2013, 1, 3))).size());
+		assertTrue(home.findContained(new Date(utc(2013, 1, 4)), null).isEmpty());
+	}
+
+	public void testEvents() throws Exception {
+		long token = index.beginLoadAll("host");
+		index.loadHome("host", "/users/fred/cals/", calHome);
+		index.setComplete("host", token);
+
+		// add an event with joe as an attendee
+		try (HttpRequestContext.Scope s = new HttpRequestContext(request("/users/fred/cals/default/c.ics", null), null).attach()) {
+			index.onEvent(new PutEvent(event("c.ics", "20130103T100000Z", "20130103T110000Z", "joe", "sue")));
+		}
+		assertEquals(2, index.getAttendeeEventHrefs("host", "joe").size());
+		assertEquals(Arrays.asList("/users/fred/cals/default/c.ics"), index.getOrganizerEventHrefs("host", "sue"));
+		AttendeeIndex.Home home = index.getHome("host", "/users/fred/cals/");
+		assertEquals(3, home.size());
+		assertEquals(1, home.findContained(new Date(utc(2013, 1, 3)), null).size());
+
+		// delete the calendar
+		try (HttpRequestContext.Scope s = new HttpRequestContext(request("/users/fred/cals/default", null), null).attach()) {
+			index.onEvent(new DeleteEvent(null));
+		}
+		assertTrue(index.getAttendeeEventHrefs("host", "joe").isEmpty());
+		assertTrue(index.getOrganizerEventHrefs("host", "sue").isEmpty());
+		assertEquals(0, home.size());
+		assertTrue(home.findContained(null, null).isEmpty());
+
+		// moves can't be applied, so drop the home
+		try (HttpRequestContext.Scope s = new HttpRequestContext(request("/users/fred/cals/other", "http://host/users/fred/cals/other2"), null).attach()) {
+			index.onEvent(new MoveEvent(null, null, "other2"));
+		}
+		assertNull(index.getHome("host", "/users/fred/cals/"));
+		assertNull(index.getAttendeeEventHrefs("host", "joe"));
+	}
+
+	public void testPut_NewCalendarHome() throws Exception {
+		long token = index.beginLoadAll("host");
+		index.loadHome("host", "/users/fred/cals/", calHome);
+		index.setComplete("host", token);
+		try (HttpRequestContext.Scope s = new HttpRequestContext(request("/users/newuser/cals/default/x.ics", null), null).attach()) {
+			index.onEvent(new PutEvent(event("x.ics", "20130103T100000Z", "20130103T110000Z", "joe", "fred")));
+		}
+		// we don't know about the new user's calendars, so the attendee index is incomplete
+		assertNull(index.getAttendeeEventHrefs("host", "joe"));
+	}
+
+	public void testMaxHomes() throws Exception {
+		long token = index.beginLoadAll("host");
+		for (int i = 0; i < 10; i++) {
+			index.loadHome("host", "/users/u" + i + "/cals/", calHome);
+		}
+		index.setComplete("host", token);
+		assertEquals(10, index.getAttendeeEventHrefs("host", "joe").size());
+
+		// the least recently used home is dropped, so the attendee index is incomplete
+		index.getHome("host", "/users/u0/cals/");
+		index.loadHome("host", "/users/u10/cals/", calHome);
+		assertNotNull(index.getHome("host", "/users/u0/cals/"));
+		assertNull(index.getHome("host", "/users/u1/cals/"));
+		assertNull(index.getAttendeeEventHrefs("host", "joe"));
+
+		token = index.beginLoadAll("host");
+		index.setComplete("host", token);
+		List<String> hrefs = index.getAttendeeEventHrefs("host", "joe");
+		assertEquals(10, hrefs.size());
+		assertFalse(hrefs.contains("/users/u1/cals/default/a.ics"));
+	}
+
+	public void testLoad_ChangeElsewhereKept() throws Exception {
+		// a change to another user's calendars while loading
+		AttendeeIndex.Home home = index.loadHome("host", "/users/fred/cals/", calHomeChangedWhileLoading("/users/sue/cals/default/x.ics"));
+		assertSame(home, index.getHome("host", "/users/fred/cals/"));
+	}
+
+	public void testLoad_ChangeWithinNotKept() throws Exception {
+		index.loadHome("host", "/users/fred/cals/", calHomeChangedWhileLoading("/users/fred/cals/default/x.ics"));
+		assertNull(index.getHome("host", "/users/fred/cals/"));
+		index.loadHome("host", "/users/fred/cals/", calHomeChangedWhileLoading("/users/fred"));
+		assertNull(index.getHome("host", "/users/fred/cals/"));
+	}
+
+	public void testEvent_NoRequest() throws Exception {
+		index.loadHome("host", "/users/fred/cals/", calHome);
+		index.loadHome("host", "/users/sue/cals/", calHome);
+		index.loadHome("otherhost", "/users/fred/cals/", calHome);
+
+		// without a request we only know the href, so drop the home for all hosts
+		index.onEvent(new PutEvent(annoResource("users", "fred", "cals", "default", "a.ics")));
+		assertNull(index.getHome("host", "/users/fred/cals/"));
+		assertNull(index.getHome("otherhost", "/users/fred/cals/"));
+		assertNotNull(index.getHome("host", "/users/sue/cals/"));
+
+		// and if we don't know the href, drop everything
+		index.onEvent(new PutEvent(event("x.ics", "20130103T100000Z", "20130103T110000Z", "joe", "fred")));
+		assertNull(index.getHome("host", "/users/sue/cals/"));
+	}
+
+	/**
+	 * A file resource at the given path, in a tree of annotated collections
+	 */
+	private AnnoResource annoResource(String... names) {
+		AnnotationResourceFactory arf = new AnnotationResourceFactory();
+		AnnoCollectionResource col = new AnnoCollectionResource(arf, new Object(), null);
+		for (int i = 0; i < names.length - 1; i++) {
+			col = new AnnoCollectionResource(arf, new Object(), col);
+			col.setNameOverride(names[i]);
+		}
+		AnnoResource r = new AnnoFileResource(arf, new Object(), col);
+		r.setNameOverride(names[names.length - 1]);
+		return r;
+	}
+
+	/**
+	 * A calendar home which fires a PutEvent for the given path while its
+	 * children are being listed
+	 */
+	private CollectionResource calHomeChangedWhileLoading(final String changedPath) throws Exception {
+		final CalendarResource cal = createNiceMock(CalendarResource.class);
+		expect(cal.getName()).andReturn("default").anyTimes();
+		expect((List) cal.getChildren()).andReturn(events).anyTimes();
+		replay(cal);
+		CollectionResource home = createNiceMock(CollectionResource.class);
+		expect((List) home.getChildren()).andAnswer(new IAnswer<List>() {
+			@Override
+			public List answer() throws Throwable {
+				try (HttpRequestContext.Scope s = new HttpRequestContext(request(changedPath, null), null).attach()) {
+					index.onEvent(new PutEvent(event("x.ics", "20130103T100000Z", "20130103T110000Z", "joe", "fred")));
+				}
+				return Arrays.asList(cal);
+			}
+		}).anyTimes();
+		replay(home);
+		return home;
+	}
+
+	private Request request(String path, String dest) {
+		Request request = createMock(Request.class);
+		expect(request.getHostHeader()).andReturn("host").anyTimes();
+		expect(request.getAbsolutePath()).andReturn(path).anyTimes();
+		expect(request.getDestinationHeader()).andReturn(dest).anyTimes();
+		replay(request);
+		return request;
+	}
+
+	private CollectionResource calHome(List<Resource> events) throws Exception {
+		CalendarResource cal = createNiceMock(CalendarResource.class);
+		expect(cal.getName()).andReturn("default").anyTimes();
+		expect((List) cal.getChildren()).andReturn(events).anyTimes();
+		replay(cal);
+		CollectionResource home = createNiceMock(CollectionResource.class);
+		expect((List) home.getChildren()).andReturn(Arrays.asList(cal)).anyTimes();
+		replay(home);
+		return home;
+	}
+
+	private ICalResource event(String name, String start, String end, String attendee, String organizer) {
+		String ical = "BEGIN:VCALENDAR\nVERSION:2.0\nPRODID:test\nBEGIN:VEVENT\nUID:" + name + "\nDTSTAMP:20130101T000000Z\n"
+				+ "DTSTART:" + start + "\nDTEND:" + end + "\nORGANIZER;CN=x:mailto:" + organizer + "@example.com\n"
+				+ "ATTENDEE;CN=x:mailto:" + attendee + "@example.com\n"
+				+ "END:VEVENT\nEND:VCALENDAR\n";
+		ICalResource r = createNiceMock(ICalResource.class);
+		expect(r.getName()).andReturn(name).anyTimes();
+		expect(r.getICalData()).andReturn(ical).anyTimes();
+		replay(r);
+		return r;
+	}
+
+	private long utc(int year, int month, int day) {
+		java.util.Calendar cal = java.util.Calendar.getInstance(java.util.TimeZone.getTimeZone("UTC"));
+		cal.clear();
+		cal.set(year, month - 1, day);
+		return cal.getTimeInMillis();
+	}
+}
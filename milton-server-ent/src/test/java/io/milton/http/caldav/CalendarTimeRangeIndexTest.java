@@ -0,0 +1,206 @@
+/*
+ * Copyright 2013 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.http.caldav;
+
+import io.milton.http.ResourceFactory;
+import io.milton.http.exceptions.NotAuthorizedException;
+import io.milton.resource.CalendarResource;
+import io.milton.resource.ICalResource;
+import io.milton.resource.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+import org.easymock.IAnswer;
+import static org.easymock.EasyMock.*;
+
+/**
+ *
+ * @author brad
+ */
+public class CalendarTimeRangeIndexTest extends TestCase {
+
+	private static final long HOUR = 60 * 60 * 1000l;
+
+	CalendarTimeRangeIndex index;
+	Map<String, ICalResource> events;
+	String ctag;
+	int parseCount;
+	int listCount;
+	int childCount;
+
+	@Override
+	protected void setUp() throws Exception {
+		index = new CalendarTimeRangeIndex(new ICalFormatter(), 10);
+		events = new LinkedHashMap<String, ICalResource>();
+		ctag = "1";
+		addEvent("a.ics", "20130101T100000Z", "20130101T110000Z");
+		addEvent("b.ics", "20130102T100000Z", "20130102T110000Z");
+		addEvent("c.ics", "20130103T100000Z", "20130103T110000Z");
+	}
+
+	public void testFind() throws Exception {
+		assertEquals(Arrays.asList("b.ics"), names(index.find(calendar(), date(2013, 1, 2), date(2013, 1, 3))));
+		assertEquals(3, parseCount);
+		assertEquals(Arrays.asList("a.ics", "b.ics", "c.ics"), names(index.find(calendar(), null, null)));
+		assertEquals(Arrays.asList("b.ics", "c.ics"), names(index.find(calendar(), date(2013, 1, 2), null)));
+		// ctag unchanged, so no more parsing, and the children are listed once
+		// for each search rather than looking up each event
+		assertEquals(3, parseCount);
+		assertEquals(3, listCount);
+		assertEquals(0, childCount);
+		assertEquals(Arrays.asList("b.ics"), names(index.find(calendar(), date(2013, 1, 2), date(2013, 1, 3))));
+		assertEquals(3, listCount);
+		assertEquals(1, childCount);
+	}
+
+	public void testFind_CTagChanged() throws Exception {
+		index.find(calendar(), null, null);
+		addEvent("d.ics", "20130104T100000Z", "20130104T110000Z");
+		ctag = "2";
+		assertEquals(Arrays.asList("d.ics"), names(index.find(calendar(), date(2013, 1, 4), date(2013, 1, 5))));
+		// only the new event is parsed
+		assertEquals(4, parseCount);
+		assertEquals(2, listCount);
+	}
+
+	public void testIterate() throws Exception {
+		index.find(calendar(), null, null);
+		listCount = 0;
+		Iterator<ICalResource> it = index.iterate(calendar(), date(2013, 1, 2), null);
+		assertEquals("b.ics", it.next().getName());
+		// events are only located as they're needed
+		assertEquals(1, childCount);
+		events.remove("c.ics");
+		assertFalse(it.hasNext());
+		assertEquals(0, listCount);
+	}
+
+	public void testIterate_SearchService() throws Exception {
+		ResourceFactory rf = createMock(ResourceFactory.class);
+		replay(rf);
+		// through the wrapper, as configured by the builder
+		CalendarSearchService searchService = new AnnotationsCalendarSearchService(new DefaultCalendarSearchService(new ICalFormatter(), rf));
+		Iterator<ICalResource> it = searchService.iterateCalendarResources(calendar(), date(2013, 1, 2), null, null);
+		assertEquals("b.ics", it.next().getName());
+		// a.ics and b.ics have been checked, but not c.ics
+		assertEquals(2, parseCount);
+		assertEquals("c.ics", it.next().getName());
+		assertFalse(it.hasNext());
+	}
+
+	public void testIterate_NotAuthorized() throws Exception {
+		index.find(calendar(), null, null);
+		CalendarResource cal = createNiceMock(CalendarResource.class);
+		expect(cal.getUniqueId()).andReturn("cal1").anyTimes();
+		expect(cal.getCTag()).andReturn(ctag).anyTimes();
+		expect(cal.child(anyObject(String.class))).andThrow(new NotAuthorizedException()).anyTimes();
+		replay(cal);
+		ResourceFactory rf = createMock(ResourceFactory.class);
+		replay(rf);
+		DefaultCalendarSearchService searchService = new DefaultCalendarSearchService(new ICalFormatter(), rf);
+		searchService.setTimeRangeIndex(index);
+		try {
+			searchService.findCalendarResources(cal, null, null, null);
+			fail("expected NotAuthorizedException");
+		} catch (NotAuthorizedException e) {
+			// good, rather than a RuntimeException
+		}
+		Iterator<ICalResource> it = searchService.iterateCalendarResources(cal, null, null, null);
+		try {
+			it.hasNext();
+			fail("expected IterationException");
+		} catch (LazyIterator.IterationException e) {
+			try {
+				e.rethrow();
+				fail("expected NotAuthorizedException");
+			} catch (NotAuthorizedException e2) {
+				// good
+			}
+		}
+	}
+
+	public void testFindOverlapping() {
+		List<CalendarTimeRangeIndex.Entry> entries = new ArrayList<CalendarTimeRangeIndex.Entry>();
+		entries.add(new CalendarTimeRangeIndex.Entry("long", null, 0, 100 * HOUR));
+		for (int i = 0; i < 50; i++) {
+			entries.add(new CalendarTimeRangeIndex.Entry("e" + i, null, i * HOUR, i * HOUR + HOUR / 2));
+		}
+		CalendarTimeRangeIndex.IndexedCalendar ic = new CalendarTimeRangeIndex.IndexedCalendar("x", entries);
+		assertEquals(Arrays.asList("long", "e10", "e11"), ic.findOverlapping(10 * HOUR + HOUR / 4, 11 * HOUR + HOUR / 4));
+		assertEquals(Arrays.asList("e10"), ic.findContained(10 * HOUR, 11 * HOUR));
+		assertEquals(Arrays.asList("long"), ic.findOverlapping(60 * HOUR, 70 * HOUR));
+	}
+
+	private void addEvent(String name, String start, String end) {
+		final String ical = "BEGIN:VCALENDAR\nVERSION:2.0\nPRODID:test\nBEGIN:VEVENT\nUID:" + name + "\nDTSTAMP:20130101T000000Z\n"
+				+ "DTSTART:" + start + "\nDTEND:" + end + "\nSUMMARY:" + name + "\nEND:VEVENT\nEND:VCALENDAR\n";
+		ICalResource r = createNiceMock(ICalResource.class);
+		expect(r.getName()).andReturn(name).anyTimes();
+		expect(r.getUniqueId()).andReturn(name).anyTimes();
+		expect(r.getModifiedDate()).andReturn(new Date()).anyTimes();
+		expect(r.getICalData()).andAnswer(new IAnswer<String>() {
+			@Override
+			public String answer() {
+				parseCount++;
+				return ical;
+			}
+		}).anyTimes();
+		replay(r);
+		events.put(name, r);
+	}
+
+	private CalendarResource calendar() throws Exception {
+		CalendarResource cal = createNiceMock(CalendarResource.class);
+		expect(cal.getUniqueId()).andReturn("cal1").anyTimes();
+		expect(cal.getCTag()).andReturn(ctag).anyTimes();
+		expect((List) cal.getChildren()).andAnswer(new IAnswer<List>() {
+			@Override
+			public List answer() {
+				listCount++;
+				return new ArrayList<Resource>(events.values());
+			}
+		}).anyTimes();
+		expect(cal.child(anyObject(String.class))).andAnswer(new IAnswer<Resource>() {
+			@Override
+			public Resource answer() {
+				childCount++;
+				return events.get((String) getCurrentArguments()[0]);
+			}
+		}).anyTimes();
+		replay(cal);
+		return cal;
+	}
+
+	private List<String> names(List<ICalResource> list) {
+		List<String> names = new ArrayList<String>();
+		for (ICalResource r : list) {
+			names.add(r.getName());
+		}
+		return names;
+	}
+
+	private Date date(int year, int month, int day) {
+		java.util.Calendar cal = java.util.Calendar.getInstance(java.util.TimeZone.getTimeZone("UTC"));
+		cal.clear();
+		cal.set(year, month - 1, day);
+		return cal.getTime();
+	}
+}
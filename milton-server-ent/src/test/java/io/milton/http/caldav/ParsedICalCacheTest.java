@@ -0,0 +1,114 @@
+/*
+ * Copyright 2013 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.http.caldav;
+
+import io.milton.resource.ICalResource;
+import java.util.Arrays;
+import java.util.Date;
+import junit.framework.TestCase;
+import org.easymock.IAnswer;
+import static org.easymock.EasyMock.*;
+
+/**
+ *
+ * @author brad
+ */
+public class ParsedICalCacheTest extends TestCase {
+
+	ICalFormatter formatter;
+	ParsedICalCache cache;
+	String uniqueId;
+	Date modDate;
+	String ical;
+	int parseCount;
+
+	@Override
+	protected void setUp() throws Exception {
+		formatter = new ICalFormatter();
+		cache = new ParsedICalCache(1000);
+		formatter.setParsedCache(cache);
+		uniqueId = "a";
+		modDate = new Date(1000);
+		ical = ical("Lunch", "joe");
+	}
+
+	public void testParse_Cached() throws Exception {
+		ParsedICal p = formatter.parse(resource());
+		assertEquals("Lunch", p.getSummary());
+		assertEquals("Lunch", p.getEventProperty("SUMMARY"));
+		assertEquals(Arrays.asList("joe@example.com"), p.getAttendees());
+		assertSame(p, formatter.parse(resource()));
+		assertEquals(Arrays.asList("joe@example.com"), formatter.parseAttendees(resource()));
+		assertEquals(1, parseCount);
+		assertEquals(ical.length(), cache.weightedSize());
+	}
+
+	public void testParse_Changed() throws Exception {
+		formatter.parse(resource());
+		ical = ical("Dinner", "sue");
+		modDate = new Date(2000);
+		EventResourceImpl e = new EventResourceImpl();
+		formatter.parseEvent(e, resource());
+		assertEquals("Dinner", e.getSummary());
+		assertEquals(2, parseCount);
+	}
+
+	public void testParse_NoUniqueId() throws Exception {
+		uniqueId = null;
+		formatter.parse(resource());
+		formatter.parse(resource());
+		assertEquals(2, parseCount);
+		assertEquals(0, cache.size());
+	}
+
+	public void testImmutable() throws Exception {
+		ParsedICal p = formatter.parse(resource());
+		p.getStart().setTime(0);
+		p.getCalendar().getComponents().clear();
+		try {
+			p.getAttendees().clear();
+			fail("expected UnsupportedOperationException");
+		} catch (UnsupportedOperationException e) {
+			// good
+		}
+		ParsedICal p2 = formatter.parse(resource());
+		assertFalse(p2.getStart().getTime() == 0);
+		assertTrue(p2.isEvent());
+		assertEquals(1, p2.getAttendees().size());
+	}
+
+	private String ical(String summary, String attendee) {
+		return "BEGIN:VCALENDAR\nVERSION:2.0\nPRODID:test\nBEGIN:VEVENT\nUID:x\nDTSTAMP:20130101T000000Z\n"
+				+ "DTSTART:20130101T100000Z\nDTEND:20130101T110000Z\nSUMMARY:" + summary + "\n"
+				+ "ATTENDEE;CN=x:mailto:" + attendee + "@example.com\nEND:VEVENT\nEND:VCALENDAR\n";
+	}
+
+	private ICalResource resource() {
+		final String data = ical;
+		ICalResource r = createNiceMock(ICalResource.class);
+		expect(r.getUniqueId()).andReturn(uniqueId).anyTimes();
+		expect(r.getModifiedDate()).andReturn(modDate).anyTimes();
+		expect(r.getICalData()).andAnswer(new IAnswer<String>() {
+			@Override
+			public String answer() {
+				parseCount++;
+				return data;
+			}
+		}).anyTimes();
+		replay(r);
+		return r;
+	}
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2013 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.http.carddav;
+
+import io.milton.event.DeleteEvent;
+import io.milton.event.PutEvent;
+import io.milton.http.HttpRequestContext;
+import io.milton.http.Request;
+import io.milton.ldap.Conditions;
+import io.milton.principal.PrincipalSearchCriteria;
+import io.milton.principal.PrincipalSearchCriteria.MatchType;
+import io.milton.principal.PrincipalSearchCriteria.TestType;
+import io.milton.resource.AddressResource;
+import io.milton.resource.CollectionResource;
+import io.milton.resource.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import junit.framework.TestCase;
+import org.easymock.IAnswer;
+import static org.easymock.EasyMock.*;
+
+/**
+ *
+ * @author brad
+ */
+public class VCardIndexTest extends TestCase {
+
+	VCardIndex index;
+	Map<String, Resource> cards;
+	int listCount;
+	/**
+	 * If set, a DeleteEvent for this path is fired while the book is listed
+	 */
+	String changeWhileListing;
+
+	@Override
+	protected void setUp() throws Exception {
+		index = new VCardIndex(2);
+		cards = new LinkedHashMap<String, Resource>();
+		addCard("a.vcf", "Laurie Smith", "Smith;Laurie;;;", "laurie@example.com", "Acme;Sales");
+		addCard("b.vcf", "José García", "García;José;;;", "jose@example.com", "Widgets");
+		addCard("c.vcf", "Ann Laurie", "Laurie;Ann;;;", "ann@other.com", "Acme");
+	}
+
+	public void testSearch() throws Exception {
+		assertEquals(Arrays.asList("a.vcf", "c.vcf"), names(search(TestType.ANY, "FN", MatchType.CONTAINS, "LAURIE")));
+		assertEquals(Arrays.asList("c.vcf"), names(search(TestType.ANY, "FN", MatchType.STARTSWITH, "ann")));
+		assertEquals(Arrays.asList("a.vcf", "c.vcf"), names(search(TestType.ANY, "N", MatchType.STARTSWITH, "lau")));
+		assertEquals(Arrays.asList("b.vcf"), names(search(TestType.ANY, "FN", MatchType.CONTAINS, "josé")));
+		assertEquals(Arrays.asList("b.vcf"), names(search(TestType.ANY, "mail", MatchType.EXACT, "Jose@Example.com")));
+		assertEquals(Arrays.asList("a.vcf", "b.vcf"), names(search(TestType.ANY, "EMAIL", MatchType.ENDSWITH, "@example.com")));
+		assertEquals(Arrays.asList("a.vcf", "c.vcf"), names(search(TestType.ANY, "ORG", MatchType.EXACT, "acme")));
+		// not indexed, but still held
+		assertEquals(Arrays.asList("c.vcf"), names(search(TestType.ANY, "UID", MatchType.EXACT, "c.vcf")));
+		// short values are checked against every value
+		assertEquals(Arrays.asList("a.vcf", "c.vcf"), names(search(TestType.ANY, "FN", MatchType.CONTAINS, "au")));
+		assertEquals(1, listCount);
+	}
+
+	public void testSearch_AllOf() throws Exception {
+		PrincipalSearchCriteria crit = criteria(TestType.ALL, "FN", MatchType.CONTAINS, "laurie");
+		crit.getSearchItems().addAll(criteria(TestType.ALL, "EMAIL", MatchType.STARTSWITH, "ann").getSearchItems());
+		assertEquals(Arrays.asList("c.vcf"), names(index.search("host", "/contacts/", book(), crit)));
+	}
+
+	public void testEvents() throws Exception {
+		search(TestType.ANY, "FN", MatchType.CONTAINS, "laurie");
+		addCard("d.vcf", "Laurie Brown", "Brown;Laurie;;;", "lb@example.com", "Acme");
+		try (HttpRequestContext.Scope s = new HttpRequestContext(request("/contacts/d.vcf"), null).attach()) {
+			index.onEvent(new PutEvent(cards.get("d.vcf")));
+		}
+		assertEquals(Arrays.asList("a.vcf", "c.vcf", "d.vcf"), names(search(TestType.ANY, "FN", MatchType.CONTAINS, "laurie")));
+
+		cards.remove("a.vcf");
+		try (HttpRequestContext.Scope s = new HttpRequestContext(request("/contacts/a.vcf"), null).attach()) {
+			index.onEvent(new DeleteEvent(null));
+		}
+		assertEquals(Arrays.asList("c.vcf", "d.vcf"), names(search(TestType.ANY, "FN", MatchType.CONTAINS, "laurie")));
+		assertEquals(1, listCount);
+
+		// deleting the address book drops it
+		try (HttpRequestContext.Scope s = new HttpRequestContext(request("/contacts"), null).attach()) {
+			index.onEvent(new DeleteEvent(null));
+		}
+		search(TestType.ANY, "FN", MatchType.CONTAINS, "laurie");
+		assertEquals(2, listCount);
+	}
+
+	public void testMaxBooks() throws Exception {
+		CollectionResource book = book();
+		VCardIndex.Book b = index.getBook("host", "/contacts", book);
+		assertSame(b, index.getBook("host", "/contacts", book));
+		index.getBook("host", "/other1", book);
+		index.getBook("host", "/contacts", book);
+		index.getBook("host", "/other2", book);
+		assertEquals(3, listCount);
+		// the least recently used book was dropped
+		assertSame(b, index.getBook("host", "/contacts", book));
+		index.getBook("host", "/other1", book);
+		assertEquals(4, listCount);
+	}
+
+	public void testLoad_ChangeWhileLoading() throws Exception {
+		CollectionResource book = book();
+		// a change to another address book doesn't matter
+		changeWhileListing = "/other/x.vcf";
+		VCardIndex.Book b = index.getBook("host", "/contacts", book);
+		assertSame(b, index.getBook("host", "/contacts", book));
+		assertEquals(1, listCount);
+
+		// but a change to this one means the load isn't kept
+		changeWhileListing = "/other2/x.vcf";
+		index.getBook("host", "/other2", book);
+		index.getBook("host", "/other2", book);
+		assertEquals(3, listCount);
+	}
+
+	public void testFindCondition() throws Exception {
+		VCardIndex.Book b = index.getBook("host", "/contacts", book());
+		Conditions conditions = new Conditions(null);
+		assertEquals("[a.vcf, c.vcf]", b.find(conditions.or(conditions.startsWith("sn", "laur"), conditions.startsWith("mail", "ann"))).toString());
+		assertEquals("[b.vcf]", b.find(conditions.and(conditions.contains("cn", "garc"), conditions.isNull("uid"))).toString());
+		// not supported
+		assertNull(b.find(conditions.startsWith("uid", "a")));
+		assertNull(b.find(conditions.or(conditions.startsWith("cn", "a"), conditions.isNull("uid"))));
+	}
+
+	public void testParse() {
+		Map<String, List<String>> props = VCardIndex.parse("BEGIN:VCARD\r\nVERSION:3.0\r\nFN:Joe\r\n  Bloggs\r\nitem1.EMAIL;TYPE=\"a:b\":Joe@Example.com\r\nNOTE:one\\, two\r\nEND:VCARD\r\n");
+		assertEquals(Arrays.asList("joe bloggs"), props.get("FN"));
+		assertEquals(Arrays.asList("joe@example.com"), props.get("EMAIL"));
+		assertEquals(Arrays.asList("one, two"), props.get("NOTE"));
+		assertNull(props.get("BEGIN"));
+	}
+
+	public void testGrams() {
+		Set<String> grams = VCardIndex.FieldIndex.grams("abcd");
+		assertEquals(2, grams.size());
+		assertTrue(grams.contains("bcd"));
+	}
+
+	private List<Resource> search(TestType test, String field, MatchType matchType, String value) throws Exception {
+		return index.search("host", "/contacts", book(), criteria(test, field, matchType, value));
+	}
+
+	private PrincipalSearchCriteria criteria(TestType test, String field, MatchType matchType, String value) {
+		PrincipalSearchCriteria crit = new PrincipalSearchCriteria();
+		crit.setTest(test);
+		PrincipalSearchCriteria.SearchItem item = new PrincipalSearchCriteria.SearchItem();
+		item.setField(field);
+		item.setMatchType(matchType);
+		item.setValue(value);
+		crit.setSearchItems(new ArrayList<PrincipalSearchCriteria.SearchItem>(Arrays.asList(item)));
+		return crit;
+	}
+
+	private Request request(String path) {
+		Request request = createNiceMock(Request.class);
+		expect(request.getHostHeader()).andReturn("host").anyTimes();
+		expect(request.getAbsolutePath()).andReturn(path).anyTimes();
+		replay(request);
+		return request;
+	}
+
+	private void addCard(String name, String fn, String n, String email, String org) {
+		String vcard = "BEGIN:VCARD\nVERSION:3.0\nUID:" + name + "\nFN:" + fn + "\nN:" + n + "\nEMAIL;TYPE=INTERNET:" + email + "\nORG:" + org + "\nEND:VCARD\n";
+		AddressResource r = createNiceMock(AddressResource.class);
+		expect(r.getName()).andReturn(name).anyTimes();
+		expect(r.getAddressData()).andReturn(vcard).anyTimes();
+		replay(r);
+		cards.put(name, r);
+	}
+
+	private CollectionResource book() throws Exception {
+		CollectionResource book = createNiceMock(CollectionResource.class);
+		expect((List) book.getChildren()).andAnswer(new IAnswer<List>() {
+			@Override
+			public List answer() {
+				listCount++;
+				if (changeWhileListing != null) {
+					try (HttpRequestContext.Scope s = new HttpRequestContext(request(changeWhileListing), null).attach()) {
+						index.onEvent(new DeleteEvent(null));
+					}
+				}
+				return new ArrayList<Resource>(cards.values());
+			}
+		}).anyTimes();
+		expect(book.child((String) anyObject())).andAnswer(new IAnswer<Resource>() {
+			@Override
+			public Resource answer() {
+				return cards.get((String) getCurrentArguments()[0]);
+			}
+		}).anyTimes();
+		replay(book);
+		return book;
+	}
+
+	private List<String> names(List<Resource> list) {
+		List<String> names = new ArrayList<String>();
+		for (Resource r : list) {
+			names.add(r.getName());
+		}
+		return names;
+	}
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2013 McEvoy Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.milton.http.report;
+
+import io.milton.event.DeleteEvent;
+import io.milton.event.MoveEvent;
+import io.milton.event.PutEvent;
+import io.milton.http.HttpRequestContext;
+import io.milton.http.Request;
+import io.milton.http.annotated.AnnoCollectionResource;
+import io.milton.http.annotated.AnnoFileResource;
+import io.milton.http.annotated.AnnotationResourceFactory;
+import io.milton.http.exceptions.BadRequestException;
+import io.milton.resource.Resource;
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+import static org.easymock.EasyMock.*;
+
+/**
+ *
+ * @author brad
+ */
+public class SyncJournalTest extends TestCase {
+
+	SyncJournal journal;
+
+	@Override
+	protected void setUp() throws Exception {
+		journal = new SyncJournal();
+	}
+
+	public void testGetChanges() throws Exception {
+		URI start = journal.getSyncToken();
+		journal.record("/cal/a.ics", false);
+		journal.record("/cal/b.ics", false);
+		journal.record("/other/c.ics", false);
+		URI middle = journal.getSyncToken();
+		journal.record("/cal/a.ics", true);
+		journal.record("/cal/sub/d.ics", false);
+
+		SyncJournal.Changes changes = journal.getChanges("/cal", start, 0, false);
+		assertEquals(Arrays.asList("/cal/b.ics", "/cal/a.ics"), hrefs(changes));
+		assertTrue(changes.getChanges().get(1).isRemoved());
+		assertEquals(journal.getSyncToken(), changes.getSyncToken());
+		assertFalse(changes.isTruncated());
+
+		assertEquals(Arrays.asList("/cal/a.ics", "/cal/sub/d.ics"), hrefs(journal.getChanges("/cal/", middle, 0, true)));
+		assertTrue(journal.getChanges("/cal/", journal.getSyncToken(), 0, true).getChanges().isEmpty());
+	}
+
+	public void testGetChanges_Limit() throws Exception {
+		URI start = journal.getSyncToken();
+		for (int i = 0; i < 5; i++) {
+			journal.record("/cal/" + i + ".ics", false);
+		}
+		SyncJournal.Changes changes = journal.getChanges("/cal/", start, 2, false);
+		assertEquals(Arrays.asList("/cal/0.ics", "/cal/1.ics"), hrefs(changes));
+		assertTrue(changes.isTruncated());
+		changes = journal.getChanges("/cal/", changes.getSyncToken(), 2, false);
+		assertEquals(Arrays.asList("/cal/2.ics", "/cal/3.ics"), hrefs(changes));
+		changes = journal.getChanges("/cal/", changes.getSyncToken(), 2, false);
+		assertEquals(Arrays.asList("/cal/4.ics"), hrefs(changes));
+		assertFalse(changes.isTruncated());
+	}
+
+	public void testInvalidTokens() throws Exception {
+		URI start = journal.getSyncToken();
+		journal.record("/cal/a.ics", false);
+		assertInvalid(URI.create("http://example.com/token/1"));
+		assertInvalid(URI.create(SyncJournal.TOKEN_PREFIX + "x/0"));
+		assertInvalid(URI.create(start.toString() + "99"));
+
+		// deleting the collection invalidates older tokens for it and its members
+		try (HttpRequestContext.Scope s = new HttpRequestContext(request("/cal", null), null).attach()) {
+			journal.onEvent(new DeleteEvent(null));
+		}
+		assertInvalid(start);
+		try {
+			journal.getChanges("/cal/sub", start, 0, false);
+			fail("expected BadRequestException");
+		} catch (BadRequestException e) {
+			// good
+		}
+		journal.getChanges("/other", start, 0, false);
+
+		URI token = journal.getSyncToken();
+		journal.reset();
+		assertInvalid(token);
+	}
+
+	public void testEvents() throws Exception {
+		URI start = journal.getSyncToken();
+		try (HttpRequestContext.Scope s = new HttpRequestContext(request("/cal/a.ics", null), null).attach()) {
+			journal.onEvent(new PutEvent(resource("a.ics")));
+		}
+		// a PUT to a folder, eg a json post
+		try (HttpRequestContext.Scope s = new HttpRequestContext(request("/cal/", null), null).attach()) {
+			journal.onEvent(new PutEvent(resource("b.ics")));
+		}
+		try (HttpRequestContext.Scope s = new HttpRequestContext(request("/cal/a.ics", "http://host/cal/c.ics"), null).attach()) {
+			journal.onEvent(new MoveEvent(resource("a.ics"), null, "c.ics"));
+		}
+		try (HttpRequestContext.Scope s = new HttpRequestContext(request("/cal/b.ics", null), null).attach()) {
+			journal.onEvent(new DeleteEvent(resource("b.ics")));
+		}
+		SyncJournal.Changes changes = journal.getChanges("/cal/", start, 0, false);
+		assertEquals(Arrays.asList("/cal/a.ics", "/cal/c.ics", "/cal/b.ics"), hrefs(changes));
+		assertEquals(Arrays.asList(true, false, true), removed(changes));
+	}
+
+	public void testEvents_NoRequest() throws Exception {
+		AnnotationResourceFactory arf = new AnnotationResourceFactory();
+		AnnoCollectionResource root = new AnnoCollectionResource(arf, new Object(), null);
+		AnnoCollectionResource cal = new AnnoCollectionResource(arf, new Object(), root);
+		cal.setNameOverride("cal");
+		AnnoFileResource a = new AnnoFileResource(arf, new Object(), cal);
+		a.setNameOverride("a.ics");
+
+		URI start = journal.getSyncToken();
+		journal.record("/other/x.ics", false);
+		journal.onEvent(new PutEvent(a));
+		journal.onEvent(new MoveEvent(a, root, "b.ics"));
+		assertEquals(Arrays.asList("/cal/a.ics"), hrefs(journal.getChanges("/cal/", start, 0, false)));
+		assertEquals(Arrays.asList("/b.ics"), hrefs(journal.getChanges("/", start, 0, false)));
+		assertEquals(Arrays.asList("/other/x.ics"), hrefs(journal.getChanges("/other/", start, 0, false)));
+
+		// the href can't be found, so older tokens are rejected
+		URI token = journal.getSyncToken();
+		journal.onEvent(new PutEvent(resource("c.ics")));
+		assertInvalid(token, "/other/");
+		assertTrue(journal.getChanges("/other/", journal.getSyncToken(), 0, false).getChanges().isEmpty());
+	}
+
+	public void testPrune() throws Exception {
+		journal.setTombstoneRetentionSeconds(60);
+		URI start = journal.getSyncToken();
+		journal.record("/cal/a.ics", true);
+		journal.record("/cal/b.ics", false);
+		journal.record("/other/c.ics", true);
+		URI middle = journal.getSyncToken();
+		journal.record("/cal/d.ics", true);
+
+		journal.prune(System.currentTimeMillis() + 10000);
+		assertEquals(Arrays.asList("/cal/a.ics", "/cal/b.ics", "/cal/d.ics"), hrefs(journal.getChanges("/cal/", start, 0, false)));
+
+		journal.prune(System.currentTimeMillis() + 61000);
+		// the removals have been forgotten, so older tokens need a full sync
+		assertInvalid(start, "/cal/");
+		assertInvalid(middle, "/cal/");
+		try {
+			journal.getChanges("/", start, 0, true);
+			fail("expected BadRequestException");
+		} catch (BadRequestException e) {
+			// good
+		}
+		URI token = journal.getSyncToken();
+		journal.record("/cal/e.ics", false);
+		assertEquals(Arrays.asList("/cal/e.ics"), hrefs(journal.getChanges("/cal/", token, 0, true)));
+	}
+
+	public void testPersistence() throws Exception {
+		File file = File.createTempFile("sync", ".journal");
+		try {
+			file.delete();
+			journal = new SyncJournal(file);
+			URI start = journal.getSyncToken();
+			journal.record("/cal/a.ics", false);
+			journal.record("/old/b.ics", false);
+			try (HttpRequestContext.Scope s = new HttpRequestContext(request("/old", null), null).attach()) {
+				journal.onEvent(new DeleteEvent(null));
+			}
+			journal.record("/pruned/c.ics", true);
+			journal.setTombstoneRetentionSeconds(60);
+			journal.prune(System.currentTimeMillis() + 61000);
+			journal.record("/cal/a.ics", true);
+			URI end = journal.getSyncToken();
+			journal.close();
+
+			journal = new SyncJournal(file);
+			assertEquals(end, journal.getSyncToken());
+			assertInvalid(start, "/pruned/");
+			journal.getChanges("/pruned/", end, 0, false);
+			journal.compact();
+			journal.close();
+
+			journal = new SyncJournal(file);
+			assertEquals(end, journal.getSyncToken());
+			SyncJournal.Changes changes = journal.getChanges("/cal/", start, 0, false);
+			assertEquals(Arrays.asList("/cal/a.ics"), hrefs(changes));
+			assertTrue(changes.getChanges().get(0).isRemoved());
+			assertInvalid(start, "/old/");
+			assertInvalid(start, "/pruned/");
+			journal.close();
+		} finally {
+			file.delete();
+		}
+	}
+
+	public void testPersistence_Concurrent() throws Exception {
+		File file = File.createTempFile("sync", ".journal");
+		try {
+			file.delete();
+			journal = new SyncJournal(file);
+			final URI start = journal.getSyncToken();
+			List<Thread> threads = new ArrayList<Thread>();
+			for (int t = 0; t < 4; t++) {
+				final int n = t;
+				threads.add(new Thread() {
+					@Override
+					public void run() {
+						for (int i = 0; i < 500; i++) {
+							journal.record("/cal" + n + "/" + i + ".ics", i % 2 == 0);
+						}
+					}
+				});
+			}
+			for (Thread t : threads) {
+				t.start();
+			}
+			for (Thread t : threads) {
+				t.join();
+			}
+			URI end = journal.getSyncToken();
+			journal.close();
+
+			journal = new SyncJournal(file);
+			assertEquals(end, journal.getSyncToken());
+			assertEquals(2000, journal.getChanges("/", start, 0, true).getChanges().size());
+			journal.close();
+		} finally {
+			file.delete();
+		}
+	}
+
+	private void assertInvalid(URI token) {
+		assertInvalid(token, "/cal/");
+	}
+
+	private void assertInvalid(URI token, String collectionHref) {
+		try {
+			journal.getChanges(collectionHref, token, 0, false);
+			fail("expected BadRequestException for " + token);
+		} catch (BadRequestException e) {
+			// good
+		}
+	}
+
+	private List<String> hrefs(SyncJournal.Changes changes) {
+		List<String> list = new ArrayList<String>();
+		for (SyncJournal.Change c : changes.getChanges()) {
+			list.add(c.getHref());
+		}
+		return list;
+	}
+
+	private List<Boolean> removed(SyncJournal.Changes changes) {
+		List<Boolean> list = new ArrayList<Boolean>();
+		for (SyncJournal.Change c : changes.getChanges()) {
+			list.add(c.isRemoved());
+		}
+		return list;
+	}
+
+	private Request request(String path, String dest) {
+		Request request = createMock(Request.class);
+		expect(request.getAbsolutePath()).andReturn(path).anyTimes();
+		expect(request.getDestinationHeader()).andReturn(dest).anyTimes();
+		replay(request);
+		return request;
+	}
+
+	private Resource resource(String name) {
+		Resource r = createNiceMock(Resource.class);
+		expect(r.getName()).andReturn(name).anyTimes();
+		replay(r);
+		return r;
+	}
+}